@@ -0,0 +1,152 @@
+package com.kabutar.gatekeeper.ratelimiter;
+
+import com.kabutar.gatekeeper.config.rateLimit.FixedWindowConfig;
+import com.kabutar.gatekeeper.config.rateLimit.GcraConfig;
+import com.kabutar.gatekeeper.config.rateLimit.HeavyHitterConfig;
+import com.kabutar.gatekeeper.config.rateLimit.IdentityStoreConfig;
+import com.kabutar.gatekeeper.config.rateLimit.LeakyBucketConfig;
+import com.kabutar.gatekeeper.config.rateLimit.Rule;
+import com.kabutar.gatekeeper.config.rateLimit.SlidingWindowConfig;
+import com.kabutar.gatekeeper.config.rateLimit.TokenBucketConfig;
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStoreFactory;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.ServerWebExchangeDecorator;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+
+/**
+ * Rules, stores and requests shared by the rate limiter benchmarks.
+ *
+ * Limits are set high enough that a benchmark mostly measures the accept path; with a
+ * single identity and many threads they are still reached, which is the point of that
+ * case. Requests come from a pool of pre-built client addresses so that millions of
+ * identities cost one {@link InetSocketAddress} each rather than one exchange each.
+ */
+public final class BenchmarkSupport {
+    private BenchmarkSupport() {}
+
+    public static Rule rule(String algorithm, String id, String resourcePath) {
+        Rule.Config config = new Rule.Config();
+        switch (algorithm) {
+            case RateLimiterConstants.Algorithm.TOKEN_BUCKET -> {
+                TokenBucketConfig tokenBucket = new TokenBucketConfig();
+                tokenBucket.setCapacity(1_000_000);
+                tokenBucket.setRefillRate(1_000_000);
+                tokenBucket.setRefillUnit("S");
+                config.setTokenBucket(tokenBucket);
+            }
+            case RateLimiterConstants.Algorithm.LEAKY_BUCKET -> {
+                LeakyBucketConfig leakyBucket = new LeakyBucketConfig();
+                leakyBucket.setCapacity(16);
+                leakyBucket.setOutFlowPerSec(100_000);
+                config.setLeakyBucket(leakyBucket);
+            }
+            case RateLimiterConstants.Algorithm.FIXED_WINDOW_COUNTER -> {
+                FixedWindowConfig fixedWindow = new FixedWindowConfig();
+                fixedWindow.setCounter(1_000_000);
+                fixedWindow.setTimeWindow(1);
+                fixedWindow.setTimeUnit("S");
+                config.setFixedWindow(fixedWindow);
+            }
+            case RateLimiterConstants.Algorithm.SLIDING_WINDOW_COUNTER -> {
+                SlidingWindowConfig slidingWindow = new SlidingWindowConfig();
+                slidingWindow.setCounter(1_000_000);
+                slidingWindow.setTimeWindow(1);
+                slidingWindow.setTimeUnit("S");
+                config.setSlidingWindow(slidingWindow);
+            }
+            case RateLimiterConstants.Algorithm.GCRA -> {
+                GcraConfig gcra = new GcraConfig();
+                gcra.setRate(1_000_000);
+                gcra.setRateUnit("S");
+                gcra.setBurst(1_000_000);
+                config.setGcra(gcra);
+            }
+            case RateLimiterConstants.Algorithm.HEAVY_HITTER -> {
+                HeavyHitterConfig heavyHitter = new HeavyHitterConfig();
+                heavyHitter.setCounter(1_000_000);
+                heavyHitter.setTimeWindow(1);
+                heavyHitter.setTimeUnit("S");
+                config.setHeavyHitter(heavyHitter);
+            }
+            default -> throw new IllegalArgumentException("Unknown algorithm: " + algorithm);
+        }
+
+        Rule rule = new Rule();
+        rule.setId(id);
+        rule.setAlgorithm(algorithm);
+        rule.setResourcePath(resourcePath);
+        rule.setLimitBy(List.of(RateLimiterConstants.Identity.IP));
+        rule.setConfig(config);
+        return rule;
+    }
+
+    /**
+     * Stores large enough to hold every identity a benchmark uses.
+     */
+    public static IdentityStoreFactory stores(String backend) {
+        IdentityStoreConfig config = new IdentityStoreConfig();
+        config.setMaxIdentitiesPerRule(4_000_000);
+        config.setMaxMemoryMbPerRule(2048);
+        config.setBackend(backend);
+        return new IdentityStoreFactory(config);
+    }
+
+    /**
+     * {@code count} distinct client addresses, 10.0.0.0 upwards.
+     */
+    public static InetSocketAddress[] clients(int count) {
+        InetSocketAddress[] clients = new InetSocketAddress[count];
+        for (int i = 0; i < count; i++) {
+            int address = 0x0A000000 + i;
+            byte[] bytes = {(byte) (address >>> 24), (byte) (address >>> 16), (byte) (address >>> 8), (byte) address};
+            try {
+                clients[i] = new InetSocketAddress(InetAddress.getByAddress(bytes), 40000);
+            } catch (UnknownHostException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return clients;
+    }
+
+    public static MockServerWebExchange exchange(String path) {
+        return MockServerWebExchange.from(MockServerHttpRequest.get(path)
+                .remoteAddress(new InetSocketAddress("10.0.0.1", 40000)));
+    }
+
+    /**
+     * One request whose client address can be switched between calls, so a thread can act
+     * as any number of clients without allocating an exchange per request.
+     */
+    public static final class Client extends ServerWebExchangeDecorator {
+        private final ServerHttpRequest request;
+        private InetSocketAddress remoteAddress;
+
+        public Client(ServerWebExchange delegate) {
+            super(delegate);
+            this.request = new ServerHttpRequestDecorator(delegate.getRequest()) {
+                @Override
+                public InetSocketAddress getRemoteAddress() {
+                    return remoteAddress;
+                }
+            };
+        }
+
+        public Client as(InetSocketAddress remoteAddress) {
+            this.remoteAddress = remoteAddress;
+            return this;
+        }
+
+        @Override
+        public ServerHttpRequest getRequest() {
+            return request;
+        }
+    }
+}
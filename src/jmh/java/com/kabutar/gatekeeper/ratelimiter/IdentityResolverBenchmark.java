@@ -0,0 +1,71 @@
+package com.kabutar.gatekeeper.ratelimiter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpCookie;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a request into an identity key, per kind of limitBy dimension.
+ * Every request carries all the values, so no case measures the missing-value shortcut.
+ *
+ * Run with: ./gradlew jmh -Pjmh.includes=IdentityResolverBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdentityResolverBenchmark {
+    private static final int EXCHANGES = 256;
+
+    @Param({"ip", "userId", "apiKey", "header:X-Tenant", "query:tenant", "cookie:session"})
+    private String dimension;
+
+    private IdentityResolver resolver;
+    private IdentityResolver composite;
+    private ServerWebExchange[] exchanges;
+    private int next;
+
+    @Setup
+    public void setup() {
+        resolver = IdentityResolver.compile(List.of(dimension));
+        composite = IdentityResolver.compile(List.of(dimension, RateLimiterConstants.Identity.IP));
+        exchanges = new ServerWebExchange[EXCHANGES];
+        for (int i = 0; i < EXCHANGES; i++) {
+            exchanges[i] = MockServerWebExchange.from(MockServerHttpRequest.get("/orders")
+                    .remoteAddress(new InetSocketAddress("10.0." + (i >> 8) + "." + (i & 0xFF), 40000))
+                    .header(RateLimiterConstants.Identity.USER_ID_HEADER, "user-" + i)
+                    .header(RateLimiterConstants.Identity.API_KEY_HEADER, "key-0123456789abcdef-" + i)
+                    .header("X-Tenant", "tenant-" + i)
+                    .queryParam("tenant", "tenant-" + i)
+                    .cookie(new HttpCookie("session", "session-0123456789abcdef-" + i)));
+        }
+    }
+
+    @Benchmark
+    public long resolve() {
+        return resolver.resolve(exchanges[next++ & (EXCHANGES - 1)], 0);
+    }
+
+    @Benchmark
+    public long compositeWithIp() {
+        return composite.composite(exchanges[next++ & (EXCHANGES - 1)]);
+    }
+}
@@ -0,0 +1,133 @@
+package com.kabutar.gatekeeper.ratelimiter.algorithm;
+
+import com.kabutar.gatekeeper.config.rateLimit.Rule;
+import com.kabutar.gatekeeper.ratelimiter.BenchmarkSupport;
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
+import com.kabutar.gatekeeper.ratelimiter.handler.DropRequestHandler;
+import com.kabutar.gatekeeper.ratelimiter.metrics.RateLimiterMetrics;
+import com.kabutar.gatekeeper.ratelimiter.metrics.RuleMetrics;
+import com.kabutar.gatekeeper.ratelimiter.scheduler.TimingWheel;
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStoreFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one {@link RateLimiter#allocate} per algorithm, as the number of client
+ * identities and the number of threads competing for them grow.
+ *
+ * Each call picks a random client out of {@code identities}, so a single identity puts
+ * every thread on the same state while a million spreads them over the identity store.
+ * Comparing the 1, 8 and 64 thread scores of the same case shows how much the limiter
+ * loses to contention; -prof gc (on by default, see build.gradle) shows what it allocates
+ * per request. Rejected requests go through the {@link DropRequestHandler}. Running with
+ * and without {@code metrics} shows what recording the decisions costs. The
+ * {@code offHeap} backend only changes the algorithms that keep their state in a
+ * {@link com.kabutar.gatekeeper.ratelimiter.store.StateTable}; heavy hitter runs on the heap
+ * store either way.
+ *
+ * Run with: ./gradlew jmh -Pjmh.includes=RateLimiterBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RateLimiterBenchmark {
+    private static final GatewayFilterChain CHAIN = exchange -> Mono.empty();
+
+    @Param({
+            RateLimiterConstants.Algorithm.TOKEN_BUCKET,
+            RateLimiterConstants.Algorithm.LEAKY_BUCKET,
+            RateLimiterConstants.Algorithm.FIXED_WINDOW_COUNTER,
+            RateLimiterConstants.Algorithm.SLIDING_WINDOW_COUNTER,
+            RateLimiterConstants.Algorithm.GCRA,
+            RateLimiterConstants.Algorithm.HEAVY_HITTER
+    })
+    private String algorithm;
+
+    @Param({"1", "10000", "1000000"})
+    private int identities;
+
+    @Param({RateLimiterConstants.IdentityStore.BACKEND_HEAP, RateLimiterConstants.IdentityStore.BACKEND_OFF_HEAP})
+    private String backend;
+
+    @Param({"false", "true"})
+    private boolean metrics;
+
+    private TimingWheel timer;
+    private RateLimiter limiter;
+    private InetSocketAddress[] clients;
+
+    @Setup
+    public void setup() {
+        timer = new TimingWheel();
+        IdentityStoreFactory stores = BenchmarkSupport.stores(backend);
+        DropRequestHandler handler = new DropRequestHandler();
+        Rule rule = BenchmarkSupport.rule(algorithm, "benchmark", "/**");
+        RuleMetrics ruleMetrics = metrics
+                ? new RateLimiterMetrics(new SimpleMeterRegistry(), timer).forRule(rule.getId(), algorithm)
+                : RuleMetrics.NONE;
+        limiter = switch (algorithm) {
+            case RateLimiterConstants.Algorithm.TOKEN_BUCKET -> new TokenBucketRateLimiter(handler, rule, stores, ruleMetrics);
+            case RateLimiterConstants.Algorithm.LEAKY_BUCKET -> new LeakyBucketRateLimiter(handler, rule, stores, ruleMetrics);
+            case RateLimiterConstants.Algorithm.FIXED_WINDOW_COUNTER -> new FixedWindowCounterRatelimiter(handler, rule, stores, ruleMetrics);
+            case RateLimiterConstants.Algorithm.GCRA -> new GcraRateLimiter(handler, rule, stores, ruleMetrics);
+            case RateLimiterConstants.Algorithm.HEAVY_HITTER -> new HeavyHitterRateLimiter(handler, rule, stores, ruleMetrics);
+            default -> new SlidingWindowCounterRateLimiter(handler, rule, stores, ruleMetrics);
+        };
+        clients = BenchmarkSupport.clients(identities);
+    }
+
+    @TearDown
+    public void tearDown() {
+        timer.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Caller {
+        private final BenchmarkSupport.Client client = new BenchmarkSupport.Client(BenchmarkSupport.exchange("/benchmark"));
+    }
+
+    private void allocate(Caller caller, Blackhole blackhole) {
+        InetSocketAddress address = clients[ThreadLocalRandom.current().nextInt(clients.length)];
+        blackhole.consume(limiter.allocate(caller.client.as(address), CHAIN).subscribe());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void threads1(Caller caller, Blackhole blackhole) {
+        allocate(caller, blackhole);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void threads8(Caller caller, Blackhole blackhole) {
+        allocate(caller, blackhole);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void threads64(Caller caller, Blackhole blackhole) {
+        allocate(caller, blackhole);
+    }
+}
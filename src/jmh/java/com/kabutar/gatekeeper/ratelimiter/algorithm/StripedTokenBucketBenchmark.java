@@ -0,0 +1,63 @@
+package com.kabutar.gatekeeper.ratelimiter.algorithm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the global bucket every request of a rule goes through, striped for
+ * {@code cores} cores. With one core the bucket is a single word all threads contend on;
+ * comparing its 1, 8 and 64 thread scores with those of more stripes shows whether the
+ * global bucket's throughput grows with the threads instead of collapsing.
+ *
+ * The bucket refills faster than any thread count drains it, so every acquire succeeds
+ * and the scores measure the compare-and-set alone.
+ *
+ * Run with: ./gradlew jmh -Pjmh.includes=StripedTokenBucketBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StripedTokenBucketBenchmark {
+    @Param({"1", "8", "64"})
+    private int cores;
+
+    private StripedTokenBucket bucket;
+
+    @Setup
+    public void setup() {
+        bucket = new StripedTokenBucket(PackedTokenBucket.MAX_CAPACITY, 1_000_000_000L, 1, cores);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int threads1() {
+        return bucket.acquire();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public int threads8() {
+        return bucket.acquire();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public int threads64() {
+        return bucket.acquire();
+    }
+}
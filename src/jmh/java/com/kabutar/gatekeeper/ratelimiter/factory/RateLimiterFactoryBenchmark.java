@@ -0,0 +1,110 @@
+package com.kabutar.gatekeeper.ratelimiter.factory;
+
+import com.kabutar.gatekeeper.config.rateLimit.RateLimitedConfig;
+import com.kabutar.gatekeeper.config.rateLimit.Rule;
+import com.kabutar.gatekeeper.ratelimiter.BenchmarkSupport;
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
+import com.kabutar.gatekeeper.ratelimiter.algorithm.RateLimiter;
+import com.kabutar.gatekeeper.ratelimiter.distributed.LeaseManagerFactory;
+import com.kabutar.gatekeeper.ratelimiter.distributed.LocalSharedLimiterStore;
+import com.kabutar.gatekeeper.ratelimiter.distributed.gossip.GossipService;
+import com.kabutar.gatekeeper.ratelimiter.handler.DropRequestHandler;
+import com.kabutar.gatekeeper.ratelimiter.metrics.RateLimiterMetrics;
+import com.kabutar.gatekeeper.ratelimiter.scheduler.TimingWheel;
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStoreFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.web.server.ServerWebExchange;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link RateLimiterFactoryImpl#get(ServerWebExchange)}, i.e. finding the limiter
+ * for a request, as the number of rules grows. Requests are spread evenly over the rules,
+ * with one in eight matching none and falling through to the default limiter.
+ *
+ * Run with: ./gradlew jmh -Pjmh.includes=RateLimiterFactoryBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RateLimiterFactoryBenchmark {
+    private static final int EXCHANGES = 1024;
+
+    @Param({"10", "100", "1000"})
+    private int rules;
+
+    private TimingWheel timer;
+    private LeaseManagerFactory leases;
+    private RateLimiterFactoryImpl factory;
+    private ServerWebExchange[] exchanges;
+    private int next;
+
+    @Setup
+    public void setup() {
+        List<Rule> declared = new ArrayList<>(rules);
+        for (int i = 0; i < rules; i++) {
+            String pattern = switch (i % 4) {
+                case 0 -> "/svc" + i + "/v1/items/**";
+                case 1 -> "/svc" + i + "/v1/items/{id}";
+                case 2 -> "/svc" + i + "/v2/{tenant}/orders";
+                default -> "/svc" + i + "/static/**";
+            };
+            declared.add(BenchmarkSupport.rule(RateLimiterConstants.Algorithm.TOKEN_BUCKET, "rule" + i, pattern));
+        }
+        RateLimitedConfig config = new RateLimitedConfig();
+        config.setEnabled(true);
+        config.setAlgorithm(RateLimiterConstants.Algorithm.TOKEN_BUCKET);
+        config.setRules(declared);
+
+        timer = new TimingWheel();
+        IdentityStoreFactory stores = BenchmarkSupport.stores(RateLimiterConstants.IdentityStore.BACKEND_HEAP);
+        leases = new LeaseManagerFactory(config, new LocalSharedLimiterStore(), timer, stores);
+        factory = new RateLimiterFactoryImpl(config, new DropRequestHandler(), timer, stores, leases,
+                new StaticListableBeanFactory().getBeanProvider(GossipService.class),
+                new RateLimiterMetrics((MeterRegistry) null, timer));
+
+        Random random = new Random(42);
+        exchanges = new ServerWebExchange[EXCHANGES];
+        for (int i = 0; i < EXCHANGES; i++) {
+            int rule = random.nextInt(rules);
+            String path = switch (random.nextInt(8) == 0 ? -1 : rule % 4) {
+                case 0 -> "/svc" + rule + "/v1/items/42/details";
+                case 1 -> "/svc" + rule + "/v1/items/42";
+                case 2 -> "/svc" + rule + "/v2/acme/orders";
+                case 3 -> "/svc" + rule + "/static/js/app.js";
+                default -> "/unknown/" + rule + "/path";
+            };
+            exchanges[i] = BenchmarkSupport.exchange(path);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        leases.destroy();
+        timer.close();
+    }
+
+    @Benchmark
+    public RateLimiter get() {
+        return factory.get(exchanges[next++ & (EXCHANGES - 1)]);
+    }
+}
@@ -0,0 +1,101 @@
+package com.kabutar.gatekeeper.ratelimiter.factory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.server.PathContainer;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rule lookup cost as the number of rules grows: the compiled {@link RouteMatcher}
+ * against the linear PathPattern scan it replaced.
+ *
+ * Rules mix the shapes found in real configs (literal prefixes with a trailing **,
+ * {var} captures in the middle and at the end). Lookups cycle through a fixed set of
+ * paths spread evenly over the rules, with one in eight matching none of them.
+ *
+ * Run with: ./gradlew jmh -Pjmh.includes=RouteMatcherBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteMatcherBenchmark {
+    private static final int PATHS = 1024;
+
+    @Param({"10", "100", "1000"})
+    private int rules;
+
+    private RouteMatcher<Integer> matcher;
+    private List<PathPattern> patterns;
+    private PathContainer[] paths;
+    private int next;
+
+    @Setup
+    public void setup() {
+        PathPatternParser parser = new PathPatternParser();
+        RouteMatcher.Builder<Integer> builder = RouteMatcher.builder();
+        patterns = new ArrayList<>(rules);
+        for (int i = 0; i < rules; i++) {
+            String pattern = switch (i % 4) {
+                case 0 -> "/svc" + i + "/v1/items/**";
+                case 1 -> "/svc" + i + "/v1/items/{id}";
+                case 2 -> "/svc" + i + "/v2/{tenant}/orders";
+                default -> "/svc" + i + "/static/**";
+            };
+            builder.add(pattern, i);
+            patterns.add(parser.parse(pattern));
+        }
+        matcher = builder.build();
+
+        Random random = new Random(42);
+        paths = new PathContainer[PATHS];
+        for (int i = 0; i < PATHS; i++) {
+            int rule = random.nextInt(rules);
+            String path = switch (random.nextInt(8) == 0 ? -1 : rule % 4) {
+                case 0 -> "/svc" + rule + "/v1/items/42/details";
+                case 1 -> "/svc" + rule + "/v1/items/42";
+                case 2 -> "/svc" + rule + "/v2/acme/orders";
+                case 3 -> "/svc" + rule + "/static/js/app.js";
+                default -> "/unknown/" + rule + "/path";
+            };
+            paths[i] = PathContainer.parsePath(path);
+        }
+    }
+
+    private PathContainer nextPath() {
+        return paths[next++ & (PATHS - 1)];
+    }
+
+    @Benchmark
+    public Integer compiled() {
+        return matcher.match(nextPath(), "GET", "localhost");
+    }
+
+    @Benchmark
+    public Integer linear() {
+        PathContainer path = nextPath();
+        for (int i = 0; i < patterns.size(); i++) {
+            if (patterns.get(i).matches(path)) {
+                return i;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,46 @@
+package com.kabutar.gatekeeper.ratelimiter.handler;
+
+import com.kabutar.gatekeeper.ratelimiter.BenchmarkSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.web.server.ServerWebExchange;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of rejecting a request with the {@link DropRequestHandler}.
+ *
+ * A response can only be completed once, so every invocation needs a fresh exchange.
+ * {@link #exchange()} measures creating one on its own; the handler's cost is the
+ * difference between the two scores (and likewise for -prof gc allocation).
+ *
+ * Run with: ./gradlew jmh -Pjmh.includes=DropRequestHandlerBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DropRequestHandlerBenchmark {
+    private final DropRequestHandler handler = new DropRequestHandler();
+
+    @Benchmark
+    public ServerWebExchange exchange() {
+        return BenchmarkSupport.exchange("/orders");
+    }
+
+    @Benchmark
+    public void handle(Blackhole blackhole) {
+        ServerWebExchange exchange = BenchmarkSupport.exchange("/orders");
+        blackhole.consume(handler.handle(exchange).subscribe());
+    }
+}
@@ -0,0 +1,133 @@
+package com.kabutar.gatekeeper.loadtest;
+
+import com.kabutar.gatekeeper.GatekeeperApplication;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Open-loop load test of the rate limiters, fully on this machine.
+ *
+ * Starts a {@link StubUpstream}, then the gateway with one route and rule per
+ * {@link Scenario} pointing at it, and drives each scenario in turn with an
+ * {@link OpenLoopGenerator}. For every scenario it reports the accept/reject split,
+ * latency percentiles from HDR histograms, and whether the accepted count per scope
+ * stayed within the rule's rate; the run fails if any scenario did not.
+ *
+ * Options (all optional, as --name=value):
+ *   rate        requests per second offered to each scenario   (2000)
+ *   duration    seconds per scenario                           (10)
+ *   clients     simulated client IPs                           (32)
+ *   api-keys    distinct API keys spread over the clients      (8)
+ *   arrival     constant | poisson                             (constant)
+ *   tolerance   allowed relative deviation from the rule rate  (0.1)
+ *   scenarios   comma separated names, or all                  (all)
+ *   distinct-ips bind each client to its own 127.0.x.y        (true)
+ *
+ * Run with: ./gradlew loadTest -PloadTest.args="--rate=5000 --arrival=poisson"
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        double rate = Double.parseDouble(options.getOrDefault("rate", "2000"));
+        long duration = Long.parseLong(options.getOrDefault("duration", "10"));
+        int clients = Integer.parseInt(options.getOrDefault("clients", "32"));
+        int apiKeys = Integer.parseInt(options.getOrDefault("api-keys", "8"));
+        boolean poisson = "poisson".equals(options.getOrDefault("arrival", "constant"));
+        double tolerance = Double.parseDouble(options.getOrDefault("tolerance", "0.1"));
+        boolean distinctIps = Boolean.parseBoolean(options.getOrDefault("distinct-ips", "true"));
+        String selected = options.getOrDefault("scenarios", "all");
+
+        List<Scenario> scenarios = new ArrayList<>();
+        for (Scenario scenario : Scenario.all()) {
+            if (selected.equals("all") || List.of(selected.split(",")).contains(scenario.name())) {
+                scenarios.add(scenario);
+            }
+        }
+        if (scenarios.isEmpty()) {
+            throw new IllegalArgumentException("No scenario matches " + selected);
+        }
+
+        boolean passed = true;
+        try (StubUpstream upstream = new StubUpstream();
+             ConfigurableApplicationContext gateway = startGateway(scenarios, upstream.uri())) {
+            String address = "http://127.0.0.1:" + gateway.getEnvironment().getProperty("local.server.port");
+            OpenLoopGenerator generator = new OpenLoopGenerator(address, clients, apiKeys, distinctIps);
+            try {
+                System.out.printf(Locale.ROOT, "%n%.0f req/s for %ds per scenario, %s arrivals, %d clients, %d API keys%n",
+                        rate, duration, poisson ? "poisson" : "constant", clients, apiKeys);
+                for (Scenario scenario : scenarios) {
+                    OpenLoopGenerator.Result result = generator.run(scenario.path(), rate, duration, poisson, scenario.name().hashCode());
+                    passed &= report(scenario, result, scenario.scopes(clients, apiKeys), tolerance);
+                }
+            } finally {
+                generator.close();
+            }
+        }
+        System.out.println(passed ? "\nPASSED" : "\nFAILED");
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            int equals = arg.indexOf('=');
+            options.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        return options;
+    }
+
+    private static ConfigurableApplicationContext startGateway(List<Scenario> scenarios, String upstream) {
+        List<String> args = new ArrayList<>(List.of(
+                "--server.port=0",
+                "--logging.level.root=WARN",
+                "--spring.cloud.gateway.httpclient.wiretap=false",
+                "--config.rate-limited.enabled=true",
+                "--config.rate-limited.enable-distributed-mode=false",
+                "--config.rate-limited.strategy=drop"));
+        for (int i = 0; i < scenarios.size(); i++) {
+            args.addAll(scenarios.get(i).gatewayArgs(i, upstream));
+        }
+        return new SpringApplicationBuilder(GatekeeperApplication.class).run(args.toArray(new String[0]));
+    }
+
+    private static boolean report(Scenario scenario, OpenLoopGenerator.Result result, int scopes, double tolerance) {
+        long accepted = result.accepted.getTotalCount();
+        long rejected = result.rejected.getTotalCount();
+        double offeredPerScope = (double) result.sent / scopes;
+        double acceptedPerScope = (double) accepted / scopes;
+        double low = scenario.expectedLow(result.seconds, offeredPerScope) * (1 - tolerance);
+        double high = scenario.expectedHigh(result.seconds, offeredPerScope) * (1 + tolerance);
+        boolean withinRate = acceptedPerScope >= low && acceptedPerScope <= high;
+        boolean passed = withinRate && result.errors.get() == 0 && result.timedOut == 0;
+
+        System.out.printf(Locale.ROOT, "%n== %s (%s)%n", scenario.name(), passed ? "ok" : "FAILED");
+        System.out.printf(Locale.ROOT, "  sent %d, accepted %d (%.1f%%), rejected %d, errors %d, unanswered %d%n",
+                result.sent, accepted, 100.0 * accepted / result.sent, rejected, result.errors.get(), result.timedOut);
+        System.out.printf(Locale.ROOT, "  accepted per scope %.1f over %.1fs, expected %.1f .. %.1f (%d scopes)%n",
+                acceptedPerScope, result.seconds, low, high, scopes);
+        latency("accepted", result.accepted);
+        latency("rejected", result.rejected);
+        return passed;
+    }
+
+    private static void latency(String label, Histogram histogram) {
+        if (histogram.getTotalCount() == 0) {
+            return;
+        }
+        System.out.printf(Locale.ROOT, "  %-8s latency us  p50 %d  p90 %d  p99 %d  p99.9 %d  max %d%n", label,
+                histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+                histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9),
+                histogram.getMaxValue());
+    }
+}
@@ -0,0 +1,137 @@
+package com.kabutar.gatekeeper.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends requests on a fixed schedule, whatever the gateway does with them.
+ *
+ * Open loop:
+ *   Send times are drawn up front from the arrival process (evenly spaced, or Poisson
+ *   with exponential gaps) and a request goes out at its time even if earlier ones are
+ *   still waiting. Latency is measured from the scheduled send time, not the actual one,
+ *   so a stalled gateway shows up as the latency every request behind the stall would
+ *   have seen instead of being hidden by a sender that stopped sending
+ *   (coordinated omission).
+ *
+ * Clients:
+ *   Every simulated client has its own connections bound to its own loopback address
+ *   (127.0.x.y), so the gateway sees a distinct remote IP per client. This needs an OS
+ *   that routes all of 127.0.0.0/8 to loopback, like Linux. API keys are assigned to
+ *   clients round robin.
+ */
+final class OpenLoopGenerator {
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private final List<HttpClient> clients = new ArrayList<>();
+    private final List<ConnectionProvider> providers = new ArrayList<>();
+
+    OpenLoopGenerator(String gateway, int clients, int apiKeys, boolean distinctAddresses) {
+        for (int i = 0; i < clients; i++) {
+            ConnectionProvider provider = ConnectionProvider.builder("load-client-" + i)
+                    .maxConnections(1024)
+                    .pendingAcquireMaxCount(-1)
+                    .build();
+            InetSocketAddress local = new InetSocketAddress(distinctAddresses ? address(i) : "127.0.0.1", 0);
+            String apiKey = "load-key-" + (i % apiKeys);
+            providers.add(provider);
+            this.clients.add(HttpClient.create(provider)
+                    .baseUrl(gateway)
+                    .bindAddress(() -> local)
+                    .headers(headers -> headers.set("X-Api-Key", apiKey)));
+        }
+    }
+
+    private static String address(int client) {
+        int host = client + 1;
+        return "127.0." + (host >>> 8) + "." + (host & 0xFF);
+    }
+
+    /**
+     * Runs one scenario and waits for every response (or its timeout).
+     */
+    Result run(String path, double requestsPerSecond, long durationSeconds, boolean poisson, long seed) throws InterruptedException {
+        long total = Math.max(1, (long) (requestsPerSecond * durationSeconds));
+        double meanGapNanos = TimeUnit.SECONDS.toNanos(1) / requestsPerSecond;
+        SplittableRandom random = new SplittableRandom(seed);
+        Result result = new Result(total);
+
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        double offset = 0;
+        long intended = start;
+        for (long i = 0; i < total; i++) {
+            intended = start + (long) offset;
+            offset += poisson ? -Math.log(1 - random.nextDouble()) * meanGapNanos : meanGapNanos;
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            send(clients.get((int) (i % clients.size())), path, intended, result);
+        }
+        result.seconds = (intended - start) / 1e9 + meanGapNanos / 1e9;
+
+        if (!result.done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            result.timedOut = result.done.getCount();
+        }
+        return result;
+    }
+
+    private void send(HttpClient client, String path, long intended, Result result) {
+        client.get()
+                .uri(path)
+                .responseSingle((response, body) -> body.asString()
+                        .defaultIfEmpty("")
+                        .thenReturn(response.status().code()))
+                .subscribe(
+                        status -> result.record(status, System.nanoTime() - intended),
+                        error -> result.fail());
+    }
+
+    void close() {
+        providers.forEach(ConnectionProvider::dispose);
+    }
+
+    static final class Result {
+        // microseconds, up to a minute with 3 significant digits
+        final Histogram accepted = new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(1), 3);
+        final Histogram rejected = new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(1), 3);
+        final AtomicLong errors = new AtomicLong();
+        final long sent;
+        final CountDownLatch done;
+        double seconds;
+        long timedOut;
+
+        Result(long sent) {
+            this.sent = sent;
+            this.done = new CountDownLatch((int) Math.min(Integer.MAX_VALUE, sent));
+        }
+
+        void record(int status, long latencyNanos) {
+            long micros = Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos), accepted.getHighestTrackableValue());
+            if (status == 429) {
+                rejected.recordValue(micros);
+            } else if (status < 400) {
+                accepted.recordValue(micros);
+            } else {
+                errors.incrementAndGet();
+            }
+            done.countDown();
+        }
+
+        void fail() {
+            errors.incrementAndGet();
+            done.countDown();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.kabutar.gatekeeper.loadtest;
+
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One rule under test: its own route and rule in the gateway, and the rate the rule
+ * should let through so the result can be checked.
+ *
+ *   rate  : units admitted per second and scope once the limiter is saturated
+ *   burst : extra units a scope may get on top of rate x duration (bucket capacity,
+ *           or one window that a run starts or ends in the middle of)
+ *   slack : units a scope may fall short of rate x duration for the same reason
+ *
+ * The scope is one identity of the rule's dimension, except for token buckets: their
+ * rule-wide bucket has the same size as the per-identity ones, so it binds first and the
+ * whole rule is one scope.
+ */
+final class Scenario {
+    private final String name;
+    private final String algorithm;
+    private final String limitBy;
+    private final Map<String, String> config;
+    private final double rate;
+    private final double burst;
+    private final double slack;
+
+    private Scenario(String name, String algorithm, String limitBy, Map<String, String> config,
+                     double rate, double burst, double slack) {
+        this.name = name;
+        this.algorithm = algorithm;
+        this.limitBy = limitBy;
+        this.config = config;
+        this.rate = rate;
+        this.burst = burst;
+        this.slack = slack;
+    }
+
+    static List<Scenario> all() {
+        return List.of(
+                new Scenario("token-bucket", RateLimiterConstants.Algorithm.TOKEN_BUCKET, RateLimiterConstants.Identity.IP,
+                        Map.of("token-bucket.capacity", "20", "token-bucket.refill-rate", "100", "token-bucket.refill-unit", "S"),
+                        100, 20, 0),
+                new Scenario("leaky-bucket", RateLimiterConstants.Algorithm.LEAKY_BUCKET, RateLimiterConstants.Identity.IP,
+                        Map.of("leaky-bucket.capacity", "10", "leaky-bucket.out-flow-per-sec", "20"),
+                        20, 10, 0),
+                new Scenario("fixed-window", RateLimiterConstants.Algorithm.FIXED_WINDOW_COUNTER, RateLimiterConstants.Identity.IP,
+                        Map.of("fixed-window.counter", "20", "fixed-window.time-window", "1", "fixed-window.time-unit", "S"),
+                        20, 20, 20),
+                new Scenario("sliding-window", RateLimiterConstants.Algorithm.SLIDING_WINDOW_COUNTER, RateLimiterConstants.Identity.IP,
+                        Map.of("sliding-window.counter", "20", "sliding-window.time-window", "1", "sliding-window.time-unit", "S"),
+                        20, 20, 20),
+                new Scenario("api-key-window", RateLimiterConstants.Algorithm.FIXED_WINDOW_COUNTER, RateLimiterConstants.Identity.API_KEY,
+                        Map.of("fixed-window.counter", "50", "fixed-window.time-window", "1", "fixed-window.time-unit", "S"),
+                        50, 50, 50)
+        );
+    }
+
+    String name() {
+        return name;
+    }
+
+    String path() {
+        return "/" + name + "/load";
+    }
+
+    /**
+     * Command line properties adding this scenario's route and rule as the index-th entry.
+     * Passed as arguments they replace the lists from application.yml instead of merging.
+     */
+    List<String> gatewayArgs(int index, String upstream) {
+        String route = "--spring.cloud.gateway.routes[" + index + "].";
+        String rule = "--config.rate-limited.rules[" + index + "].";
+        List<String> args = new ArrayList<>();
+        args.add(route + "id=" + name);
+        args.add(route + "uri=" + upstream);
+        args.add(route + "predicates[0]=Path=/" + name + "/**");
+        args.add(rule + "id=" + name);
+        args.add(rule + "algorithm=" + algorithm);
+        args.add(rule + "resource-path=/" + name + "/**");
+        args.add(rule + "limit-by[0]=" + limitBy);
+        config.forEach((key, value) -> args.add(rule + "config." + key + "=" + value));
+        return args;
+    }
+
+    /**
+     * Number of independent scopes the offered load is spread over.
+     */
+    int scopes(int clients, int apiKeys) {
+        if (RateLimiterConstants.Algorithm.TOKEN_BUCKET.equals(algorithm)) {
+            return 1;
+        }
+        return RateLimiterConstants.Identity.API_KEY.equals(limitBy) ? apiKeys : clients;
+    }
+
+    /**
+     * Lowest number of accepted requests per scope that is still correct.
+     */
+    double expectedLow(double seconds, double offeredPerScope) {
+        return Math.min(offeredPerScope, Math.max(0, rate * seconds - slack));
+    }
+
+    /**
+     * Highest number of accepted requests per scope that is still correct.
+     */
+    double expectedHigh(double seconds, double offeredPerScope) {
+        return Math.min(offeredPerScope, rate * seconds + burst);
+    }
+}
@@ -0,0 +1,30 @@
+package com.kabutar.gatekeeper.loadtest;
+
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+/**
+ * Upstream the gateway routes to during a load test: answers every request at once with
+ * a tiny 200, so measured latency is the gateway's and nothing is sent off the machine.
+ */
+final class StubUpstream implements AutoCloseable {
+    private final DisposableServer server;
+
+    StubUpstream() {
+        this.server = HttpServer.create()
+                .host("127.0.0.1")
+                .port(0)
+                .handle((request, response) -> response.sendString(Mono.just("ok")))
+                .bindNow();
+    }
+
+    String uri() {
+        return "http://127.0.0.1:" + server.port();
+    }
+
+    @Override
+    public void close() {
+        server.disposeNow();
+    }
+}
@@ -0,0 +1,32 @@
+package com.kabutar.gatekeeper.config.rateLimit;
+
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
+
+public class DelayConfig {
+    private long maxWaitMillis = RateLimiterConstants.Delay.DEFAULT_MAX_WAIT_MILLIS;
+    private int maxParked = RateLimiterConstants.Delay.DEFAULT_MAX_PARKED;
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public int getMaxParked() {
+        return maxParked;
+    }
+
+    public void setMaxParked(int maxParked) {
+        this.maxParked = maxParked;
+    }
+
+    @Override
+    public String toString() {
+        return "DelayConfig{" +
+                "maxWaitMillis=" + maxWaitMillis +
+                ", maxParked=" + maxParked +
+                '}';
+    }
+}
@@ -0,0 +1,92 @@
+package com.kabutar.gatekeeper.config.rateLimit;
+
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
+
+public class DistributedConfig {
+    private String mode = RateLimiterConstants.Distributed.MODE_LEASE;
+    private String store = RateLimiterConstants.Distributed.STORE_LOCAL;
+    private int leasePercent = RateLimiterConstants.Distributed.DEFAULT_LEASE_PERCENT;
+    private long flushIntervalMillis = RateLimiterConstants.Distributed.DEFAULT_FLUSH_INTERVAL_MILLIS;
+    private int batchSize = RateLimiterConstants.Distributed.DEFAULT_BATCH_SIZE;
+    private long timeoutMillis = RateLimiterConstants.Distributed.DEFAULT_TIMEOUT_MILLIS;
+    private GossipConfig gossip = new GossipConfig();
+    private PeerConfig peer = new PeerConfig();
+
+    public String getMode() {
+        return mode;
+    }
+
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+
+    public String getStore() {
+        return store;
+    }
+
+    public void setStore(String store) {
+        this.store = store;
+    }
+
+    public int getLeasePercent() {
+        return leasePercent;
+    }
+
+    public void setLeasePercent(int leasePercent) {
+        this.leasePercent = leasePercent;
+    }
+
+    public long getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public GossipConfig getGossip() {
+        return gossip;
+    }
+
+    public void setGossip(GossipConfig gossip) {
+        this.gossip = gossip;
+    }
+
+    public PeerConfig getPeer() {
+        return peer;
+    }
+
+    public void setPeer(PeerConfig peer) {
+        this.peer = peer;
+    }
+
+    @Override
+    public String toString() {
+        return "DistributedConfig{" +
+                "mode='" + mode + '\'' +
+                ", store='" + store + '\'' +
+                ", leasePercent=" + leasePercent +
+                ", flushIntervalMillis=" + flushIntervalMillis +
+                ", batchSize=" + batchSize +
+                ", timeoutMillis=" + timeoutMillis +
+                ", gossip=" + gossip +
+                ", peer=" + peer +
+                '}';
+    }
+}
@@ -1,5 +1,7 @@
 package com.kabutar.gatekeeper.config.rateLimit;
 
+import java.util.Objects;
+
 public class FixedWindowConfig {
     private int timeWindow;
     private String timeUnit;
@@ -29,6 +31,20 @@ public class FixedWindowConfig {
         this.counter = counter;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof FixedWindowConfig that)) return false;
+        return timeWindow == that.timeWindow
+                && Objects.equals(timeUnit, that.timeUnit)
+                && counter == that.counter;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(timeWindow, timeUnit, counter);
+    }
+
     @Override
     public String toString() {
         return "FicedWindowConfig{" +
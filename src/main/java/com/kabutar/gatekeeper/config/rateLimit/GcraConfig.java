@@ -0,0 +1,56 @@
+package com.kabutar.gatekeeper.config.rateLimit;
+
+import java.util.Objects;
+
+public class GcraConfig {
+    private long rate;
+    private String rateUnit;
+    private long burst;
+
+    public long getRate() {
+        return rate;
+    }
+
+    public void setRate(long rate) {
+        this.rate = rate;
+    }
+
+    public String getRateUnit() {
+        return rateUnit;
+    }
+
+    public void setRateUnit(String rateUnit) {
+        this.rateUnit = rateUnit;
+    }
+
+    public long getBurst() {
+        return burst;
+    }
+
+    public void setBurst(long burst) {
+        this.burst = burst;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof GcraConfig that)) return false;
+        return rate == that.rate
+                && Objects.equals(rateUnit, that.rateUnit)
+                && burst == that.burst;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(rate, rateUnit, burst);
+    }
+
+    @Override
+    public String toString() {
+        return "Gcra{" +
+                "rate=" + rate +
+                ", rateUnit='" + rateUnit + '\'' +
+                ", burst=" + burst +
+                '}';
+    }
+}
@@ -0,0 +1,54 @@
+package com.kabutar.gatekeeper.config.rateLimit;
+
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
+
+import java.util.List;
+
+public class GossipConfig {
+    private String bind;
+    private List<String> peers;
+    private long intervalMillis = RateLimiterConstants.Gossip.DEFAULT_INTERVAL_MILLIS;
+    private int fullSyncRounds = RateLimiterConstants.Gossip.DEFAULT_FULL_SYNC_ROUNDS;
+
+    public String getBind() {
+        return bind;
+    }
+
+    public void setBind(String bind) {
+        this.bind = bind;
+    }
+
+    public List<String> getPeers() {
+        return peers;
+    }
+
+    public void setPeers(List<String> peers) {
+        this.peers = peers;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public void setIntervalMillis(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    public int getFullSyncRounds() {
+        return fullSyncRounds;
+    }
+
+    public void setFullSyncRounds(int fullSyncRounds) {
+        this.fullSyncRounds = fullSyncRounds;
+    }
+
+    @Override
+    public String toString() {
+        return "GossipConfig{" +
+                "bind='" + bind + '\'' +
+                ", peers=" + peers +
+                ", intervalMillis=" + intervalMillis +
+                ", fullSyncRounds=" + fullSyncRounds +
+                '}';
+    }
+}
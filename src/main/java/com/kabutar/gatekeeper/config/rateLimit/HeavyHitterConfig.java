@@ -0,0 +1,89 @@
+package com.kabutar.gatekeeper.config.rateLimit;
+
+import java.util.Objects;
+
+public class HeavyHitterConfig {
+    private int counter;
+    private int timeWindow;
+    private String timeUnit;
+    private double epsilon;
+    private double delta;
+    private int topK;
+
+    public int getCounter() {
+        return counter;
+    }
+
+    public void setCounter(int counter) {
+        this.counter = counter;
+    }
+
+    public int getTimeWindow() {
+        return timeWindow;
+    }
+
+    public void setTimeWindow(int timeWindow) {
+        this.timeWindow = timeWindow;
+    }
+
+    public String getTimeUnit() {
+        return timeUnit;
+    }
+
+    public void setTimeUnit(String timeUnit) {
+        this.timeUnit = timeUnit;
+    }
+
+    public double getEpsilon() {
+        return epsilon;
+    }
+
+    public void setEpsilon(double epsilon) {
+        this.epsilon = epsilon;
+    }
+
+    public double getDelta() {
+        return delta;
+    }
+
+    public void setDelta(double delta) {
+        this.delta = delta;
+    }
+
+    public int getTopK() {
+        return topK;
+    }
+
+    public void setTopK(int topK) {
+        this.topK = topK;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof HeavyHitterConfig that)) return false;
+        return counter == that.counter
+                && timeWindow == that.timeWindow
+                && Objects.equals(timeUnit, that.timeUnit)
+                && Double.compare(epsilon, that.epsilon) == 0
+                && Double.compare(delta, that.delta) == 0
+                && topK == that.topK;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(counter, timeWindow, timeUnit, epsilon, delta, topK);
+    }
+
+    @Override
+    public String toString() {
+        return "HeavyHitterConfig{" +
+                "counter=" + counter +
+                ", timeWindow=" + timeWindow +
+                ", timeUnit='" + timeUnit + '\'' +
+                ", epsilon=" + epsilon +
+                ", delta=" + delta +
+                ", topK=" + topK +
+                '}';
+    }
+}
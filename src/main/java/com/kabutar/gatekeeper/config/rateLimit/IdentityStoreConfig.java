@@ -0,0 +1,67 @@
+package com.kabutar.gatekeeper.config.rateLimit;
+
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
+
+/**
+ * Limits for the per-identity state of the rate limiters. Every rule has a store of its
+ * own, so the identity and memory limits hold for each rule: a gateway with n rules may
+ * track up to n times as many identities and use up to n times the memory.
+ */
+public class IdentityStoreConfig {
+    private long maxIdentitiesPerRule = RateLimiterConstants.IdentityStore.DEFAULT_MAX_IDENTITIES_PER_RULE;
+    private long maxMemoryMbPerRule = RateLimiterConstants.IdentityStore.DEFAULT_MAX_MEMORY_MB_PER_RULE;
+    private int idleTimeout = RateLimiterConstants.IdentityStore.DEFAULT_IDLE_TIMEOUT;
+    private String timeUnit = RateLimiterConstants.IdentityStore.DEFAULT_UNIT;
+    private String backend = RateLimiterConstants.IdentityStore.BACKEND_HEAP;
+
+    public long getMaxIdentitiesPerRule() {
+        return maxIdentitiesPerRule;
+    }
+
+    public void setMaxIdentitiesPerRule(long maxIdentitiesPerRule) {
+        this.maxIdentitiesPerRule = maxIdentitiesPerRule;
+    }
+
+    public long getMaxMemoryMbPerRule() {
+        return maxMemoryMbPerRule;
+    }
+
+    public void setMaxMemoryMbPerRule(long maxMemoryMbPerRule) {
+        this.maxMemoryMbPerRule = maxMemoryMbPerRule;
+    }
+
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(int idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public String getTimeUnit() {
+        return timeUnit;
+    }
+
+    public void setTimeUnit(String timeUnit) {
+        this.timeUnit = timeUnit;
+    }
+
+    public String getBackend() {
+        return backend;
+    }
+
+    public void setBackend(String backend) {
+        this.backend = backend;
+    }
+
+    @Override
+    public String toString() {
+        return "IdentityStoreConfig{" +
+                "maxIdentitiesPerRule=" + maxIdentitiesPerRule +
+                ", maxMemoryMbPerRule=" + maxMemoryMbPerRule +
+                ", idleTimeout=" + idleTimeout +
+                ", timeUnit='" + timeUnit + '\'' +
+                ", backend='" + backend + '\'' +
+                '}';
+    }
+}
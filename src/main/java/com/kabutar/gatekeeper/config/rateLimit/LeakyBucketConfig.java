@@ -1,5 +1,7 @@
 package com.kabutar.gatekeeper.config.rateLimit;
 
+import java.util.Objects;
+
 public class LeakyBucketConfig{
     private int capacity;
     private int outFlowPerSec;
@@ -20,6 +22,19 @@ public class LeakyBucketConfig{
         this.outFlowPerSec = outFlowPerSec;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof LeakyBucketConfig that)) return false;
+        return capacity == that.capacity
+                && outFlowPerSec == that.outFlowPerSec;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(capacity, outFlowPerSec);
+    }
+
     @Override
     public String toString() {
         return "LeakyBucket{" +
@@ -0,0 +1,44 @@
+package com.kabutar.gatekeeper.config.rateLimit;
+
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
+
+import java.util.List;
+
+public class PeerConfig {
+    private String bind;
+    private List<String> peers;
+    private int virtualNodes = RateLimiterConstants.Peer.DEFAULT_VIRTUAL_NODES;
+
+    public String getBind() {
+        return bind;
+    }
+
+    public void setBind(String bind) {
+        this.bind = bind;
+    }
+
+    public List<String> getPeers() {
+        return peers;
+    }
+
+    public void setPeers(List<String> peers) {
+        this.peers = peers;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public void setVirtualNodes(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
+    @Override
+    public String toString() {
+        return "PeerConfig{" +
+                "bind='" + bind + '\'' +
+                ", peers=" + peers +
+                ", virtualNodes=" + virtualNodes +
+                '}';
+    }
+}
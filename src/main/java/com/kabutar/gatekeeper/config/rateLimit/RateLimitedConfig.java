@@ -1,5 +1,6 @@
 package com.kabutar.gatekeeper.config.rateLimit;
 
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
@@ -12,7 +13,15 @@ public class RateLimitedConfig {
     private String algorithm;
     private boolean enableDistributedMode;
     private String strategy;
+    private String evaluation = RateLimiterConstants.Evaluation.FIRST;
+    private boolean headersOnAllowed;
     private List<Rule> rules;
+    private IdentityStoreConfig store = new IdentityStoreConfig();
+    private DistributedConfig distributed = new DistributedConfig();
+    private ReloadConfig reload = new ReloadConfig();
+    private DelayConfig delay = new DelayConfig();
+    private SnapshotConfig snapshot = new SnapshotConfig();
+    private String identitySecret;
 
     public boolean isEnabled() {
         return enabled;
@@ -46,6 +55,70 @@ public class RateLimitedConfig {
         this.strategy = strategy;
     }
 
+    public String getEvaluation() {
+        return evaluation;
+    }
+
+    public void setEvaluation(String evaluation) {
+        this.evaluation = evaluation;
+    }
+
+    public boolean isHeadersOnAllowed() {
+        return headersOnAllowed;
+    }
+
+    public void setHeadersOnAllowed(boolean headersOnAllowed) {
+        this.headersOnAllowed = headersOnAllowed;
+    }
+
+    public IdentityStoreConfig getStore() {
+        return store;
+    }
+
+    public void setStore(IdentityStoreConfig store) {
+        this.store = store;
+    }
+
+    public DistributedConfig getDistributed() {
+        return distributed;
+    }
+
+    public void setDistributed(DistributedConfig distributed) {
+        this.distributed = distributed;
+    }
+
+    public ReloadConfig getReload() {
+        return reload;
+    }
+
+    public void setReload(ReloadConfig reload) {
+        this.reload = reload;
+    }
+
+    public DelayConfig getDelay() {
+        return delay;
+    }
+
+    public void setDelay(DelayConfig delay) {
+        this.delay = delay;
+    }
+
+    public SnapshotConfig getSnapshot() {
+        return snapshot;
+    }
+
+    public void setSnapshot(SnapshotConfig snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public String getIdentitySecret() {
+        return identitySecret;
+    }
+
+    public void setIdentitySecret(String identitySecret) {
+        this.identitySecret = identitySecret;
+    }
+
     public boolean isEnableDistributedMode() {
         return enableDistributedMode;
     }
@@ -61,7 +134,15 @@ public class RateLimitedConfig {
                 ", algorithm='" + algorithm + '\'' +
                 ", enableDistributedMode=" + enableDistributedMode +
                 ", strategy='" + strategy + '\'' +
+                ", evaluation='" + evaluation + '\'' +
+                ", headersOnAllowed=" + headersOnAllowed +
                 ", rules=" + rules +
+                ", store=" + store +
+                ", distributed=" + distributed +
+                ", reload=" + reload +
+                ", delay=" + delay +
+                ", snapshot=" + snapshot +
+                ", identitySecret=" + (identitySecret == null ? null : "******") +
                 '}';
     }
 }
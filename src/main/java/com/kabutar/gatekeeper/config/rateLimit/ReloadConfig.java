@@ -0,0 +1,32 @@
+package com.kabutar.gatekeeper.config.rateLimit;
+
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
+
+public class ReloadConfig {
+    private String file;
+    private long pollMillis = RateLimiterConstants.Reload.DEFAULT_POLL_MILLIS;
+
+    public String getFile() {
+        return file;
+    }
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    public long getPollMillis() {
+        return pollMillis;
+    }
+
+    public void setPollMillis(long pollMillis) {
+        this.pollMillis = pollMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ReloadConfig{" +
+                "file='" + file + '\'' +
+                ", pollMillis=" + pollMillis +
+                '}';
+    }
+}
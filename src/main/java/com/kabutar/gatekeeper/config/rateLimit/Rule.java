@@ -1,10 +1,13 @@
 package com.kabutar.gatekeeper.config.rateLimit;
 
 import java.util.List;
+import java.util.Objects;
 
 public class Rule{
     private String id;
     private String resourcePath;
+    private List<String> methods;
+    private List<String> hosts;
     private List<String> limitBy;
     private String algorithm;
     private Config config;
@@ -25,6 +28,22 @@ public class Rule{
         this.resourcePath = resourcePath;
     }
 
+    public List<String> getMethods() {
+        return methods;
+    }
+
+    public void setMethods(List<String> methods) {
+        this.methods = methods;
+    }
+
+    public List<String> getHosts() {
+        return hosts;
+    }
+
+    public void setHosts(List<String> hosts) {
+        this.hosts = hosts;
+    }
+
     public List<String> getLimitBy() {
         return limitBy;
     }
@@ -49,11 +68,31 @@ public class Rule{
         this.config = config;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Rule that)) return false;
+        return Objects.equals(id, that.id)
+                && Objects.equals(resourcePath, that.resourcePath)
+                && Objects.equals(methods, that.methods)
+                && Objects.equals(hosts, that.hosts)
+                && Objects.equals(limitBy, that.limitBy)
+                && Objects.equals(algorithm, that.algorithm)
+                && Objects.equals(config, that.config);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, resourcePath, methods, hosts, limitBy, algorithm, config);
+    }
+
     @Override
     public String toString() {
         return "Rule{" +
                 "id='" + id + '\'' +
                 ", resourcePath='" + resourcePath + '\'' +
+                ", methods=" + methods +
+                ", hosts=" + hosts +
                 ", limitBy=" + limitBy +
                 ", algorithm='" + algorithm + '\'' +
                 ", config=" + config +
@@ -65,6 +104,8 @@ public class Rule{
         private LeakyBucketConfig leakyBucket;
         private FixedWindowConfig fixedWindow;
         private SlidingWindowConfig slidingWindow;
+        private GcraConfig gcra;
+        private HeavyHitterConfig heavyHitter;
 
         public TokenBucketConfig getTokenBucket() {
             return tokenBucket;
@@ -98,6 +139,39 @@ public class Rule{
             this.slidingWindow = slidingWindow;
         }
 
+        public GcraConfig getGcra() {
+            return gcra;
+        }
+
+        public void setGcra(GcraConfig gcra) {
+            this.gcra = gcra;
+        }
+
+        public HeavyHitterConfig getHeavyHitter() {
+            return heavyHitter;
+        }
+
+        public void setHeavyHitter(HeavyHitterConfig heavyHitter) {
+            this.heavyHitter = heavyHitter;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Config that)) return false;
+            return Objects.equals(tokenBucket, that.tokenBucket)
+                    && Objects.equals(leakyBucket, that.leakyBucket)
+                    && Objects.equals(fixedWindow, that.fixedWindow)
+                    && Objects.equals(slidingWindow, that.slidingWindow)
+                    && Objects.equals(gcra, that.gcra)
+                    && Objects.equals(heavyHitter, that.heavyHitter);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tokenBucket, leakyBucket, fixedWindow, slidingWindow, gcra, heavyHitter);
+        }
+
         @Override
         public String toString() {
             return "Config{" +
@@ -105,6 +179,8 @@ public class Rule{
                     ", leakyBucket=" + leakyBucket +
                     ", fixedWindow=" + fixedWindow +
                     ", slidingWindow=" + slidingWindow +
+                    ", gcra=" + gcra +
+                    ", heavyHitter=" + heavyHitter +
                     '}';
         }
     }
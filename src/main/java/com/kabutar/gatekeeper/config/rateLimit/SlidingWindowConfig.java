@@ -1,10 +1,12 @@
 package com.kabutar.gatekeeper.config.rateLimit;
 
+import java.util.Objects;
 
 public class SlidingWindowConfig {
     private int counter;
     private int timeWindow;
     private String timeUnit;
+    private int buckets;
 
     public int getCounter() {
         return counter;
@@ -30,12 +32,36 @@ public class SlidingWindowConfig {
         this.timeUnit = timeUnit;
     }
 
+    public int getBuckets() {
+        return buckets;
+    }
+
+    public void setBuckets(int buckets) {
+        this.buckets = buckets;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SlidingWindowConfig that)) return false;
+        return counter == that.counter
+                && timeWindow == that.timeWindow
+                && buckets == that.buckets
+                && Objects.equals(timeUnit, that.timeUnit);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(counter, timeWindow, timeUnit, buckets);
+    }
+
     @Override
     public String toString() {
         return "SlidingWindowConfig{" +
                 "counter=" + counter +
                 ", timeWindow=" + timeWindow +
                 ", timeUnit='" + timeUnit + '\'' +
+                ", buckets=" + buckets +
                 '}';
     }
 }
@@ -0,0 +1,32 @@
+package com.kabutar.gatekeeper.config.rateLimit;
+
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
+
+public class SnapshotConfig {
+    private String file;
+    private long intervalMillis = RateLimiterConstants.Snapshot.DEFAULT_INTERVAL_MILLIS;
+
+    public String getFile() {
+        return file;
+    }
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public void setIntervalMillis(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "SnapshotConfig{" +
+                "file='" + file + '\'' +
+                ", intervalMillis=" + intervalMillis +
+                '}';
+    }
+}
@@ -1,5 +1,7 @@
 package com.kabutar.gatekeeper.config.rateLimit;
 
+import java.util.Objects;
+
 public class TokenBucketConfig {
     private long capacity;
     private long refillRate;
@@ -29,6 +31,20 @@ public class TokenBucketConfig {
         this.refillUnit = refillUnit;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof TokenBucketConfig that)) return false;
+        return capacity == that.capacity
+                && refillRate == that.refillRate
+                && Objects.equals(refillUnit, that.refillUnit);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(capacity, refillRate, refillUnit);
+    }
+
     @Override
     public String toString() {
         return "TokenBucket{" +
@@ -1,12 +1,16 @@
 package com.kabutar.gatekeeper.filter;
 
+import com.kabutar.gatekeeper.config.rateLimit.RateLimitedConfig;
+import com.kabutar.gatekeeper.ratelimiter.algorithm.RateLimitStatus;
 import com.kabutar.gatekeeper.ratelimiter.algorithm.RateLimiter;
 import com.kabutar.gatekeeper.ratelimiter.factory.RateLimiterFactory;
+import com.kabutar.gatekeeper.ratelimiter.handler.RateLimitHeaders;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
 import org.springframework.cloud.gateway.filter.GlobalFilter;
 import org.springframework.core.Ordered;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Mono;
@@ -18,9 +22,24 @@ public class RateLimiterGlobalFilter implements GlobalFilter, Ordered {
     @Autowired
     RateLimiterFactory rateLimiterFactory;
 
+    @Autowired
+    RateLimitedConfig rateLimitedConfig;
+
     @Override
     public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
         RateLimiter rateLimiter = rateLimiterFactory.get(exchange);
+        if (rateLimitedConfig.isHeadersOnAllowed()) {
+            // rejections already carry their headers from the handler
+            exchange.getResponse().beforeCommit(() -> {
+                if (exchange.getResponse().getStatusCode() != HttpStatus.TOO_MANY_REQUESTS) {
+                    RateLimitStatus status = rateLimiter.status(exchange);
+                    if (status != null) {
+                        RateLimitHeaders.write(exchange.getResponse(), status, false);
+                    }
+                }
+                return Mono.empty();
+            });
+        }
         return rateLimiter.allocate(exchange,chain);
     }
 
@@ -0,0 +1,12 @@
+package com.kabutar.gatekeeper.ratelimiter;
+
+import org.springframework.web.server.ServerWebExchange;
+
+/**
+ * One limitBy dimension, compiled: reads the dimension's value off a request and returns
+ * its 64-bit identity key (see {@link IdentityKey}) without building intermediate strings.
+ */
+@FunctionalInterface
+public interface IdentityExtractor {
+    long extract(ServerWebExchange exchange);
+}
@@ -0,0 +1,146 @@
+package com.kabutar.gatekeeper.ratelimiter;
+
+import java.security.SecureRandom;
+import java.util.HexFormat;
+
+/**
+ * Turns identities into the fixed-size 64-bit keys used by the identity stores.
+ *
+ * A fixed-size key keeps the per-identity footprint independent of how long header
+ * values or addresses are, which is what lets the stores bound their memory. With
+ * 64 bits, two distinct identities sharing a key is negligible even at tens of
+ * millions of tracked clients.
+ *
+ * Client-supplied values are hashed with SipHash-2-4 under a secret key, so colliding
+ * values cannot be worked out offline to share (or exhaust) another client's quota. The
+ * secret is drawn at random per process unless configured; nodes sharing budgets must be
+ * configured with the same one, and a snapshot carries it across restarts. Names taken
+ * from the configuration, such as dimensions and peers, use {@link #of(CharSequence)},
+ * which is the same in every process.
+ */
+public final class IdentityKey {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    public static final long DEFAULT = of(RateLimiterConstants.DEFAULT_LIMIT_IDENTITY);
+
+    private static volatile Secret secret = Secret.random();
+
+    private IdentityKey() {}
+
+    /**
+     * Unkeyed key of a name from the configuration, stable across processes.
+     */
+    public static long of(CharSequence identity) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < identity.length(); i++) {
+            hash = (hash ^ identity.charAt(i)) * FNV_PRIME;
+        }
+        return mix(hash ^ identity.length());
+    }
+
+    /**
+     * Key of an identity within a namespace, e.g. one limitBy dimension, so equal values
+     * of different dimensions do not share a key.
+     */
+    public static long of(long seed, CharSequence identity) {
+        return sipHash(seed, identity, null, 0, identity.length());
+    }
+
+    public static long of(long seed, byte[] identity) {
+        return sipHash(seed, null, identity, 0, identity.length);
+    }
+
+    public static long of(long seed, long identity) {
+        return sipHash(seed, null, null, identity, Long.BYTES);
+    }
+
+    // finalizer from MurmurHash3, spreads FNV's weak high bits
+    public static long mix(long hash) {
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * The current secret as two words, for a snapshot to carry.
+     */
+    public static long[] secret() {
+        Secret current = secret;
+        return new long[]{current.k0, current.k1};
+    }
+
+    /**
+     * Replaces the secret. Keys computed before no longer match, so this is only for
+     * startup, before requests are served.
+     */
+    public static void useSecret(long k0, long k1) {
+        secret = new Secret(k0, k1);
+    }
+
+    /**
+     * Replaces the secret with one given as 32 hex digits.
+     */
+    public static void useSecret(String hex) {
+        String digits = hex.trim();
+        if (digits.length() != 32 || !digits.chars().allMatch(HexFormat::isHexDigit)) {
+            throw new RateLimiterException("Identity secret must be 32 hex digits");
+        }
+        useSecret(HexFormat.fromHexDigitsToLong(digits, 0, 16), HexFormat.fromHexDigitsToLong(digits, 16, 32));
+    }
+
+    /*
+     * SipHash-2-4 over the seed, then the identity in 64-bit words: eight bytes, four
+     * UTF-16 units or the long itself. The last word carries the length in its top byte.
+     */
+    private static long sipHash(long seed, CharSequence chars, byte[] bytes, long value, int length) {
+        Secret key = secret;
+        long v0 = key.k0 ^ 0x736f6d6570736575L;
+        long v1 = key.k1 ^ 0x646f72616e646f6dL;
+        long v2 = key.k0 ^ 0x6c7967656e657261L;
+        long v3 = key.k1 ^ 0x7465646279746573L;
+
+        int words = 1 + (chars != null ? length >>> 2 : length >>> 3);
+        for (int i = -1; i < words; i++) {
+            long m = i < 0 ? seed : word(chars, bytes, value, length, words, i);
+            v3 ^= m;
+            for (int round = 0; round < 2; round++) {
+                v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+                v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+                v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+                v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            }
+            v0 ^= m;
+        }
+        v2 ^= 0xff;
+        for (int round = 0; round < 4; round++) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        return v0 ^ v1 ^ v2 ^ v3;
+    }
+
+    private static long word(CharSequence chars, byte[] bytes, long value, int length, int words, int i) {
+        if (chars == null && bytes == null) {
+            return i == 0 ? value : (long) Long.BYTES << 56;
+        }
+        int perWord = chars != null ? 4 : 8;
+        int from = i * perWord;
+        int to = Math.min(from + perWord, length);
+        int shift = chars != null ? 16 : 8;
+        long m = 0;
+        for (int j = to - 1; j >= from; j--) {
+            m = (m << shift) | (chars != null ? chars.charAt(j) : bytes[j] & 0xFF);
+        }
+        return i == words - 1 ? m | ((long) length << 56) : m;
+    }
+
+    private record Secret(long k0, long k1) {
+        static Secret random() {
+            SecureRandom random = new SecureRandom();
+            return new Secret(random.nextLong(), random.nextLong());
+        }
+    }
+}
@@ -1,26 +1,298 @@
 package com.kabutar.gatekeeper.ratelimiter;
 
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.http.HttpCookie;
 import org.springframework.web.server.ServerWebExchange;
 
-public class IdentityResolver {
-    public static String resolve(ServerWebExchange exchange, String dimension){
-        switch (dimension.toLowerCase()) {
-            case "ip" -> {
-                java.net.InetSocketAddress remoteAddress = exchange.getRequest().getRemoteAddress();
-                String ip = (remoteAddress != null)
-                        ? remoteAddress.getAddress().getHostAddress()
-                        : "unknown";
-                return "ip="+ip;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The limitBy dimensions of a rule, compiled once into {@link IdentityExtractor}s.
+ *
+ * Dimensions (names are case-insensitive):
+ *   ip            : the client address, keyed by its raw bytes
+ *   userId        : the X-User-Id header
+ *   apiKey        : the X-Api-Key header
+ *   header:<name> : any request header
+ *   query:<name>  : a query parameter
+ *   path:<name>   : a variable captured by the route's Path predicate, e.g. {tenant}
+ *   cookie:<name> : a cookie
+ *
+ * Every dimension hashes its value into its own namespace, so the same value seen by two
+ * dimensions yields two keys. Requests without the value (no header, no cookie, ...) all
+ * share one key per dimension, like the "anonymous" and "unknown" identities they replace.
+ *
+ * Every distinct dimension also gets a process-wide id. When several rules judge the same
+ * request (see {@link #share}), a dimension they have in common is extracted once and the
+ * key is reused by the others. A rule can also keep a value for that request, such as
+ * where it took from, to read back if it has to hand it back.
+ */
+public final class IdentityResolver {
+    private static final IdentityResolver NONE = new IdentityResolver(new IdentityExtractor[0], new int[0]);
+    // only touched while compiling rules; requests read the count
+    private static final Map<String, Integer> DIMENSION_IDS = new HashMap<>();
+    private static volatile int dimensions;
+    private static final ThreadLocal<Shared> SHARED = ThreadLocal.withInitial(Shared::new);
+    // set once the first request is shared, so resolving never looks up the thread's keys before
+    private static volatile boolean sharing;
+
+    private final IdentityExtractor[] extractors;
+    private final int[] ids;
+
+    private IdentityResolver(IdentityExtractor[] extractors, int[] ids) {
+        this.extractors = extractors;
+        this.ids = ids;
+    }
+
+    public static IdentityResolver compile(List<String> limitBy) {
+        if (limitBy == null || limitBy.isEmpty()) {
+            return NONE;
+        }
+        IdentityExtractor[] extractors = new IdentityExtractor[limitBy.size()];
+        int[] ids = new int[extractors.length];
+        for (int i = 0; i < extractors.length; i++) {
+            extractors[i] = extractor(limitBy.get(i));
+            ids[i] = id(limitBy.get(i));
+        }
+        return new IdentityResolver(extractors, ids);
+    }
+
+    // "IP" and "ip ", or "header:X-Tenant" and "HEADER: X-Tenant", are the same dimension
+    private static synchronized int id(String dimension) {
+        int colon = dimension.indexOf(':');
+        String kind = (colon < 0 ? dimension : dimension.substring(0, colon)).trim().toLowerCase(Locale.ROOT);
+        String normalized = colon < 0 ? kind : kind + ':' + dimension.substring(colon + 1).trim();
+        Integer id = DIMENSION_IDS.get(normalized);
+        if (id == null) {
+            id = DIMENSION_IDS.size();
+            DIMENSION_IDS.put(normalized, id);
+            dimensions = id + 1;
+        }
+        return id;
+    }
+
+    /**
+     * Compiles a single dimension.
+     */
+    public static IdentityExtractor extractor(String dimension) {
+        if (dimension == null) {
+            throw new RateLimiterException("Missing limitBy dimension");
+        }
+        int colon = dimension.indexOf(':');
+        String kind = (colon < 0 ? dimension : dimension.substring(0, colon)).trim().toLowerCase(Locale.ROOT);
+        String name = colon < 0 ? null : dimension.substring(colon + 1).trim();
+        if (name != null && name.isEmpty()) {
+            throw new RateLimiterException("Missing name in limitBy dimension: " + dimension);
+        }
+
+        long seed = IdentityKey.of(name == null ? kind : kind + ':' + name);
+        long missing = IdentityKey.mix(seed);
+        switch (kind) {
+            case RateLimiterConstants.Identity.IP:
+                return exchange -> ip(exchange, seed, missing);
+            case RateLimiterConstants.Identity.USER_ID:
+                return header(RateLimiterConstants.Identity.USER_ID_HEADER, seed, missing);
+            case RateLimiterConstants.Identity.API_KEY:
+                return header(RateLimiterConstants.Identity.API_KEY_HEADER, seed, missing);
+            case RateLimiterConstants.Identity.HEADER:
+                if (name != null) {
+                    return header(name, seed, missing);
+                }
+                break;
+            case RateLimiterConstants.Identity.QUERY:
+                if (name != null) {
+                    return exchange -> key(seed, missing, exchange.getRequest().getQueryParams().getFirst(name));
+                }
+                break;
+            case RateLimiterConstants.Identity.PATH:
+                if (name != null) {
+                    return exchange -> {
+                        Map<String, String> variables = ServerWebExchangeUtils.getUriTemplateVariables(exchange);
+                        return key(seed, missing, variables.get(name));
+                    };
+                }
+                break;
+            case RateLimiterConstants.Identity.COOKIE:
+                if (name != null) {
+                    return exchange -> {
+                        HttpCookie cookie = exchange.getRequest().getCookies().getFirst(name);
+                        return key(seed, missing, cookie == null ? null : cookie.getValue());
+                    };
+                }
+                break;
+            default:
+                break;
+        }
+        throw new RateLimiterException("Unknown limitBy dimension: " + dimension);
+    }
+
+    private static IdentityExtractor header(String header, long seed, long missing) {
+        return exchange -> key(seed, missing, exchange.getRequest().getHeaders().getFirst(header));
+    }
+
+    private static long key(long seed, long missing, String value) {
+        return value == null ? missing : IdentityKey.of(seed, value);
+    }
+
+    private static long ip(ServerWebExchange exchange, long seed, long missing) {
+        InetSocketAddress remote = exchange.getRequest().getRemoteAddress();
+        InetAddress address = remote == null ? null : remote.getAddress();
+        if (address == null) {
+            return missing;
+        }
+        if (address instanceof Inet4Address) {
+            // an IPv4 address hashes to its 32 bits, read without copying them
+            return IdentityKey.of(seed, address.hashCode() & 0xFFFFFFFFL);
+        }
+        return IdentityKey.of(seed, address.getAddress());
+    }
+
+    public int size() {
+        return extractors.length;
+    }
+
+    /**
+     * Key of the request's identity in the given dimension.
+     */
+    public long resolve(ServerWebExchange exchange, int dimension) {
+        if (sharing) {
+            Shared shared = SHARED.get();
+            if (shared.exchange == exchange) {
+                return shared.key(ids[dimension], extractors[dimension]);
             }
-            case "userid" -> {
-                String userId = exchange.getRequest().getHeaders().getFirst("X-User-Id");
-                return "userId=" + (userId != null ? userId : "anonymous");
+        }
+        return extractors[dimension].extract(exchange);
+    }
+
+    /**
+     * One key for the combination of all dimensions, or {@link IdentityKey#DEFAULT} if the
+     * rule has none.
+     */
+    public long composite(ServerWebExchange exchange) {
+        if (extractors.length == 0) {
+            return IdentityKey.DEFAULT;
+        }
+        long key = resolve(exchange, 0);
+        for (int i = 1; i < extractors.length; i++) {
+            key = IdentityKey.mix(key * 31 + resolve(exchange, i));
+        }
+        return key;
+    }
+
+    /**
+     * Starts judging a request by several rules in turn on this thread. Until
+     * {@link #unshare()}, each dimension is extracted the first time a rule asks for it
+     * and served from here afterwards.
+     */
+    public static void share(ServerWebExchange exchange) {
+        sharing = true;
+        SHARED.get().begin(exchange);
+    }
+
+    public static void unshare() {
+        SHARED.get().end();
+    }
+
+    /**
+     * Keeps a value of the owner for the request this thread is judging by several rules.
+     * Does nothing outside {@link #share}, where no rule hands anything back.
+     */
+    public static void keep(ServerWebExchange exchange, Object owner, int value) {
+        if (sharing) {
+            Shared shared = SHARED.get();
+            if (shared.exchange == exchange) {
+                shared.keep(owner, value);
+            }
+        }
+    }
+
+    /**
+     * The value the owner kept for the request, or {@code missing} if it kept none.
+     */
+    public static int kept(ServerWebExchange exchange, Object owner, int missing) {
+        if (sharing) {
+            Shared shared = SHARED.get();
+            if (shared.exchange == exchange) {
+                return shared.kept(owner, missing);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * The keys of the request this thread is judging. The arrays are reused from one request
+     * to the next; a key counts as resolved only if stamped during the current one.
+     */
+    private static final class Shared {
+        private ServerWebExchange exchange;
+        private long[] keys = new long[0];
+        private int[] stamps = new int[0];
+        private int stamp;
+        // values kept by the rules of the current request, a handful at most
+        private Object[] owners = new Object[4];
+        private int[] values = new int[4];
+        private int kept;
+
+        void begin(ServerWebExchange exchange) {
+            int size = dimensions;
+            if (keys.length < size) {
+                keys = Arrays.copyOf(keys, size);
+                stamps = Arrays.copyOf(stamps, size);
+            }
+            if (++stamp == 0) {
+                Arrays.fill(stamps, 0);
+                stamp = 1;
+            }
+            this.exchange = exchange;
+        }
+
+        void end() {
+            exchange = null;
+            Arrays.fill(owners, 0, kept, null);
+            kept = 0;
+        }
+
+        void keep(Object owner, int value) {
+            for (int i = 0; i < kept; i++) {
+                if (owners[i] == owner) {
+                    values[i] = value;
+                    return;
+                }
+            }
+            if (kept == owners.length) {
+                owners = Arrays.copyOf(owners, kept * 2);
+                values = Arrays.copyOf(values, kept * 2);
+            }
+            owners[kept] = owner;
+            values[kept++] = value;
+        }
+
+        int kept(Object owner, int missing) {
+            for (int i = 0; i < kept; i++) {
+                if (owners[i] == owner) {
+                    return values[i];
+                }
+            }
+            return missing;
+        }
+
+        private long key(int id, IdentityExtractor extractor) {
+            if (id >= keys.length) {
+                // a dimension compiled by a reload after this request came in
+                return extractor.extract(exchange);
             }
-            case "apikey" -> {
-                String apiKey = exchange.getRequest().getHeaders().getFirst("X-Api-Key");
-                return "apiKey=" + (apiKey != null ? apiKey : "unknown");
+            if (stamps[id] != stamp) {
+                keys[id] = extractor.extract(exchange);
+                stamps[id] = stamp;
             }
+            return keys[id];
         }
-        return RateLimiterConstants.DEFAULT_LIMIT_IDENTITY;
     }
 }
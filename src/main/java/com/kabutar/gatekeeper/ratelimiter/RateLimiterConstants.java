@@ -6,12 +6,135 @@ public class RateLimiterConstants {
         public static final String LEAKY_BUCKET = "leakyBucket";
         public static final String FIXED_WINDOW_COUNTER = "fixedWindow";
         public static final String SLIDING_WINDOW_COUNTER = "slidingWindow";
+        public static final String GCRA = "gcra";
+        public static final String HEAVY_HITTER = "heavyHitter";
     }
     public static String DEFAULT_LIMIT_IDENTITY = "default";
+    public static final String ROUTE_METADATA_RULE = "rate-limit-rule";
 
     public static class  TokenBucket {
         public static long DEFAULT_CAPACITY = 1000;
         public static long DEFAULT_REFILL_RATE = 100;
         public static String DEFAULT_UNIT = "S";
     }
+
+    public static final class SlidingWindow {
+        // one bucket is the classic previous/current window blend
+        public static final int DEFAULT_BUCKETS = 1;
+        public static final int MAX_BUCKETS = 1024;
+    }
+
+    public static final class HeavyHitter {
+        // an estimate may exceed the true count by epsilon * requests in the window...
+        public static final double DEFAULT_EPSILON = 0.001;
+        // ...with at most this probability
+        public static final double DEFAULT_DELTA = 0.01;
+        public static final int DEFAULT_TOP_K = 1024;
+        public static final int MAX_WIDTH = 1 << 24;
+        // share of the limit at which an identity gets exact state
+        public static final double PROMOTE_FRACTION = 0.5;
+    }
+
+    public static final class Identity {
+        public static final String IP = "ip";
+        public static final String USER_ID = "userid";
+        public static final String API_KEY = "apikey";
+        public static final String USER_ID_HEADER = "X-User-Id";
+        public static final String API_KEY_HEADER = "X-Api-Key";
+        public static final String HEADER = "header";
+        public static final String QUERY = "query";
+        public static final String PATH = "path";
+        public static final String COOKIE = "cookie";
+    }
+
+    public static final class IdentityStore {
+        public static final long DEFAULT_MAX_IDENTITIES_PER_RULE = 1_000_000;
+        public static final long DEFAULT_MAX_MEMORY_MB_PER_RULE = 256;
+        public static final int DEFAULT_IDLE_TIMEOUT = 10;
+        public static final String DEFAULT_UNIT = "M";
+        public static final String BACKEND_HEAP = "heap";
+        public static final String BACKEND_OFF_HEAP = "offHeap";
+    }
+
+    public static final class Distributed {
+        public static final String STORE_LOCAL = "local";
+        public static final String STORE_REDIS = "redis";
+        public static final String STORE_PEER = "peer";
+        public static final String KEY_PREFIX = "gatekeeper:";
+        public static final String MODE_LEASE = "lease";
+        public static final String MODE_GOSSIP = "gossip";
+        public static final int DEFAULT_LEASE_PERCENT = 10;
+        public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10;
+        public static final int DEFAULT_BATCH_SIZE = 256;
+        public static final long DEFAULT_TIMEOUT_MILLIS = 100;
+    }
+
+    public static final class Gossip {
+        public static final long DEFAULT_INTERVAL_MILLIS = 100;
+        public static final int DEFAULT_FULL_SYNC_ROUNDS = 10;
+    }
+
+    public static final class Peer {
+        public static final int DEFAULT_VIRTUAL_NODES = 128;
+        // wait after a failed connect, doubled on every further failure
+        public static final long MIN_RECONNECT_MILLIS = 100;
+        public static final long MAX_RECONNECT_MILLIS = 5000;
+    }
+
+    public static final class Reload {
+        public static final long DEFAULT_POLL_MILLIS = 1000;
+        // how long a replaced limiter keeps its state for requests still using it
+        public static final long RETIRE_DELAY_SECONDS = 60;
+    }
+
+    public static final class Snapshot {
+        public static final long DEFAULT_INTERVAL_MILLIS = 10_000;
+        // how long shutdown waits for the last checkpoint
+        public static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+        public static final int MAGIC = 0x474B5350;
+        public static final int VERSION = 2;
+        // snapshot files are mapped in chunks of this size
+        public static final int CHUNK_BYTES = 1 << 26;
+        public static final int MAX_NAME_BYTES = 4096;
+    }
+
+    public static final class Evaluation {
+        public static final String FIRST = "first";
+        public static final String ALL = "all";
+    }
+
+    public static final class Headers {
+        public static final String LIMIT = "RateLimit-Limit";
+        public static final String REMAINING = "RateLimit-Remaining";
+        public static final String RESET = "RateLimit-Reset";
+    }
+
+    public static final class Delay {
+        public static final String STRATEGY = "delay";
+        public static final long DEFAULT_MAX_WAIT_MILLIS = 1000;
+        public static final int DEFAULT_MAX_PARKED = 1000;
+        // floor for a re-check when the limiter expected room but another request took it
+        public static final long MIN_RETRY_MILLIS = 1;
+    }
+
+    public static final class Metrics {
+        public static final String REQUESTS = "gatekeeper.ratelimiter.requests";
+        public static final String DECISION = "gatekeeper.ratelimiter.decision";
+        public static final String IDENTITIES = "gatekeeper.ratelimiter.identities";
+        public static final String QUEUE_DEPTH = "gatekeeper.ratelimiter.queue.depth";
+        public static final String QUEUE_WAIT = "gatekeeper.ratelimiter.queue.wait";
+        public static final String SCHEDULER_LAG = "gatekeeper.ratelimiter.scheduler.lag";
+        public static final String TAG_RULE = "rule";
+        public static final String TAG_ALGORITHM = "algorithm";
+        public static final String TAG_OUTCOME = "outcome";
+        public static final String OUTCOME_ALLOWED = "allowed";
+        public static final String OUTCOME_REJECTED = "rejected";
+    }
+
+    public static final class Scheduler {
+        public static final long TICK_MILLIS = 10;
+        public static final int WHEEL_BITS = 8;
+        public static final int LEVELS = 4;
+        public static final int WORKERS = 2;
+    }
 }
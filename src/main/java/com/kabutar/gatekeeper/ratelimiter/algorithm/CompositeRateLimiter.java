@@ -0,0 +1,92 @@
+package com.kabutar.gatekeeper.ratelimiter.algorithm;
+
+import com.kabutar.gatekeeper.ratelimiter.IdentityResolver;
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterException;
+import com.kabutar.gatekeeper.ratelimiter.handler.RateLimitedHandler;
+import com.kabutar.gatekeeper.ratelimiter.metrics.RuleMetrics;
+import org.springframework.web.server.ServerWebExchange;
+
+import java.util.List;
+
+/**
+ * Every rule matching a request, judged together: the request is allowed only if all of
+ * them allow it, and takes nothing from any of them otherwise.
+ *
+ * The rules are asked in declaration order. When one of them turns the request away, the
+ * rules before it hand back what they took, the same way a single rule rolls back its
+ * dimensions. A dimension several rules limit by (say, ip) is extracted once per request
+ * and shared between them (see {@link IdentityResolver#share}).
+ *
+ * Each rule keeps counting into its own metrics: all of them count the request as allowed,
+ * or the rule that turned it away counts it as rejected. The composite itself holds no
+ * state and is built once per set of matching rules (see {@code RouteMatcher#matchAll}).
+ */
+public class CompositeRateLimiter extends SynchronousRateLimiter {
+    private final SynchronousRateLimiter[] rules;
+
+    public CompositeRateLimiter(RateLimitedHandler handler, List<SynchronousRateLimiter> rules) {
+        super(handler, RuleMetrics.NONE);
+        if (rules.isEmpty()) {
+            throw new RateLimiterException("A composite rate limiter needs at least one rule");
+        }
+        this.rules = rules.toArray(new SynchronousRateLimiter[0]);
+    }
+
+    @Override
+    protected boolean tryAcquire(ServerWebExchange exchange) {
+        IdentityResolver.share(exchange);
+        try {
+            for (int i = 0; i < rules.length; i++) {
+                if (!rules[i].tryAcquire(exchange)) {
+                    for (int j = 0; j < i; j++) {
+                        rules[j].refund(exchange);
+                    }
+                    rules[i].metrics.rejected();
+                    return false;
+                }
+            }
+        } finally {
+            IdentityResolver.unshare();
+        }
+        for (SynchronousRateLimiter rule : rules) {
+            rule.metrics.allowed();
+        }
+        return true;
+    }
+
+    @Override
+    protected void refund(ServerWebExchange exchange) {
+        IdentityResolver.share(exchange);
+        try {
+            for (SynchronousRateLimiter rule : rules) {
+                rule.refund(exchange);
+            }
+        } finally {
+            IdentityResolver.unshare();
+        }
+    }
+
+    /**
+     * The quota of the rule with the least left, and the longest wait of any of them.
+     */
+    @Override
+    public RateLimitStatus status(ServerWebExchange exchange) {
+        RateLimitStatus tightest = null;
+        long reset = 0;
+        long retryAfter = 0;
+        IdentityResolver.share(exchange);
+        try {
+            for (SynchronousRateLimiter rule : rules) {
+                RateLimitStatus status = rule.status(exchange);
+                if (tightest == null || status.getRemaining() < tightest.getRemaining()) {
+                    tightest = status;
+                }
+                reset = Math.max(reset, status.getResetNanos());
+                retryAfter = Math.max(retryAfter, status.getRetryAfterNanos());
+            }
+        } finally {
+            IdentityResolver.unshare();
+        }
+        return new RateLimitStatus(tightest.getLimit(), tightest.getRemaining(), reset, retryAfter);
+    }
+}
@@ -0,0 +1,154 @@
+package com.kabutar.gatekeeper.ratelimiter.algorithm;
+
+import com.kabutar.gatekeeper.ratelimiter.IdentityKey;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-Min sketch of requests per identity over a sliding window, in a fixed number of
+ * words however many identities it sees.
+ *
+ * Concept:
+ *   {@code depth} rows of {@code width} cells. An identity is hashed to one cell per row
+ *   and counted in all of them; its estimate is the smallest of its cells. Other
+ *   identities landing on the same cells can only push that up, so the estimate never
+ *   falls below the true count and, with width = e / epsilon and depth = ln(1 / delta),
+ *   exceeds it by more than epsilon * (requests counted) with probability at most delta.
+ *
+ * Each cell is a current/previous window pair laid out as in a {@link SlidingWindowRing}
+ * of one bucket: a cell's words carry their window index and a stale one reads as zero,
+ * so the sketch decays by itself, one window at a time, without a reset pass or a lock.
+ * The previous window weighs in by how much of it still overlaps the sliding window.
+ *
+ * Rows are picked from the identity key mixed with a random seed per sketch, so which
+ * identities crowd each other's cells cannot be worked out from the keys alone.
+ */
+public final class CountMinSketch {
+    private final int width;
+    private final int depth;
+    private final int mask;
+    private final SlidingWindowRing ring;
+    private final AtomicLongArray cells;
+    // keeps which identities share cells unknowable from outside
+    private final long seed = new SecureRandom().nextLong();
+
+    /**
+     * @param width        cells per row, a power of two
+     * @param depth        number of rows
+     * @param periodMillis length of the window
+     */
+    public CountMinSketch(int width, int depth, long periodMillis) {
+        if (width <= 0 || Integer.bitCount(width) != 1 || depth <= 0
+                || (long) width * depth * 2 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Unsupported sketch: width=" + width + ", depth=" + depth);
+        }
+        this.width = width;
+        this.depth = depth;
+        this.mask = width - 1;
+        // cells are shared by many identities, so they count up to the word's limit, not the rule's
+        this.ring = new SlidingWindowRing(Integer.MAX_VALUE, periodMillis, 1);
+        this.cells = new AtomicLongArray(width * depth * 2);
+    }
+
+    /**
+     * Cells per row for an estimate within epsilon of the window's traffic.
+     */
+    public static int width(double epsilon) {
+        long width = (long) Math.ceil(Math.E / epsilon);
+        return width <= 1 ? 1 : Integer.highestOneBit((int) Math.min(width - 1, Integer.MAX_VALUE >> 1)) << 1;
+    }
+
+    /**
+     * Rows for an estimate that stays within its bound with probability 1 - delta.
+     */
+    public static int depth(double delta) {
+        return Math.max(1, (int) Math.ceil(Math.log(1 / delta)));
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    public long bytes() {
+        return 8L * cells.length();
+    }
+
+    public long index(long nowMillis) {
+        return ring.index(nowMillis);
+    }
+
+    /**
+     * Requests of the identity counted in the given window, at least its true count.
+     */
+    public long count(long key, long index) {
+        long hash = hash(key);
+        long count = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            count = Math.min(count, ring.count(cells.get(word(hash, row, index)), index));
+        }
+        return count;
+    }
+
+    /**
+     * Requests of the identity in the sliding window ending now.
+     */
+    public double estimate(long key, long nowMillis) {
+        long index = ring.index(nowMillis);
+        double overlap = ring.overlap(nowMillis);
+        long hash = hash(key);
+        double estimate = Double.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            double cell = ring.count(cells.get(word(hash, row, index)), index)
+                    + ring.count(cells.get(word(hash, row, index - 1)), index - 1) * overlap;
+            estimate = Math.min(estimate, cell);
+        }
+        return estimate;
+    }
+
+    /**
+     * Counts one request of the identity into the given window.
+     */
+    public void add(long key, long index) {
+        long hash = hash(key);
+        for (int row = 0; row < depth; row++) {
+            int word = word(hash, row, index);
+            while (true) {
+                long current = cells.get(word);
+                long next = ring.acquire(current, index, 0);
+                // a saturated cell already reads as over any limit
+                if (next == SlidingWindowRing.REJECTED || cells.compareAndSet(word, current, next)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes back one request counted into the given window, unless it has moved on.
+     */
+    public void restore(long key, long index) {
+        long hash = hash(key);
+        for (int row = 0; row < depth; row++) {
+            int word = word(hash, row, index);
+            long current;
+            do {
+                current = cells.get(word);
+            } while (!cells.compareAndSet(word, current, ring.restore(current, index)));
+        }
+    }
+
+    private long hash(long key) {
+        return IdentityKey.mix(key ^ seed);
+    }
+
+    // one independent-enough column per row from the two halves of the hash (Kirsch-Mitzenmacher)
+    private int word(long hash, int row, long index) {
+        int column = ((int) hash + row * ((int) (hash >>> 32) | 1)) & mask;
+        return ((row * width + column) << 1) + ring.word(index);
+    }
+}
@@ -3,43 +3,64 @@ package com.kabutar.gatekeeper.ratelimiter.algorithm;
 import com.kabutar.gatekeeper.config.rateLimit.FixedWindowConfig;
 import com.kabutar.gatekeeper.config.rateLimit.Rule;
 import com.kabutar.gatekeeper.ratelimiter.IdentityResolver;
-import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
 import com.kabutar.gatekeeper.ratelimiter.RateLimiterException;
 import com.kabutar.gatekeeper.ratelimiter.handler.RateLimitedHandler;
+import com.kabutar.gatekeeper.ratelimiter.metrics.RuleMetrics;
+import com.kabutar.gatekeeper.ratelimiter.snapshot.Snapshottable;
+import com.kabutar.gatekeeper.ratelimiter.snapshot.StateSnapshots;
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStore;
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStoreFactory;
+import com.kabutar.gatekeeper.ratelimiter.store.StateTable;
 import com.kabutar.gatekeeper.util.Units;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-import org.springframework.cloud.gateway.filter.GatewayFilterChain;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.web.server.ServerWebExchange;
-import reactor.core.publisher.Mono;
-import reactor.core.publisher.MonoSink;
-
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
-public class FixedWindowCounterRatelimiter implements RateLimiter{
-    private Logger logger = LogManager.getLogger(FixedWindowCounterRatelimiter.class);
-    private RateLimitedHandler handler;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed window counter where each identity's state is one packed (window index, count)
+ * word (see {@link PackedFixedWindow}).
+ *
+ * Windows are derived from currentTimeMillis / period, so they line up across identities
+ * and nodes, and a window is reset by the compare-and-set of the first request that sees
+ * a newer index. Nothing is scheduled per identity and an idle identity costs no CPU.
+ *
+ * The word lives in a bounded {@link IdentityStore} as an {@link AtomicLong}, or in a
+ * {@link StateTable} slot with the off-heap backend. Windows are wall-clock aligned, so the
+ * words of the current window are restored after a restart as they were saved (see
+ * {@link Snapshottable}).
+ */
+public class FixedWindowCounterRatelimiter extends SynchronousRateLimiter implements Snapshottable {
     private FixedWindowConfig config;
-    private List<String> limitBy;
+    private IdentityResolver identities;
+    private PackedFixedWindow packed;
+
+    // rough heap cost of one tracked identity: key, AtomicLong and cache entry
+    private static final long ENTRY_BYTES = 96;
 
-    private Map<String, Window> windowMap;
+    private IdentityStore<AtomicLong> windowMap;
 
-    public FixedWindowCounterRatelimiter(RateLimitedHandler handler, Rule rule){
-        this.handler = handler;
+    // off-heap backend: the same word, one per identity
+    private StateTable table;
+
+    public FixedWindowCounterRatelimiter(RateLimitedHandler handler, Rule rule, IdentityStoreFactory stores, RuleMetrics metrics){
+        super(handler, metrics);
         this.config = rule.getConfig().getFixedWindow();
-        this.windowMap = new HashMap<>();
-        this.limitBy = rule.getLimitBy();
+        this.identities = IdentityResolver.compile(rule.getLimitBy());
 
         validateConfig();
-        init(RateLimiterConstants.DEFAULT_LIMIT_IDENTITY);
+        int period = this.config.getTimeWindow() * Units.Time.MULTIPLIER.get(this.config.getTimeUnit());
+        this.packed = new PackedFixedWindow(this.config.getCounter(), TimeUnit.SECONDS.toMillis(period));
+        // an identity idle for a whole window would have been reset anyway
+        if(stores.isOffHeap()){
+            this.table = stores.createTable(1, TimeUnit.SECONDS.toNanos(period));
+        }else{
+            // a stale window reads as zero, nothing to release on eviction
+            this.windowMap = stores.create(ENTRY_BYTES, TimeUnit.SECONDS.toNanos(period),
+                    key -> new AtomicLong(),
+                    window -> {});
+        }
+        metrics.trackIdentities(table != null ? table::size : windowMap::size);
     }
 
     /**
@@ -52,102 +73,123 @@ public class FixedWindowCounterRatelimiter implements RateLimiter{
         throw new RateLimiterException("Invalid Config " + this.config.toString()+ " for : " + FixedWindowCounterRatelimiter.class.getName());
     }
 
-    private void init(String identity){
-        Window window = this.windowMap.computeIfAbsent(identity,
-                k -> new Window(
-                        this.config.getCounter(),
-                        this.config.getTimeWindow() * Units.Time.MULTIPLIER.get(this.config.getTimeUnit())));
+    /**
+     * Counts the request against every dimension, restoring the ones already counted
+     * if a later dimension is full.
+     */
+    @Override
+    protected boolean tryAcquire(ServerWebExchange exchange) {
+        long window = packed.window(System.currentTimeMillis());
+        for(int i=0;i<this.identities.size();i++){
+            long identity = this.identities.resolve(exchange,i);
+            boolean counted = table == null
+                    ? update(this.windowMap.get(identity), window, true)
+                    : update(table.slot(identity), window, true);
+            if(!counted){
+                refund(exchange, i, window);
+                return false;
+            }
+        }
+        return true;
+    }
 
+    private boolean update(AtomicLong state, long window, boolean acquire){
+        while(true){
+            long current = state.get();
+            long next = acquire ? packed.acquire(current, window) : packed.restore(current, window);
+            if(next == PackedFixedWindow.REJECTED){
+                return false;
+            }
+            if(next == current || state.compareAndSet(current, next)){
+                return true;
+            }
+        }
+    }
 
+    private boolean update(long slot, long window, boolean acquire){
+        while(true){
+            long current = table.get(slot, 0);
+            long next = acquire ? packed.acquire(current, window) : packed.restore(current, window);
+            if(next == PackedFixedWindow.REJECTED){
+                return false;
+            }
+            if(next == current || table.compareAndSet(slot, 0, current, next)){
+                return true;
+            }
+        }
     }
 
+    // a window that has moved on since the request was counted has nothing to give back
     @Override
-    public Mono<Void> allocate(ServerWebExchange exchange, GatewayFilterChain chain) {
-        logger.debug("Entering allocate method of {} for path: {}",
-                FixedWindowCounterRatelimiter.class.getCanonicalName(),
-                exchange.getRequest().getPath());
-        HttpHeaders mutableHeaders = new HttpHeaders();
-        mutableHeaders.putAll(exchange.getRequest().getHeaders());
-
-        ServerHttpRequest mutableRequest = exchange.getRequest()
-                .mutate()
-                .headers(h -> {
-                    h.clear();
-                    h.putAll(mutableHeaders);
-                })
-                .build();
-
-        ServerWebExchange mutableExchange = exchange.mutate()
-                .request(mutableRequest)
-                .build();
-        return Mono.create((MonoSink<Boolean> sink) -> {
-            boolean isAccepted = true;
-
-            int successTill = -1;
-            for(String dimension: this.limitBy){
-                String identity = IdentityResolver.resolve(exchange,dimension);
-                if(!this.windowMap.containsKey(identity)){
-                    init(identity);
-                }
-                Window window = this.windowMap.get(identity);
-                isAccepted = isAccepted && window.tryIncrement();
-
-                if(isAccepted){
-                    successTill++;
-                }else{
-                    break;
-                }
-            }
-            if(!isAccepted){
-                logger.debug("COUNTER FULL - dropping: {}", exchange.getRequest().getURI().getPath());
-                for(int i=0;i<=successTill;i++){
-                    String identity = IdentityResolver.resolve(exchange,this.limitBy.get(i));
-                    this.windowMap.get(identity).restore();
-                }
-                handler.handle(exchange)
-                        .subscribe(null, sink::error, () -> sink.success(false));
+    protected void refund(ServerWebExchange exchange) {
+        refund(exchange, this.identities.size(), packed.window(System.currentTimeMillis()));
+    }
+
+    private void refund(ServerWebExchange exchange, int dimensions, long window) {
+        for(int i=0;i<dimensions;i++){
+            long identity = this.identities.resolve(exchange,i);
+            if(table == null){
+                update(this.windowMap.get(identity), window, false);
             }else{
-                sink.success(true);
+                update(table.slot(identity), window, false);
             }
-        }).flatMap(isAccepted -> {
-            if(isAccepted){
-                logger.debug("Exiting allocate for: {}", exchange.getRequest().getURI().getPath());
-                return chain.filter(mutableExchange);
-            }
-            return Mono.empty();
-        });
+        }
     }
 
-    private static class Window{
-        private int counter;
-        private  int period;
-        private final AtomicInteger currentCount;
-        private final ScheduledExecutorService scheduler;
-
-        public Window (int counter, int period){
-            this.counter = counter;
-            this.period = period;
-            this.currentCount = new AtomicInteger(0);
-            this.scheduler = Executors.newSingleThreadScheduledExecutor();
-            init();
+    @Override
+    public RateLimitStatus status(ServerWebExchange exchange) {
+        long now = System.currentTimeMillis();
+        long count = 0;
+        for(int i=0;i<this.identities.size();i++){
+            long identity = this.identities.resolve(exchange,i);
+            long state;
+            if(table == null){
+                AtomicLong window = this.windowMap.getIfPresent(identity);
+                state = window == null ? 0 : window.get();
+            }else{
+                long slot = table.find(identity);
+                state = slot == StateTable.ABSENT ? 0 : table.get(slot, 0);
+            }
+            count = Math.max(count, packed.count(state, now));
         }
+        long reset = TimeUnit.MILLISECONDS.toNanos(packed.resetMillis(now));
+        long remaining = Math.max(0, packed.limit() - count);
+        return new RateLimitStatus(packed.limit(), remaining, reset, remaining > 0 ? 0 : reset);
+    }
 
-        private void init() {
-            scheduler.scheduleAtFixedRate(
-                    () -> currentCount.set(0),
-                    0,   // initial delay — reset starts after first window
-                    period,   // repeat every `period` seconds
-                    TimeUnit.SECONDS
-            );
-        }
+    @Override
+    public Snapshottable snapshot(){
+        return this;
+    }
 
-        // Returns true if request is allowed, false if limit exceeded
-        public boolean tryIncrement() {
-            return currentCount.incrementAndGet() <= counter;
+    @Override
+    public int words(){
+        return 1;
+    }
+
+    @Override
+    public long clock(){
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public void save(StateSink sink){
+        long now = System.currentTimeMillis();
+        StateSnapshots.save(windowMap, table, state -> packed.count(state, now) > 0, sink);
+    }
+
+    // window indexes are wall-clock time already; a window that has ended since counts nothing
+    @Override
+    public void restore(long key, long[] state, long savedClock, long elapsedNanos){
+        if(packed.count(state[0], System.currentTimeMillis()) > 0){
+            StateSnapshots.restore(windowMap, table, key, state[0]);
         }
+    }
 
-        public void restore() {
-            currentCount.decrementAndGet();
+    @Override
+    public void close(){
+        if(windowMap != null){
+            windowMap.clear();
         }
     }
 }
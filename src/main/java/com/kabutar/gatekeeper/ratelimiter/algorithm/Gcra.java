@@ -0,0 +1,114 @@
+package com.kabutar.gatekeeper.ratelimiter.algorithm;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generic Cell Rate Algorithm arithmetic over a single {@code long}: the identity's
+ * theoretical arrival time (TAT), in nanoseconds since this instance's epoch.
+ *
+ * Concept:
+ *   Conforming traffic arrives one emission interval T = period / rate apart. The TAT is
+ *   when the next request would be due if the identity had kept exactly to that pace.
+ *   A request is allowed as long as it is not more than the burst tolerance
+ *   tau = (burst - 1) * T ahead of its TAT, and then pushes the TAT one interval on:
+ *
+ *     tat' = max(tat, now) + T        allowed if tat' - now <= tau + T
+ *
+ *   This admits exactly the same traffic as a token bucket of size {@code burst}
+ *   refilled at {@code rate}, but the state is a single timestamp: no token count, no
+ *   refill step, and the decision is one compare-and-set.
+ *
+ * A zero state is a TAT in the past, i.e. an identity that may burst in full. A rejected
+ * request can be told exactly when it would conform: tat - tau - now.
+ *
+ * One instance holds the parameters derived from a rule and is shared by every identity
+ * of that rule; the per-identity state is just the {@code long}.
+ */
+public final class Gcra {
+    public static final long REJECTED = -1L;
+
+    private final long epochNanos;
+    private final long intervalNanos;
+    private final long toleranceNanos;
+
+    /**
+     * @param rate          requests allowed per period
+     * @param periodSeconds length of the period
+     * @param burst         requests allowed back to back by an idle identity
+     */
+    public Gcra(long rate, long periodSeconds, long burst) {
+        if (rate <= 0 || periodSeconds <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("Unsupported GCRA: rate=" + rate
+                    + ", periodSeconds=" + periodSeconds + ", burst=" + burst);
+        }
+        this.epochNanos = System.nanoTime();
+        this.intervalNanos = Math.max(1, TimeUnit.SECONDS.toNanos(periodSeconds) / rate);
+        this.toleranceNanos = Math.multiplyExact(burst - 1, intervalNanos);
+    }
+
+    /**
+     * Current time in nanoseconds since this instance's epoch.
+     */
+    public long now() {
+        return System.nanoTime() - epochNanos;
+    }
+
+    /**
+     * @return the TAT to publish, or {@link #REJECTED} if the request does not conform
+     */
+    public long acquire(long tat, long now) {
+        long next = Math.max(tat, now) + intervalNanos;
+        if (next - now > toleranceNanos + intervalNanos) {
+            return REJECTED;
+        }
+        return next;
+    }
+
+    /**
+     * Hands back one interval, e.g. when a later dimension of the same request was rejected.
+     */
+    public long refund(long tat) {
+        return Math.max(0, tat - intervalNanos);
+    }
+
+    /**
+     * Moves a TAT saved by another instance, e.g. before a restart, onto this instance's
+     * epoch; a TAT that has passed in the meantime is a fresh identity.
+     *
+     * @param savedNow     the other instance's {@link #now()} when the TAT was saved
+     * @param elapsedNanos time since it was saved
+     */
+    public long rebase(long tat, long savedNow, long elapsedNanos) {
+        long ahead = tat - savedNow - elapsedNanos;
+        return ahead <= 0 ? 0 : now() + ahead;
+    }
+
+    /**
+     * Requests the identity may still send back to back.
+     */
+    public long remaining(long tat, long now) {
+        long ahead = Math.max(0, tat - now);
+        return Math.max(0, (toleranceNanos + intervalNanos - ahead) / intervalNanos);
+    }
+
+    /**
+     * Nanoseconds until the identity may burst in full again.
+     */
+    public long resetNanos(long tat, long now) {
+        return Math.max(0, tat - now);
+    }
+
+    /**
+     * Nanoseconds until a request of the identity would conform; 0 if it already does.
+     */
+    public long retryAfterNanos(long tat, long now) {
+        return Math.max(0, tat - toleranceNanos - now);
+    }
+
+    /**
+     * Time after which an idle identity's state is as good as a fresh one.
+     */
+    public long horizonNanos() {
+        return toleranceNanos + intervalNanos;
+    }
+}
@@ -0,0 +1,197 @@
+package com.kabutar.gatekeeper.ratelimiter.algorithm;
+
+import com.kabutar.gatekeeper.config.rateLimit.GcraConfig;
+import com.kabutar.gatekeeper.config.rateLimit.Rule;
+import com.kabutar.gatekeeper.ratelimiter.IdentityKey;
+import com.kabutar.gatekeeper.ratelimiter.IdentityResolver;
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterException;
+import com.kabutar.gatekeeper.ratelimiter.handler.RateLimitedHandler;
+import com.kabutar.gatekeeper.ratelimiter.metrics.RuleMetrics;
+import com.kabutar.gatekeeper.ratelimiter.snapshot.Snapshottable;
+import com.kabutar.gatekeeper.ratelimiter.snapshot.StateSnapshots;
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStore;
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStoreFactory;
+import com.kabutar.gatekeeper.ratelimiter.store.StateTable;
+import com.kabutar.gatekeeper.util.Units;
+import org.springframework.web.server.ServerWebExchange;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * GCRA limiter where each identity's state is a single theoretical arrival time (see
+ * {@link Gcra}), decided with one compare-and-set and without any timer.
+ *
+ * Every limitBy dimension is limited on its own; if a later dimension rejects the
+ * request, the intervals already taken are handed back. A rule without dimensions
+ * limits all of its traffic as the rule-wide DEFAULT identity.
+ *
+ * Per-identity state lives in a bounded {@link IdentityStore}, or in a {@link StateTable}
+ * slot with the off-heap backend. An identity idle for longer than its burst takes to
+ * recover has a TAT in the past, the same as a fresh one, so it can be dropped freely.
+ * TATs still ahead are kept across restarts (see {@link Snapshottable}).
+ */
+public class GcraRateLimiter extends SynchronousRateLimiter implements Snapshottable {
+    // rough heap cost of one tracked identity: key, AtomicLong and cache entry
+    private static final long ENTRY_BYTES = 96;
+
+    private final GcraConfig config;
+    private final IdentityResolver identities;
+    private final Gcra gcra;
+
+    private IdentityStore<AtomicLong> states;
+    private StateTable table;
+
+    public GcraRateLimiter(RateLimitedHandler handler, Rule rule, IdentityStoreFactory stores, RuleMetrics metrics) {
+        super(handler, metrics);
+        if (rule == null || rule.getConfig() == null || rule.getConfig().getGcra() == null) {
+            throw new RateLimiterException("Missing gcra config for rule: " + rule);
+        }
+        this.config = rule.getConfig().getGcra();
+        this.identities = IdentityResolver.compile(rule.getLimitBy());
+
+        validateConfig();
+        this.gcra = new Gcra(config.getRate(), Units.Time.MULTIPLIER.get(config.getRateUnit()), config.getBurst());
+
+        if (stores.isOffHeap()) {
+            this.table = stores.createTable(1, gcra.horizonNanos());
+        } else {
+            // a TAT in the past is a fresh identity, nothing to release on eviction
+            this.states = stores.create(ENTRY_BYTES, gcra.horizonNanos(), key -> new AtomicLong(), state -> {});
+        }
+        metrics.trackIdentities(table != null ? table::size : states::size);
+    }
+
+    private void validateConfig() {
+        if (config.getRate() <= 0
+                || config.getBurst() <= 0
+                || !Units.Time.MULTIPLIER.containsKey(config.getRateUnit())) {
+            throw new RateLimiterException("Invalid config: " + config);
+        }
+    }
+
+    @Override
+    protected boolean tryAcquire(ServerWebExchange exchange) {
+        long now = gcra.now();
+        if (identities.size() == 0) {
+            return tryAcquire(IdentityKey.DEFAULT, now);
+        }
+
+        for (int i = 0; i < identities.size(); i++) {
+            if (!tryAcquire(identities.resolve(exchange, i), now)) {
+                // hand back what this request already took
+                refund(exchange, i);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean tryAcquire(long identity, long now) {
+        if (table == null) {
+            AtomicLong state = states.get(identity);
+            while (true) {
+                long current = state.get();
+                long next = gcra.acquire(current, now);
+                if (next == Gcra.REJECTED) {
+                    return false;
+                }
+                if (state.compareAndSet(current, next)) {
+                    return true;
+                }
+            }
+        }
+        long slot = table.slot(identity);
+        while (true) {
+            long current = table.get(slot, 0);
+            long next = gcra.acquire(current, now);
+            if (next == Gcra.REJECTED) {
+                return false;
+            }
+            if (table.compareAndSet(slot, 0, current, next)) {
+                return true;
+            }
+        }
+    }
+
+    private void refund(long identity) {
+        if (table == null) {
+            AtomicLong state = states.get(identity);
+            long current;
+            do {
+                current = state.get();
+            } while (!state.compareAndSet(current, gcra.refund(current)));
+            return;
+        }
+        long slot = table.slot(identity);
+        long current;
+        do {
+            current = table.get(slot, 0);
+        } while (!table.compareAndSet(slot, 0, current, gcra.refund(current)));
+    }
+
+    @Override
+    protected void refund(ServerWebExchange exchange) {
+        if (identities.size() == 0) {
+            refund(IdentityKey.DEFAULT);
+            return;
+        }
+        refund(exchange, identities.size());
+    }
+
+    private void refund(ServerWebExchange exchange, int dimensions) {
+        for (int i = 0; i < dimensions; i++) {
+            refund(identities.resolve(exchange, i));
+        }
+    }
+
+    @Override
+    public RateLimitStatus status(ServerWebExchange exchange) {
+        long now = gcra.now();
+        long tat = identities.size() == 0 ? state(IdentityKey.DEFAULT) : 0;
+        for (int i = 0; i < identities.size(); i++) {
+            // the latest TAT is the most constrained dimension on every count
+            tat = Math.max(tat, state(identities.resolve(exchange, i)));
+        }
+        return new RateLimitStatus(config.getBurst(), gcra.remaining(tat, now),
+                gcra.resetNanos(tat, now), gcra.retryAfterNanos(tat, now));
+    }
+
+    @Override
+    public Snapshottable snapshot() {
+        return this;
+    }
+
+    @Override
+    public int words() {
+        return 1;
+    }
+
+    @Override
+    public long clock() {
+        return gcra.now();
+    }
+
+    @Override
+    public void save(StateSink sink) {
+        long now = gcra.now();
+        StateSnapshots.save(states, table, tat -> tat > now, sink);
+    }
+
+    @Override
+    public void restore(long key, long[] state, long savedClock, long elapsedNanos) {
+        long tat = gcra.rebase(state[0], savedClock, elapsedNanos);
+        if (tat != 0) {
+            StateSnapshots.restore(states, table, key, tat);
+        }
+    }
+
+    // the identity's TAT without tracking it; an untracked identity may burst in full
+    private long state(long identity) {
+        if (table == null) {
+            AtomicLong state = states.getIfPresent(identity);
+            return state == null ? 0 : state.get();
+        }
+        long slot = table.find(identity);
+        return slot == StateTable.ABSENT ? 0 : table.get(slot, 0);
+    }
+}
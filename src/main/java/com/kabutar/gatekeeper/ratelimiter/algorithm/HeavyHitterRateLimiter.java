@@ -0,0 +1,263 @@
+package com.kabutar.gatekeeper.ratelimiter.algorithm;
+
+import com.kabutar.gatekeeper.config.rateLimit.HeavyHitterConfig;
+import com.kabutar.gatekeeper.config.rateLimit.Rule;
+import com.kabutar.gatekeeper.ratelimiter.IdentityKey;
+import com.kabutar.gatekeeper.ratelimiter.IdentityResolver;
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterException;
+import com.kabutar.gatekeeper.ratelimiter.handler.RateLimitedHandler;
+import com.kabutar.gatekeeper.ratelimiter.metrics.RuleMetrics;
+import com.kabutar.gatekeeper.ratelimiter.snapshot.Snapshottable;
+import com.kabutar.gatekeeper.ratelimiter.snapshot.StateSnapshots;
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStore;
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStoreFactory;
+import com.kabutar.gatekeeper.util.Units;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.web.server.ServerWebExchange;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Sliding window limiter for dimensions with more identities than are worth tracking,
+ * such as client IPs at the edge, where nearly every identity stays far below the limit.
+ *
+ * Every admitted request is counted in a {@link CountMinSketch} whose size depends only
+ * on {@code epsilon} and {@code delta}. While an identity's estimate is below half the
+ * limit it is let through on the sketch alone. Once it reaches that, it is promoted: it
+ * gets an exact previous/current window pair, seeded from the sketch, and is decided on
+ * that from then on. At most {@code topK} identities are promoted. While that many are,
+ * any other identity is decided on its estimate against the full limit, and gets its
+ * turn once a promoted one goes idle and expires. An identity the store drops for any
+ * other reason falls back on the sketch, which kept counting it.
+ *
+ * Error bound: the sketch never underestimates, so no identity gets more than the limit.
+ * With probability at least 1 - delta an estimate exceeds the true count by no more than
+ * epsilon times the requests the rule admitted in the window, so an identity is promoted
+ * early (and, being seeded from the estimate, limited early) only when that share of the
+ * traffic is more than half its headroom. Size epsilon from the expected traffic per
+ * window and the limit accordingly.
+ *
+ * Memory is the sketch plus {@code topK} windows, whatever the number of identities; the
+ * store backend does not apply, as there is no per-identity table to move off-heap.
+ * Only the promoted identities are kept across restarts (see {@link Snapshottable}); the
+ * sketch starts empty and the rest are light by definition.
+ */
+public class HeavyHitterRateLimiter extends SynchronousRateLimiter implements Snapshottable {
+    private static final Logger logger = LogManager.getLogger(HeavyHitterRateLimiter.class);
+
+    // rough heap cost of one promoted identity without its words: key, array and cache entry
+    private static final long ENTRY_BYTES = 112;
+
+    private final HeavyHitterConfig config;
+    private final IdentityResolver identities;
+    private final SlidingWindowRing ring;
+    private final CountMinSketch sketch;
+    private final double promoteAt;
+    private final long maxPromoted;
+
+    private final IdentityStore<AtomicLongArray> heavyHitters;
+
+    public HeavyHitterRateLimiter(RateLimitedHandler handler, Rule rule, IdentityStoreFactory stores, RuleMetrics metrics) {
+        super(handler, metrics);
+        if (rule == null || rule.getConfig() == null || rule.getConfig().getHeavyHitter() == null) {
+            throw new RateLimiterException("Missing heavyHitter config for rule: " + rule);
+        }
+        this.config = rule.getConfig().getHeavyHitter();
+        this.identities = IdentityResolver.compile(rule.getLimitBy());
+
+        validateConfig();
+        long periodMillis = TimeUnit.SECONDS.toMillis(
+                (long) config.getTimeWindow() * Units.Time.MULTIPLIER.get(config.getTimeUnit()));
+        double epsilon = config.getEpsilon() == 0 ? RateLimiterConstants.HeavyHitter.DEFAULT_EPSILON : config.getEpsilon();
+        double delta = config.getDelta() == 0 ? RateLimiterConstants.HeavyHitter.DEFAULT_DELTA : config.getDelta();
+        int topK = config.getTopK() == 0 ? RateLimiterConstants.HeavyHitter.DEFAULT_TOP_K : config.getTopK();
+
+        int width = CountMinSketch.width(epsilon);
+        if (width > RateLimiterConstants.HeavyHitter.MAX_WIDTH) {
+            throw new RateLimiterException("Epsilon too small for a sketch: " + config);
+        }
+        this.ring = new SlidingWindowRing(config.getCounter(), periodMillis, 1);
+        this.sketch = new CountMinSketch(width, CountMinSketch.depth(delta), periodMillis);
+        this.promoteAt = config.getCounter() * RateLimiterConstants.HeavyHitter.PROMOTE_FRACTION;
+        logger.debug("Heavy hitter sketch for {}: {} x {} cells, {} bytes",
+                rule.getId(), sketch.depth(), sketch.width(), sketch.bytes());
+
+        // the previous window weighs in until it has slid out completely
+        long horizonNanos = TimeUnit.MILLISECONDS.toNanos(2 * periodMillis);
+        long entryBytes = ENTRY_BYTES + 8L * ring.words();
+        this.maxPromoted = stores.capacity(topK, entryBytes);
+        this.heavyHitters = stores.create(topK, entryBytes, horizonNanos, this::promote, window -> {});
+        metrics.trackIdentities(heavyHitters::size);
+    }
+
+    private void validateConfig() {
+        if (config.getCounter() > 0
+                && config.getTimeWindow() > 0
+                && config.getEpsilon() >= 0 && config.getEpsilon() < 1
+                && config.getDelta() >= 0 && config.getDelta() < 1
+                && config.getTopK() >= 0
+                && Units.Time.MULTIPLIER.containsKey(config.getTimeUnit())) {
+            return;
+        }
+        throw new RateLimiterException("Invalid config: " + config);
+    }
+
+    // exact state for a newly promoted identity, starting from what the sketch counted for it
+    private AtomicLongArray promote(long key) {
+        long index = sketch.index(System.currentTimeMillis());
+        AtomicLongArray window = new AtomicLongArray(ring.words());
+        window.set(ring.word(index), ring.state(index, sketch.count(key, index)));
+        window.set(ring.word(index - 1), ring.state(index - 1, sketch.count(key, index - 1)));
+        return window;
+    }
+
+    @Override
+    protected boolean tryAcquire(ServerWebExchange exchange) {
+        long now = System.currentTimeMillis();
+        if (identities.size() == 0) {
+            return acquire(IdentityKey.DEFAULT, now);
+        }
+
+        for (int i = 0; i < identities.size(); i++) {
+            if (!acquire(identities.resolve(exchange, i), now)) {
+                // hand back what this request already took
+                refund(exchange, i, ring.index(now));
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean acquire(long key, long now) {
+        long index = ring.index(now);
+        AtomicLongArray window = heavyHitters.getIfPresent(key);
+        if (window == null) {
+            double estimate = sketch.estimate(key, now);
+            if (estimate < promoteAt) {
+                sketch.add(key, index);
+                return true;
+            }
+            if (heavyHitters.size() >= maxPromoted) {
+                // a promotion now would only push out another heavy hitter, or be dropped
+                // and promoted again on the next request
+                if (estimate >= ring.limit()) {
+                    return false;
+                }
+                sketch.add(key, index);
+                return true;
+            }
+            window = heavyHitters.get(key);
+        }
+
+        double older = ring.count(window.get(ring.word(index - 1)), index - 1) * ring.overlap(now);
+        int word = ring.word(index);
+        while (true) {
+            long current = window.get(word);
+            long next = ring.acquire(current, index, older);
+            if (next == SlidingWindowRing.REJECTED) {
+                return false;
+            }
+            if (window.compareAndSet(word, current, next)) {
+                // the sketch keeps counting, so an identity dropped from the top K falls back on it
+                sketch.add(key, index);
+                return true;
+            }
+        }
+    }
+
+    boolean isPromoted(long key) {
+        return heavyHitters.getIfPresent(key) != null;
+    }
+
+    private void restore(long key, long index) {
+        AtomicLongArray window = heavyHitters.getIfPresent(key);
+        if (window != null) {
+            int word = ring.word(index);
+            long current;
+            do {
+                current = window.get(word);
+            } while (!window.compareAndSet(word, current, ring.restore(current, index)));
+        }
+        sketch.restore(key, index);
+    }
+
+    @Override
+    protected void refund(ServerWebExchange exchange) {
+        long index = ring.index(System.currentTimeMillis());
+        if (identities.size() == 0) {
+            restore(IdentityKey.DEFAULT, index);
+            return;
+        }
+        refund(exchange, identities.size(), index);
+    }
+
+    private void refund(ServerWebExchange exchange, int dimensions, long index) {
+        for (int i = 0; i < dimensions; i++) {
+            restore(identities.resolve(exchange, i), index);
+        }
+    }
+
+    @Override
+    public RateLimitStatus status(ServerWebExchange exchange) {
+        long now = System.currentTimeMillis();
+        long index = ring.index(now);
+        long remaining = ring.limit();
+        long wait = 0;
+        int dimensions = Math.max(1, identities.size());
+        for (int i = 0; i < dimensions; i++) {
+            long key = identities.size() == 0 ? IdentityKey.DEFAULT : identities.resolve(exchange, i);
+            AtomicLongArray window = heavyHitters.getIfPresent(key);
+            long sliding;
+            long current;
+            if (window != null) {
+                sliding = ring.count(window.get(ring.word(index - 1)), index - 1);
+                current = ring.count(window.get(ring.word(index)), index);
+            } else {
+                sliding = sketch.count(key, index - 1);
+                current = sketch.count(key, index);
+            }
+            remaining = Math.min(remaining, ring.remaining(sliding, current, now));
+            wait = Math.max(wait, ring.retryAfterMillis(sliding, current, now));
+        }
+        return new RateLimitStatus(ring.limit(), remaining,
+                TimeUnit.MILLISECONDS.toNanos(Math.max(wait, ring.resetMillis(now))),
+                TimeUnit.MILLISECONDS.toNanos(wait));
+    }
+
+    @Override
+    public Snapshottable snapshot() {
+        return this;
+    }
+
+    @Override
+    public int words() {
+        return ring.words();
+    }
+
+    @Override
+    public long clock() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public void save(StateSink sink) {
+        long now = System.currentTimeMillis();
+        StateSnapshots.save(heavyHitters, null, ring.words(), words -> ring.live(words, now), sink);
+    }
+
+    // sub-bucket indexes are wall-clock time already; the ones that have slid out count nothing
+    @Override
+    public void restore(long key, long[] state, long savedClock, long elapsedNanos) {
+        if (ring.live(state, System.currentTimeMillis())) {
+            StateSnapshots.restore(heavyHitters, null, key, state);
+        }
+    }
+
+    @Override
+    public void close() {
+        heavyHitters.clear();
+    }
+}
@@ -3,104 +3,113 @@ package com.kabutar.gatekeeper.ratelimiter.algorithm;
 import com.kabutar.gatekeeper.config.rateLimit.LeakyBucketConfig;
 import com.kabutar.gatekeeper.config.rateLimit.Rule;
 import com.kabutar.gatekeeper.ratelimiter.IdentityResolver;
-import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
 import com.kabutar.gatekeeper.ratelimiter.RateLimiterException;
 import com.kabutar.gatekeeper.ratelimiter.defaults.DefaultTokenRule;
 import com.kabutar.gatekeeper.ratelimiter.handler.RateLimitedHandler;
-import com.kabutar.gatekeeper.util.PendingRequest;
+import com.kabutar.gatekeeper.ratelimiter.metrics.RuleMetrics;
+import com.kabutar.gatekeeper.ratelimiter.snapshot.Snapshottable;
+import com.kabutar.gatekeeper.ratelimiter.snapshot.StateSnapshots;
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStore;
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStoreFactory;
+import com.kabutar.gatekeeper.ratelimiter.store.StateTable;
+import com.kabutar.gatekeeper.util.Exchanges;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Mono;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.time.Duration;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Leaky Bucket Rate Limiter implementation for Spring Cloud Gateway.
  *
  * Concept:
- *   Incoming requests are placed into a fixed-capacity queue (the "bucket").
- *   A scheduler drains the queue at a fixed rate (outFlowPerSec), forwarding
- *   one request per tick to the downstream chain. If the bucket is full when
- *   a new request arrives, it is immediately rejected with a 429 response.
+ *   Requests leave the bucket at a fixed rate (outFlowPerSec), one every
+ *   1/outFlowPerSec seconds, no matter how bursty they arrive. Up to
+ *   `capacity` requests may wait for their turn; anything beyond that is
+ *   rejected with a 429 response.
  *
- * This enforces a smooth, constant output rate regardless of how bursty
- * the incoming traffic is.
+ * Virtual time:
+ *   Instead of queueing requests and draining the queue on a timer, every identity
+ *   keeps a single long: the time at which its next release slot is free. A request
+ *   takes the later of that slot and now as its release time and moves the slot one
+ *   interval further with a compare-and-set. The request is then simply delayed until
+ *   its release time. A full bucket is one whose next slot lies more than
+ *   capacity / outFlowPerSec seconds ahead, so the wait itself tells whether the
+ *   request fits.
+ *
+ *   Nothing runs while a bucket is idle, any rate is supported (there is no polling
+ *   interval to round down to zero), and an identity costs one long, which lets the
+ *   off-heap backend keep it in a {@link StateTable} slot.
  *
  * Key design decisions:
- *   - Mono.create() is used to keep the HTTP connection open (pending) until
- *     the scheduler drains the request. The sink is only resolved when the
- *     leaker fires or when the bucket is full.
- *   - Mono<Boolean> sink carries a signal: true = forward, false = already rejected.
- *     flatMap() then conditionally calls chain.filter() only for accepted requests,
- *     preventing double-execution on rejected paths.
- *   - ServerWebExchange is mutated with a deep-copied HttpHeaders before queuing
- *     to avoid ReadOnlyHttpHeaders.addAll() crash in NettyRoutingFilter when the
- *     exchange is forwarded across async thread boundaries.
+ *   - A request whose slot is free now is forwarded on the calling thread with the
+ *     exchange it came in with, exactly like the synchronous limiters.
+ *   - A delayed request waits on Mono.delay and is then forwarded with its headers
+ *     deep-copied into a mutable HttpHeaders. Netty seals inbound headers as
+ *     ReadOnlyHttpHeaders, and NettyRoutingFilter calls addAll() on them when the
+ *     exchange is forwarded from another thread.
+ *   - The slot is taken when the request is admitted, so a client that disconnects
+ *     while waiting still uses up its turn.
+ *   - An identity idle for longer than it takes to drain a full bucket has a slot in
+ *     the past, which is the same as a fresh one, so the store may drop it freely.
+ *
+ * The rule's {@link RuleMetrics} track how many requests are waiting and how long
+ * they waited. A request counts as allowed once it is admitted.
+ *
+ * Next free slots still ahead are kept across restarts (see {@link Snapshottable}), moved
+ * onto the new process's virtual time. Requests waiting at shutdown are not.
  */
-public class LeakyBucketRateLimiter implements RateLimiter {
+public class LeakyBucketRateLimiter implements RateLimiter, Snapshottable {
     private static final Logger logger = LogManager.getLogger(LeakyBucketRateLimiter.class);
 
+    // rough heap cost of one tracked identity: key, AtomicLong and cache entry
+    private static final long ENTRY_BYTES = 96;
+    static final long REJECTED = -1;
+
     private final RateLimitedHandler handler;
     private final LeakyBucketConfig config;
-    private final List<String> limitByDimensions;
+    private final IdentityResolver identities;
+    private final RuleMetrics metrics;
+
+    private final long intervalNanos;
+    private final long maxDelayNanos;
+    // virtual time is kept relative to this, so a zeroed slot is always in the past
+    private final long originNanos = System.nanoTime();
 
     /*
      * Each unique identity (composite key built from limitBy dimensions) gets
-     * its own Bucket with an independent queue and scheduler. This allows
-     * per-user, per-IP, or per-API-key rate limiting independently.
+     * its own next-free-slot timestamp. This allows per-user, per-IP, or
+     * per-API-key rate limiting independently.
      */
-    private final Map<String, Bucket> buckets;
+    private IdentityStore<AtomicLong> buckets;
+    private StateTable table;
 
-    public LeakyBucketRateLimiter(RateLimitedHandler handler, Rule rule) {
+    public LeakyBucketRateLimiter(RateLimitedHandler handler, Rule rule, IdentityStoreFactory stores, RuleMetrics metrics) {
         this.handler = handler;
+        this.metrics = metrics;
         if (rule == null) rule = DefaultTokenRule.getRule();
         this.config = rule.getConfig().getLeakyBucket();
-        this.limitByDimensions = rule.getLimitBy();
-        this.buckets = new HashMap<>();
+        this.identities = IdentityResolver.compile(rule.getLimitBy());
         validateConfig();
-        // Initialize the default bucket that applies globally to all requests
-        // regardless of any per-dimension limiting.
-        init(RateLimiterConstants.DEFAULT_LIMIT_IDENTITY);
-    }
-
-    /**
-     * Creates a Bucket for the given identity and starts its leaker scheduler.
-     *
-     * The scheduler fires every (1000 / outFlowPerSec) milliseconds — this is
-     * the inter-request interval derived from the desired output rate.
-     * Each tick polls one request from the queue and signals its sink with
-     * success(true), which unblocks the waiting Mono and triggers chain.filter().
-     *
-     * If the queue is empty on a tick, nothing happens — the tick is skipped silently.
-     */
-    private void init(String identity) {
-        Bucket bucket = this.buckets.computeIfAbsent(identity, k -> new Bucket(this.config.getCapacity()));
-
-        // Convert rate (req/sec) to period (ms/req): e.g. 10 req/s -> 100ms between each
-        long intervalMs = 1000L / this.config.getOutFlowPerSec();
 
-        bucket.getScheduler().scheduleAtFixedRate(() -> {
-            PendingRequest pending = bucket.getQueue().poll(); // non-blocking, returns null if empty
-            if (pending == null) return;
-
-            logger.debug("Leaker releasing: {}",
-                    pending.getServerWebExchange().getRequest().getURI().getPath());
-
-            // Signal the waiting Mono.create sink that this request is approved.
-            // true = accepted -> flatMap will call chain.filter() downstream.
-            pending.getSink().success(true);
-        }, 0, intervalMs, TimeUnit.MILLISECONDS);
+        // Convert rate (req/sec) to period (ns/req): e.g. 10 req/s -> 100ms between each
+        this.intervalNanos = Math.max(1, TimeUnit.SECONDS.toNanos(1) / config.getOutFlowPerSec());
+        // time to drain a full bucket
+        this.maxDelayNanos = intervalNanos * config.getCapacity();
+        // the next slot is never further ahead than this
+        long horizonNanos = maxDelayNanos + intervalNanos;
+        if (stores.isOffHeap()) {
+            this.table = stores.createTable(1, horizonNanos);
+        } else {
+            // a slot in the past is a fresh bucket, nothing to release on eviction
+            this.buckets = stores.create(ENTRY_BYTES, horizonNanos, key -> new AtomicLong(), state -> {});
+        }
+        metrics.trackQueue();
+        metrics.trackIdentities(table != null ? table::size : buckets::size);
     }
 
     private void validateConfig() {
@@ -113,118 +122,121 @@ public class LeakyBucketRateLimiter implements RateLimiter {
      * Core allocation method called by the Gateway filter on every request.
      *
      * Flow:
-     *   1. Deep-copy request headers into a mutable HttpHeaders instance.
-     *      Netty seals inbound headers as ReadOnlyHttpHeaders. When this exchange
-     *      is forwarded later across async boundaries, NettyRoutingFilter calls
-     *      addAll() on the headers — this throws UnsupportedOperationException
-     *      on ReadOnlyHttpHeaders. Explicitly copying headers into a fresh
-     *      HttpHeaders object (backed by LinkedMultiValueMap) avoids this.
-     *
-     *   2. Wrap the exchange via mutate() with the mutable request headers.
-     *      This mutableExchange is what gets queued and eventually forwarded.
-     *
-     *   3. Mono.create() returns a Mono<Boolean> that stays pending (HTTP
-     *      connection held open) until either:
-     *        a. The leaker drains the request -> sink.success(true)
-     *        b. The bucket is full -> handler writes 429, then sink.success(false)
-     *
-     *   4. flatMap() acts as the conditional gate:
-     *        - true  -> call chain.filter(mutableExchange) to forward the request
-     *        - false -> return Mono.empty() since 429 is already written, nothing more to do
-     *
-     *   This separation is critical: without it, .then(chain.filter()) would execute
-     *   for BOTH accepted and rejected requests, causing "response already committed" errors.
+     *   1. The identity's next free slot decides how long the request has to wait.
+     *   2. No wait  -> forwarded right away.
+     *      Wait     -> forwarded with a mutable copy of its headers once the delay is up.
+     *      Too long -> the bucket is full; the handler writes the 429.
      */
     @Override
     public Mono<Void> allocate(ServerWebExchange exchange, GatewayFilterChain chain) {
-        logger.debug("Entering allocate for: {}", exchange.getRequest().getURI().getPath());
-
-        // Step 1: Deep-copy headers to make them mutable for downstream Gateway filters
-        HttpHeaders mutableHeaders = new HttpHeaders();
-        mutableHeaders.putAll(exchange.getRequest().getHeaders());
-
-        ServerHttpRequest mutableRequest = exchange.getRequest()
-                .mutate()
-                .headers(h -> {
-                    h.clear();
-                    h.putAll(mutableHeaders);
-                })
-                .build();
-
-        ServerWebExchange mutableExchange = exchange.mutate()
-                .request(mutableRequest)
-                .build();
-
-        // Step 2: Resolve the bucket for this request's identity
-        String compositeKey = buildCompositeKey(mutableExchange);
-        if (!this.buckets.containsKey(compositeKey)) {
-            init(compositeKey);
+        long start = metrics.start();
+        long delay = reserve(identities.composite(exchange));
+        metrics.decided(start);
+
+        if (delay == REJECTED) {
+            metrics.rejected();
+            logger.debug("BUCKET FULL - dropping: {}", exchange.getRequest().getURI().getPath());
+            return handler.handle(exchange, status(exchange));
         }
-        Bucket bucket = this.buckets.get(compositeKey);
-
-        // Step 3 & 4: Queue the request and conditionally forward when drained
-        return Mono.<Boolean>create(sink -> {
-            PendingRequest request = new PendingRequest(mutableExchange, sink);
-            boolean accepted = bucket.getQueue().offer(request); // non-blocking, returns false if full
-
-            if (!accepted) {
-                // Bucket is full — immediately reject with configured handler (typically 429)
-                // After handler completes, signal false so flatMap skips chain.filter()
-                logger.debug("BUCKET FULL - dropping: {}", exchange.getRequest().getURI().getPath());
-                handler.handle(exchange)
-                        .subscribe(null, sink::error, () -> sink.success(false));
-            }
-            // If accepted, sink stays open here.
-            // The scheduler's leaker will call sink.success(true) when it drains this request.
-        }).flatMap(accepted -> {
-            if (accepted) {
-                // Request was drained by the leaker — forward to the next filter/downstream service
-                logger.debug("Exiting allocate for: {}", exchange.getRequest().getURI().getPath());
-                return chain.filter(mutableExchange);
-            }
-            // Request was rejected — handler already wrote the 429 response, nothing more to do
-            return Mono.empty();
-        });
+        metrics.allowed();
+        if (delay == 0) {
+            return chain.filter(exchange);
+        }
+
+        logger.debug("Delaying {} by {}ns", exchange.getRequest().getURI().getPath(), delay);
+        long enqueuedNanos = System.nanoTime();
+        metrics.enqueued();
+        return Mono.delay(Duration.ofNanos(delay))
+                .doOnCancel(metrics::discarded)
+                .then(Mono.defer(() -> {
+                    metrics.dequeued(enqueuedNanos);
+                    return chain.filter(Exchanges.withMutableHeaders(exchange));
+                }));
     }
 
     /**
-     * Builds a composite identity key from the configured limitBy dimensions.
-     *
-     * Examples:
-     *   limitBy = []          -> "DEFAULT"
-     *   limitBy = ["IP"]      -> "192.168.1.1"
-     *   limitBy = ["IP","API"]-> "192.168.1.1:/posts/1"
-     *
-     * Each unique key gets its own independent Bucket with its own queue and scheduler,
-     * enabling fine-grained rate limiting per user, IP, API key, etc.
+     * Reports how many more requests fit in the bucket, how long it takes to drain and how
+     * long until a request fits again.
      */
-    private String buildCompositeKey(ServerWebExchange exchange) {
-        if (limitByDimensions == null || limitByDimensions.isEmpty()) {
-            return RateLimiterConstants.DEFAULT_LIMIT_IDENTITY;
+    @Override
+    public RateLimitStatus status(ServerWebExchange exchange) {
+        long identity = identities.composite(exchange);
+        long next;
+        if (table == null) {
+            AtomicLong state = buckets.getIfPresent(identity);
+            next = state == null ? 0 : state.get();
+        } else {
+            long slot = table.find(identity);
+            next = slot == StateTable.ABSENT ? 0 : table.get(slot, 0);
+        }
+        long queued = Math.max(0, next - (System.nanoTime() - originNanos));
+        // a request fits while its wait is at most maxDelayNanos; floored, so a wait just
+        // past that leaves no room rather than one slot
+        long remaining = Math.max(0, Math.min(config.getCapacity(),
+                Math.floorDiv(maxDelayNanos - queued, intervalNanos) + 1));
+        return new RateLimitStatus(config.getCapacity(), remaining, queued, Math.max(0, queued - maxDelayNanos));
+    }
+
+    @Override
+    public Snapshottable snapshot() {
+        return this;
+    }
+
+    @Override
+    public int words() {
+        return 1;
+    }
+
+    @Override
+    public long clock() {
+        return System.nanoTime() - originNanos;
+    }
+
+    // a slot in the past is no different from an untracked identity
+    @Override
+    public void save(StateSink sink) {
+        long now = clock();
+        StateSnapshots.save(buckets, table, next -> next > now, sink);
+    }
+
+    @Override
+    public void restore(long key, long[] state, long savedClock, long elapsedNanos) {
+        long ahead = state[0] - savedClock - elapsedNanos;
+        if (ahead > 0) {
+            StateSnapshots.restore(buckets, table, key, clock() + ahead);
         }
-        return limitByDimensions.stream()
-                .map(dim -> IdentityResolver.resolve(exchange, dim))
-                .collect(Collectors.joining(":"));
     }
 
     /**
-     * Internal representation of a leaky bucket.
+     * Takes the identity's next release slot.
      *
-     * queue     : bounded blocking queue — the "bucket". Capacity = max requests
-     *             that can wait before being dropped.
-     * scheduler : single-threaded executor that fires at fixed intervals to drain
-     *             one request per tick (the "leak").
+     * @return nanoseconds until the slot, or {@link #REJECTED} if the bucket is full
      */
-    private static class Bucket {
-        private final ArrayBlockingQueue<PendingRequest> queue;
-        private final ScheduledExecutorService scheduler;
-
-        public Bucket(int size) {
-            this.queue = new ArrayBlockingQueue<>(size);
-            this.scheduler = Executors.newSingleThreadScheduledExecutor();
+    long reserve(long identity) {
+        long now = System.nanoTime() - originNanos;
+        if (table == null) {
+            AtomicLong next = buckets.get(identity);
+            while (true) {
+                long current = next.get();
+                long release = Math.max(current, now);
+                if (release - now > maxDelayNanos) {
+                    return REJECTED;
+                }
+                if (next.compareAndSet(current, release + intervalNanos)) {
+                    return release - now;
+                }
+            }
+        }
+        long slot = table.slot(identity);
+        while (true) {
+            long current = table.get(slot, 0);
+            long release = Math.max(current, now);
+            if (release - now > maxDelayNanos) {
+                return REJECTED;
+            }
+            if (table.compareAndSet(slot, 0, current, release + intervalNanos)) {
+                return release - now;
+            }
         }
-
-        public ArrayBlockingQueue<PendingRequest> getQueue() { return queue; }
-        public ScheduledExecutorService getScheduler() { return scheduler; }
     }
 }
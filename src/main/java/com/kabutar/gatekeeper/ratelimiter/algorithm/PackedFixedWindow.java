@@ -0,0 +1,91 @@
+package com.kabutar.gatekeeper.ratelimiter.algorithm;
+
+/**
+ * Fixed window counter over a single packed {@code long}, reset without any timer.
+ *
+ * Layout (high to low):
+ *   [ window index : 32 bits ][ count : 32 bits ]
+ *
+ *   window index : currentTimeMillis / period. Windows are aligned to the epoch, so
+ *                  every identity (and every node) rolls over at the same instant.
+ *   count        : requests admitted in that window.
+ *
+ * A state whose index is behind the current window is treated as a count of zero,
+ * so the reset happens lazily on the first request of a new window and idle
+ * identities cost nothing.
+ */
+public final class PackedFixedWindow {
+    public static final long REJECTED = -1L;
+
+    private static final long COUNT_MASK = 0xFFFFFFFFL;
+
+    private final long limit;
+    private final long periodMillis;
+
+    public PackedFixedWindow(long limit, long periodMillis) {
+        if (limit <= 0 || limit > Integer.MAX_VALUE || periodMillis <= 0) {
+            throw new IllegalArgumentException("Unsupported fixed window: limit=" + limit
+                    + ", period=" + periodMillis + "ms");
+        }
+        this.limit = limit;
+        this.periodMillis = periodMillis;
+    }
+
+    public long window(long nowMillis) {
+        return nowMillis / periodMillis;
+    }
+
+    /**
+     * Counts one request in the given window.
+     *
+     * @return the state to publish, or {@link #REJECTED} if the window is full
+     */
+    public long acquire(long state, long window) {
+        long count = (state >>> 32) == window ? state & COUNT_MASK : 0;
+        if (count >= limit) {
+            return REJECTED;
+        }
+        return (window << 32) | (count + 1);
+    }
+
+    /**
+     * Requests counted in the window the given time falls in.
+     */
+    public long count(long state, long nowMillis) {
+        return (state >>> 32) == window(nowMillis) ? state & COUNT_MASK : 0;
+    }
+
+    public long limit() {
+        return limit;
+    }
+
+    /**
+     * Milliseconds until the next window starts.
+     */
+    public long resetMillis(long nowMillis) {
+        return (window(nowMillis) + 1) * periodMillis - nowMillis;
+    }
+
+    /**
+     * Milliseconds until the window has room again: 0 if it has now, otherwise until the
+     * next window starts.
+     */
+    public long retryAfterMillis(long state, long nowMillis) {
+        long window = window(nowMillis);
+        if ((state >>> 32) != window || (state & COUNT_MASK) < limit) {
+            return 0;
+        }
+        return (window + 1) * periodMillis - nowMillis;
+    }
+
+    /**
+     * Takes back one request counted in the given window. Once the window has moved on
+     * there is nothing to take back, so the count can never go below zero.
+     */
+    public long restore(long state, long window) {
+        if ((state >>> 32) != window || (state & COUNT_MASK) == 0) {
+            return state;
+        }
+        return state - 1;
+    }
+}
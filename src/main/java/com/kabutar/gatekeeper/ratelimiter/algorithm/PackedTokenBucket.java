@@ -0,0 +1,166 @@
+package com.kabutar.gatekeeper.ratelimiter.algorithm;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket arithmetic over a single packed {@code long}, so a bucket can be
+ * updated with one compare-and-set and never needs a monitor.
+ *
+ * Layout (high to low):
+ *   [ timestamp : 38 bits ][ deficit : 26 bits ]
+ *
+ *   timestamp : last refill, in quanta of 2^20 ns (~1.05 ms) since this bucket's
+ *               epoch (System.nanoTime at construction). 38 bits last ~9 years.
+ *   deficit   : tokens missing from a full bucket, in fixed point with
+ *               {@code fractionBits} fractional bits. Storing the deficit rather
+ *               than the token count makes the all-zero state a full bucket.
+ *
+ * Refill is continuous: every update converts the elapsed time into fractional
+ * tokens. Only the time actually paid out is consumed from the timestamp, so slow
+ * rates (e.g. 2 per minute) accumulate across many small updates instead of being
+ * rounded away. Each payout still rounds off part of a unit, so while the bucket has
+ * room an acquire leaves the refill to accrue until it is worth
+ * {@link #MIN_PAYOUT_UNITS}, keeping that loss under a thousandth of the rate even at
+ * one update per quantum. A full bucket does not bank time.
+ *
+ * One instance holds the parameters derived from a rule and is shared by every
+ * identity of that rule; the per-identity state is just the {@code long}.
+ */
+public final class PackedTokenBucket {
+    public static final long REJECTED = -1L;
+
+    private static final int DEFICIT_BITS = 26;
+    private static final long DEFICIT_MASK = (1L << DEFICIT_BITS) - 1;
+    private static final int QUANTUM_SHIFT = 20;
+    private static final int MIN_FRACTION_BITS = 4;
+    private static final long MIN_PAYOUT_UNITS = 1024;
+
+    public static final long MAX_CAPACITY = (1L << (DEFICIT_BITS - 1 - MIN_FRACTION_BITS)) - 1;
+
+    private final long epochNanos;
+    private final int fractionBits;
+    private final long one;
+    private final long capacityUnits;
+    private final double unitsPerQuantum;
+
+    /**
+     * @param capacity      bucket size in tokens, at most {@link #MAX_CAPACITY}
+     * @param refillRate    tokens added per refill period
+     * @param periodSeconds length of the refill period
+     */
+    public PackedTokenBucket(long capacity, long refillRate, long periodSeconds) {
+        if (capacity <= 0 || capacity > MAX_CAPACITY || refillRate <= 0 || periodSeconds <= 0) {
+            throw new IllegalArgumentException("Unsupported token bucket: capacity=" + capacity
+                    + ", refillRate=" + refillRate + ", periodSeconds=" + periodSeconds);
+        }
+        this.epochNanos = System.nanoTime();
+        this.fractionBits = DEFICIT_BITS - 1 - (64 - Long.numberOfLeadingZeros(capacity));
+        this.one = 1L << fractionBits;
+        this.capacityUnits = capacity << fractionBits;
+
+        double quantaPerPeriod = (double) TimeUnit.SECONDS.toNanos(periodSeconds) / (1L << QUANTUM_SHIFT);
+        this.unitsPerQuantum = (double) refillRate * one / quantaPerPeriod;
+    }
+
+    /**
+     * Current time in quanta since this bucket's epoch.
+     */
+    public long now() {
+        return (System.nanoTime() - epochNanos) >>> QUANTUM_SHIFT;
+    }
+
+    /**
+     * Refills the bucket up to {@code now} and takes one token.
+     *
+     * @return the state to publish, or {@link #REJECTED} if less than one token is left
+     */
+    public long acquire(long state, long now) {
+        long deficit = state & DEFICIT_MASK;
+        if (deficit != 0 && deficit + one <= capacityUnits
+                && (now - (state >>> DEFICIT_BITS)) * unitsPerQuantum < MIN_PAYOUT_UNITS) {
+            // room without the refill, which keeps accruing for a later payout
+            return state + one;
+        }
+        long refilled = refill(state, now);
+        if ((refilled & DEFICIT_MASK) + one > capacityUnits) {
+            return REJECTED;
+        }
+        return refilled + one;
+    }
+
+    /**
+     * Gives one token back, e.g. when a later dimension of the same request was rejected.
+     */
+    public long refund(long state) {
+        long deficit = state & DEFICIT_MASK;
+        return (state & ~DEFICIT_MASK) | Math.max(0, deficit - one);
+    }
+
+    /**
+     * Whole tokens left in the bucket at {@code now}.
+     */
+    public long tokens(long state, long now) {
+        return (capacityUnits - (refill(state, now) & DEFICIT_MASK)) >> fractionBits;
+    }
+
+    /**
+     * Nanoseconds until the bucket is full again.
+     */
+    public long refillNanos(long state, long now) {
+        long deficit = refill(state, now) & DEFICIT_MASK;
+        return (long) Math.ceil(deficit / unitsPerQuantum) << QUANTUM_SHIFT;
+    }
+
+    /**
+     * Nanoseconds until the bucket holds a whole token again; 0 if it already does.
+     */
+    public long retryAfterNanos(long state, long now) {
+        long missing = (refill(state, now) & DEFICIT_MASK) + one - capacityUnits;
+        if (missing <= 0) {
+            return 0;
+        }
+        return (long) Math.ceil(missing / unitsPerQuantum) << QUANTUM_SHIFT;
+    }
+
+    /**
+     * Moves a state saved by another instance with the same parameters, e.g. before a
+     * restart, onto this instance's epoch, refilled for the time in between.
+     *
+     * @param savedNow     the other instance's {@link #now()} when the state was saved
+     * @param elapsedNanos time since it was saved
+     */
+    public long rebase(long state, long savedNow, long elapsedNanos) {
+        long then = savedNow + (elapsedNanos >>> QUANTUM_SHIFT);
+        long refilled = refill(state, then);
+        long deficit = refilled & DEFICIT_MASK;
+        if (deficit == 0) {
+            return 0;
+        }
+        // a refill timestamp from before this epoch starts at the epoch, refilling a little late
+        long timestamp = now() - (then - (refilled >>> DEFICIT_BITS));
+        return (Math.max(0, timestamp) << DEFICIT_BITS) | deficit;
+    }
+
+    private long refill(long state, long now) {
+        long deficit = state & DEFICIT_MASK;
+        long timestamp = state >>> DEFICIT_BITS;
+        if (deficit == 0) {
+            return now << DEFICIT_BITS;
+        }
+        long elapsed = now - timestamp;
+        if (elapsed <= 0) {
+            return state;
+        }
+        double refill = elapsed * unitsPerQuantum;
+        if (refill >= deficit) {
+            return now << DEFICIT_BITS;
+        }
+        long units = (long) refill;
+        if (units == 0) {
+            return state;
+        }
+        // advance only by the time that was paid out so the remainder keeps accruing
+        long spent = Math.min(elapsed, (long) Math.ceil(units / unitsPerQuantum));
+        return ((timestamp + spent) << DEFICIT_BITS) | (deficit - units);
+    }
+}
@@ -0,0 +1,54 @@
+package com.kabutar.gatekeeper.ratelimiter.algorithm;
+
+/**
+ * A request's standing with a limiter, read from the limiter's state: the quota of the
+ * rule, what is left of it for the request's most constrained dimension, when the quota
+ * is fully back and when the next request would be allowed.
+ *
+ * Only built when asked for, so the accept path never pays for it.
+ */
+public final class RateLimitStatus {
+    private final long limit;
+    private final long remaining;
+    private final long resetNanos;
+    private final long retryAfterNanos;
+
+    public RateLimitStatus(long limit, long remaining, long resetNanos, long retryAfterNanos) {
+        this.limit = limit;
+        this.remaining = remaining;
+        this.resetNanos = resetNanos;
+        this.retryAfterNanos = retryAfterNanos;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public long getRemaining() {
+        return remaining;
+    }
+
+    /**
+     * Nanoseconds until the full quota is available again.
+     */
+    public long getResetNanos() {
+        return resetNanos;
+    }
+
+    /**
+     * Nanoseconds until a request would be allowed; 0 if it may be allowed now.
+     */
+    public long getRetryAfterNanos() {
+        return retryAfterNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimitStatus{" +
+                "limit=" + limit +
+                ", remaining=" + remaining +
+                ", resetNanos=" + resetNanos +
+                ", retryAfterNanos=" + retryAfterNanos +
+                '}';
+    }
+}
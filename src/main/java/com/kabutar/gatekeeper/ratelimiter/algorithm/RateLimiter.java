@@ -1,5 +1,6 @@
 package com.kabutar.gatekeeper.ratelimiter.algorithm;
 
+import com.kabutar.gatekeeper.ratelimiter.snapshot.Snapshottable;
 import org.springframework.cloud.gateway.filter.GatewayFilterChain;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Mono;
@@ -12,4 +13,28 @@ public interface RateLimiter {
      * @return
      */
     Mono<Void> allocate(ServerWebExchange exchange, GatewayFilterChain chain);
+
+    /**
+     * The request's standing with this limiter, read without taking anything from it; null
+     * if the limiter cannot tell. Builds a new object, so it is only asked for off the
+     * accept path or when allowed responses carry rate limit headers.
+     */
+    default RateLimitStatus status(ServerWebExchange exchange) {
+        return null;
+    }
+
+    /**
+     * The limiter's per-identity state for warm restarts; null if it keeps none of its own,
+     * such as a limiter that only decorates another.
+     */
+    default Snapshottable snapshot() {
+        return null;
+    }
+
+    /**
+     * Releases the timers and parked requests held by the limiter's state once it has
+     * been replaced and no new requests reach it.
+     */
+    default void close() {
+    }
 }
@@ -6,47 +6,79 @@ import com.kabutar.gatekeeper.ratelimiter.IdentityResolver;
 import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
 import com.kabutar.gatekeeper.ratelimiter.RateLimiterException;
 import com.kabutar.gatekeeper.ratelimiter.handler.RateLimitedHandler;
+import com.kabutar.gatekeeper.ratelimiter.metrics.RuleMetrics;
+import com.kabutar.gatekeeper.ratelimiter.snapshot.Snapshottable;
+import com.kabutar.gatekeeper.ratelimiter.snapshot.StateSnapshots;
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStore;
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStoreFactory;
+import com.kabutar.gatekeeper.ratelimiter.store.StateTable;
 import com.kabutar.gatekeeper.util.Units;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-import org.springframework.cloud.gateway.filter.GatewayFilterChain;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.web.server.ServerWebExchange;
-import reactor.core.publisher.Mono;
-import reactor.core.publisher.MonoSink;
-
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLongArray;
 
-public class SlidingWindowCounterRateLimiter implements RateLimiter {
+/**
+ * Sliding window counter over a ring of sub-buckets (see {@link SlidingWindowRing}).
+ *
+ * The window is split into {@code buckets} sub-buckets, configurable per rule; more
+ * buckets cost one word per identity each and make the estimate more exact. Sub-buckets
+ * are epoch aligned and reset lazily, so the hot path takes no lock and no rollover
+ * timer is kept per identity.
+ *
+ * Per-identity state lives in a bounded {@link IdentityStore} as an {@link AtomicLongArray},
+ * or in a {@link StateTable} slot of the same number of words with the off-heap backend.
+ * The ring is restored after a restart as it was saved (see {@link Snapshottable}).
+ */
+public class SlidingWindowCounterRateLimiter extends SynchronousRateLimiter implements Snapshottable {
 
-    private final Logger logger = LogManager.getLogger(SlidingWindowCounterRateLimiter.class);
-    private final RateLimitedHandler handler;
     private final SlidingWindowConfig config;
-    private final List<String> limitBy;
-    private final Map<String, Window> windowMap;
+    private final IdentityResolver identities;
+    private final SlidingWindowRing ring;
+    // rough heap cost of one tracked identity without its words: key, array and cache entry
+    private static final long ENTRY_BYTES = 112;
+
+    private final IdentityStore<AtomicLongArray> windowMap;
 
-    public SlidingWindowCounterRateLimiter(RateLimitedHandler handler, Rule rule) {
-        this.handler = handler;
+    // off-heap backend: the same ring, one word per sub-bucket
+    private final StateTable table;
+
+    public SlidingWindowCounterRateLimiter(RateLimitedHandler handler, Rule rule, IdentityStoreFactory stores, RuleMetrics metrics) {
+        super(handler, metrics);
         this.config = rule.getConfig().getSlidingWindow();
-        this.windowMap = new HashMap<>();
-        this.limitBy = rule.getLimitBy();
+        this.identities = IdentityResolver.compile(rule.getLimitBy());
 
         validateConfig();
-        init(RateLimiterConstants.DEFAULT_LIMIT_IDENTITY);
+        long periodMillis = TimeUnit.SECONDS.toMillis(
+                (long) this.config.getTimeWindow() * Units.Time.MULTIPLIER.get(this.config.getTimeUnit()));
+        int buckets = this.config.getBuckets() == 0
+                ? RateLimiterConstants.SlidingWindow.DEFAULT_BUCKETS
+                : this.config.getBuckets();
+        if (periodMillis % buckets != 0) {
+            throw new RateLimiterException("Window must split into whole milliseconds per bucket: " + this.config);
+        }
+        this.ring = new SlidingWindowRing(this.config.getCounter(), periodMillis, buckets);
+
+        // the oldest sub-bucket still weighs in until it has slid out completely
+        long horizonNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis + periodMillis / buckets);
+        if (stores.isOffHeap()) {
+            this.table = stores.createTable(ring.words(), horizonNanos);
+            this.windowMap = null;
+        } else {
+            this.table = null;
+            // stale sub-buckets read as zero, nothing to release on eviction
+            this.windowMap = stores.create(ENTRY_BYTES + 8L * ring.words(), horizonNanos,
+                    key -> new AtomicLongArray(ring.words()),
+                    window -> {});
+        }
+        metrics.trackIdentities(table != null ? table::size : windowMap::size);
     }
 
     private void validateConfig() {
         if (this.config.getCounter() > 0
                 && this.config.getTimeWindow() > 0
+                && this.config.getBuckets() >= 0
+                && this.config.getBuckets() <= RateLimiterConstants.SlidingWindow.MAX_BUCKETS
                 && Units.Time.MULTIPLIER.containsKey(this.config.getTimeUnit())) {
             return;
         }
@@ -55,158 +87,178 @@ public class SlidingWindowCounterRateLimiter implements RateLimiter {
                         + SlidingWindowCounterRateLimiter.class.getName());
     }
 
-    private void init(String identity) {
-        this.windowMap.computeIfAbsent(identity,
-                k -> new Window(
-                        this.config.getCounter(),
-                        this.config.getTimeWindow() * Units.Time.MULTIPLIER.get(this.config.getTimeUnit())));
-    }
-
+    /**
+     * Counts the request against every dimension, rolling back the ones already counted
+     * if a later dimension is full.
+     */
     @Override
-    public Mono<Void> allocate(ServerWebExchange exchange, GatewayFilterChain chain) {
-        logger.debug("Entering allocate method of {} for path: {}",
-                SlidingWindowCounterRateLimiter.class.getCanonicalName(),
-                exchange.getRequest().getPath());
-
-        HttpHeaders mutableHeaders = new HttpHeaders();
-        mutableHeaders.putAll(exchange.getRequest().getHeaders());
-
-        ServerHttpRequest mutableRequest = exchange.getRequest()
-                .mutate()
-                .headers(h -> {
-                    h.clear();
-                    h.putAll(mutableHeaders);
-                })
-                .build();
-
-        ServerWebExchange mutableExchange = exchange.mutate()
-                .request(mutableRequest)
-                .build();
-
-        return Mono.create((MonoSink<Boolean> sink) -> {
-            boolean isAccepted = true;
-            int successTill = -1;
-
-            for (String dimension : this.limitBy) {
-                String identity = IdentityResolver.resolve(exchange, dimension);
-                if (!this.windowMap.containsKey(identity)) {
-                    init(identity);
-                }
-                Window window = this.windowMap.get(identity);
-                isAccepted = isAccepted && window.tryIncrement();
+    protected boolean tryAcquire(ServerWebExchange exchange) {
+        long now = System.currentTimeMillis();
+        long index = ring.index(now);
+        double overlap = ring.overlap(now);
 
-                if (isAccepted) {
-                    successTill++;
-                } else {
-                    break;
-                }
+        for (int i = 0; i < this.identities.size(); i++) {
+            long identity = this.identities.resolve(exchange, i);
+            boolean acquired = table == null
+                    ? acquire(this.windowMap.get(identity), index, overlap)
+                    : acquire(table.slot(identity), index, overlap);
+            if (!acquired) {
+                // Rollback all successfully incremented dimensions
+                refund(exchange, i, index);
+                return false;
             }
+        }
+        return true;
+    }
 
-            if (!isAccepted) {
-                logger.debug("SLIDING COUNTER FULL - dropping: {}", exchange.getRequest().getURI().getPath());
-                // Rollback all successfully incremented dimensions
-                for (int i = 0; i <= successTill; i++) {
-                    String identity = IdentityResolver.resolve(exchange, this.limitBy.get(i));
-                    this.windowMap.get(identity).restore();
-                }
-                handler.handle(exchange)
-                        .subscribe(null, sink::error, () -> sink.success(false));
-            } else {
-                sink.success(true);
+    private boolean acquire(AtomicLongArray window, long index, double overlap) {
+        int buckets = ring.buckets();
+        double older = ring.count(window.get(ring.word(index - buckets)), index - buckets) * overlap;
+        for (int k = 1; k < buckets; k++) {
+            older += ring.count(window.get(ring.word(index - k)), index - k);
+        }
+
+        int word = ring.word(index);
+        while (true) {
+            long current = window.get(word);
+            long next = ring.acquire(current, index, older);
+            if (next == SlidingWindowRing.REJECTED) {
+                return false;
             }
-        }).flatMap(isAccepted -> {
-            if (isAccepted) {
-                logger.debug("Exiting allocate for: {}", exchange.getRequest().getURI().getPath());
-                return chain.filter(mutableExchange);
+            if (window.compareAndSet(word, current, next)) {
+                return true;
             }
-            return Mono.empty();
-        });
+        }
     }
 
+    private void restore(AtomicLongArray window, long index) {
+        int word = ring.word(index);
+        long current;
+        do {
+            current = window.get(word);
+        } while (!window.compareAndSet(word, current, ring.restore(current, index)));
+    }
 
-    /**
-     * -------------------------------------------------------------------------
-     * Inner Window class — tracks previous + current fixed windows
-     * -------------------------------------------------------------------------
-    */
-    private static class Window {
-        private final int limit;
-        private final long periodSeconds;
-
-        // Current window
-        private final AtomicInteger currentCount;
-        private final AtomicLong currentWindowStart;
-
-        // Previous window count (snapshot at rollover)
-        private final AtomicInteger previousCount;
-
-        private final ScheduledExecutorService scheduler;
-        private final ReentrantLock rolloverLock = new ReentrantLock();
-
-        public Window(int limit, int periodSeconds) {
-            this.limit = limit;
-            this.periodSeconds = periodSeconds;
-            this.currentCount = new AtomicInteger(0);
-            this.previousCount = new AtomicInteger(0);
-            this.currentWindowStart = new AtomicLong(System.currentTimeMillis());
-            this.scheduler = Executors.newSingleThreadScheduledExecutor();
-            init();
+    private boolean acquire(long slot, long index, double overlap) {
+        int buckets = ring.buckets();
+        double older = ring.count(table.get(slot, ring.word(index - buckets)), index - buckets) * overlap;
+        for (int k = 1; k < buckets; k++) {
+            older += ring.count(table.get(slot, ring.word(index - k)), index - k);
         }
 
-        private void init() {
-            // Roll window forward every `periodSeconds`
-            scheduler.scheduleAtFixedRate(
-                    this::rollover,
-                    periodSeconds,
-                    periodSeconds,
-                    TimeUnit.SECONDS
-            );
+        int word = ring.word(index);
+        while (true) {
+            long current = table.get(slot, word);
+            long next = ring.acquire(current, index, older);
+            if (next == SlidingWindowRing.REJECTED) {
+                return false;
+            }
+            if (table.compareAndSet(slot, word, current, next)) {
+                return true;
+            }
         }
+    }
+
+    private void restore(long slot, long index) {
+        int word = ring.word(index);
+        long current;
+        do {
+            current = table.get(slot, word);
+        } while (!table.compareAndSet(slot, word, current, ring.restore(current, index)));
+    }
 
-        private void rollover() {
-            rolloverLock.lock();
-            try {
-                // Snapshot current → previous, reset current
-                previousCount.set(currentCount.get());
-                currentCount.set(0);
-                currentWindowStart.set(System.currentTimeMillis());
-            } finally {
-                rolloverLock.unlock();
+    // a sub-bucket that has moved on since the request was counted has nothing to give back
+    @Override
+    protected void refund(ServerWebExchange exchange) {
+        refund(exchange, this.identities.size(), ring.index(System.currentTimeMillis()));
+    }
+
+    private void refund(ServerWebExchange exchange, int dimensions, long index) {
+        for (int i = 0; i < dimensions; i++) {
+            long identity = this.identities.resolve(exchange, i);
+            if (table == null) {
+                restore(this.windowMap.get(identity), index);
+            } else {
+                restore(table.slot(identity), index);
             }
         }
+    }
 
-        /**
-         * Returns true if request is allowed under the sliding window estimate.
-         *
-         * Formula:
-         *   elapsedRatio  = elapsedMs / windowMs        (0.0 → 1.0)
-         *   overlapRatio  = 1 - elapsedRatio            (previous window's weight)
-         *   estimated     = previous * overlapRatio + current
-         */
-        public boolean tryIncrement() {
-            rolloverLock.lock();
-            try {
-                long elapsedMs = System.currentTimeMillis() - currentWindowStart.get();
-                long windowMs = periodSeconds * 1000L;
-
-                double overlapRatio = 1.0 - ((double) elapsedMs / windowMs);
-                // Clamp to [0.0, 1.0] — guard against clock skew or scheduler lag
-                overlapRatio = Math.max(0.0, Math.min(1.0, overlapRatio));
-
-                double estimated = (previousCount.get() * overlapRatio) + currentCount.get();
-
-                if (estimated < limit) {
-                    currentCount.incrementAndGet();
-                    return true;
+    @Override
+    public RateLimitStatus status(ServerWebExchange exchange) {
+        long now = System.currentTimeMillis();
+        long index = ring.index(now);
+        int buckets = ring.buckets();
+        long remaining = ring.limit();
+        long wait = 0;
+        for (int i = 0; i < this.identities.size(); i++) {
+            long identity = this.identities.resolve(exchange, i);
+            AtomicLongArray window = null;
+            long slot = 0;
+            if (table == null) {
+                window = this.windowMap.getIfPresent(identity);
+                if (window == null) {
+                    continue;
+                }
+            } else {
+                slot = table.find(identity);
+                if (slot == StateTable.ABSENT) {
+                    continue;
+                }
+            }
+
+            long sliding = 0;
+            long rest = 0;
+            for (int k = 0; k <= buckets; k++) {
+                int word = ring.word(index - k);
+                long count = ring.count(window != null ? window.get(word) : table.get(slot, word), index - k);
+                if (k == buckets) {
+                    sliding = count;
+                } else {
+                    rest += count;
                 }
-                return false;
-            } finally {
-                rolloverLock.unlock();
             }
+            remaining = Math.min(remaining, ring.remaining(sliding, rest, now));
+            wait = Math.max(wait, ring.retryAfterMillis(sliding, rest, now));
         }
+        return new RateLimitStatus(ring.limit(), remaining,
+                TimeUnit.MILLISECONDS.toNanos(Math.max(wait, ring.resetMillis(now))),
+                TimeUnit.MILLISECONDS.toNanos(wait));
+    }
 
-        public void restore() {
-            currentCount.decrementAndGet();
+    @Override
+    public Snapshottable snapshot() {
+        return this;
+    }
+
+    @Override
+    public int words() {
+        return ring.words();
+    }
+
+    @Override
+    public long clock() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public void save(StateSink sink) {
+        long now = System.currentTimeMillis();
+        StateSnapshots.save(windowMap, table, ring.words(), words -> ring.live(words, now), sink);
+    }
+
+    // sub-bucket indexes are wall-clock time already; the ones that have slid out count nothing
+    @Override
+    public void restore(long key, long[] state, long savedClock, long elapsedNanos) {
+        if (ring.live(state, System.currentTimeMillis())) {
+            StateSnapshots.restore(windowMap, table, key, state);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (windowMap != null) {
+            windowMap.clear();
         }
     }
 }
@@ -0,0 +1,183 @@
+package com.kabutar.gatekeeper.ratelimiter.algorithm;
+
+/**
+ * Sliding window counter over a ring of sub-bucket counters, one {@code long} each.
+ *
+ * Layout of a sub-bucket (high to low), the same as a {@link PackedFixedWindow}:
+ *   [ bucket index : 32 bits ][ count : 32 bits ]
+ *
+ *   bucket index : currentTimeMillis / (period / buckets), epoch aligned.
+ *   count        : requests admitted in that sub-bucket.
+ *
+ * The window is split into N sub-buckets and the ring holds N + 1 of them: the current
+ * one, the N - 1 before it, and the one sliding out. The estimate is
+ *
+ *   estimated = sliding * (1 - elapsed / bucketLength) + sum(previous N - 1) + current
+ *
+ * so only the oldest sub-bucket is interpolated and the error is bounded by its share of
+ * the window, 1 / N. With N = 1 this is the classic previous/current blend; more buckets
+ * trade one word each for accuracy on long windows.
+ *
+ * A sub-bucket whose index is not the one expected at its position is stale and counts
+ * as zero; it is reset lazily by the first request that lands on it, so there is no
+ * rollover timer and idle identities cost nothing.
+ *
+ * Requests are only ever counted into the current sub-bucket. The older ones are read
+ * once, and the decision is a compare-and-set on the current word alone, so concurrent
+ * requests of one identity cannot overshoot the limit.
+ */
+public final class SlidingWindowRing {
+    public static final long REJECTED = -1L;
+
+    private static final int COUNT_BITS = 32;
+    private static final long COUNT_MASK = 0xFFFFFFFFL;
+
+    private final long limit;
+    private final int buckets;
+    private final long bucketMillis;
+
+    /**
+     * @param periodMillis length of the whole window, a multiple of {@code buckets}
+     * @param buckets      number of sub-buckets the window is split into
+     */
+    public SlidingWindowRing(long limit, long periodMillis, int buckets) {
+        if (limit <= 0 || limit > Integer.MAX_VALUE || buckets <= 0
+                || periodMillis < buckets || periodMillis % buckets != 0) {
+            throw new IllegalArgumentException("Unsupported sliding window: limit=" + limit
+                    + ", period=" + periodMillis + "ms, buckets=" + buckets);
+        }
+        this.limit = limit;
+        this.buckets = buckets;
+        this.bucketMillis = periodMillis / buckets;
+    }
+
+    /**
+     * Number of words the ring takes per identity.
+     */
+    public int words() {
+        return buckets + 1;
+    }
+
+    public int buckets() {
+        return buckets;
+    }
+
+    /**
+     * Index of the sub-bucket the given time falls in.
+     */
+    public long index(long nowMillis) {
+        return nowMillis / bucketMillis;
+    }
+
+    /**
+     * Position of a sub-bucket in the ring.
+     */
+    public int word(long index) {
+        return (int) (index % (buckets + 1));
+    }
+
+    /**
+     * Requests counted in the sub-bucket, or 0 if the word holds an older one.
+     */
+    public long count(long state, long index) {
+        return (state >>> COUNT_BITS) == (index & COUNT_MASK) ? state & COUNT_MASK : 0;
+    }
+
+    /**
+     * A sub-bucket holding the given number of requests, at most the limit.
+     */
+    public long state(long index, long count) {
+        return ((index & COUNT_MASK) << COUNT_BITS) | Math.min(count, limit);
+    }
+
+    /**
+     * Whether any sub-bucket of a ring, all of its words in order, still counts at the
+     * given time.
+     */
+    public boolean live(long[] words, long nowMillis) {
+        long index = index(nowMillis);
+        for (int k = 0; k <= buckets; k++) {
+            if (count(words[word(index - k)], index - k) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Weight of the sub-bucket sliding out of the window at the given time.
+     */
+    public double overlap(long nowMillis) {
+        return 1.0 - (double) (nowMillis % bucketMillis) / bucketMillis;
+    }
+
+    /**
+     * Counts one request into the current sub-bucket if the estimate leaves room for it.
+     *
+     * @param older estimate of the N sub-buckets before the current one
+     * @return the word to publish, or {@link #REJECTED} if the window is full
+     */
+    public long acquire(long state, long index, double older) {
+        long current = count(state, index);
+        if (older + current >= limit) {
+            return REJECTED;
+        }
+        return ((index & COUNT_MASK) << COUNT_BITS) | (current + 1);
+    }
+
+    public long limit() {
+        return limit;
+    }
+
+    /**
+     * Requests the estimate leaves room for.
+     *
+     * @param sliding requests counted in the sub-bucket sliding out
+     * @param rest    requests counted in the other N sub-buckets, the current one included
+     */
+    public long remaining(long sliding, long rest, long nowMillis) {
+        return Math.max(0, (long) Math.floor(limit - sliding * overlap(nowMillis) - rest));
+    }
+
+    /**
+     * Milliseconds until the sliding sub-bucket has left the window completely.
+     */
+    public long resetMillis(long nowMillis) {
+        return bucketMillis - nowMillis % bucketMillis;
+    }
+
+    /**
+     * Milliseconds until the estimate leaves room for a request.
+     *
+     * Within the current sub-bucket only the sliding one loses weight, linearly, so the
+     * time it takes to shed enough is exact. If the sub-buckets still in the window are
+     * already full on their own, room can only come from the next sub-bucket boundary
+     * onwards, and that is what is returned.
+     *
+     * @param sliding requests counted in the sub-bucket sliding out
+     * @param rest    requests counted in the other N sub-buckets, the current one included
+     */
+    public long retryAfterMillis(long sliding, long rest, long nowMillis) {
+        long elapsed = nowMillis % bucketMillis;
+        double free = limit - rest;
+        if (sliding * overlap(nowMillis) + rest < limit) {
+            return 0;
+        }
+        if (free <= 0) {
+            return bucketMillis - elapsed;
+        }
+        // sliding * (1 - t / bucketMillis) < free
+        long t = (long) Math.floor(bucketMillis * (1 - free / sliding)) + 1;
+        return Math.max(1, t - elapsed);
+    }
+
+    /**
+     * Takes back one request counted in the sub-bucket, unless it has been reused since.
+     */
+    public long restore(long state, long index) {
+        if (count(state, index) == 0) {
+            return state;
+        }
+        return state - 1;
+    }
+}
@@ -0,0 +1,142 @@
+package com.kabutar.gatekeeper.ratelimiter.algorithm;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A token bucket shared by every request of a rule, split into stripes so that threads
+ * do not all compare-and-set the same word.
+ *
+ * Concept:
+ *   The capacity and the refill rate are divided between the stripes, each one a
+ *   {@link PackedTokenBucket} of its own on a separate cache line. A thread draws from
+ *   its home stripe (event loop threads are long lived, so each keeps to one) and only
+ *   looks at the other stripes when its own has run out, taking the token from the first
+ *   one that has it. A request is rejected only after every stripe came up empty.
+ *
+ * Error bound:
+ *   Every token is taken from exactly one stripe and the slices add up to the configured
+ *   capacity and rate, so the bucket never admits more than the unstriped one would.
+ *   Refill accrues per stripe, so up to one token per stripe can be held back as
+ *   fractions no single stripe has completed: the bucket may turn away a request while
+ *   at most {@link #stripes()} tokens are spread that way. A refund that lands on a full
+ *   stripe is dropped, which errs on the same side.
+ *
+ * The stripe count is the number of cores rounded up to a power of two, and never more
+ * than the capacity or the refill rate, so every stripe gets at least one token of each.
+ */
+public final class StripedTokenBucket {
+    public static final int REJECTED = -1;
+
+    // 16 longs apart: a stripe never shares a cache line, nor the adjacent one the CPU prefetches
+    private static final int PAD = 16;
+
+    private final PackedTokenBucket[] slices;
+    private final AtomicLongArray states;
+    private final int mask;
+
+    public StripedTokenBucket(long capacity, long refillRate, long periodSeconds) {
+        this(capacity, refillRate, periodSeconds, Runtime.getRuntime().availableProcessors());
+    }
+
+    public StripedTokenBucket(long capacity, long refillRate, long periodSeconds, int cores) {
+        int stripes = cores <= 1 ? 1 : Integer.highestOneBit(cores - 1) << 1;
+        while (stripes > 1 && (stripes > capacity || stripes > refillRate)) {
+            stripes >>= 1;
+        }
+        this.mask = stripes - 1;
+        this.slices = new PackedTokenBucket[stripes];
+        for (int i = 0; i < stripes; i++) {
+            // the remainders go to the first stripes, so the slices add up exactly
+            this.slices[i] = new PackedTokenBucket(
+                    capacity / stripes + (i < capacity % stripes ? 1 : 0),
+                    refillRate / stripes + (i < refillRate % stripes ? 1 : 0),
+                    periodSeconds);
+        }
+        this.states = new AtomicLongArray(stripes * PAD);
+    }
+
+    public int stripes() {
+        return slices.length;
+    }
+
+    /**
+     * Takes one token, from the calling thread's stripe if it has one.
+     *
+     * @return the stripe the token came from, for {@link #refund(int)}, or {@link #REJECTED}
+     */
+    public int acquire() {
+        int home = home();
+        for (int i = 0; i < slices.length; i++) {
+            int stripe = (home + i) & mask;
+            if (acquire(stripe)) {
+                return stripe;
+            }
+        }
+        return REJECTED;
+    }
+
+    private boolean acquire(int stripe) {
+        PackedTokenBucket slice = slices[stripe];
+        long now = slice.now();
+        int index = stripe * PAD;
+        while (true) {
+            long current = states.get(index);
+            long next = slice.acquire(current, now);
+            if (next == PackedTokenBucket.REJECTED) {
+                return false;
+            }
+            if (states.compareAndSet(index, current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives one token back to the stripe it was taken from.
+     */
+    public void refund(int stripe) {
+        PackedTokenBucket slice = slices[stripe];
+        int index = stripe * PAD;
+        long current;
+        do {
+            current = states.get(index);
+        } while (!states.compareAndSet(index, current, slice.refund(current)));
+    }
+
+    /**
+     * Gives one token back when the stripe it came from is not known.
+     */
+    public void refund() {
+        refund(home());
+    }
+
+    public long tokens() {
+        long tokens = 0;
+        for (int i = 0; i < slices.length; i++) {
+            tokens += slices[i].tokens(states.get(i * PAD), slices[i].now());
+        }
+        return tokens;
+    }
+
+    public long refillNanos() {
+        long refill = 0;
+        for (int i = 0; i < slices.length; i++) {
+            refill = Math.max(refill, slices[i].refillNanos(states.get(i * PAD), slices[i].now()));
+        }
+        return refill;
+    }
+
+    // the first stripe to have a token again serves the next request
+    public long retryAfterNanos() {
+        long wait = Long.MAX_VALUE;
+        for (int i = 0; i < slices.length; i++) {
+            wait = Math.min(wait, slices[i].retryAfterNanos(states.get(i * PAD), slices[i].now()));
+        }
+        return wait;
+    }
+
+    private int home() {
+        long id = Thread.currentThread().threadId();
+        return (int) (id ^ (id >>> 16)) & mask;
+    }
+}
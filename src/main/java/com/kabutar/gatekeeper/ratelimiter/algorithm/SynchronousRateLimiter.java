@@ -0,0 +1,99 @@
+package com.kabutar.gatekeeper.ratelimiter.algorithm;
+
+import com.kabutar.gatekeeper.ratelimiter.handler.Admission;
+import com.kabutar.gatekeeper.ratelimiter.handler.RateLimitedHandler;
+import com.kabutar.gatekeeper.ratelimiter.metrics.RuleMetrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Base for limiters that decide on the calling thread, without parking the request.
+ *
+ * An accepted request is forwarded with the exchange it came in with: nothing is copied,
+ * mutated or wrapped, so the accept path allocates nothing beyond what the limiter's own
+ * state needs. Copying headers into a mutable exchange is only needed for requests that
+ * are forwarded later from another thread (see {@link LeakyBucketRateLimiter}).
+ *
+ * Every decision is counted and timed in the rule's {@link RuleMetrics}. A rejected request
+ * is handed to the handler together with an {@link Admission}, so a strategy can park it
+ * until the limiter expects room and try again; a request admitted that way is counted
+ * as allowed on top of its first rejection.
+ */
+public abstract class SynchronousRateLimiter implements RateLimiter {
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    protected final RateLimitedHandler handler;
+    protected final RuleMetrics metrics;
+
+    private final AtomicInteger parked = new AtomicInteger();
+    private final Admission admission = new Admission() {
+        @Override
+        public boolean tryAcquire(ServerWebExchange exchange) {
+            boolean allowed = SynchronousRateLimiter.this.tryAcquire(exchange);
+            if (allowed) {
+                metrics.allowed();
+            }
+            return allowed;
+        }
+
+        @Override
+        public RateLimitStatus status(ServerWebExchange exchange) {
+            return SynchronousRateLimiter.this.status(exchange);
+        }
+
+        @Override
+        public AtomicInteger parked() {
+            return parked;
+        }
+
+        @Override
+        public RuleMetrics metrics() {
+            return metrics;
+        }
+    };
+
+    protected SynchronousRateLimiter(RateLimitedHandler handler, RuleMetrics metrics) {
+        this.handler = handler;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Takes whatever the request costs from every dimension, or nothing if any of them
+     * is out.
+     *
+     * @return true if the request is allowed
+     */
+    protected abstract boolean tryAcquire(ServerWebExchange exchange);
+
+    /**
+     * Hands back what an allowed request took, when another rule judging the same request
+     * turned it away (see {@link CompositeRateLimiter}).
+     */
+    protected abstract void refund(ServerWebExchange exchange);
+
+    /**
+     * Reads the state of every dimension without taking anything and reports the most
+     * constrained one.
+     */
+    @Override
+    public abstract RateLimitStatus status(ServerWebExchange exchange);
+
+    @Override
+    public Mono<Void> allocate(ServerWebExchange exchange, GatewayFilterChain chain) {
+        long start = metrics.start();
+        boolean allowed = tryAcquire(exchange);
+        metrics.decided(start);
+        if (allowed) {
+            metrics.allowed();
+            return chain.filter(exchange);
+        }
+        metrics.rejected();
+        logger.debug("Rate limited request at: {}", exchange.getRequest().getURI().getPath());
+        return handler.handle(exchange, chain, admission);
+    }
+}
@@ -3,129 +3,233 @@ package com.kabutar.gatekeeper.ratelimiter.algorithm;
 import com.kabutar.gatekeeper.config.rateLimit.Rule;
 import com.kabutar.gatekeeper.config.rateLimit.TokenBucketConfig;
 import com.kabutar.gatekeeper.ratelimiter.IdentityResolver;
-import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
 import com.kabutar.gatekeeper.ratelimiter.RateLimiterException;
 import com.kabutar.gatekeeper.ratelimiter.defaults.DefaultTokenRule;
 import com.kabutar.gatekeeper.ratelimiter.handler.RateLimitedHandler;
+import com.kabutar.gatekeeper.ratelimiter.metrics.RuleMetrics;
+import com.kabutar.gatekeeper.ratelimiter.snapshot.Snapshottable;
+import com.kabutar.gatekeeper.ratelimiter.snapshot.StateSnapshots;
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStore;
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStoreFactory;
+import com.kabutar.gatekeeper.ratelimiter.store.StateTable;
 import com.kabutar.gatekeeper.util.Units;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-import org.springframework.cloud.gateway.filter.GatewayFilterChain;
 import org.springframework.web.server.ServerWebExchange;
-import reactor.core.publisher.Mono;
 
-import java.time.Instant;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
-public class TokenBucketRateLimiter implements RateLimiter{
-    private static final Logger logger = LogManager.getLogger(TokenBucketRateLimiter.class);
-
-    private RateLimitedHandler handler;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket where each identity's bucket is a single {@link AtomicLong} holding the
+ * packed refill timestamp and token deficit (see {@link PackedTokenBucket}).
+ *
+ * A request refills and takes a token from the global bucket and then from one bucket
+ * per limitBy dimension, each with a compare-and-set loop. If any of them is empty the
+ * tokens already taken are handed back, so a rejected request costs nothing.
+ *
+ * Every request goes through the global bucket, so it is striped per core (see
+ * {@link StripedTokenBucket}) rather than kept in one word all event loops contend on.
+ * When the bucket is judged together with other rules, the stripe a request drew from
+ * is kept for the request (see {@link IdentityResolver#keep}), so that a rollback hands
+ * the token back to that stripe rather than the refunding thread's.
+ *
+ * Per-identity buckets live in a bounded {@link IdentityStore}. An identity is only
+ * dropped after it has been idle long enough to refill completely, at which point a
+ * fresh (full) bucket is indistinguishable from the one that was dropped. With the
+ * off-heap backend the same packed state lives in a {@link StateTable} slot instead.
+ *
+ * Buckets still short of tokens are kept across restarts (see {@link Snapshottable}); the
+ * global bucket is not, it refills within one period anyway.
+ */
+public class TokenBucketRateLimiter extends SynchronousRateLimiter implements Snapshottable {
     private TokenBucketConfig config;
-    private List<String> limitByDimensions;
+    private IdentityResolver identities;
+    private PackedTokenBucket bucket;
 
-    private Map<String,Bucket> buckets;
+    // rough heap cost of one tracked identity: key, AtomicLong and cache entry
+    private static final long ENTRY_BYTES = 96;
 
+    private StripedTokenBucket defaultBucket;
+    private IdentityStore<AtomicLong> buckets;
+    private StateTable table;
 
-    public TokenBucketRateLimiter(RateLimitedHandler handler, Rule rule){
-        this.handler = handler;
+
+    public TokenBucketRateLimiter(RateLimitedHandler handler, Rule rule, IdentityStoreFactory stores, RuleMetrics metrics){
+        super(handler, metrics);
 
         if(rule == null){
             rule = DefaultTokenRule.getRule();
         }
 
         this.config = rule.getConfig().getTokenBucket();
-        this.limitByDimensions = rule.getLimitBy();
-        this.buckets = new HashMap<>();
+        this.identities = IdentityResolver.compile(rule.getLimitBy());
 
         validateConfig();
-        this.buckets.put(RateLimiterConstants.DEFAULT_LIMIT_IDENTITY, new Bucket(config.getCapacity()));
+        long periodSeconds = Units.Time.MULTIPLIER.get(config.getRefillUnit());
+        this.bucket = new PackedTokenBucket(config.getCapacity(), config.getRefillRate(), periodSeconds);
+        this.defaultBucket = new StripedTokenBucket(config.getCapacity(), config.getRefillRate(), periodSeconds);
+
+        // time for an empty bucket to fill back up
+        long refillNanos = TimeUnit.SECONDS.toNanos(periodSeconds)
+                * ((config.getCapacity() + config.getRefillRate() - 1) / config.getRefillRate());
+        if (stores.isOffHeap()) {
+            this.table = stores.createTable(1, refillNanos);
+        } else {
+            // a zeroed state is a full bucket, nothing to release on eviction
+            this.buckets = stores.create(ENTRY_BYTES, refillNanos, key -> new AtomicLong(), state -> {});
+        }
+        metrics.trackIdentities(table != null ? table::size : buckets::size);
     }
 
     private void validateConfig(){
-        if( config.getRefillRate() <= 0 || config.getCapacity() <= 0){
+        if( config.getRefillRate() <= 0
+                || config.getCapacity() <= 0
+                || config.getCapacity() > PackedTokenBucket.MAX_CAPACITY
+                || !Units.Time.MULTIPLIER.containsKey(config.getRefillUnit())){
             throw new RateLimiterException("Invalid config: " +config.toString());
         }
     }
 
-    // fills bucket
-    private void fillBucket(Bucket bucket){
-        long currTime = Instant.now().toEpochMilli();
-        long timeDiff = currTime - bucket.getLastFilled();
-        long multiplier = timeDiff/(Units.Time.MULTIPLIER.get(config.getRefillUnit()) * 1000);
-
-        if(multiplier > 0){
-            bucket.setTokens( Math.min(config.getCapacity(),bucket.getTokens() + multiplier*config.getRefillRate()));
-            bucket.setLastFilled(currTime);
+    private boolean tryAcquire(long identity, long now){
+        if(table == null){
+            return tryAcquire(buckets.get(identity), now);
+        }
+        long slot = table.slot(identity);
+        while (true){
+            long current = table.get(slot, 0);
+            long next = bucket.acquire(current, now);
+            if(next == PackedTokenBucket.REJECTED){
+                return false;
+            }
+            if(table.compareAndSet(slot, 0, current, next)){
+                return true;
+            }
         }
     }
 
-    private boolean isAllocateable(String identity, ServerWebExchange exchange){
-        Bucket bucket = this.buckets.computeIfAbsent(identity, k -> new Bucket(config.getCapacity()));
-        synchronized (bucket){
-            fillBucket(bucket);
+    private void refund(long identity){
+        if(table == null){
+            refund(buckets.get(identity));
+            return;
         }
-        return bucket.getTokens() > 0;
+        long slot = table.slot(identity);
+        long current;
+        do {
+            current = table.get(slot, 0);
+        } while (!table.compareAndSet(slot, 0, current, bucket.refund(current)));
     }
 
-    private void removeTokenFromBucket(String identity){
-        Bucket bucket = this.buckets.get(identity);
-        synchronized (bucket){
-            bucket.setTokens(bucket.getTokens() - 1);
+    private boolean tryAcquire(AtomicLong state, long now){
+        while (true){
+            long current = state.get();
+            long next = bucket.acquire(current, now);
+            if(next == PackedTokenBucket.REJECTED){
+                return false;
+            }
+            if(state.compareAndSet(current, next)){
+                return true;
+            }
         }
     }
 
+    private void refund(AtomicLong state){
+        long current;
+        do {
+            current = state.get();
+        } while (!state.compareAndSet(current, bucket.refund(current)));
+    }
 
-    @Override
-    public Mono<Void> allocate(ServerWebExchange exchange, GatewayFilterChain chain) {
-        logger.debug("Entering allocate method of Token bucket rate limiting algorithm");
 
-        boolean canAllocate = isAllocateable(RateLimiterConstants.DEFAULT_LIMIT_IDENTITY, exchange);
-        for (String dimension : limitByDimensions) {
-            canAllocate = canAllocate && isAllocateable(IdentityResolver.resolve(exchange, dimension), exchange);
+    @Override
+    protected boolean tryAcquire(ServerWebExchange exchange) {
+        int stripe = defaultBucket.acquire();
+        if (stripe == StripedTokenBucket.REJECTED) {
+            return false;
         }
 
-        if (!canAllocate) {
-            logger.debug("Rate limited request at: {}", exchange.getRequest().getURI());
-            return handler.handle(exchange); //return the Mono, don't discard it
+        long now = bucket.now();
+
+        for (int i = 0; i < identities.size(); i++) {
+            if (!tryAcquire(identities.resolve(exchange, i), now)) {
+                // hand back what this request already took
+                defaultBucket.refund(stripe);
+                refund(exchange, i);
+                return false;
+            }
         }
+        IdentityResolver.keep(exchange, this, stripe);
+        return true;
+    }
 
-        removeTokenFromBucket(RateLimiterConstants.DEFAULT_LIMIT_IDENTITY);
-        for (String dimension : this.limitByDimensions) {
-            removeTokenFromBucket(IdentityResolver.resolve(exchange, dimension));
+    @Override
+    protected void refund(ServerWebExchange exchange) {
+        int stripe = IdentityResolver.kept(exchange, this, StripedTokenBucket.REJECTED);
+        if (stripe != StripedTokenBucket.REJECTED) {
+            defaultBucket.refund(stripe);
+        } else {
+            defaultBucket.refund();
         }
+        refund(exchange, identities.size());
+    }
 
-        logger.debug("Exiting allocate method of Token bucket rate limiting algorithm");
-        return chain.filter(exchange); //return it — this forwards the request
+    // the first dimensions are resolved again rather than kept from the acquire
+    private void refund(ServerWebExchange exchange, int dimensions) {
+        for (int i = 0; i < dimensions; i++) {
+            refund(identities.resolve(exchange, i));
+        }
     }
 
+    @Override
+    public RateLimitStatus status(ServerWebExchange exchange) {
+        long now = bucket.now();
+        long remaining = defaultBucket.tokens();
+        long reset = defaultBucket.refillNanos();
+        long retryAfter = defaultBucket.retryAfterNanos();
+        for (int i = 0; i < identities.size(); i++) {
+            long state = state(identities.resolve(exchange, i));
+            remaining = Math.min(remaining, bucket.tokens(state, now));
+            reset = Math.max(reset, bucket.refillNanos(state, now));
+            retryAfter = Math.max(retryAfter, bucket.retryAfterNanos(state, now));
+        }
+        return new RateLimitStatus(config.getCapacity(), remaining, reset, retryAfter);
+    }
 
-    private static class Bucket{
-        private long tokens;
-        private long lastFilled;
+    @Override
+    public Snapshottable snapshot() {
+        return this;
+    }
 
-        public Bucket(long tokens) {
-            this.tokens = tokens;
-            this.lastFilled = Instant.now().toEpochMilli();
-        }
+    @Override
+    public int words() {
+        return 1;
+    }
 
-        public long getTokens() {
-            return tokens;
-        }
+    @Override
+    public long clock() {
+        return bucket.now();
+    }
 
-        public void setTokens(long tokens) {
-            this.tokens = tokens;
-        }
+    // a full bucket is no different from an untracked one
+    @Override
+    public void save(StateSink sink) {
+        long now = bucket.now();
+        StateSnapshots.save(buckets, table, state -> bucket.refillNanos(state, now) > 0, sink);
+    }
 
-        public long getLastFilled() {
-            return lastFilled;
+    @Override
+    public void restore(long key, long[] state, long savedClock, long elapsedNanos) {
+        long rebased = bucket.rebase(state[0], savedClock, elapsedNanos);
+        if (rebased != 0) {
+            StateSnapshots.restore(buckets, table, key, rebased);
         }
+    }
 
-        public void setLastFilled(long lastFilled) {
-            this.lastFilled = lastFilled;
+    // the identity's state without tracking it; an untracked identity has a full bucket
+    private long state(long identity) {
+        if (table == null) {
+            AtomicLong state = buckets.getIfPresent(identity);
+            return state == null ? 0 : state.get();
         }
+        long slot = table.find(identity);
+        return slot == StateTable.ABSENT ? 0 : table.get(slot, 0);
     }
-
 }
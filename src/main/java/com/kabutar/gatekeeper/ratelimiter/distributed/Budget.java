@@ -0,0 +1,133 @@
+package com.kabutar.gatekeeper.ratelimiter.distributed;
+
+import com.kabutar.gatekeeper.config.rateLimit.Rule;
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterException;
+import com.kabutar.gatekeeper.util.Units;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cluster-wide allowance of one rule, in the two shapes a shared store understands.
+ *
+ *   BUCKET : up to {@code limit} units, refilled continuously at {@code refill} units per
+ *            {@code periodMillis}. Used for token and leaky buckets, GCRA and, as their
+ *            closest smooth equivalent, for sliding windows and heavy hitter rules.
+ *   WINDOW : {@code limit} units per epoch-aligned window of {@code periodMillis}. The
+ *            window index is part of the store key, so each window starts from zero.
+ */
+public final class Budget {
+    public enum Kind { BUCKET, WINDOW }
+
+    private final Kind kind;
+    private final long limit;
+    private final long refill;
+    private final long periodMillis;
+
+    public Budget(Kind kind, long limit, long refill, long periodMillis) {
+        if (limit <= 0 || refill <= 0 || periodMillis <= 0) {
+            throw new RateLimiterException("Invalid shared budget: limit=" + limit
+                    + ", refill=" + refill + ", period=" + periodMillis + "ms");
+        }
+        this.kind = kind;
+        this.limit = limit;
+        this.refill = refill;
+        this.periodMillis = periodMillis;
+    }
+
+    public static Budget of(Rule rule) {
+        Rule.Config config = rule.getConfig();
+        switch (rule.getAlgorithm()) {
+            case RateLimiterConstants.Algorithm.TOKEN_BUCKET:
+                return new Budget(Kind.BUCKET,
+                        config.getTokenBucket().getCapacity(),
+                        config.getTokenBucket().getRefillRate(),
+                        seconds(config.getTokenBucket().getRefillUnit(), 1));
+            case RateLimiterConstants.Algorithm.LEAKY_BUCKET:
+                return new Budget(Kind.BUCKET,
+                        config.getLeakyBucket().getCapacity(),
+                        config.getLeakyBucket().getOutFlowPerSec(),
+                        TimeUnit.SECONDS.toMillis(1));
+            case RateLimiterConstants.Algorithm.GCRA:
+                return new Budget(Kind.BUCKET,
+                        config.getGcra().getBurst(),
+                        config.getGcra().getRate(),
+                        seconds(config.getGcra().getRateUnit(), 1));
+            case RateLimiterConstants.Algorithm.FIXED_WINDOW_COUNTER:
+                return new Budget(Kind.WINDOW,
+                        config.getFixedWindow().getCounter(),
+                        config.getFixedWindow().getCounter(),
+                        seconds(config.getFixedWindow().getTimeUnit(), config.getFixedWindow().getTimeWindow()));
+            case RateLimiterConstants.Algorithm.SLIDING_WINDOW_COUNTER:
+                return new Budget(Kind.BUCKET,
+                        config.getSlidingWindow().getCounter(),
+                        config.getSlidingWindow().getCounter(),
+                        seconds(config.getSlidingWindow().getTimeUnit(), config.getSlidingWindow().getTimeWindow()));
+            case RateLimiterConstants.Algorithm.HEAVY_HITTER:
+                return new Budget(Kind.BUCKET,
+                        config.getHeavyHitter().getCounter(),
+                        config.getHeavyHitter().getCounter(),
+                        seconds(config.getHeavyHitter().getTimeUnit(), config.getHeavyHitter().getTimeWindow()));
+            default:
+                throw new RateLimiterException("No shared budget for algorithm: " + rule.getAlgorithm());
+        }
+    }
+
+    private static long seconds(String unit, int amount) {
+        Integer multiplier = Units.Time.MULTIPLIER.get(unit);
+        if (multiplier == null) {
+            throw new RateLimiterException("Invalid time unit: " + unit);
+        }
+        return TimeUnit.SECONDS.toMillis((long) amount * multiplier);
+    }
+
+    /**
+     * Window the given time falls in; always 0 for buckets, whose leases never expire.
+     */
+    public long window(long nowMillis) {
+        return kind == Kind.WINDOW ? nowMillis / periodMillis : 0;
+    }
+
+    /**
+     * Store key for an identity's budget in the given window.
+     */
+    public String key(String identityKey, long window) {
+        return kind == Kind.WINDOW ? identityKey + ':' + window : identityKey;
+    }
+
+    /**
+     * When a node told that the budget is used up should ask again.
+     */
+    public long retryAtMillis(long nowMillis, long units) {
+        if (kind == Kind.WINDOW) {
+            return (window(nowMillis) + 1) * periodMillis;
+        }
+        return nowMillis + Math.max(1, units * periodMillis / refill);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public long getRefill() {
+        return refill;
+    }
+
+    public long getPeriodMillis() {
+        return periodMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "Budget{" +
+                "kind=" + kind +
+                ", limit=" + limit +
+                ", refill=" + refill +
+                ", periodMillis=" + periodMillis +
+                '}';
+    }
+}
@@ -0,0 +1,316 @@
+package com.kabutar.gatekeeper.ratelimiter.distributed;
+
+import com.kabutar.gatekeeper.ratelimiter.algorithm.RateLimitStatus;
+import com.kabutar.gatekeeper.ratelimiter.scheduler.TimingWheel;
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStore;
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStoreFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Leases units of one rule's shared {@link Budget} from the {@link SharedLimiterStore} so
+ * requests can be admitted against the cluster-wide limit without a round trip.
+ *
+ * Concept:
+ *   Every identity has a local lease: a count of units this node has already taken from
+ *   the store. A request spends one unit locally. When the lease runs low it is topped up
+ *   in the background, and when it is empty the request waits for the next top-up. Top-ups
+ *   for all identities are collected and sent to the store as one batch per flush, which
+ *   runs every {@code flushIntervalMillis} and never on a request's thread. If the
+ *   store has nothing left, the identity is rejected locally until the budget would have
+ *   recovered, so an exhausted client does not cause a round trip per request.
+ *
+ * Lease state:
+ *   [ window : 32 bits ][ units : 32 bits ] in one AtomicLong. For window budgets, units
+ *   leased in an earlier window are worthless and are dropped on first use in the next
+ *   one; bucket budgets always use window 0.
+ *
+ * Unused units are handed back to the store when an identity is evicted and on shutdown.
+ * If the store cannot be reached in time the request is let through to the local limiter,
+ * which still enforces the rule on this node.
+ */
+public class LeaseManager {
+    private static final Logger logger = LogManager.getLogger(LeaseManager.class);
+
+    // rough heap cost of one tracked lease: key, lease, its store key and cache entry
+    private static final long ENTRY_BYTES = 256;
+    private static final long UNITS_MASK = 0xFFFFFFFFL;
+
+    private static final int TAKEN = 0;
+    private static final int EMPTY = 1;
+    private static final int EXHAUSTED = 2;
+
+    private static final Mono<Boolean> ACCEPTED = Mono.just(true);
+    private static final Mono<Boolean> REJECTED = Mono.just(false);
+
+    private final String ruleKey;
+    private final Budget budget;
+    private final SharedLimiterStore store;
+    private final long block;
+    private final long lowWatermark;
+    private final int batchSize;
+    private final Duration timeout;
+
+    private final IdentityStore<Lease> leases;
+    private final Queue<Lease> refills = new ConcurrentLinkedQueue<>();
+    private final Queue<LeaseRequest> returns = new ConcurrentLinkedQueue<>();
+    private final TimingWheel.Timeout flusher;
+    private volatile boolean closed;
+
+    public LeaseManager(String ruleKey, Budget budget, SharedLimiterStore store, TimingWheel timer,
+                        IdentityStoreFactory stores, int leasePercent, long flushIntervalMillis,
+                        int batchSize, long timeoutMillis) {
+        this.ruleKey = ruleKey;
+        this.budget = budget;
+        this.store = store;
+        this.block = Math.min(UNITS_MASK, Math.max(1, budget.getLimit() * leasePercent / 100));
+        this.lowWatermark = block / 2;
+        this.batchSize = batchSize;
+        this.timeout = Duration.ofMillis(timeoutMillis);
+
+        long horizonNanos = TimeUnit.MILLISECONDS.toNanos(budget.getPeriodMillis());
+        this.leases = stores.create(ENTRY_BYTES, horizonNanos, this::newLease, this::giveBack);
+        this.flusher = timer.scheduleAtFixedRate(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private Lease newLease(long identityKey) {
+        return new Lease(ruleKey + ':' + Long.toHexString(identityKey));
+    }
+
+    /**
+     * Spends one unit of the identity's lease.
+     *
+     * @return true if the cluster-wide budget admits the request
+     */
+    public Mono<Boolean> acquire(long identityKey) {
+        Lease lease = leases.get(identityKey);
+        long now = System.currentTimeMillis();
+        long window = budget.window(now);
+
+        switch (lease.take(window, now)) {
+            case TAKEN:
+                return ACCEPTED;
+            case EXHAUSTED:
+                return REJECTED;
+            default:
+                break;
+        }
+
+        // the flusher sends it with everything else queued, off the request's thread; the
+        // future is shared by every waiter, so one of them giving up must not cancel it
+        CompletableFuture<Void> pending = requestRefill(lease);
+        return Mono.fromFuture(pending, true)
+                .timeout(timeout)
+                .then(Mono.fromSupplier(() -> lease.take(budget.window(System.currentTimeMillis()), System.currentTimeMillis()) == TAKEN))
+                .onErrorResume(e -> {
+                    logger.debug("Shared limiter store unavailable, deciding {} locally", lease.storeKey, e);
+                    return ACCEPTED;
+                });
+    }
+
+    /**
+     * Hands back a unit taken by {@link #acquire(long)} for a request that was rejected
+     * further on, e.g. by another dimension.
+     */
+    public void restore(long identityKey) {
+        Lease lease = leases.getIfPresent(identityKey);
+        if (lease != null) {
+            lease.add(budget.window(System.currentTimeMillis()), 1);
+        }
+    }
+
+    /**
+     * The standing of an identity {@link #acquire(long)} just turned away: nothing left
+     * until this node would ask the store for more of the budget.
+     */
+    public RateLimitStatus exhausted(long identityKey) {
+        long now = System.currentTimeMillis();
+        Lease lease = leases.getIfPresent(identityKey);
+        long retryAt = lease != null && lease.exhaustedUntil > now ? lease.exhaustedUntil : budget.retryAtMillis(now, 1);
+        long resetAt = Math.max(retryAt, budget.retryAtMillis(now, budget.getLimit()));
+        return new RateLimitStatus(budget.getLimit(), 0,
+                TimeUnit.MILLISECONDS.toNanos(resetAt - now), TimeUnit.MILLISECONDS.toNanos(retryAt - now));
+    }
+
+    private CompletableFuture<Void> requestRefill(Lease lease) {
+        synchronized (lease) {
+            if (lease.pending == null) {
+                lease.pending = new CompletableFuture<>();
+                refills.add(lease);
+            }
+            return lease.pending;
+        }
+    }
+
+    /**
+     * Sends the collected top-ups and returns to the store, one batch at a time.
+     */
+    void flush() {
+        List<LeaseRequest> requests = new ArrayList<>();
+        List<Lease> batch = new ArrayList<>();
+        long window = budget.window(System.currentTimeMillis());
+        Lease lease;
+        while ((lease = refills.poll()) != null) {
+            batch.add(lease);
+            requests.add(new LeaseRequest(budget.key(lease.storeKey, window), budget, block));
+            if (batch.size() == batchSize) {
+                send(requests, batch, window);
+                requests = new ArrayList<>();
+                batch = new ArrayList<>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            send(requests, batch, window);
+        }
+
+        List<LeaseRequest> unused = new ArrayList<>();
+        LeaseRequest request;
+        while ((request = returns.poll()) != null) {
+            unused.add(request);
+            if (unused.size() == batchSize) {
+                giveBack(unused);
+                unused = new ArrayList<>();
+            }
+        }
+        if (!unused.isEmpty()) {
+            giveBack(unused);
+        }
+    }
+
+    private void send(List<LeaseRequest> requests, List<Lease> batch, long window) {
+        store.acquire(requests).subscribe(granted -> {
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < granted.length; i++) {
+                Lease lease = batch.get(i);
+                if (granted[i] > 0) {
+                    lease.add(window, granted[i]);
+                } else {
+                    lease.exhaustedUntil = budget.retryAtMillis(now, 1);
+                }
+                lease.complete(null);
+            }
+        }, e -> {
+            logger.warn("Failed to lease {} budgets from the shared limiter store", batch.size(), e);
+            for (Lease lease : batch) {
+                lease.complete(e);
+            }
+        });
+    }
+
+    private void giveBack(List<LeaseRequest> unused) {
+        store.release(unused).subscribe(null,
+                e -> logger.warn("Failed to return {} leases to the shared limiter store", unused.size(), e));
+    }
+
+    // eviction hook: queue whatever is left of the lease for the next flush
+    private void giveBack(Lease lease) {
+        long window = budget.window(System.currentTimeMillis());
+        long units = lease.drain(window);
+        if (units > 0) {
+            returns.add(new LeaseRequest(budget.key(lease.storeKey, window), budget, units));
+        }
+    }
+
+    /**
+     * Stops flushing and hands every unused unit back, waiting up to the store timeout.
+     * Only the first call does anything.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        flusher.cancel();
+        leases.forEach(this::giveBack);
+        List<LeaseRequest> unused = new ArrayList<>(returns);
+        returns.clear();
+        if (unused.isEmpty()) {
+            return;
+        }
+        try {
+            store.release(unused).block(timeout);
+        } catch (RuntimeException e) {
+            logger.warn("Could not return {} leases to the shared limiter store", unused.size(), e);
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private final class Lease {
+        private final String storeKey;
+        private final AtomicLong state = new AtomicLong();
+        private volatile long exhaustedUntil;
+        // guarded by this
+        private CompletableFuture<Void> pending;
+
+        Lease(String storeKey) {
+            this.storeKey = storeKey;
+        }
+
+        int take(long window, long now) {
+            while (true) {
+                long current = state.get();
+                long units = (current >>> 32) == window ? current & UNITS_MASK : 0;
+                if (units == 0) {
+                    return now < exhaustedUntil ? EXHAUSTED : EMPTY;
+                }
+                if (state.compareAndSet(current, (window << 32) | (units - 1))) {
+                    if (units - 1 <= lowWatermark) {
+                        requestRefill(this);
+                    }
+                    return TAKEN;
+                }
+            }
+        }
+
+        void add(long window, long granted) {
+            while (true) {
+                long current = state.get();
+                long leased = current >>> 32;
+                if (leased > window) {
+                    // granted for a window that has already closed here
+                    return;
+                }
+                long units = leased == window ? current & UNITS_MASK : 0;
+                long next = (window << 32) | Math.min(UNITS_MASK, units + granted);
+                if (state.compareAndSet(current, next)) {
+                    exhaustedUntil = 0;
+                    return;
+                }
+            }
+        }
+
+        long drain(long window) {
+            long current = state.getAndSet(window << 32);
+            return (current >>> 32) == window ? current & UNITS_MASK : 0;
+        }
+
+        void complete(Throwable error) {
+            CompletableFuture<Void> done;
+            synchronized (this) {
+                done = pending;
+                pending = null;
+            }
+            if (done == null) {
+                return;
+            }
+            if (error == null) {
+                done.complete(null);
+            } else {
+                done.completeExceptionally(error);
+            }
+        }
+    }
+}
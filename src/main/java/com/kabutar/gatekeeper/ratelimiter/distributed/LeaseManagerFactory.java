@@ -0,0 +1,71 @@
+package com.kabutar.gatekeeper.ratelimiter.distributed;
+
+import com.kabutar.gatekeeper.config.rateLimit.DistributedConfig;
+import com.kabutar.gatekeeper.config.rateLimit.RateLimitedConfig;
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterException;
+import com.kabutar.gatekeeper.ratelimiter.scheduler.TimingWheel;
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStoreFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Creates the {@link LeaseManager} of every rule in distributed mode and hands their
+ * unused leases back to the shared store when the gateway shuts down. Managers of rules
+ * replaced by a reload close themselves and are forgotten on the next create.
+ */
+@Component
+public class LeaseManagerFactory implements DisposableBean {
+    private static final Logger logger = LogManager.getLogger(LeaseManagerFactory.class);
+
+    private final DistributedConfig config;
+    private final SharedLimiterStore store;
+    private final TimingWheel timer;
+    private final IdentityStoreFactory stores;
+    private final List<LeaseManager> managers = new CopyOnWriteArrayList<>();
+
+    @Autowired
+    public LeaseManagerFactory(RateLimitedConfig rateLimitedConfig, SharedLimiterStore store,
+                               TimingWheel timer, IdentityStoreFactory stores) {
+        this.config = rateLimitedConfig.getDistributed();
+        this.store = store;
+        this.timer = timer;
+        this.stores = stores;
+        validateConfig();
+    }
+
+    private void validateConfig() {
+        if (config.getLeasePercent() > 0 && config.getLeasePercent() <= 100
+                && config.getFlushIntervalMillis() > 0
+                && config.getBatchSize() > 0
+                && config.getTimeoutMillis() > 0) {
+            return;
+        }
+        throw new RateLimiterException("Invalid distributed config: " + config);
+    }
+
+    /**
+     * @param ruleKey prefix of the rule's keys in the store; must be the same on every node
+     */
+    public LeaseManager create(String ruleKey, Budget budget) {
+        LeaseManager manager = new LeaseManager(ruleKey, budget, store, timer, stores,
+                config.getLeasePercent(), config.getFlushIntervalMillis(),
+                config.getBatchSize(), config.getTimeoutMillis());
+        managers.removeIf(LeaseManager::isClosed);
+        managers.add(manager);
+        return manager;
+    }
+
+    @Override
+    public void destroy() {
+        logger.debug("Returning unused leases of {} rules", managers.size());
+        for (LeaseManager manager : managers) {
+            manager.close();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.kabutar.gatekeeper.ratelimiter.distributed;
+
+/**
+ * One entry of a batch sent to a {@link SharedLimiterStore}: take up to {@code units}
+ * from the budget stored under {@code key}, or hand {@code units} back to it.
+ */
+public final class LeaseRequest {
+    private final String key;
+    private final Budget budget;
+    private final long units;
+
+    public LeaseRequest(String key, Budget budget, long units) {
+        this.key = key;
+        this.budget = budget;
+        this.units = units;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public Budget getBudget() {
+        return budget;
+    }
+
+    public long getUnits() {
+        return units;
+    }
+}
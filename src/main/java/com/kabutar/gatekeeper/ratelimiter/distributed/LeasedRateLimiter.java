@@ -0,0 +1,104 @@
+package com.kabutar.gatekeeper.ratelimiter.distributed;
+
+import com.kabutar.gatekeeper.ratelimiter.IdentityKey;
+import com.kabutar.gatekeeper.ratelimiter.IdentityResolver;
+import com.kabutar.gatekeeper.ratelimiter.algorithm.RateLimitStatus;
+import com.kabutar.gatekeeper.ratelimiter.algorithm.RateLimiter;
+import com.kabutar.gatekeeper.ratelimiter.handler.RateLimitedHandler;
+import com.kabutar.gatekeeper.ratelimiter.metrics.RuleMetrics;
+import com.kabutar.gatekeeper.ratelimiter.snapshot.Snapshottable;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Distributed mode for any algorithm: admits a request against the rule's cluster-wide
+ * budget through a {@link LeaseManager}, then hands it to the node-local limiter.
+ *
+ * The global check comes first so that a request rejected by it never touches the local
+ * state; the local limiter keeps shaping traffic on this node (queueing for the leaky
+ * bucket, window semantics for the window counters). Each limitBy dimension leases from
+ * its own budget; a rule without dimensions leases from the rule-wide DEFAULT identity.
+ * Only the rejections made here are counted in the rule's metrics, the local limiter counts
+ * everything it decides on.
+ */
+public class LeasedRateLimiter implements RateLimiter {
+    private static final Logger logger = LogManager.getLogger(LeasedRateLimiter.class);
+
+    private static final int ADMITTED = -1;
+    private static final Mono<Integer> ALL_ADMITTED = Mono.just(ADMITTED);
+
+    private final RateLimiter delegate;
+    private final RateLimitedHandler handler;
+    private final RuleMetrics metrics;
+    private final LeaseManager leases;
+    private final IdentityResolver identities;
+
+    public LeasedRateLimiter(RateLimiter delegate, RateLimitedHandler handler, LeaseManager leases, List<String> limitBy,
+                             RuleMetrics metrics) {
+        this.delegate = delegate;
+        this.handler = handler;
+        this.metrics = metrics;
+        this.leases = leases;
+        this.identities = IdentityResolver.compile(limitBy);
+    }
+
+    @Override
+    public Mono<Void> allocate(ServerWebExchange exchange, GatewayFilterChain chain) {
+        return acquire(exchange, 0).flatMap(rejectedBy -> {
+            if (rejectedBy == ADMITTED) {
+                return delegate.allocate(exchange, chain);
+            }
+            logger.debug("Cluster budget exhausted - dropping: {}", exchange.getRequest().getURI().getPath());
+            metrics.rejected();
+            return handler.handle(exchange, leases.exhausted(key(exchange, rejectedBy)));
+        });
+    }
+
+    /**
+     * The node-local limiter's view; the cluster-wide budget is not reflected.
+     */
+    @Override
+    public RateLimitStatus status(ServerWebExchange exchange) {
+        return delegate.status(exchange);
+    }
+
+    @Override
+    public Snapshottable snapshot() {
+        return delegate.snapshot();
+    }
+
+    /**
+     * Hands the unused leases back to the store before releasing the local limiter.
+     */
+    @Override
+    public void close() {
+        leases.close();
+        delegate.close();
+    }
+
+    // leases one unit per dimension in order, handing back the ones taken if a later one is out;
+    // gives the dimension that was out, or ADMITTED
+    private Mono<Integer> acquire(ServerWebExchange exchange, int index) {
+        if (index == Math.max(1, identities.size())) {
+            return ALL_ADMITTED;
+        }
+        return leases.acquire(key(exchange, index)).flatMap(accepted -> {
+            if (!accepted) {
+                for (int i = 0; i < index; i++) {
+                    leases.restore(key(exchange, i));
+                }
+                return Mono.just(index);
+            }
+            return acquire(exchange, index + 1);
+        });
+    }
+
+    private long key(ServerWebExchange exchange, int dimension) {
+        return identities.size() == 0 ? IdentityKey.DEFAULT : identities.resolve(exchange, dimension);
+    }
+}
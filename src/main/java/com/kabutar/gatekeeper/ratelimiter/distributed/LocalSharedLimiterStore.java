@@ -0,0 +1,117 @@
+package com.kabutar.gatekeeper.ratelimiter.distributed;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process {@link SharedLimiterStore}. Only shared by the limiters of one JVM, so it
+ * enforces nothing across nodes; it stands in for a real store in tests and when a
+ * single gateway runs with distributed mode switched on.
+ *
+ * Budgets are kept exactly as the Redis script keeps them, so switching stores does not
+ * change how leases behave.
+ */
+@Component
+@ConditionalOnProperty(prefix = "config.rate-limited.distributed", name = "store", havingValue = "local", matchIfMissing = true)
+public class LocalSharedLimiterStore implements SharedLimiterStore {
+    // expired keys are swept after this many operations
+    private static final int SWEEP_EVERY = 4096;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong operations = new AtomicLong();
+
+    @Override
+    public Mono<long[]> acquire(List<LeaseRequest> requests) {
+        return Mono.fromSupplier(() -> {
+            long now = System.currentTimeMillis();
+            long[] granted = new long[requests.size()];
+            for (int i = 0; i < granted.length; i++) {
+                LeaseRequest request = requests.get(i);
+                granted[i] = entry(request).take(request.getBudget(), request.getUnits(), now);
+            }
+            sweep(now, requests.size());
+            return granted;
+        });
+    }
+
+    @Override
+    public Mono<Void> release(List<LeaseRequest> requests) {
+        return Mono.fromRunnable(() -> {
+            long now = System.currentTimeMillis();
+            for (LeaseRequest request : requests) {
+                Entry entry = entries.get(request.getKey());
+                if (entry != null) {
+                    entry.giveBack(request.getBudget(), request.getUnits(), now);
+                }
+            }
+        });
+    }
+
+    private Entry entry(LeaseRequest request) {
+        return entries.computeIfAbsent(request.getKey(), k -> new Entry(request.getBudget()));
+    }
+
+    private void sweep(long now, int count) {
+        long before = operations.getAndAdd(count);
+        if (before / SWEEP_EVERY != (before + count) / SWEEP_EVERY) {
+            entries.values().removeIf(entry -> entry.isExpired(now));
+        }
+    }
+
+    private static final class Entry {
+        // BUCKET: tokens left; WINDOW: units handed out
+        private double level;
+        private long updatedMillis;
+        private long expiresMillis;
+
+        Entry(Budget budget) {
+            this.level = budget.getKind() == Budget.Kind.BUCKET ? budget.getLimit() : 0;
+            this.updatedMillis = System.currentTimeMillis();
+        }
+
+        synchronized long take(Budget budget, long units, long now) {
+            long granted;
+            if (budget.getKind() == Budget.Kind.BUCKET) {
+                refill(budget, now);
+                granted = Math.min(units, (long) level);
+                level -= granted;
+                // a bucket left alone this long is full again and can be forgotten
+                expiresMillis = now + (long) Math.ceil((budget.getLimit() - level)
+                        * budget.getPeriodMillis() / budget.getRefill()) + 1;
+            } else {
+                granted = Math.max(0, Math.min(units, budget.getLimit() - (long) level));
+                level += granted;
+                expiresMillis = (budget.window(now) + 1) * budget.getPeriodMillis();
+            }
+            return granted;
+        }
+
+        synchronized void giveBack(Budget budget, long units, long now) {
+            if (budget.getKind() == Budget.Kind.BUCKET) {
+                refill(budget, now);
+                level = Math.min(budget.getLimit(), level + units);
+            } else {
+                level = Math.max(0, level - units);
+            }
+        }
+
+        private void refill(Budget budget, long now) {
+            long elapsed = now - updatedMillis;
+            if (elapsed > 0) {
+                level = Math.min(budget.getLimit(),
+                        level + (double) elapsed * budget.getRefill() / budget.getPeriodMillis());
+                updatedMillis = now;
+            }
+        }
+
+        synchronized boolean isExpired(long now) {
+            return expiresMillis != 0 && now >= expiresMillis;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.kabutar.gatekeeper.ratelimiter.distributed;
+
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link SharedLimiterStore} on Redis, connected through the standard
+ * {@code spring.data.redis.*} properties.
+ *
+ * A whole batch is one EVAL of {@link #SCRIPT}, so a flush costs a single round trip and
+ * is applied atomically. Lettuce pipelines the EVALs of concurrent flushes on its shared
+ * connection. Time is taken from the Redis server, so node clocks only matter for window
+ * indices, which are part of the key.
+ *
+ * Per key the script receives kind, limit, refill, period and units (negative to give
+ * units back). Buckets are hashes of (tokens, ts) and expire once they would be full
+ * again; windows are plain counters expiring with their window.
+ *
+ * Every key of a batch is sent in one script call, so on Redis Cluster the keys must hash
+ * to one slot; use a single primary (optionally with replicas/sentinel) for now.
+ */
+@Component
+@ConditionalOnProperty(prefix = "config.rate-limited.distributed", name = "store", havingValue = "redis")
+public class RedisSharedLimiterStore implements SharedLimiterStore {
+    static final String SCRIPT = """
+            local t = redis.call('TIME')
+            local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000)
+            local result = {}
+            for i, key in ipairs(KEYS) do
+              local a = (i - 1) * 5
+              local kind = ARGV[a + 1]
+              local limit = tonumber(ARGV[a + 2])
+              local refill = tonumber(ARGV[a + 3])
+              local period = tonumber(ARGV[a + 4])
+              local units = tonumber(ARGV[a + 5])
+              local granted = 0
+              if kind == 'B' then
+                local state = redis.call('HMGET', key, 'tokens', 'ts')
+                local tokens = tonumber(state[1]) or limit
+                local ts = tonumber(state[2]) or now
+                if now > ts then
+                  tokens = math.min(limit, tokens + (now - ts) * refill / period)
+                end
+                if units >= 0 then
+                  granted = math.min(units, math.floor(tokens))
+                  tokens = tokens - granted
+                else
+                  tokens = math.min(limit, tokens - units)
+                end
+                redis.call('HSET', key, 'tokens', tostring(tokens), 'ts', now)
+                redis.call('PEXPIRE', key, math.ceil((limit - tokens) * period / refill) + 1)
+              else
+                local used = tonumber(redis.call('GET', key)) or 0
+                if units >= 0 then
+                  granted = math.max(0, math.min(units, limit - used))
+                  if granted > 0 then
+                    redis.call('INCRBY', key, granted)
+                    redis.call('PEXPIRE', key, period)
+                  end
+                elseif used > 0 then
+                  redis.call('DECRBY', key, math.min(used, -units))
+                end
+              end
+              result[i] = granted
+            end
+            return result
+            """;
+
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> LEASE = RedisScript.of(SCRIPT, List.class);
+
+    private final ReactiveStringRedisTemplate redis;
+
+    @Autowired
+    public RedisSharedLimiterStore(ReactiveStringRedisTemplate redis) {
+        this.redis = redis;
+    }
+
+    @Override
+    public Mono<long[]> acquire(List<LeaseRequest> requests) {
+        return execute(requests, false).map(result -> granted(result, requests.size()));
+    }
+
+    // Lettuce streams the elements of a list reply one by one; other drivers emit the list
+    static long[] granted(List<?> result, int size) {
+        List<?> values = result.size() == 1 && result.get(0) instanceof List<?> list ? list : result;
+        if (values.size() != size) {
+            throw new RateLimiterException("Expected " + size + " grants from Redis, got " + values);
+        }
+        long[] granted = new long[size];
+        for (int i = 0; i < size; i++) {
+            granted[i] = ((Number) values.get(i)).longValue();
+        }
+        return granted;
+    }
+
+    @Override
+    public Mono<Void> release(List<LeaseRequest> requests) {
+        return execute(requests, true).then();
+    }
+
+    private Mono<List<Object>> execute(List<LeaseRequest> requests, boolean release) {
+        List<String> keys = new ArrayList<>(requests.size());
+        List<String> args = new ArrayList<>(requests.size() * 5);
+        for (LeaseRequest request : requests) {
+            Budget budget = request.getBudget();
+            keys.add(request.getKey());
+            args.add(budget.getKind() == Budget.Kind.BUCKET ? "B" : "W");
+            args.add(Long.toString(budget.getLimit()));
+            args.add(Long.toString(budget.getRefill()));
+            args.add(Long.toString(budget.getPeriodMillis()));
+            args.add(Long.toString(release ? -request.getUnits() : request.getUnits()));
+        }
+        return redis.execute(LEASE, keys, args).cast(Object.class).collectList();
+    }
+}
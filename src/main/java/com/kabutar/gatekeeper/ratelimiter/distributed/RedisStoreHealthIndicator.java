@@ -0,0 +1,33 @@
+package com.kabutar.gatekeeper.ratelimiter.distributed;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.data.redis.RedisReactiveHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.ReactiveHealthIndicator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reports Redis under {@code /actuator/health} only when it is the shared limiter store.
+ *
+ * The Redis starter is on the classpath either way, so Spring Boot's own Redis indicator
+ * is switched off ({@code management.health.redis.enabled: false}); otherwise a gateway
+ * that never uses Redis would report itself down.
+ */
+@Component("redisHealthIndicator")
+@ConditionalOnProperty(prefix = "config.rate-limited.distributed", name = "store", havingValue = "redis")
+public class RedisStoreHealthIndicator implements ReactiveHealthIndicator {
+    private final ReactiveHealthIndicator redis;
+
+    @Autowired
+    public RedisStoreHealthIndicator(ReactiveRedisConnectionFactory connectionFactory) {
+        this.redis = new RedisReactiveHealthIndicator(connectionFactory);
+    }
+
+    @Override
+    public Mono<Health> health() {
+        return redis.health();
+    }
+}
@@ -0,0 +1,30 @@
+package com.kabutar.gatekeeper.ratelimiter.distributed;
+
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Storage shared by every gateway node in distributed mode.
+ *
+ * Nodes never ask the store about single requests. They lease blocks of units for an
+ * identity, spend them locally and come back in batches, so an implementation only has
+ * to be fast per batch. Both operations must be atomic per key across nodes.
+ *
+ * Selected with {@code config.rate-limited.distributed.store}.
+ */
+public interface SharedLimiterStore {
+
+    /**
+     * Takes up to the requested units from each budget.
+     *
+     * @return the units granted, in request order; fewer than asked (or zero) when the
+     *         budget is running out
+     */
+    Mono<long[]> acquire(List<LeaseRequest> requests);
+
+    /**
+     * Hands unused units back. Units returned to a window that has closed are dropped.
+     */
+    Mono<Void> release(List<LeaseRequest> requests);
+}
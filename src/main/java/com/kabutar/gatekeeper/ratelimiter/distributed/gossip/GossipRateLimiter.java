@@ -0,0 +1,158 @@
+package com.kabutar.gatekeeper.ratelimiter.distributed.gossip;
+
+import com.kabutar.gatekeeper.config.rateLimit.Rule;
+import com.kabutar.gatekeeper.ratelimiter.IdentityKey;
+import com.kabutar.gatekeeper.ratelimiter.IdentityResolver;
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterException;
+import com.kabutar.gatekeeper.ratelimiter.algorithm.RateLimitStatus;
+import com.kabutar.gatekeeper.ratelimiter.algorithm.RateLimiter;
+import com.kabutar.gatekeeper.ratelimiter.handler.RateLimitedHandler;
+import com.kabutar.gatekeeper.ratelimiter.metrics.RuleMetrics;
+import com.kabutar.gatekeeper.ratelimiter.snapshot.Snapshottable;
+import com.kabutar.gatekeeper.util.Units;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gossip mode for the window counters: decides on the cluster-wide count merged by the
+ * {@link GossipService}, then hands the request to the node-local limiter.
+ *
+ * Windows are aligned to the epoch so every node counts into the same window. A fixed
+ * window admits while the merged count is below the limit; a sliding window blends the
+ * merged counts of the previous and current window exactly like the local one does.
+ *
+ * The view of other nodes is at most one gossip round old, so a burst spread over all
+ * nodes can overshoot the limit by what they admit in one interval. Requests are counted
+ * once admitted here, even if the local limiter turns them away afterwards. Only the
+ * rejections made here are counted in the rule's metrics, the local limiter counts the rest.
+ */
+public class GossipRateLimiter implements RateLimiter {
+    private static final Logger logger = LogManager.getLogger(GossipRateLimiter.class);
+
+    private final RateLimiter delegate;
+    private final RateLimitedHandler handler;
+    private final RuleMetrics metrics;
+    private final GossipService gossip;
+    private final IdentityResolver identities;
+    private final long ruleKey;
+    private final long limit;
+    private final long periodMillis;
+    private final boolean sliding;
+
+    public GossipRateLimiter(RateLimiter delegate, RateLimitedHandler handler, GossipService gossip, String ruleKey, Rule rule,
+                             RuleMetrics metrics) {
+        this.delegate = delegate;
+        this.handler = handler;
+        this.metrics = metrics;
+        this.gossip = gossip;
+        this.identities = IdentityResolver.compile(rule.getLimitBy());
+        this.ruleKey = IdentityKey.of(ruleKey);
+
+        int counter;
+        int timeWindow;
+        String timeUnit;
+        switch (rule.getAlgorithm()) {
+            case RateLimiterConstants.Algorithm.FIXED_WINDOW_COUNTER:
+                counter = rule.getConfig().getFixedWindow().getCounter();
+                timeWindow = rule.getConfig().getFixedWindow().getTimeWindow();
+                timeUnit = rule.getConfig().getFixedWindow().getTimeUnit();
+                this.sliding = false;
+                break;
+            case RateLimiterConstants.Algorithm.SLIDING_WINDOW_COUNTER:
+                counter = rule.getConfig().getSlidingWindow().getCounter();
+                timeWindow = rule.getConfig().getSlidingWindow().getTimeWindow();
+                timeUnit = rule.getConfig().getSlidingWindow().getTimeUnit();
+                this.sliding = true;
+                break;
+            default:
+                throw new RateLimiterException("Gossip mode only supports window counters, not " + rule.getAlgorithm());
+        }
+        this.limit = counter;
+        this.periodMillis = TimeUnit.SECONDS.toMillis((long) timeWindow * Units.Time.MULTIPLIER.get(timeUnit));
+        gossip.allowTtl(ttlWindows() * periodMillis);
+    }
+
+    public static boolean supports(Rule rule) {
+        return RateLimiterConstants.Algorithm.FIXED_WINDOW_COUNTER.equals(rule.getAlgorithm())
+                || RateLimiterConstants.Algorithm.SLIDING_WINDOW_COUNTER.equals(rule.getAlgorithm());
+    }
+
+    @Override
+    public Mono<Void> allocate(ServerWebExchange exchange, GatewayFilterChain chain) {
+        long now = System.currentTimeMillis();
+        long window = now / periodMillis;
+        double overlapRatio = 1.0 - (double) (now % periodMillis) / periodMillis;
+
+        int dimensions = Math.max(1, identities.size());
+        for (int i = 0; i < dimensions; i++) {
+            long identity = identity(exchange, i);
+            double current = gossip.total(key(identity, window));
+            double previous = sliding ? gossip.total(key(identity, window - 1)) : 0;
+            if (current + previous * overlapRatio >= limit) {
+                logger.debug("Cluster window full - dropping: {}", exchange.getRequest().getURI().getPath());
+                metrics.rejected();
+                return handler.handle(exchange, full(current, previous, now, window));
+            }
+        }
+
+        long expiresAt = (window + ttlWindows()) * periodMillis;
+        for (int i = 0; i < dimensions; i++) {
+            gossip.increment(key(identity(exchange, i), window), expiresAt);
+        }
+        return delegate.allocate(exchange, chain);
+    }
+
+    /**
+     * The node-local limiter's view; the cluster-wide budget is not reflected.
+     */
+    @Override
+    public RateLimitStatus status(ServerWebExchange exchange) {
+        return delegate.status(exchange);
+    }
+
+    @Override
+    public Snapshottable snapshot() {
+        return delegate.snapshot();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    /**
+     * The standing of a dimension found full: no quota left until the merged count drops
+     * below the limit, which for a sliding window happens as the previous window slides out.
+     */
+    private RateLimitStatus full(double current, double previous, long now, long window) {
+        long windowEnd = (window + 1) * periodMillis;
+        long retryAt = windowEnd;
+        if (sliding && current < limit && previous > 0) {
+            // previous * (1 - elapsed / period) falls to limit - current at this point of the window
+            double elapsed = 1.0 - (limit - current) / previous;
+            retryAt = Math.min(windowEnd, window * periodMillis + (long) Math.ceil(elapsed * periodMillis));
+        }
+        long resetAt = sliding ? windowEnd + periodMillis : windowEnd;
+        return new RateLimitStatus(limit, 0, TimeUnit.MILLISECONDS.toNanos(resetAt - now),
+                TimeUnit.MILLISECONDS.toNanos(Math.max(0, retryAt - now)));
+    }
+
+    // a sliding window's count still weighs in during the window after it
+    private int ttlWindows() {
+        return sliding ? 2 : 1;
+    }
+
+    private long identity(ServerWebExchange exchange, int dimension) {
+        return identities.size() == 0 ? IdentityKey.DEFAULT : identities.resolve(exchange, dimension);
+    }
+
+    private long key(long identity, long window) {
+        return IdentityKey.mix(ruleKey ^ IdentityKey.mix(identity ^ IdentityKey.mix(window)));
+    }
+}
@@ -0,0 +1,370 @@
+package com.kabutar.gatekeeper.ratelimiter.distributed.gossip;
+
+import com.kabutar.gatekeeper.config.rateLimit.GossipConfig;
+import com.kabutar.gatekeeper.config.rateLimit.RateLimitedConfig;
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterException;
+import com.kabutar.gatekeeper.ratelimiter.scheduler.TimingWheel;
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStore;
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStoreFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Shares per-identity request counts between gateway nodes over UDP, without a store.
+ *
+ * Counters:
+ *   Every counted key (rule, identity and window folded into one 64-bit hash) is a
+ *   G-counter: one slot per node of the static peer list. A node only ever increments its
+ *   own slot and merges the others by taking the maximum, so merging is idempotent and
+ *   order-insensitive, and a lost or duplicated datagram is repaired by any later one.
+ *   The merged value is the sum of all slots.
+ *
+ * Rounds:
+ *   Every interval a node sends its own slot of each key that changed since the last round
+ *   to every peer, deflated into as few datagrams as fit. Every few rounds it sends all of
+ *   its live keys instead, which heals datagrams that were dropped. Bandwidth therefore
+ *   follows the number of active identities, not the request rate.
+ *
+ * Keys carry their remaining lifetime, so windows that have closed are dropped on every
+ * node without coordination. A received lifetime is cut down to the longest window any
+ * local rule counts in. Counters are kept in a bounded {@link IdentityStore}, like any
+ * other per-identity state, so a flood of new keys evicts old ones instead of growing.
+ *
+ * Peers are listed as host:port; a node finds itself in the list through its bind address,
+ * so every node can share the same list. Several nodes can run on one host on different ports.
+ *
+ * Trust:
+ *   A datagram is only merged if it comes from the address of the peer it names as its
+ *   sender. Datagrams are not authenticated, though, and UDP source addresses can be
+ *   forged, so the gossip port must only be reachable from the other gateway nodes.
+ */
+@Component
+@ConditionalOnProperty(prefix = "config.rate-limited.distributed", name = "mode", havingValue = "gossip")
+public class GossipService implements DisposableBean {
+    private static final Logger logger = LogManager.getLogger(GossipService.class);
+
+    static final int MAGIC = 0x47534b50;
+    private static final int HEADER_BYTES = 4 + 2 + 4;
+    // keeps a deflated batch well inside one datagram even if it does not compress
+    private static final int MAX_RAW_BYTES = 32 * 1024;
+    private static final int MAX_ENTRY_BYTES = 8 + 10 + 10;
+    private static final int MAX_DATAGRAM_BYTES = 65507;
+    // rough heap cost of one counted key without its slots: key, counter and cache entry
+    private static final long ENTRY_BYTES = 160;
+
+    private final int self;
+    private final int nodes;
+    private final List<InetSocketAddress> peers;
+    private final int fullSyncRounds;
+
+    private final IdentityStore<Counter> counters;
+    private final Queue<Counter> dirty = new ConcurrentLinkedQueue<>();
+    // longest lifetime a received key is given, raised as rules register
+    private volatile long maxTtlMillis;
+
+    private final DatagramChannel channel;
+    private final Thread receiver;
+    private final TimingWheel.Timeout sender;
+    private final AtomicBoolean sending = new AtomicBoolean();
+    private volatile boolean running = true;
+    private long round;
+
+    // only used by the round in progress, guarded by sending
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final ByteBuffer raw = ByteBuffer.allocate(MAX_RAW_BYTES + MAX_ENTRY_BYTES);
+    private final byte[] compressed = new byte[MAX_DATAGRAM_BYTES];
+
+    @Autowired
+    public GossipService(RateLimitedConfig rateLimitedConfig, TimingWheel timer, IdentityStoreFactory stores) throws IOException {
+        this(rateLimitedConfig.getDistributed().getGossip(), timer, stores);
+    }
+
+    public GossipService(GossipConfig config, TimingWheel timer, IdentityStoreFactory stores) throws IOException {
+        if (config.getBind() == null || config.getPeers() == null || config.getPeers().isEmpty()
+                || config.getIntervalMillis() <= 0 || config.getFullSyncRounds() <= 0) {
+            throw new RateLimiterException("Invalid gossip config: " + config);
+        }
+        this.peers = new ArrayList<>();
+        for (String peer : config.getPeers()) {
+            peers.add(address(peer));
+        }
+        InetSocketAddress bind = address(config.getBind());
+        this.self = peers.indexOf(bind);
+        if (self < 0) {
+            throw new RateLimiterException("Gossip bind address " + config.getBind() + " is not in the peer list " + config.getPeers());
+        }
+        this.nodes = peers.size();
+        this.fullSyncRounds = config.getFullSyncRounds();
+        // closed windows are dropped by the rounds, eviction only has to bound the count
+        this.counters = stores.create(ENTRY_BYTES + 8L * nodes, 0, key -> new Counter(key, nodes), counter -> {});
+
+        this.channel = DatagramChannel.open().bind(bind);
+        this.receiver = new Thread(this::receive, "gatekeeper-gossip");
+        this.receiver.setDaemon(true);
+        this.receiver.start();
+        this.sender = timer.scheduleAtFixedRate(this::round,
+                config.getIntervalMillis(), config.getIntervalMillis(), TimeUnit.MILLISECONDS);
+        logger.info("Gossiping with {} peers from {}", nodes - 1, bind);
+    }
+
+    private static InetSocketAddress address(String hostPort) {
+        int colon = hostPort.lastIndexOf(':');
+        if (colon < 0) {
+            throw new RateLimiterException("Expected host:port, got " + hostPort);
+        }
+        return new InetSocketAddress(hostPort.substring(0, colon), Integer.parseInt(hostPort.substring(colon + 1)));
+    }
+
+    /**
+     * Lets keys received from peers live for up to the given time. Called by every rule
+     * gossiping through this service with the longest its windows matter.
+     */
+    public void allowTtl(long ttlMillis) {
+        synchronized (this) {
+            maxTtlMillis = Math.max(maxTtlMillis, ttlMillis);
+        }
+    }
+
+    /**
+     * Sum of the key's counts across all nodes.
+     */
+    public long total(long key) {
+        Counter counter = counters.getIfPresent(key);
+        return counter == null ? 0 : counter.total();
+    }
+
+    /**
+     * Counts one request on this node.
+     *
+     * @param expiresAtMillis when the key's window stops mattering to any decision
+     */
+    public void increment(long key, long expiresAtMillis) {
+        Counter counter = counters.get(key);
+        counter.expireNoSoonerThan(expiresAtMillis);
+        counter.counts.incrementAndGet(self);
+        if (counter.dirty.compareAndSet(false, true)) {
+            dirty.add(counter);
+        }
+    }
+
+    private void round() {
+        if (!sending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            counters.forEachIdentity((counter, key) -> {
+                if (counter.expiresAtMillis <= now) {
+                    counters.remove(key);
+                }
+            });
+
+            raw.clear();
+            if (++round % fullSyncRounds == 0) {
+                dirty.clear();
+                counters.forEach(counter -> {
+                    counter.dirty.set(false);
+                    append(counter, now);
+                });
+            } else {
+                Counter counter;
+                while ((counter = dirty.poll()) != null) {
+                    counter.dirty.set(false);
+                    append(counter, now);
+                }
+            }
+            flush();
+        } catch (Throwable e) {
+            logger.warn("Gossip round failed", e);
+        } finally {
+            sending.set(false);
+        }
+    }
+
+    private void append(Counter counter, long now) {
+        long own = counter.counts.get(self);
+        long ttl = counter.expiresAtMillis - now;
+        if (own == 0 || ttl <= 0) {
+            return;
+        }
+        raw.putLong(counter.key);
+        putVarLong(raw, ttl);
+        putVarLong(raw, own);
+        if (raw.position() >= MAX_RAW_BYTES) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (raw.position() == 0) {
+            return;
+        }
+        int rawLength = raw.position();
+        deflater.reset();
+        deflater.setInput(raw.array(), 0, rawLength);
+        deflater.finish();
+        int length = deflater.deflate(compressed, HEADER_BYTES, compressed.length - HEADER_BYTES);
+        raw.clear();
+
+        ByteBuffer datagram = ByteBuffer.wrap(compressed, 0, HEADER_BYTES + length);
+        datagram.putInt(MAGIC).putShort((short) self).putInt(rawLength).rewind();
+        for (int node = 0; node < nodes; node++) {
+            if (node == self) {
+                continue;
+            }
+            try {
+                datagram.rewind();
+                channel.send(datagram, peers.get(node));
+            } catch (IOException e) {
+                logger.debug("Could not gossip to {}", peers.get(node), e);
+            }
+        }
+    }
+
+    private void receive() {
+        ByteBuffer datagram = ByteBuffer.allocate(MAX_DATAGRAM_BYTES);
+        Inflater inflater = new Inflater();
+        byte[] entries = new byte[MAX_RAW_BYTES + MAX_ENTRY_BYTES];
+        while (running) {
+            try {
+                datagram.clear();
+                SocketAddress source = channel.receive(datagram);
+                datagram.flip();
+                merge(source, datagram, inflater, entries);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException | DataFormatException | RuntimeException e) {
+                logger.debug("Dropping malformed gossip datagram", e);
+            }
+        }
+    }
+
+    private void merge(SocketAddress source, ByteBuffer datagram, Inflater inflater, byte[] entries) throws DataFormatException {
+        if (datagram.remaining() < HEADER_BYTES || datagram.getInt() != MAGIC) {
+            return;
+        }
+        int sender = datagram.getShort();
+        int rawLength = datagram.getInt();
+        if (sender < 0 || sender >= nodes || sender == self || rawLength > entries.length) {
+            return;
+        }
+        if (!peers.get(sender).equals(source)) {
+            logger.debug("Dropping gossip claiming to be {} from {}", peers.get(sender), source);
+            return;
+        }
+        inflater.reset();
+        inflater.setInput(datagram.array(), datagram.position(), datagram.remaining());
+        if (inflater.inflate(entries, 0, rawLength) != rawLength) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long maxTtl = maxTtlMillis;
+        ByteBuffer in = ByteBuffer.wrap(entries, 0, rawLength);
+        while (in.hasRemaining()) {
+            long key = in.getLong();
+            long ttl = Math.min(getVarLong(in), maxTtl);
+            long count = getVarLong(in);
+            if (ttl <= 0) {
+                continue;
+            }
+            Counter counter = counters.get(key);
+            counter.expireNoSoonerThan(now + ttl);
+            counter.mergeMax(sender, count);
+        }
+    }
+
+    static void putVarLong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static long getVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    public void close() {
+        running = false;
+        sender.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close gossip channel", e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        close();
+    }
+
+    private static final class Counter {
+        private final long key;
+        private final AtomicLongArray counts;
+        private final AtomicBoolean dirty = new AtomicBoolean();
+        private volatile long expiresAtMillis;
+
+        Counter(long key, int nodes) {
+            this.key = key;
+            this.counts = new AtomicLongArray(nodes);
+        }
+
+        // every node derives the same expiry for a key, so the first one usually sticks
+        void expireNoSoonerThan(long atMillis) {
+            if (atMillis > expiresAtMillis) {
+                synchronized (this) {
+                    expiresAtMillis = Math.max(expiresAtMillis, atMillis);
+                }
+            }
+        }
+
+        long total() {
+            long total = 0;
+            for (int node = 0; node < counts.length(); node++) {
+                total += counts.get(node);
+            }
+            return total;
+        }
+
+        void mergeMax(int node, long count) {
+            long current;
+            while ((current = counts.get(node)) < count) {
+                if (counts.compareAndSet(node, current, count)) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.kabutar.gatekeeper.ratelimiter.distributed.peer;
+
+import com.kabutar.gatekeeper.ratelimiter.IdentityKey;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Consistent hash ring over a static list of nodes.
+ *
+ * Every node is placed at {@code virtualNodes} points of the 64-bit hash space; a key is
+ * owned by the node at the first point at or after its hash. With a static list every
+ * node builds the same ring, so they all agree on owners without talking to each other,
+ * and virtual nodes keep the share of keys per node even.
+ */
+public final class ConsistentHashRing {
+    private final long[] points;
+    private final int[] owners;
+
+    public ConsistentHashRing(List<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty() || virtualNodes <= 0) {
+            throw new IllegalArgumentException("A ring needs nodes and virtual nodes");
+        }
+        int size = nodes.size() * virtualNodes;
+        long[][] placed = new long[size][];
+        for (int node = 0; node < nodes.size(); node++) {
+            for (int replica = 0; replica < virtualNodes; replica++) {
+                long point = IdentityKey.of(nodes.get(node) + '#' + replica);
+                placed[node * virtualNodes + replica] = new long[]{point, node};
+            }
+        }
+        Arrays.sort(placed, (a, b) -> Long.compare(a[0], b[0]));
+
+        this.points = new long[size];
+        this.owners = new int[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = placed[i][0];
+            owners[i] = (int) placed[i][1];
+        }
+    }
+
+    /**
+     * Index, in the node list, of the node owning the key.
+     */
+    public int owner(long hash) {
+        int index = Arrays.binarySearch(points, hash);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+}
@@ -0,0 +1,195 @@
+package com.kabutar.gatekeeper.ratelimiter.distributed.peer;
+
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterException;
+import com.kabutar.gatekeeper.ratelimiter.distributed.LeaseRequest;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client side of one peer: a single TCP connection that batches are pipelined over.
+ *
+ * Callers hand their request to a writer thread and return at once, so connecting and
+ * writing never block the event loop; a reader thread matches responses to requests by
+ * id. A broken connection fails every request in flight and is reopened by the next
+ * write. After a failed connect the peer is given up on for a while, doubling up to
+ * {@link RateLimiterConstants.Peer#MAX_RECONNECT_MILLIS}, and calls in between fail at
+ * once, so an unreachable owner costs neither a connect timeout per batch nor a backlog.
+ */
+final class PeerConnection {
+    private static final Logger logger = LogManager.getLogger(PeerConnection.class);
+
+    private final InetSocketAddress address;
+    private final int connectTimeoutMillis;
+    private final AtomicInteger ids = new AtomicInteger();
+    private final Map<Integer, CompletableFuture<long[]>> inFlight = new ConcurrentHashMap<>();
+    private final ExecutorService writer;
+    private volatile long retryAtNanos = System.nanoTime();
+
+    // guarded by this
+    private Socket socket;
+    private DataOutputStream out;
+    private boolean closed;
+    private long reconnectMillis = RateLimiterConstants.Peer.MIN_RECONNECT_MILLIS;
+
+    PeerConnection(InetSocketAddress address, int connectTimeoutMillis) {
+        this.address = address;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "gatekeeper-peer-writer-" + address.getPort());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    CompletableFuture<long[]> send(byte op, List<LeaseRequest> requests) {
+        CompletableFuture<long[]> response = new CompletableFuture<>();
+        if (System.nanoTime() - retryAtNanos < 0) {
+            response.completeExceptionally(unreachable());
+            return response;
+        }
+        int id = ids.incrementAndGet();
+        inFlight.put(id, response);
+        try {
+            writer.execute(() -> write(id, op, requests));
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(id);
+            response.completeExceptionally(unreachable());
+        }
+        return response;
+    }
+
+    // runs on the writer thread
+    private synchronized void write(int id, byte op, List<LeaseRequest> requests) {
+        try {
+            connect();
+            PeerProtocol.writeRequest(out, id, op, requests);
+            out.flush();
+        } catch (IOException | RuntimeException e) {
+            disconnect(socket, e);
+            CompletableFuture<long[]> response = inFlight.remove(id);
+            if (response != null) {
+                response.completeExceptionally(unreachable());
+            }
+        }
+    }
+
+    // guarded by this
+    private void connect() throws IOException {
+        if (closed) {
+            throw new RateLimiterException("Connection to " + address + " is closed");
+        }
+        if (socket != null) {
+            return;
+        }
+        // requests queued before the last connect failed
+        if (System.nanoTime() - retryAtNanos < 0) {
+            throw new ConnectException("Waiting to reconnect to " + address);
+        }
+        Socket opened = new Socket();
+        try {
+            opened.setTcpNoDelay(true);
+            opened.connect(address, connectTimeoutMillis);
+        } catch (IOException e) {
+            opened.close();
+            retryAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(reconnectMillis);
+            logger.debug("Could not connect to peer {}, retrying in {} ms", address, reconnectMillis);
+            reconnectMillis = Math.min(reconnectMillis * 2, RateLimiterConstants.Peer.MAX_RECONNECT_MILLIS);
+            throw e;
+        }
+        reconnectMillis = RateLimiterConstants.Peer.MIN_RECONNECT_MILLIS;
+        this.socket = opened;
+        this.out = new DataOutputStream(new BufferedOutputStream(opened.getOutputStream()));
+
+        Thread reader = new Thread(() -> read(opened), "gatekeeper-peer-" + address.getPort());
+        reader.setDaemon(true);
+        reader.start();
+        logger.debug("Connected to peer {}", address);
+    }
+
+    private void read(Socket opened) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(opened.getInputStream()));
+            while (true) {
+                int id = in.readInt();
+                byte status = in.readByte();
+                long[] granted = new long[in.readInt()];
+                for (int i = 0; i < granted.length; i++) {
+                    granted[i] = in.readLong();
+                }
+                CompletableFuture<long[]> response = inFlight.remove(id);
+                if (response == null) {
+                    continue;
+                }
+                if (status == PeerProtocol.OK) {
+                    response.complete(granted);
+                } else {
+                    response.completeExceptionally(new RateLimiterException("Peer " + address + " failed the request"));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                disconnect(opened, e);
+            }
+        }
+    }
+
+    // guarded by this; a reader that outlived its socket must not tear down the next one
+    private void disconnect(Socket failed, Throwable cause) {
+        if (failed == null || failed != socket) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close connection to {}", address, e);
+        }
+        socket = null;
+        out = null;
+        if (!closed) {
+            logger.debug("Lost connection to peer {}", address, cause);
+        }
+        failInFlight();
+    }
+
+    private void failInFlight() {
+        for (Integer id : inFlight.keySet()) {
+            CompletableFuture<long[]> response = inFlight.remove(id);
+            if (response != null) {
+                response.completeExceptionally(unreachable());
+            }
+        }
+    }
+
+    private RateLimiterException unreachable() {
+        return new RateLimiterException("Peer " + address + " is unreachable");
+    }
+
+    void close() {
+        // queued writes are dropped; their requests are failed below
+        writer.shutdownNow();
+        synchronized (this) {
+            closed = true;
+            disconnect(socket, null);
+        }
+        failInFlight();
+    }
+}
@@ -0,0 +1,71 @@
+package com.kabutar.gatekeeper.ratelimiter.distributed.peer;
+
+import com.kabutar.gatekeeper.ratelimiter.distributed.Budget;
+import com.kabutar.gatekeeper.ratelimiter.distributed.LeaseRequest;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wire format between gateway nodes.
+ *
+ *   request  : [ id : int ][ op : byte ][ count : int ] count x
+ *              [ key : utf ][ kind : byte ][ limit : long ][ refill : long ][ period : long ][ units : long ]
+ *   response : [ id : int ][ status : byte ][ count : int ] count x [ granted : long ]
+ *
+ * Requests carry an id so several can be in flight on one connection and answered in
+ * any order.
+ */
+final class PeerProtocol {
+    static final byte ACQUIRE = 1;
+    static final byte RELEASE = 2;
+
+    static final byte OK = 0;
+    static final byte FAILED = 1;
+
+    private PeerProtocol() {}
+
+    static void writeRequest(DataOutputStream out, int id, byte op, List<LeaseRequest> requests) throws IOException {
+        out.writeInt(id);
+        out.writeByte(op);
+        out.writeInt(requests.size());
+        for (LeaseRequest request : requests) {
+            Budget budget = request.getBudget();
+            out.writeUTF(request.getKey());
+            out.writeByte(budget.getKind().ordinal());
+            out.writeLong(budget.getLimit());
+            out.writeLong(budget.getRefill());
+            out.writeLong(budget.getPeriodMillis());
+            out.writeLong(request.getUnits());
+        }
+    }
+
+    static List<LeaseRequest> readRequests(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<LeaseRequest> requests = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String key = in.readUTF();
+            Budget.Kind kind = Budget.Kind.values()[in.readByte()];
+            Budget budget = new Budget(kind, in.readLong(), in.readLong(), in.readLong());
+            requests.add(new LeaseRequest(key, budget, in.readLong()));
+        }
+        return requests;
+    }
+
+    static void writeResponse(DataOutputStream out, int id, long[] granted) throws IOException {
+        out.writeInt(id);
+        if (granted == null) {
+            out.writeByte(FAILED);
+            out.writeInt(0);
+            return;
+        }
+        out.writeByte(OK);
+        out.writeInt(granted.length);
+        for (long units : granted) {
+            out.writeLong(units);
+        }
+    }
+}
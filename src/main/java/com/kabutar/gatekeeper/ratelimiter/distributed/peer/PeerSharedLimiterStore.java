@@ -0,0 +1,256 @@
+package com.kabutar.gatekeeper.ratelimiter.distributed.peer;
+
+import com.kabutar.gatekeeper.config.rateLimit.PeerConfig;
+import com.kabutar.gatekeeper.config.rateLimit.RateLimitedConfig;
+import com.kabutar.gatekeeper.ratelimiter.IdentityKey;
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterException;
+import com.kabutar.gatekeeper.ratelimiter.distributed.LeaseRequest;
+import com.kabutar.gatekeeper.ratelimiter.distributed.LocalSharedLimiterStore;
+import com.kabutar.gatekeeper.ratelimiter.distributed.SharedLimiterStore;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link SharedLimiterStore} spread over the gateway nodes themselves, for strict global
+ * limits without a central store.
+ *
+ * Ownership:
+ *   Every budget key is owned by exactly one node, picked with a {@link ConsistentHashRing}
+ *   over the static peer list. The owner keeps the budget in a {@link LocalSharedLimiterStore}
+ *   and is the only node that ever changes it, so decisions are as strict as with Redis.
+ *
+ * Calls:
+ *   A batch from the {@link com.kabutar.gatekeeper.ratelimiter.distributed.LeaseManager} is
+ *   split by owner. The local part is decided in place; every remote part is written to
+ *   the owner's connection without waiting for earlier ones to be answered, and the batch
+ *   completes when all parts have. Units leased from the owner are the local grant cache:
+ *   a hot identity only calls its owner when its lease runs low.
+ *
+ * Peers are listed as host:port; a node finds itself in the list through its bind address,
+ * so every node can share the same list. Several nodes can run on one host on different
+ * ports. If an owner cannot be reached the call fails, and the lease manager falls back
+ * to the local limiter.
+ */
+@Component
+@ConditionalOnProperty(prefix = "config.rate-limited.distributed", name = "store", havingValue = "peer")
+public class PeerSharedLimiterStore implements SharedLimiterStore, DisposableBean {
+    private static final Logger logger = LogManager.getLogger(PeerSharedLimiterStore.class);
+
+    private final int self;
+    private final ConsistentHashRing ring;
+    private final PeerConnection[] connections;
+    private final SharedLimiterStore owned = new LocalSharedLimiterStore();
+
+    private final ServerSocket server;
+    private final Set<Socket> accepted = ConcurrentHashMap.newKeySet();
+    private volatile boolean running = true;
+
+    @Autowired
+    public PeerSharedLimiterStore(RateLimitedConfig rateLimitedConfig) throws IOException {
+        this(rateLimitedConfig.getDistributed().getPeer(), (int) rateLimitedConfig.getDistributed().getTimeoutMillis());
+    }
+
+    public PeerSharedLimiterStore(PeerConfig config, int connectTimeoutMillis) throws IOException {
+        if (config.getBind() == null || config.getPeers() == null || config.getPeers().isEmpty()
+                || config.getVirtualNodes() <= 0) {
+            throw new RateLimiterException("Invalid peer config: " + config);
+        }
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (String peer : config.getPeers()) {
+            peers.add(address(peer));
+        }
+        InetSocketAddress bind = address(config.getBind());
+        this.self = peers.indexOf(bind);
+        if (self < 0) {
+            throw new RateLimiterException("Peer bind address " + config.getBind() + " is not in the peer list " + config.getPeers());
+        }
+        this.ring = new ConsistentHashRing(config.getPeers(), config.getVirtualNodes());
+        this.connections = new PeerConnection[peers.size()];
+        for (int node = 0; node < peers.size(); node++) {
+            if (node != self) {
+                connections[node] = new PeerConnection(peers.get(node), connectTimeoutMillis);
+            }
+        }
+
+        this.server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(bind);
+        Thread acceptor = new Thread(this::accept, "gatekeeper-peer-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        logger.info("Owning 1/{} of the rate limit budgets from {}", peers.size(), bind);
+    }
+
+    private static InetSocketAddress address(String hostPort) {
+        int colon = hostPort.lastIndexOf(':');
+        if (colon < 0) {
+            throw new RateLimiterException("Expected host:port, got " + hostPort);
+        }
+        return new InetSocketAddress(hostPort.substring(0, colon), Integer.parseInt(hostPort.substring(colon + 1)));
+    }
+
+    @Override
+    public Mono<long[]> acquire(List<LeaseRequest> requests) {
+        return Mono.defer(() -> {
+            Split split = split(requests);
+            CompletableFuture<long[]>[] parts = send(PeerProtocol.ACQUIRE, split);
+            return Mono.fromFuture(CompletableFuture.allOf(parts).thenApply(done -> {
+                long[] granted = new long[requests.size()];
+                for (int node = 0; node < parts.length; node++) {
+                    long[] part = parts[node].join();
+                    List<Integer> positions = split.positions.get(node);
+                    for (int i = 0; i < part.length && i < positions.size(); i++) {
+                        granted[positions.get(i)] = part[i];
+                    }
+                }
+                return granted;
+            }));
+        });
+    }
+
+    @Override
+    public Mono<Void> release(List<LeaseRequest> requests) {
+        return Mono.defer(() -> Mono.fromFuture(CompletableFuture.allOf(send(PeerProtocol.RELEASE, split(requests)))));
+    }
+
+    private Split split(List<LeaseRequest> requests) {
+        Split split = new Split(connections.length);
+        for (int i = 0; i < requests.size(); i++) {
+            LeaseRequest request = requests.get(i);
+            int node = ring.owner(IdentityKey.of(request.getKey()));
+            split.requests.get(node).add(request);
+            split.positions.get(node).add(i);
+        }
+        return split;
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<long[]>[] send(byte op, Split split) {
+        CompletableFuture<long[]>[] parts = new CompletableFuture[connections.length];
+        for (int node = 0; node < connections.length; node++) {
+            List<LeaseRequest> part = split.requests.get(node);
+            parts[node] = part.isEmpty()
+                    ? CompletableFuture.completedFuture(new long[0])
+                    : node == self
+                    ? decide(op, part).toFuture()
+                    : connections[node].send(op, part);
+        }
+        return parts;
+    }
+
+    private Mono<long[]> decide(byte op, List<LeaseRequest> requests) {
+        return op == PeerProtocol.ACQUIRE
+                ? owned.acquire(requests)
+                : owned.release(requests).then(Mono.just(new long[0]));
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                accepted.add(socket);
+                Thread handler = new Thread(() -> serve(socket), "gatekeeper-peer-" + socket.getPort());
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                if (running) {
+                    logger.warn("Failed to accept a peer connection", e);
+                }
+            }
+        }
+    }
+
+    // requests on one connection are answered in order; the caller pipelines them
+    private void serve(Socket socket) {
+        try (socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            while (running) {
+                int id = in.readInt();
+                byte op = in.readByte();
+                List<LeaseRequest> requests = PeerProtocol.readRequests(in);
+                long[] granted;
+                try {
+                    granted = decide(op, requests).block();
+                } catch (RuntimeException e) {
+                    logger.warn("Failed to decide {} budgets for a peer", requests.size(), e);
+                    granted = null;
+                }
+                PeerProtocol.writeResponse(out, id, granted);
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (EOFException e) {
+            logger.debug("Peer {} disconnected", socket.getRemoteSocketAddress());
+        } catch (IOException | RuntimeException e) {
+            if (running) {
+                logger.debug("Dropping peer connection {}", socket.getRemoteSocketAddress(), e);
+            }
+        } finally {
+            accepted.remove(socket);
+        }
+    }
+
+    public void close() {
+        running = false;
+        for (PeerConnection connection : connections) {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+        try {
+            server.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close peer server", e);
+        }
+        for (Socket socket : accepted) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.debug("Failed to close peer connection", e);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        close();
+    }
+
+    /**
+     * A batch split by owner, with each request's position in the original batch.
+     */
+    private static final class Split {
+        private final List<List<LeaseRequest>> requests = new ArrayList<>();
+        private final List<List<Integer>> positions = new ArrayList<>();
+
+        Split(int nodes) {
+            for (int node = 0; node < nodes; node++) {
+                requests.add(new ArrayList<>());
+                positions.add(new ArrayList<>());
+            }
+        }
+    }
+}
@@ -4,97 +4,332 @@ import com.kabutar.gatekeeper.config.rateLimit.RateLimitedConfig;
 import com.kabutar.gatekeeper.config.rateLimit.Rule;
 import com.kabutar.gatekeeper.ratelimiter.RateLimiterException;
 import com.kabutar.gatekeeper.ratelimiter.algorithm.*;
+import com.kabutar.gatekeeper.ratelimiter.defaults.DefaultTokenRule;
+import com.kabutar.gatekeeper.ratelimiter.distributed.Budget;
+import com.kabutar.gatekeeper.ratelimiter.distributed.LeaseManagerFactory;
+import com.kabutar.gatekeeper.ratelimiter.distributed.LeasedRateLimiter;
+import com.kabutar.gatekeeper.ratelimiter.distributed.gossip.GossipRateLimiter;
+import com.kabutar.gatekeeper.ratelimiter.distributed.gossip.GossipService;
+import com.kabutar.gatekeeper.ratelimiter.IdentityKey;
 import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
 import com.kabutar.gatekeeper.ratelimiter.handler.RateLimitedHandler;
+import com.kabutar.gatekeeper.ratelimiter.metrics.RateLimiterMetrics;
+import com.kabutar.gatekeeper.ratelimiter.metrics.RuleMetrics;
+import com.kabutar.gatekeeper.ratelimiter.scheduler.TimingWheel;
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStoreFactory;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.context.scope.refresh.RefreshScopeRefreshedEvent;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
 import org.springframework.http.server.PathContainer;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 import org.springframework.web.server.ServerWebExchange;
-import org.springframework.web.util.pattern.PathPattern;
-import org.springframework.web.util.pattern.PathPatternParser;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.function.Function;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
 
 @Component
 public class RateLimiterFactoryImpl implements RateLimiterFactory {
     private final static Logger logger = LogManager.getLogger(RateLimiterFactoryImpl.class);
-    private final static PathPatternParser parser = new PathPatternParser();
 
     private RateLimitedHandler handler;
-    private RateLimiter defaultRateLimiter;
+    private TimingWheel timer;
+    private IdentityStoreFactory stores;
+    private LeaseManagerFactory leases;
+    private GossipService gossip;
+    private RateLimiterMetrics metrics;
+    private RateLimitedConfig rateLimitedConfig;
+    private boolean distributed;
 
-    private List<PathPattern> pathPatterns;
-    private List<RateLimiter> rateLimiters;
+    // the rules in use; replaced as a whole on reload
+    private volatile RuleTable table;
+    private final Set<String> unboundRoutes = ConcurrentHashMap.newKeySet();
 
-    private final Map<String, Function<Rule, RateLimiter>> ALGORITHM_REGISTRY;
+    private final Map<String, BiFunction<Rule, RuleMetrics, RateLimiter>> ALGORITHM_REGISTRY;
 
     @Autowired
-    public RateLimiterFactoryImpl(RateLimitedConfig rateLimitedConfig, RateLimitedHandler handler){
+    public RateLimiterFactoryImpl(RateLimitedConfig rateLimitedConfig, RateLimitedHandler handler, TimingWheel timer,
+                                  IdentityStoreFactory stores, LeaseManagerFactory leases,
+                                  ObjectProvider<GossipService> gossip, RateLimiterMetrics metrics){
         this.handler = handler;
+        this.timer = timer;
+        this.stores = stores;
+        this.leases = leases;
+        this.gossip = gossip.getIfAvailable();
+        this.metrics = metrics;
+        this.rateLimitedConfig = rateLimitedConfig;
+        this.distributed = rateLimitedConfig.isEnableDistributedMode();
 
-        this.rateLimiters = new ArrayList<>();
-        this.pathPatterns = new ArrayList<>();
+        // keys of client identities must agree wherever they are shared
+        if (rateLimitedConfig.getIdentitySecret() != null) {
+            IdentityKey.useSecret(rateLimitedConfig.getIdentitySecret());
+        } else if (distributed) {
+            throw new RateLimiterException("Distributed mode needs the same config.rate-limited.identity-secret on every node");
+        }
 
         ALGORITHM_REGISTRY = this.initializeAlgorithmMap();
-        initializeDefaultRateLimiter(rateLimitedConfig);
-        processRules(rateLimitedConfig);
+        this.table = compile(rateLimitedConfig, null, new ArrayList<>());
     }
 
     // add new algorithms here without touching any existing logic
-    private Map<String, Function<Rule, RateLimiter>> initializeAlgorithmMap(){
+    private Map<String, BiFunction<Rule, RuleMetrics, RateLimiter>> initializeAlgorithmMap(){
         return Map.of(
-                RateLimiterConstants.Algorithm.TOKEN_BUCKET, rule -> new TokenBucketRateLimiter(handler, rule),
-                RateLimiterConstants.Algorithm.LEAKY_BUCKET, rule -> new LeakyBucketRateLimiter(handler,rule),
-                RateLimiterConstants.Algorithm.FIXED_WINDOW_COUNTER, rule -> new FixedWindowCounterRatelimiter(handler,rule),
-                RateLimiterConstants.Algorithm.SLIDING_WINDOW_COUNTER, rule -> new SlidingWindowCounterRateLimiter(handler,rule)
+                RateLimiterConstants.Algorithm.TOKEN_BUCKET, (rule, metrics) -> new TokenBucketRateLimiter(handler, rule, stores, metrics),
+                RateLimiterConstants.Algorithm.LEAKY_BUCKET, (rule, metrics) -> new LeakyBucketRateLimiter(handler,rule,stores,metrics),
+                RateLimiterConstants.Algorithm.FIXED_WINDOW_COUNTER, (rule, metrics) -> new FixedWindowCounterRatelimiter(handler,rule,stores,metrics),
+                RateLimiterConstants.Algorithm.SLIDING_WINDOW_COUNTER, (rule, metrics) -> new SlidingWindowCounterRateLimiter(handler,rule,stores,metrics),
+                RateLimiterConstants.Algorithm.GCRA, (rule, metrics) -> new GcraRateLimiter(handler, rule, stores, metrics),
+                RateLimiterConstants.Algorithm.HEAVY_HITTER, (rule, metrics) -> new HeavyHitterRateLimiter(handler, rule, stores, metrics)
                 //add new rate limited algorithms here
         );
     }
 
     /**
-     *
-     * @param rateLimitedConfig
+     * Rebuilds the rule table from the current config and swaps it in. Rules that did not
+     * change keep their limiter and its state; changed and new rules get fresh limiters, and
+     * the limiters no longer referenced are closed once requests still holding them are done.
+     * If the new rules are invalid the current table stays in place.
      */
-    private void initializeDefaultRateLimiter(RateLimitedConfig rateLimitedConfig){
-        this.defaultRateLimiter = this.init(rateLimitedConfig.getAlgorithm());
+    public synchronized void reload(RateLimitedConfig config){
+        RuleTable previous = this.table;
+        List<RateLimiter> created = new ArrayList<>();
+        RuleTable next;
+        try{
+            next = compile(config, previous, created);
+        }catch(RuntimeException e){
+            logger.error("Keeping the current rate limit rules, the reloaded ones are invalid", e);
+            created.forEach(RateLimiter::close);
+            return;
+        }
+        this.table = next;
+        unboundRoutes.clear();
+        retire(previous, next);
+        logger.info("Reloaded {} rate limit rules, {} rebuilt", next.limiters.size(), created.size());
+    }
+
+    @EventListener(RefreshScopeRefreshedEvent.class)
+    public void onRefresh(){
+        reload(rateLimitedConfig);
     }
 
     /**
+     * Compiles the rules into a table, reusing the limiters of the previous table whose rule
+     * is unchanged, so the cost of a reload follows the number of rules that changed.
      *
-     * @param config
+     * @param created collects the limiters built for this table
      */
-    private void processRules(RateLimitedConfig config){
+    private RuleTable compile(RateLimitedConfig config, RuleTable previous, List<RateLimiter> created){
+        boolean evaluateAll = evaluateAll(config);
+        RateLimiter defaultLimiter;
+        if(previous != null && Objects.equals(previous.algorithm, config.getAlgorithm())){
+            defaultLimiter = previous.defaultRateLimiter;
+        }else{
+            defaultLimiter = build(RateLimiterConstants.DEFAULT_LIMIT_IDENTITY, config.getAlgorithm(),
+                    null, created);
+        }
+
+        RouteMatcher.Builder<RateLimiter> builder = RouteMatcher.builder();
+        Map<String, RateLimiter> byId = new HashMap<>();
+        Map<Rule, RateLimiter> byRule = new HashMap<>();
         for(Rule rule: config.getRules()){
-            pathPatterns.add(parser.parse(rule.getResourcePath()));
-            rateLimiters.add(this.init(rule.getAlgorithm(),rule));
+            RateLimiter rateLimiter = byRule.get(rule);
+            if(rateLimiter == null && previous != null){
+                rateLimiter = previous.limiters.get(rule);
+            }
+            if(rateLimiter == null){
+                rateLimiter = build(rule.getId(), rule.getAlgorithm(), rule, created);
+            }
+            if(evaluateAll && !(rateLimiter instanceof SynchronousRateLimiter)){
+                // a parked or cluster-wide decision cannot be rolled back with the others
+                throw new RateLimiterException("evaluation: all does not cover " + rule.getAlgorithm()
+                        + (distributed ? " rules in distributed mode: " : " rules: ") + rule);
+            }
+            byRule.put(rule, rateLimiter);
+            if(rule.getId() != null && byId.putIfAbsent(rule.getId(), rateLimiter) != null){
+                throw new RateLimiterException("Duplicate rule id: " + rule.getId());
+            }
+            // rules without a resourcePath are only reachable through route metadata
+            if(rule.getResourcePath() != null){
+                builder.add(rule.getResourcePath(), rule.getMethods(), rule.getHosts(), rateLimiter);
+            }else{
+                builder.value(rateLimiter);
+            }
+        }
+        RouteMatcher<RateLimiter> routeMatcher = evaluateAll
+                ? builder.build(rules -> new CompositeRateLimiter(handler,
+                        rules.stream().map(SynchronousRateLimiter.class::cast).toList()))
+                : builder.build();
+        return new RuleTable(config.getAlgorithm(), defaultLimiter, routeMatcher, Map.copyOf(byId), Map.copyOf(byRule),
+                evaluateAll);
+    }
+
+    private static boolean evaluateAll(RateLimitedConfig config){
+        String evaluation = config.getEvaluation();
+        if(evaluation == null || RateLimiterConstants.Evaluation.FIRST.equals(evaluation)){
+            return false;
+        }
+        if(RateLimiterConstants.Evaluation.ALL.equals(evaluation)){
+            return true;
+        }
+        throw new RateLimiterException("Invalid evaluation: " + evaluation);
+    }
+
+    private RateLimiter build(String ruleId, String algorithm, Rule rule, List<RateLimiter> created){
+        RuleMetrics ruleMetrics = metrics.forRule(metricsName(rule), algorithm);
+        RateLimiter rateLimiter = this.create(algorithm, rule, ruleMetrics);
+        try{
+            rateLimiter = distribute(ruleId, rule == null ? DefaultTokenRule.getRule() : rule, rateLimiter, ruleMetrics);
+        }catch(RuntimeException e){
+            rateLimiter.close();
+            throw e;
+        }
+        created.add(rateLimiter);
+        return rateLimiter;
+    }
+
+    // closing is delayed so requests that picked a limiter just before the swap can finish on it
+    private void retire(RuleTable previous, RuleTable next){
+        if(previous == null){
+            return;
+        }
+        Set<RateLimiter> retired = previous.all();
+        retired.removeAll(next.all());
+        for(RateLimiter rateLimiter: retired){
+            timer.schedule(rateLimiter::close, RateLimiterConstants.Reload.RETIRE_DELAY_SECONDS, TimeUnit.SECONDS);
         }
     }
 
+    /**
+     * In distributed mode, puts the rule's cluster-wide budget in front of its local limiter:
+     * leased from the shared store, or merged from gossip when {@code distributed.mode: gossip}.
+     */
+    private RateLimiter distribute(String ruleId, Rule rule, RateLimiter rateLimiter, RuleMetrics ruleMetrics){
+        if(!distributed){
+            return rateLimiter;
+        }
+        if(ruleId == null){
+            throw new RateLimiterException("Rules need an id in distributed mode: " + rule);
+        }
+        String ruleKey = RateLimiterConstants.Distributed.KEY_PREFIX + ruleId;
+        if(gossip != null){
+            if(!GossipRateLimiter.supports(rule)){
+                logger.warn("Gossip mode does not cover {} rules, {} is enforced per node", rule.getAlgorithm(), ruleId);
+                return rateLimiter;
+            }
+            return new GossipRateLimiter(rateLimiter, handler, gossip, ruleKey, rule, ruleMetrics);
+        }
+        return new LeasedRateLimiter(rateLimiter, handler, leases.create(ruleKey, Budget.of(rule)), rule.getLimitBy(), ruleMetrics);
+    }
+
+    /**
+     * The limiters of the current rules by a name that changes with the rule's definition,
+     * so state saved from one rule is never restored into a limiter built from another.
+     */
+    public Map<String, RateLimiter> limitersByDefinition(){
+        RuleTable table = this.table;
+        Map<String, RateLimiter> limiters = new HashMap<>();
+        // the default rule's id is made up on every start, its config is what counts
+        limiters.put(definition(RateLimiterConstants.DEFAULT_LIMIT_IDENTITY,
+                Objects.hash(table.algorithm, DefaultTokenRule.getRule().getConfig())), table.defaultRateLimiter);
+        table.limiters.forEach((rule, rateLimiter) -> limiters.put(definition(metricsName(rule), rule.hashCode()), rateLimiter));
+        return limiters;
+    }
+
+    private static String definition(String name, int hash){
+        return name + ':' + Integer.toHexString(hash);
+    }
+
+    // metrics are tagged by rule id; rules without one can only be reached through their path
+    private static String metricsName(Rule rule){
+        if(rule == null){
+            return RateLimiterConstants.DEFAULT_LIMIT_IDENTITY;
+        }
+        return rule.getId() != null ? rule.getId() : String.valueOf(rule.getResourcePath());
+    }
+
     //factory method for default rate limited
     @Override
     public RateLimiter get() {
         logger.debug("Using default rate limiter");
-        return defaultRateLimiter;
+        return table.defaultRateLimiter;
     }
 
     //factory method for route based filter
     @Override
     public RateLimiter get(ServerWebExchange exchange) {
-        PathContainer pathContainer = exchange.getRequest().getPath().pathWithinApplication();
-        for(int i=0;i<pathPatterns.size();i++){
-            if(pathPatterns.get(i).matches(pathContainer)){
-                logger.debug("Found route specific rate limiter for path {}",pathContainer.value());
-                return rateLimiters.get(i);
-            }
+        RuleTable table = this.table;
+        RateLimiter bound = getBoundToRoute(table, exchange);
+        if(table.evaluateAll){
+            return getAll(table, exchange, bound);
+        }
+        if(bound != null){
+            return bound;
+        }
+
+        ServerHttpRequest request = exchange.getRequest();
+        PathContainer pathContainer = request.getPath().pathWithinApplication();
+        RateLimiter rateLimiter = table.routeMatcher.match(pathContainer, request.getMethod().name(), request.getURI().getHost());
+        if(rateLimiter != null){
+            logger.debug("Found route specific rate limiter for path {}",pathContainer.value());
+            return rateLimiter;
         }
         logger.debug("No route specific rate limiter found for path {}",pathContainer.value());
-        return get();
+        return table.defaultRateLimiter;
+    }
+
+    /**
+     * Every rule the request matches, the one bound to its route included, judged together.
+     * Rules sharing a definition share a limiter and are only counted once.
+     */
+    private RateLimiter getAll(RuleTable table, ServerWebExchange exchange, RateLimiter bound){
+        ServerHttpRequest request = exchange.getRequest();
+        PathContainer pathContainer = request.getPath().pathWithinApplication();
+        RateLimiter rateLimiter = table.routeMatcher.matchAll(pathContainer, request.getMethod().name(),
+                request.getURI().getHost(), bound);
+        if(rateLimiter == null){
+            logger.debug("No route specific rate limiter found for path {}",pathContainer.value());
+            return table.defaultRateLimiter;
+        }
+        logger.debug("Found route specific rate limiter for path {}",pathContainer.value());
+        return rateLimiter;
+    }
+
+    /**
+     * The gateway has already matched a route by the time the global filter runs. A route
+     * declaring {@code metadata: rate-limit-rule: <rule id>} gets that rule's limiter
+     * without matching the path a second time.
+     */
+    private RateLimiter getBoundToRoute(RuleTable table, ServerWebExchange exchange){
+        Route route = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR);
+        if(route == null){
+            return null;
+        }
+        Object ruleId = route.getMetadata().get(RateLimiterConstants.ROUTE_METADATA_RULE);
+        if(ruleId == null){
+            return null;
+        }
+        RateLimiter rateLimiter = table.ruleLimiters.get(ruleId.toString());
+        if(rateLimiter == null){
+            if(unboundRoutes.add(route.getId())){
+                logger.warn("Route {} refers to unknown rate limit rule {}", route.getId(), ruleId);
+            }
+            return null;
+        }
+        logger.debug("Using rate limiter bound to route {}", route.getId());
+        return rateLimiter;
     }
 
     @Override
@@ -105,8 +340,12 @@ public class RateLimiterFactoryImpl implements RateLimiterFactory {
     @Override
     public RateLimiter init(String algorithm, Object config) {
         Rule rule = (Rule) config;
+        return create(algorithm, rule, metrics.forRule(metricsName(rule), algorithm));
+    }
+
+    private RateLimiter create(String algorithm, Rule rule, RuleMetrics ruleMetrics) {
         return Optional.ofNullable(ALGORITHM_REGISTRY.get(algorithm))
-                .map(fn -> fn.apply(rule))
+                .map(fn -> fn.apply(rule, ruleMetrics))
                 .orElseThrow(() -> new RateLimiterException("Invalid algorithm: " + algorithm));
     }
 }
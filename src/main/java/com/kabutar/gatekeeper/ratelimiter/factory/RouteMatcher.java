@@ -0,0 +1,579 @@
+package com.kabutar.gatekeeper.ratelimiter.factory;
+
+import com.kabutar.gatekeeper.ratelimiter.IdentityKey;
+import org.springframework.http.server.PathContainer;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Path patterns compiled into a segment trie, so finding the rule for a request costs
+ * in proportion to the depth of its path rather than to the number of rules.
+ *
+ * Concept:
+ *   Every pattern is split into segments and filed along a trie path: literal segments
+ *   become keyed children, single-segment wildcards ({var}, *, ab{x}, ...) share one
+ *   wildcard child per node, and a trailing ** or {*var} is kept on the node it starts
+ *   from, matching whatever follows. A lookup walks the request's segments down the
+ *   literal and wildcard branches that exist.
+ *
+ * First match:
+ *   Each entry remembers its declaration index and each node the smallest index found
+ *   below it. The walk keeps the best index found so far and skips every branch that
+ *   cannot beat it, so the result is the first declared pattern that matches, exactly as
+ *   a linear scan would return.
+ *   {@link #matchAll} walks the same branches without pruning and collects every match.
+ *
+ * All matches:
+ *   Every distinct value (by identity) gets a bit, in the order it was first added. A
+ *   lookup collects the bits of the values it matches and hands back what the builder's
+ *   combiner made of that set, built the first time the set comes up and kept in a table
+ *   keyed by the bits. From then on the set costs a probe and no allocation.
+ *
+ * Exactness:
+ *   Literal, {var} and trailing ** segments are decided by the trie alone. Anything else
+ *   ("*", "?", regex captures, partial wildcards) and unusual request paths such as
+ *   "/a//b" are confirmed with the compiled {@link PathPattern} before being accepted.
+ *
+ * Entries may also be restricted to HTTP methods and hosts ("api.example.com" or
+ * "*.example.com"); an entry without them matches any.
+ */
+public class RouteMatcher<T> {
+    private final Node root;
+    private final List<Entry<T>> entries;
+    private final List<T> values;
+    private final Map<T, Integer> valueIds;
+    private final Function<List<T>, T> combiner;
+    // copied on write, sized to stay at most half full
+    private volatile Combined<T>[] combined;
+
+    @SuppressWarnings("unchecked")
+    private RouteMatcher(Node root, List<Entry<T>> entries, List<T> values, Map<T, Integer> valueIds,
+                         Function<List<T>, T> combiner) {
+        this.root = root;
+        this.entries = entries;
+        this.values = values;
+        this.valueIds = valueIds;
+        this.combiner = combiner;
+        this.combined = new Combined[16];
+    }
+
+    public static <T> Builder<T> builder() {
+        return new Builder<>();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the value of the first declared entry matching the request, or null.
+     */
+    public T match(PathContainer path, String method, String host) {
+        Lookup lookup = new Lookup(path, method, host);
+        int best = find(root, 0, lookup, Integer.MAX_VALUE);
+        return best == Integer.MAX_VALUE ? null : entries.get(best).value;
+    }
+
+    private int find(Node node, int depth, Lookup lookup, int best) {
+        if (node.minIndex >= best) {
+            return best;
+        }
+        best = accept(node.catchAll, lookup, best, false);
+        if (depth == lookup.segments.length) {
+            return accept(node.terminal, lookup, best, true);
+        }
+        if (node.literals != null) {
+            Node child = node.literals.get(lookup.segments[depth]);
+            if (child != null) {
+                best = find(child, depth + 1, lookup, best);
+            }
+        }
+        if (node.wildcard != null) {
+            best = find(node.wildcard, depth + 1, lookup, best);
+        }
+        return best;
+    }
+
+    // candidates are sorted by index, so the first one accepted is the best at this node
+    private int accept(int[] candidates, Lookup lookup, int best, boolean terminal) {
+        for (int index : candidates) {
+            if (index >= best) {
+                break;
+            }
+            if (matches(entries.get(index), lookup, terminal)) {
+                return index;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the combiner's value for {@code first} followed by the values of every entry
+     * matching the request, in the order they were added and each value once. A single
+     * value is returned as it is, without the combiner, and no value at all gives null.
+     *
+     * @param first a value to put ahead of the matches, e.g. one bound to the route, or null
+     */
+    public T matchAll(PathContainer path, String method, String host, T first) {
+        if (combiner == null) {
+            throw new IllegalStateException("Built without a combiner");
+        }
+        Lookup lookup = new Lookup(path, method, host);
+        if (values.size() > Long.SIZE) {
+            lookup.high = new long[(values.size() - 1) / Long.SIZE];
+        }
+        collect(root, 0, lookup);
+
+        Integer id = first == null ? null : valueIds.get(first);
+        int firstId = id == null ? -1 : id;
+        if (first != null && id == null) {
+            // not a value of this matcher, so not in the table either
+            List<T> matched = new ArrayList<>();
+            matched.add(first);
+            matched.addAll(members(lookup.low, lookup.high, -1));
+            return matched.size() == 1 ? first : combiner.apply(List.copyOf(matched));
+        }
+        if (firstId >= 0) {
+            lookup.set(firstId);
+        }
+        int count = lookup.count();
+        if (count == 0) {
+            return null;
+        }
+        if (count == 1) {
+            return first != null ? first : values.get(lookup.lowest());
+        }
+        return combined(lookup.low, lookup.high, firstId);
+    }
+
+    // the same walk as find, without pruning: every branch may hold another match
+    private void collect(Node node, int depth, Lookup lookup) {
+        collect(node.catchAll, lookup, false);
+        if (depth == lookup.segments.length) {
+            collect(node.terminal, lookup, true);
+            return;
+        }
+        if (node.literals != null) {
+            Node child = node.literals.get(lookup.segments[depth]);
+            if (child != null) {
+                collect(child, depth + 1, lookup);
+            }
+        }
+        if (node.wildcard != null) {
+            collect(node.wildcard, depth + 1, lookup);
+        }
+    }
+
+    private void collect(int[] candidates, Lookup lookup, boolean terminal) {
+        for (int index : candidates) {
+            Entry<T> entry = entries.get(index);
+            if (!lookup.has(entry.valueId) && matches(entry, lookup, terminal)) {
+                lookup.set(entry.valueId);
+            }
+        }
+    }
+
+    private T combined(long low, long[] high, int first) {
+        Combined<T>[] table = combined;
+        int mask = table.length - 1;
+        for (int slot = hash(low, high, first) & mask; table[slot] != null; slot = (slot + 1) & mask) {
+            if (table[slot].is(low, high, first)) {
+                return table[slot].value;
+            }
+        }
+        return combine(low, high, first);
+    }
+
+    private synchronized T combine(long low, long[] high, int first) {
+        Combined<T>[] table = combined;
+        int mask = table.length - 1;
+        int count = 0;
+        for (Combined<T> existing : table) {
+            if (existing == null) {
+                continue;
+            }
+            if (existing.is(low, high, first)) {
+                // combined by another thread since the probe
+                return existing.value;
+            }
+            count++;
+        }
+        List<T> members = new ArrayList<>();
+        if (first >= 0) {
+            members.add(values.get(first));
+        }
+        members.addAll(members(low, high, first));
+        Combined<T> added = new Combined<>(low, high == null ? null : high.clone(), first,
+                combiner.apply(List.copyOf(members)));
+
+        if (2 * (count + 1) > table.length) {
+            table = grow(combined, 2 * combined.length);
+        } else {
+            table = combined.clone();
+        }
+        insert(table, added);
+        combined = table;
+        return added.value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Combined<T>[] grow(Combined<T>[] table, int capacity) {
+        Combined<T>[] grown = new Combined[capacity];
+        for (Combined<T> existing : table) {
+            if (existing != null) {
+                insert(grown, existing);
+            }
+        }
+        return grown;
+    }
+
+    private void insert(Combined<T>[] table, Combined<T> added) {
+        int mask = table.length - 1;
+        int slot = hash(added.low, added.high, added.first) & mask;
+        while (table[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = added;
+    }
+
+    private List<T> members(long low, long[] high, int skip) {
+        List<T> members = new ArrayList<>();
+        for (int id = 0; id < values.size(); id++) {
+            long word = id < Long.SIZE ? low : high[id / Long.SIZE - 1];
+            if (id != skip && (word & (1L << id)) != 0) {
+                members.add(values.get(id));
+            }
+        }
+        return members;
+    }
+
+    private static int hash(long low, long[] high, int first) {
+        long hash = low * 31 + first;
+        if (high != null) {
+            for (long word : high) {
+                hash = hash * 31 + word;
+            }
+        }
+        return (int) IdentityKey.mix(hash);
+    }
+
+    private boolean matches(Entry<T> entry, Lookup lookup, boolean terminal) {
+        if (!entry.accepts(lookup.method, lookup.host)) {
+            return false;
+        }
+        if (entry.verify || lookup.irregular) {
+            return entry.pattern.matches(lookup.path);
+        }
+        return !terminal || entry.trailingSeparator == lookup.trailingSeparator;
+    }
+
+    /**
+     * Request attributes a lookup needs, split once up front.
+     */
+    private static final class Lookup {
+        private final PathContainer path;
+        private final String method;
+        private final String host;
+        private final String[] segments;
+        private final boolean trailingSeparator;
+        private final boolean irregular;
+        // values matched so far, by id: the first 64 here, the rest in high
+        private long low;
+        private long[] high;
+
+        Lookup(PathContainer path, String method, String host) {
+            this.path = path;
+            this.method = method;
+            this.host = host == null ? null : host.toLowerCase(Locale.ROOT);
+
+            List<PathContainer.Element> elements = path.elements();
+            int count = 0;
+            for (PathContainer.Element element : elements) {
+                if (element instanceof PathContainer.PathSegment) {
+                    count++;
+                }
+            }
+            this.segments = new String[count];
+
+            int segment = 0;
+            boolean previousSeparator = false;
+            boolean irregular = elements.isEmpty()
+                    || !(elements.get(0) instanceof PathContainer.Separator);
+            for (PathContainer.Element element : elements) {
+                if (element instanceof PathContainer.PathSegment pathSegment) {
+                    segments[segment++] = pathSegment.valueToMatch();
+                    previousSeparator = false;
+                } else {
+                    // empty segments are dropped when parsing, "//" leaves two separators in a row
+                    irregular |= previousSeparator;
+                    previousSeparator = true;
+                }
+            }
+            this.trailingSeparator = previousSeparator;
+            this.irregular = irregular;
+        }
+
+        boolean has(int id) {
+            return ((id < Long.SIZE ? low : high[id / Long.SIZE - 1]) & (1L << id)) != 0;
+        }
+
+        void set(int id) {
+            if (id < Long.SIZE) {
+                low |= 1L << id;
+            } else {
+                high[id / Long.SIZE - 1] |= 1L << id;
+            }
+        }
+
+        int count() {
+            int count = Long.bitCount(low);
+            if (high != null) {
+                for (long word : high) {
+                    count += Long.bitCount(word);
+                }
+            }
+            return count;
+        }
+
+        int lowest() {
+            if (low != 0) {
+                return Long.numberOfTrailingZeros(low);
+            }
+            for (int i = 0; ; i++) {
+                if (high[i] != 0) {
+                    return (i + 1) * Long.SIZE + Long.numberOfTrailingZeros(high[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * The combiner's value for one set of values, ahead of them the one with id first (or -1).
+     */
+    private record Combined<T>(long low, long[] high, int first, T value) {
+        boolean is(long low, long[] high, int first) {
+            return this.low == low && this.first == first && Arrays.equals(this.high, high);
+        }
+    }
+
+    private static final class Entry<T> {
+        private final int index;
+        private final int valueId;
+        private final PathPattern pattern;
+        private final Set<String> methods;
+        private final List<String> hosts;
+        private final T value;
+        private boolean verify;
+        private boolean trailingSeparator;
+
+        Entry(int index, int valueId, PathPattern pattern, Set<String> methods, List<String> hosts, T value) {
+            this.index = index;
+            this.valueId = valueId;
+            this.pattern = pattern;
+            this.methods = methods;
+            this.hosts = hosts;
+            this.value = value;
+        }
+
+        boolean accepts(String method, String host) {
+            if (methods != null && (method == null || !methods.contains(method))) {
+                return false;
+            }
+            if (hosts == null) {
+                return true;
+            }
+            if (host == null) {
+                return false;
+            }
+            for (String candidate : hosts) {
+                if (candidate.startsWith("*.")
+                        ? host.endsWith(candidate.substring(1))
+                        : host.equals(candidate)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Node {
+        private Map<String, Node> literals;
+        private Node wildcard;
+        private int[] terminal = new int[0];
+        private int[] catchAll = new int[0];
+        private int minIndex = Integer.MAX_VALUE;
+
+        Node literal(String segment) {
+            if (literals == null) {
+                literals = new HashMap<>();
+            }
+            return literals.computeIfAbsent(segment, k -> new Node());
+        }
+
+        Node wildcard() {
+            if (wildcard == null) {
+                wildcard = new Node();
+            }
+            return wildcard;
+        }
+
+        static int[] append(int[] indices, int index) {
+            // entries are added in declaration order, so appending keeps the array sorted
+            int[] grown = Arrays.copyOf(indices, indices.length + 1);
+            grown[indices.length] = index;
+            return grown;
+        }
+    }
+
+    public static final class Builder<T> {
+        private final PathPatternParser parser = new PathPatternParser();
+        private final Node root = new Node();
+        private final List<Entry<T>> entries = new ArrayList<>();
+        private final List<T> values = new ArrayList<>();
+        private final Map<T, Integer> valueIds = new IdentityHashMap<>();
+
+        private Builder() {}
+
+        /**
+         * Registers a value no pattern leads to, so {@link #matchAll} can still combine it
+         * as {@code first} from the table. Values passed to {@link #add} are registered there.
+         */
+        public Builder<T> value(T value) {
+            valueId(value);
+            return this;
+        }
+
+        private int valueId(T value) {
+            Integer id = valueIds.get(value);
+            if (id == null) {
+                id = values.size();
+                values.add(value);
+                valueIds.put(value, id);
+            }
+            return id;
+        }
+
+        public Builder<T> add(String pattern, T value) {
+            return add(pattern, null, null, value);
+        }
+
+        /**
+         * Adds an entry; entries added earlier win over later ones.
+         *
+         * @param methods HTTP methods to match, or null/empty for any
+         * @param hosts   hosts to match, or null/empty for any
+         */
+        public Builder<T> add(String pattern, List<String> methods, List<String> hosts, T value) {
+            Entry<T> entry = new Entry<>(
+                    entries.size(),
+                    valueId(value),
+                    parser.parse(pattern),
+                    methods == null || methods.isEmpty() ? null : methods.stream()
+                            .map(method -> method.toUpperCase(Locale.ROOT))
+                            .collect(Collectors.toUnmodifiableSet()),
+                    hosts == null || hosts.isEmpty() ? null : hosts.stream()
+                            .map(host -> host.toLowerCase(Locale.ROOT))
+                            .toList(),
+                    value);
+            entries.add(entry);
+            file(entry, pattern);
+            return this;
+        }
+
+        private void file(Entry<T> entry, String pattern) {
+            List<Node> visited = new ArrayList<>();
+            Node node = root;
+            visited.add(node);
+
+            String path = pattern;
+            if (path.startsWith("/")) {
+                path = path.substring(1);
+            } else {
+                entry.verify = true;
+            }
+            if (pattern.equals("/")) {
+                entry.trailingSeparator = true;
+            } else if (path.endsWith("/")) {
+                entry.trailingSeparator = true;
+                path = path.substring(0, path.length() - 1);
+            }
+
+            boolean catchAll = false;
+            String[] segments = path.isEmpty() ? new String[0] : path.split("/", -1);
+            for (int i = 0; i < segments.length; i++) {
+                String segment = segments[i];
+                if (i == segments.length - 1 && isCatchAll(segment)) {
+                    catchAll = true;
+                    entry.verify |= entry.trailingSeparator;
+                    break;
+                }
+                if (segment.isEmpty()) {
+                    // "//" in a pattern, leave it to the PathPattern
+                    entry.verify = true;
+                    node = node.wildcard();
+                } else if (isLiteral(segment)) {
+                    node = node.literal(segment);
+                } else {
+                    entry.verify |= !isCapture(segment);
+                    node = node.wildcard();
+                }
+                visited.add(node);
+            }
+
+            if (catchAll) {
+                node.catchAll = Node.append(node.catchAll, entry.index);
+            } else {
+                node.terminal = Node.append(node.terminal, entry.index);
+            }
+            for (Node parent : visited) {
+                parent.minIndex = Math.min(parent.minIndex, entry.index);
+            }
+        }
+
+        public RouteMatcher<T> build() {
+            return build(null);
+        }
+
+        /**
+         * @param combiner makes one value of two or more, for {@link #matchAll}
+         */
+        public RouteMatcher<T> build(Function<List<T>, T> combiner) {
+            return new RouteMatcher<>(root, List.copyOf(entries), List.copyOf(values),
+                    new IdentityHashMap<>(valueIds), combiner);
+        }
+
+        private static boolean isCatchAll(String segment) {
+            return segment.equals("**") || (segment.startsWith("{*") && segment.endsWith("}"));
+        }
+
+        private static boolean isLiteral(String segment) {
+            for (int i = 0; i < segment.length(); i++) {
+                char c = segment.charAt(i);
+                if (c == '*' || c == '?' || c == '{' || c == '}') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // a bare {name} captures any non-empty segment
+        private static boolean isCapture(String segment) {
+            return segment.length() > 2
+                    && segment.charAt(0) == '{'
+                    && segment.charAt(segment.length() - 1) == '}'
+                    && segment.indexOf(':') < 0
+                    && segment.indexOf('{', 1) < 0;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.kabutar.gatekeeper.ratelimiter.factory;
+
+import com.kabutar.gatekeeper.config.rateLimit.RateLimitedConfig;
+import com.kabutar.gatekeeper.config.rateLimit.ReloadConfig;
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterException;
+import com.kabutar.gatekeeper.ratelimiter.scheduler.TimingWheel;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.context.refresh.ContextRefresher;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Refreshes the configuration when the file holding the rate limit rules changes, which
+ * makes {@link RateLimiterFactoryImpl} reload its rules.
+ *
+ * The file is expected to be part of the environment, e.g. through
+ * {@code spring.config.import: optional:file:./rules.yml}, and is named again in
+ * {@code config.rate-limited.reload.file}. It is polled on the shared timing wheel;
+ * a change of its modification time or size triggers a refresh.
+ */
+@Component
+@ConditionalOnProperty(prefix = "config.rate-limited.reload", name = "file")
+public class RuleFileWatcher implements DisposableBean {
+    private static final Logger logger = LogManager.getLogger(RuleFileWatcher.class);
+
+    private final Path file;
+    private final ContextRefresher refresher;
+    private final TimingWheel.Timeout poller;
+    private final AtomicBoolean polling = new AtomicBoolean();
+
+    // only touched by the poll holding the polling flag
+    private long lastModified;
+    private long lastSize;
+
+    @Autowired
+    public RuleFileWatcher(RateLimitedConfig rateLimitedConfig, ContextRefresher refresher, TimingWheel timer) {
+        ReloadConfig config = rateLimitedConfig.getReload();
+        if (config.getPollMillis() <= 0) {
+            throw new RateLimiterException("Invalid reload config: " + config);
+        }
+        this.file = Paths.get(config.getFile()).toAbsolutePath();
+        this.refresher = refresher;
+        changed();
+        this.poller = timer.scheduleAtFixedRate(this::poll,
+                config.getPollMillis(), config.getPollMillis(), TimeUnit.MILLISECONDS);
+        logger.info("Watching {} for rate limit rule changes", file);
+    }
+
+    private void poll() {
+        if (!polling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (changed()) {
+                Set<String> keys = refresher.refresh();
+                logger.info("{} changed, refreshed {} properties", file, keys.size());
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Could not refresh the rate limit rules from {}", file, e);
+        } finally {
+            polling.set(false);
+        }
+    }
+
+    private boolean changed() {
+        long modified;
+        long size;
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            modified = attributes.lastModifiedTime().toMillis();
+            size = attributes.size();
+        } catch (NoSuchFileException e) {
+            // being replaced, or not created yet; the rules in use stay
+            return false;
+        } catch (IOException e) {
+            logger.debug("Could not read the attributes of {}", file, e);
+            return false;
+        }
+        if (modified == lastModified && size == lastSize) {
+            return false;
+        }
+        lastModified = modified;
+        lastSize = size;
+        return true;
+    }
+
+    @Override
+    public void destroy() {
+        poller.cancel();
+    }
+}
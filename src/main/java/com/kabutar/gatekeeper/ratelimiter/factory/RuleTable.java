@@ -0,0 +1,51 @@
+package com.kabutar.gatekeeper.ratelimiter.factory;
+
+import com.kabutar.gatekeeper.config.rateLimit.Rule;
+import com.kabutar.gatekeeper.ratelimiter.algorithm.RateLimiter;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One compiled generation of the rate limit rules: the default limiter, the path trie and
+ * the limiters by rule id. A table is never changed once built; a reload builds a new one
+ * and publishes it in a single volatile write, so a request sees either the old rules or
+ * the new ones, never a mix.
+ *
+ * Limiters are also kept by their rule's full definition, so the next generation can pick
+ * up the limiter (and with it the live buckets and windows) of every rule that did not change.
+ *
+ * With {@code evaluation: all} a request is judged by every rule it matches; the path trie
+ * then also hands out the composite limiter for each set of matching rules, built on the
+ * set's first use and kept with the trie.
+ */
+final class RuleTable {
+    final String algorithm;
+    final RateLimiter defaultRateLimiter;
+    final RouteMatcher<RateLimiter> routeMatcher;
+    final Map<String, RateLimiter> ruleLimiters;
+    final Map<Rule, RateLimiter> limiters;
+    final boolean evaluateAll;
+
+    RuleTable(String algorithm, RateLimiter defaultRateLimiter, RouteMatcher<RateLimiter> routeMatcher,
+              Map<String, RateLimiter> ruleLimiters, Map<Rule, RateLimiter> limiters, boolean evaluateAll) {
+        this.algorithm = algorithm;
+        this.defaultRateLimiter = defaultRateLimiter;
+        this.routeMatcher = routeMatcher;
+        this.ruleLimiters = ruleLimiters;
+        this.limiters = limiters;
+        this.evaluateAll = evaluateAll;
+    }
+
+    /**
+     * Every limiter of this generation, the default one included.
+     */
+    Set<RateLimiter> all() {
+        Set<RateLimiter> all = Collections.newSetFromMap(new IdentityHashMap<>());
+        all.add(defaultRateLimiter);
+        all.addAll(limiters.values());
+        return all;
+    }
+}
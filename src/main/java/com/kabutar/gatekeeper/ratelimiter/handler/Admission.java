@@ -0,0 +1,34 @@
+package com.kabutar.gatekeeper.ratelimiter.handler;
+
+import com.kabutar.gatekeeper.ratelimiter.algorithm.RateLimitStatus;
+import com.kabutar.gatekeeper.ratelimiter.metrics.RuleMetrics;
+import org.springframework.web.server.ServerWebExchange;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A limiter's view of a request it has just rejected, for strategies that try the request
+ * again instead of replying right away.
+ */
+public interface Admission {
+
+    /**
+     * Tries to admit the request again, taking what it costs if it gets through.
+     *
+     * @return true if the request is allowed now
+     */
+    boolean tryAcquire(ServerWebExchange exchange);
+
+    /**
+     * The request's standing with the limiter; its retry-after is when the limiter expects
+     * room for the request.
+     */
+    RateLimitStatus status(ServerWebExchange exchange);
+
+    /**
+     * Requests of the rule currently parked by the handler.
+     */
+    AtomicInteger parked();
+
+    RuleMetrics metrics();
+}
@@ -0,0 +1,128 @@
+package com.kabutar.gatekeeper.ratelimiter.handler;
+
+import com.kabutar.gatekeeper.config.rateLimit.DelayConfig;
+import com.kabutar.gatekeeper.config.rateLimit.RateLimitedConfig;
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterException;
+import com.kabutar.gatekeeper.ratelimiter.algorithm.RateLimitStatus;
+import com.kabutar.gatekeeper.util.Exchanges;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Strategy that delays an over-limit request instead of turning it away.
+ *
+ * The limiter is asked when it expects room for the request. If that is within
+ * {@code maxWaitMillis}, the request is parked on Mono.delay (no thread is held) and tried
+ * again once the time is up; if another request took the room first, it is parked again
+ * for the new estimate, as long as the deadline allows. Only requests that cannot be
+ * served before the deadline, or that find {@code maxParked} requests of their rule
+ * already waiting, get the 429.
+ *
+ * Parked requests show up in the rule's queue depth and wait time. The limiter counts the
+ * first decision as a rejection; a parked request admitted later is counted as allowed too.
+ *
+ * Limiters that cannot be asked again (the leaky bucket, which queues by itself, and the
+ * cluster-wide checks of distributed mode) get the 429 right away.
+ */
+@Component
+@ConditionalOnProperty(prefix = "config.rate-limited", name = "strategy", havingValue = RateLimiterConstants.Delay.STRATEGY)
+public class DelayRequestHandler implements RateLimitedHandler {
+    private static final Logger logger = LogManager.getLogger(DelayRequestHandler.class);
+
+    private final long maxWaitNanos;
+    private final int maxParked;
+
+    @Autowired
+    public DelayRequestHandler(RateLimitedConfig rateLimitedConfig) {
+        this(rateLimitedConfig.getDelay());
+    }
+
+    public DelayRequestHandler(DelayConfig config) {
+        if (config.getMaxWaitMillis() <= 0 || config.getMaxParked() <= 0) {
+            throw new RateLimiterException("Invalid delay config: " + config);
+        }
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(config.getMaxWaitMillis());
+        this.maxParked = config.getMaxParked();
+    }
+
+    @Override
+    public Mono<Void> handle(ServerWebExchange exchange) {
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+        return response.setComplete();
+    }
+
+    @Override
+    public Mono<Void> handle(ServerWebExchange exchange, GatewayFilterChain chain, Admission admission) {
+        RateLimitStatus status = admission.status(exchange);
+        long wait = status.getRetryAfterNanos();
+        if (wait > maxWaitNanos) {
+            return handle(exchange, status);
+        }
+
+        AtomicInteger parked = admission.parked();
+        if (parked.incrementAndGet() > maxParked) {
+            parked.decrementAndGet();
+            logger.debug("Too many parked requests - dropping: {}", exchange.getRequest().getURI().getPath());
+            return handle(exchange, status);
+        }
+
+        admission.metrics().trackQueue();
+        admission.metrics().enqueued();
+        long enqueuedNanos = System.nanoTime();
+        long deadline = enqueuedNanos + maxWaitNanos;
+        // leaves the queue exactly once: admitted, given up on, or cancelled by the client;
+        // flatMap still cancels the finished park when the request is cancelled later on
+        AtomicBoolean left = new AtomicBoolean();
+        return park(exchange, admission, wait, deadline)
+                .doOnCancel(() -> {
+                    if (left.compareAndSet(false, true)) {
+                        admission.metrics().discarded();
+                    }
+                })
+                .doFinally(signal -> parked.decrementAndGet())
+                .flatMap(admitted -> {
+                    if (!left.compareAndSet(false, true)) {
+                        return Mono.empty();
+                    }
+                    if (!admitted) {
+                        admission.metrics().discarded();
+                        return handle(exchange, admission.status(exchange));
+                    }
+                    admission.metrics().dequeued(enqueuedNanos);
+                    return chain.filter(Exchanges.withMutableHeaders(exchange));
+                });
+    }
+
+    /**
+     * Waits for the limiter's estimate and tries again until the request gets through or
+     * the next estimate lies beyond the deadline.
+     */
+    private Mono<Boolean> park(ServerWebExchange exchange, Admission admission, long wait, long deadline) {
+        long delay = Math.max(wait, TimeUnit.MILLISECONDS.toNanos(RateLimiterConstants.Delay.MIN_RETRY_MILLIS));
+        return Mono.delay(Duration.ofNanos(delay)).then(Mono.defer(() -> {
+            if (admission.tryAcquire(exchange)) {
+                return Mono.just(true);
+            }
+            long next = admission.status(exchange).getRetryAfterNanos();
+            if (System.nanoTime() + next > deadline) {
+                return Mono.just(false);
+            }
+            return park(exchange, admission, next, deadline);
+        }));
+    }
+}
@@ -0,0 +1,33 @@
+package com.kabutar.gatekeeper.ratelimiter.handler;
+
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
+import com.kabutar.gatekeeper.ratelimiter.algorithm.RateLimitStatus;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a {@link RateLimitStatus} as response headers: RateLimit-Limit, RateLimit-Remaining
+ * and RateLimit-Reset on every response that carries them, and Retry-After on rejections.
+ * Times are in whole seconds, rounded up so a client that waits as told is not turned away
+ * again for being a fraction early.
+ */
+public final class RateLimitHeaders {
+    private RateLimitHeaders() {}
+
+    public static void write(ServerHttpResponse response, RateLimitStatus status, boolean rejected) {
+        HttpHeaders headers = response.getHeaders();
+        headers.set(RateLimiterConstants.Headers.LIMIT, Long.toString(status.getLimit()));
+        headers.set(RateLimiterConstants.Headers.REMAINING, Long.toString(status.getRemaining()));
+        headers.set(RateLimiterConstants.Headers.RESET, Long.toString(seconds(status.getResetNanos())));
+        if (rejected) {
+            // a rejected request waits at least a second, never "retry now"
+            headers.set(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, seconds(status.getRetryAfterNanos()))));
+        }
+    }
+
+    private static long seconds(long nanos) {
+        return (nanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
+    }
+}
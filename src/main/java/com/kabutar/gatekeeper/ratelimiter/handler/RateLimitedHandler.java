@@ -1,8 +1,29 @@
 package com.kabutar.gatekeeper.ratelimiter.handler;
 
+import com.kabutar.gatekeeper.ratelimiter.algorithm.RateLimitStatus;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
 import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Mono;
 
 public interface RateLimitedHandler {
     Mono<Void> handle(ServerWebExchange exchange);
+
+    /**
+     * Handles a rejected request whose standing with the limiter is known, telling the
+     * client when to retry (see {@link RateLimitHeaders}).
+     */
+    default Mono<Void> handle(ServerWebExchange exchange, RateLimitStatus status) {
+        if (status != null) {
+            RateLimitHeaders.write(exchange.getResponse(), status, true);
+        }
+        return handle(exchange);
+    }
+
+    /**
+     * Handles a rejected request that the limiter can be asked about again. Strategies
+     * that only reply ignore the admission beyond its status, which is the default.
+     */
+    default Mono<Void> handle(ServerWebExchange exchange, GatewayFilterChain chain, Admission admission) {
+        return handle(exchange, admission.status(exchange));
+    }
 }
@@ -0,0 +1,66 @@
+package com.kabutar.gatekeeper.ratelimiter.metrics;
+
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
+import com.kabutar.gatekeeper.ratelimiter.scheduler.TimingWheel;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes rate limiter metrics to the application's {@link MeterRegistry}, which the
+ * actuator exposes under /actuator/metrics.
+ *
+ * Every rule gets one {@link RuleMetrics}, tagged with its id and algorithm. Identities are
+ * never used as tags, so the number of series stays bounded by the number of rules. A rule
+ * that is built again with the same id and algorithm keeps counting into the same meters.
+ *
+ * The timing wheel reports how late it runs each task, which covers the lease flushes,
+ * gossip rounds and rule file watch.
+ *
+ * Without a registry, every rule gets {@link RuleMetrics#NONE} and nothing is recorded.
+ */
+@Component
+public class RateLimiterMetrics {
+    private final MeterRegistry registry;
+    private final Map<String, RuleMetrics> rules = new ConcurrentHashMap<>();
+
+    private final LongAdder lateRuns = new LongAdder();
+    private final LongAdder lateNanos = new LongAdder();
+
+    @Autowired
+    public RateLimiterMetrics(ObjectProvider<MeterRegistry> registry, TimingWheel timer) {
+        this(registry.getIfAvailable(), timer);
+    }
+
+    public RateLimiterMetrics(MeterRegistry registry, TimingWheel timer) {
+        this.registry = registry;
+        if (registry == null) {
+            return;
+        }
+        FunctionTimer.builder(RateLimiterConstants.Metrics.SCHEDULER_LAG, this,
+                        m -> m.lateRuns.sum(), m -> m.lateNanos.sum(), TimeUnit.NANOSECONDS)
+                .description("How late scheduled rate limiter tasks start after their deadline")
+                .register(registry);
+        timer.setLagListener(lagNanos -> {
+            lateRuns.increment();
+            lateNanos.add(lagNanos);
+        });
+    }
+
+    public RuleMetrics forRule(String ruleId, String algorithm) {
+        if (registry == null) {
+            return RuleMetrics.NONE;
+        }
+        return rules.computeIfAbsent(ruleId + '/' + algorithm, key -> new RuleMetrics(registry, Tags.of(
+                RateLimiterConstants.Metrics.TAG_RULE, ruleId,
+                RateLimiterConstants.Metrics.TAG_ALGORITHM, algorithm)));
+    }
+}
@@ -0,0 +1,155 @@
+package com.kabutar.gatekeeper.ratelimiter.metrics;
+
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Decision counters of one rule, tagged with the rule id and algorithm only.
+ *
+ * Recording only ever bumps a {@link LongAdder}, so threads deciding at the same time
+ * land on different cells instead of contending for one counter. The adders are read
+ * through function meters when the registry is scraped; nothing on the request path
+ * touches Micrometer itself.
+ *
+ * {@link #NONE} records nothing and is what every limiter gets when no registry is present.
+ */
+public final class RuleMetrics {
+    public static final RuleMetrics NONE = new RuleMetrics(null, Tags.empty());
+
+    private final MeterRegistry registry;
+    private final Tags tags;
+    private final boolean enabled;
+
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder decisions = new LongAdder();
+    private final LongAdder decisionNanos = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    // the latest limiter built for the rule reports its size here
+    private volatile LongSupplier identities = () -> 0;
+    private volatile boolean queueRegistered;
+
+    RuleMetrics(MeterRegistry registry, Tags tags) {
+        this.registry = registry;
+        this.tags = tags;
+        this.enabled = registry != null;
+        if (!enabled) {
+            return;
+        }
+        FunctionCounter.builder(RateLimiterConstants.Metrics.REQUESTS, allowed, LongAdder::sum)
+                .tags(tags.and(RateLimiterConstants.Metrics.TAG_OUTCOME, RateLimiterConstants.Metrics.OUTCOME_ALLOWED))
+                .description("Requests let through by the rule")
+                .register(registry);
+        FunctionCounter.builder(RateLimiterConstants.Metrics.REQUESTS, rejected, LongAdder::sum)
+                .tags(tags.and(RateLimiterConstants.Metrics.TAG_OUTCOME, RateLimiterConstants.Metrics.OUTCOME_REJECTED))
+                .description("Requests turned away by the rule")
+                .register(registry);
+        FunctionTimer.builder(RateLimiterConstants.Metrics.DECISION, this,
+                        m -> m.decisions.sum(), m -> m.decisionNanos.sum(), TimeUnit.NANOSECONDS)
+                .tags(tags)
+                .description("Time taken to decide on a request")
+                .register(registry);
+        Gauge.builder(RateLimiterConstants.Metrics.IDENTITIES, this, m -> m.identities.getAsLong())
+                .tags(tags)
+                .description("Identities tracked by the rule")
+                .strongReference(true)
+                .register(registry);
+    }
+
+    /**
+     * @return the start of a decision, to be handed to {@link #decided(long)}
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    public void decided(long start) {
+        if (enabled) {
+            decisions.increment();
+            decisionNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    public void allowed() {
+        if (enabled) {
+            allowed.increment();
+        }
+    }
+
+    public void rejected() {
+        if (enabled) {
+            rejected.increment();
+        }
+    }
+
+    /**
+     * Reports the number of identities the rule's limiter is tracking.
+     */
+    public void trackIdentities(LongSupplier size) {
+        this.identities = size;
+    }
+
+    /**
+     * Publishes the queue depth and wait time; only rules that park requests have them.
+     */
+    public void trackQueue() {
+        if (!enabled || queueRegistered) {
+            return;
+        }
+        synchronized (this) {
+            if (queueRegistered) {
+                return;
+            }
+            queueRegistered = true;
+        }
+        Gauge.builder(RateLimiterConstants.Metrics.QUEUE_DEPTH, queued, LongAdder::sum)
+                .tags(tags)
+                .description("Requests waiting in the rule's buckets or parked by its handler")
+                .strongReference(true)
+                .register(registry);
+        FunctionTimer.builder(RateLimiterConstants.Metrics.QUEUE_WAIT, this,
+                        m -> m.waits.sum(), m -> m.waitNanos.sum(), TimeUnit.NANOSECONDS)
+                .tags(tags)
+                .description("Time requests spent queued before being released")
+                .register(registry);
+    }
+
+    public void enqueued() {
+        if (enabled) {
+            queued.increment();
+        }
+    }
+
+    /**
+     * A queued request was released downstream.
+     *
+     * @param enqueuedNanos {@link System#nanoTime()} when it was queued
+     */
+    public void dequeued(long enqueuedNanos) {
+        if (enabled) {
+            queued.decrement();
+            waits.increment();
+            waitNanos.add(System.nanoTime() - enqueuedNanos);
+        }
+    }
+
+    /**
+     * A queued request was dropped without being released.
+     */
+    public void discarded() {
+        if (enabled) {
+            queued.decrement();
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package com.kabutar.gatekeeper.ratelimiter.scheduler;
+
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongConsumer;
+
+/**
+ * Hierarchical timing wheel shared by every rate limiter.
+ *
+ * Concept:
+ *   Time is cut into ticks of a fixed length. Level 0 has 2^wheelBits slots, one per tick.
+ *   Every higher level has the same number of slots, each spanning one full revolution of
+ *   the level below it. A timeout is filed on the lowest level that can still tell its
+ *   deadline apart from the current tick, and is cascaded one level down whenever the level
+ *   below wraps around, until it finally expires out of level 0.
+ *
+ * Threads:
+ *   A single ticker thread advances the wheel and a fixed pool of workers runs the expired
+ *   tasks. The thread count is decided at construction and never grows with the number of
+ *   scheduled timeouts, so one bucket/window per client IP costs a list node, not a thread.
+ *
+ * Scheduling and cancelling are safe from any thread. Both are handed to the ticker through
+ * lock-free queues, so the wheel's buckets are only ever touched by the ticker thread.
+ *
+ * Lag:
+ *   Every task run can be reported with how long after its deadline tick it started, which
+ *   shows when the ticker or the workers cannot keep up with the scheduled resets.
+ */
+@Component
+public class TimingWheel implements DisposableBean {
+    private static final Logger logger = LogManager.getLogger(TimingWheel.class);
+
+    private final long tickNanos;
+    private final int wheelBits;
+    private final int levels;
+    private final long slotMask;
+    private final long startNanos;
+
+    private final Bucket[][] wheels;
+    private final Bucket overflow = new Bucket();
+
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+
+    private final ExecutorService workers;
+    private final Thread ticker;
+    private volatile boolean running = true;
+    private volatile LongConsumer lagListener = lagNanos -> {};
+
+    // only read and written by the ticker thread
+    private long currentTick;
+
+    public TimingWheel() {
+        this(RateLimiterConstants.Scheduler.TICK_MILLIS,
+                RateLimiterConstants.Scheduler.WHEEL_BITS,
+                RateLimiterConstants.Scheduler.LEVELS,
+                RateLimiterConstants.Scheduler.WORKERS);
+    }
+
+    public TimingWheel(long tickMillis, int wheelBits, int levels, int workers) {
+        if (tickMillis <= 0 || wheelBits <= 0 || levels <= 0 || wheelBits * levels > 62 || workers <= 0) {
+            throw new IllegalArgumentException("Invalid timing wheel: tick=" + tickMillis + "ms, bits="
+                    + wheelBits + ", levels=" + levels + ", workers=" + workers);
+        }
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.wheelBits = wheelBits;
+        this.levels = levels;
+        this.slotMask = (1L << wheelBits) - 1;
+
+        this.wheels = new Bucket[levels][1 << wheelBits];
+        for (Bucket[] wheel : wheels) {
+            for (int slot = 0; slot < wheel.length; slot++) {
+                wheel[slot] = new Bucket();
+            }
+        }
+
+        this.workers = Executors.newFixedThreadPool(workers, new NamedThreadFactory("gatekeeper-timer-worker-"));
+        this.startNanos = System.nanoTime();
+        this.ticker = new Thread(this::run, "gatekeeper-timer");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    /**
+     * Runs the task once after the given delay.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        return submit(new Timeout(this, task, 0), unit.toNanos(delay));
+    }
+
+    /**
+     * Runs the task every period, starting after the initial delay. If the wheel falls behind,
+     * missed runs are skipped instead of being fired back to back.
+     */
+    public Timeout scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        long periodTicks = Math.max(1, ceilDiv(unit.toNanos(period), tickNanos));
+        return submit(new Timeout(this, task, periodTicks), unit.toNanos(initialDelay));
+    }
+
+    /**
+     * Receives the lag of every task run, in nanoseconds, on the worker running it.
+     */
+    public void setLagListener(LongConsumer lagListener) {
+        this.lagListener = lagListener;
+    }
+
+    private Timeout submit(Timeout timeout, long delayNanos) {
+        if (!running) {
+            throw new RejectedExecutionException("Timing wheel is shut down");
+        }
+        long elapsed = System.nanoTime() - startNanos + Math.max(0, delayNanos);
+        timeout.deadlineTick = ceilDiv(elapsed, tickNanos);
+        scheduled.add(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        while (running) {
+            long sleep = startNanos + (currentTick + 1) * tickNanos - System.nanoTime();
+            if (sleep > 0) {
+                LockSupport.parkNanos(this, sleep);
+                continue;
+            }
+            try {
+                transferCancelled();
+                transferScheduled();
+                advance();
+            } catch (Throwable e) {
+                logger.error("Timing wheel failed to advance past tick {}", currentTick, e);
+            }
+        }
+    }
+
+    private void transferCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void transferScheduled() {
+        Timeout timeout;
+        while ((timeout = scheduled.poll()) != null) {
+            if (!timeout.isCancelled()) {
+                place(timeout);
+            }
+        }
+    }
+
+    private void advance() {
+        long tick = ++currentTick;
+
+        // a level only needs attention when every level below it has just wrapped around
+        for (int level = 1; level <= levels; level++) {
+            if ((tick & ((1L << (level * wheelBits)) - 1)) != 0) {
+                break;
+            }
+            Bucket bucket = level == levels
+                    ? overflow
+                    : wheels[level][(int) ((tick >>> (level * wheelBits)) & slotMask)];
+            Timeout timeout = bucket.clear();
+            while (timeout != null) {
+                Timeout next = timeout.detach();
+                place(timeout);
+                timeout = next;
+            }
+        }
+
+        Timeout timeout = wheels[0][(int) (tick & slotMask)].clear();
+        while (timeout != null) {
+            Timeout next = timeout.detach();
+            expire(timeout);
+            timeout = next;
+        }
+    }
+
+    private void place(Timeout timeout) {
+        long deadline = timeout.deadlineTick;
+        if (deadline <= currentTick) {
+            expire(timeout);
+            return;
+        }
+        // the highest bit in which deadline and now differ decides the level
+        int level = (63 - Long.numberOfLeadingZeros(deadline ^ currentTick)) / wheelBits;
+        if (level >= levels) {
+            overflow.add(timeout);
+            return;
+        }
+        wheels[level][(int) ((deadline >>> (level * wheelBits)) & slotMask)].add(timeout);
+    }
+
+    private void expire(Timeout timeout) {
+        if (timeout.isCancelled()) {
+            return;
+        }
+        timeout.dueNanos = startNanos + timeout.deadlineTick * tickNanos;
+        if (timeout.periodTicks > 0) {
+            timeout.deadlineTick = Math.max(timeout.deadlineTick + timeout.periodTicks, currentTick + 1);
+            place(timeout);
+        } else if (!timeout.state.compareAndSet(Timeout.ACTIVE, Timeout.EXPIRED)) {
+            return;
+        }
+        try {
+            workers.execute(timeout);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Dropping timeout, timing wheel is shutting down");
+        }
+    }
+
+    private static long ceilDiv(long value, long divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    /**
+     * Stops the ticker and the workers. Pending timeouts are discarded.
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(ticker);
+        try {
+            ticker.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdownNow();
+    }
+
+    @Override
+    public void destroy() {
+        logger.debug("Shutting down rate limiter timing wheel");
+        close();
+    }
+
+    /**
+     * Handle to a scheduled task. Cancelling is cheap and can be done from any thread; the
+     * ticker unlinks the entry from its bucket on the next tick.
+     */
+    public static final class Timeout implements Runnable {
+        private static final int ACTIVE = 0;
+        private static final int EXPIRED = 1;
+        private static final int CANCELLED = 2;
+
+        private final TimingWheel wheel;
+        private final Runnable task;
+        private final long periodTicks;
+        private final AtomicInteger state = new AtomicInteger(ACTIVE);
+
+        // owned by the ticker thread
+        private long deadlineTick;
+        private Bucket bucket;
+        // deadline of the run handed to the workers, published to them by execute()
+        private long dueNanos;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(TimingWheel wheel, Runnable task, long periodTicks) {
+            this.wheel = wheel;
+            this.task = task;
+            this.periodTicks = periodTicks;
+        }
+
+        public boolean cancel() {
+            if (!state.compareAndSet(ACTIVE, CANCELLED)) {
+                return false;
+            }
+            wheel.cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        @Override
+        public void run() {
+            wheel.lagListener.accept(System.nanoTime() - dueNanos);
+            try {
+                task.run();
+            } catch (Throwable e) {
+                logger.error("Scheduled rate limiter task failed", e);
+            }
+        }
+
+        private Timeout detach() {
+            Timeout following = next;
+            prev = null;
+            next = null;
+            bucket = null;
+            return following;
+        }
+    }
+
+    /**
+     * Intrusive doubly linked list of timeouts sharing one slot.
+     */
+    private static final class Bucket {
+        private Timeout head;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.next = head;
+            if (head != null) {
+                head.prev = timeout;
+            }
+            head = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.detach();
+        }
+
+        Timeout clear() {
+            Timeout first = head;
+            head = null;
+            return first;
+        }
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.kabutar.gatekeeper.ratelimiter.snapshot;
+
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A snapshot file read or written sequentially through memory mappings, so millions of
+ * entries cost plain loads and stores rather than a system call each.
+ *
+ * The file is mapped in chunks of {@link RateLimiterConstants.Snapshot#CHUNK_BYTES}, and
+ * a value never straddles two of them: one that does not fit in the rest of a chunk
+ * starts at the next. Writer and reader follow the same rule, so they agree on every
+ * position without any framing. Values are little endian whatever the platform.
+ *
+ * I/O errors surface as {@link UncheckedIOException}, so entries can be written from the
+ * limiters' callbacks.
+ *
+ * A snapshot carries the identity secret, so a new file is only readable by its owner
+ * where the file system has POSIX permissions.
+ */
+final class SnapshotFile implements Closeable {
+    private final FileChannel channel;
+    private final boolean writing;
+    private final long size;
+    private final long chunkBytes;
+    // written chunks stay mapped until the file is finished, so positions can be patched
+    private final List<MappedByteBuffer> chunks = new ArrayList<>();
+    private MappedByteBuffer chunk;
+    private long base;
+
+    private SnapshotFile(FileChannel channel, boolean writing, long chunkBytes) throws IOException {
+        this.channel = channel;
+        this.writing = writing;
+        this.size = writing ? Long.MAX_VALUE : channel.size();
+        this.chunkBytes = chunkBytes;
+        this.base = -chunkBytes;
+    }
+
+    static SnapshotFile create(Path path) throws IOException {
+        return create(path, RateLimiterConstants.Snapshot.CHUNK_BYTES);
+    }
+
+    /**
+     * Creates the file anew, replacing one left at the path.
+     *
+     * @param chunkBytes size of the mappings; reading takes the size the file was written with
+     */
+    static SnapshotFile create(Path path, long chunkBytes) throws IOException {
+        // a leftover file would keep whatever permissions it was created with
+        Files.deleteIfExists(path);
+        Set<StandardOpenOption> options = EnumSet.of(StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileAttribute<?>[] attributes = path.getFileSystem().supportedFileAttributeViews().contains("posix")
+                ? new FileAttribute<?>[] {PosixFilePermissions.asFileAttribute(
+                        EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE))}
+                : new FileAttribute<?>[0];
+        return new SnapshotFile(FileChannel.open(path, options, attributes), true, chunkBytes);
+    }
+
+    static SnapshotFile open(Path path) throws IOException {
+        return open(path, RateLimiterConstants.Snapshot.CHUNK_BYTES);
+    }
+
+    static SnapshotFile open(Path path, long chunkBytes) throws IOException {
+        return new SnapshotFile(FileChannel.open(path, StandardOpenOption.READ), false, chunkBytes);
+    }
+
+    private MappedByteBuffer ensure(int bytes) {
+        if (chunk != null && chunk.remaining() >= bytes) {
+            return chunk;
+        }
+        long next = base + chunkBytes;
+        try {
+            if (next >= size) {
+                throw new EOFException("Snapshot ends at " + size + " bytes");
+            }
+            chunk = channel.map(writing ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                    next, Math.min(chunkBytes, size - next));
+            chunk.order(ByteOrder.LITTLE_ENDIAN);
+            base = next;
+            if (writing) {
+                chunks.add(chunk);
+            }
+            if (chunk.remaining() < bytes) {
+                throw new EOFException("Snapshot ends at " + size + " bytes");
+            }
+            return chunk;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void putInt(int value) {
+        ensure(Integer.BYTES).putInt(value);
+    }
+
+    /**
+     * @return the position written at, for {@link #putLong(long, long)}
+     */
+    long putLong(long value) {
+        MappedByteBuffer buffer = ensure(Long.BYTES);
+        long position = base + buffer.position();
+        buffer.putLong(value);
+        return position;
+    }
+
+    /**
+     * Overwrites a value written earlier, e.g. a count only known at the end.
+     */
+    void putLong(long position, long value) {
+        chunks.get((int) (position / chunkBytes)).putLong((int) (position % chunkBytes), value);
+    }
+
+    void putBytes(byte[] value) {
+        ensure(value.length).put(value);
+    }
+
+    int getInt() {
+        return ensure(Integer.BYTES).getInt();
+    }
+
+    long getLong() {
+        return ensure(Long.BYTES).getLong();
+    }
+
+    byte[] getBytes(int length) {
+        byte[] value = new byte[length];
+        ensure(length).get(value);
+        return value;
+    }
+
+    /**
+     * Flushes what was written to disk and cuts the file to its length.
+     */
+    void finish() throws IOException {
+        long length = chunk == null ? 0 : base + chunk.position();
+        for (MappedByteBuffer written : chunks) {
+            written.force();
+        }
+        channel.truncate(length);
+        channel.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        chunks.clear();
+        chunk = null;
+        channel.close();
+    }
+}
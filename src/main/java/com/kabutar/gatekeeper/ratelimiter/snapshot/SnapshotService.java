@@ -0,0 +1,255 @@
+package com.kabutar.gatekeeper.ratelimiter.snapshot;
+
+import com.kabutar.gatekeeper.config.rateLimit.RateLimitedConfig;
+import com.kabutar.gatekeeper.config.rateLimit.SnapshotConfig;
+import com.kabutar.gatekeeper.ratelimiter.IdentityKey;
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterException;
+import com.kabutar.gatekeeper.ratelimiter.algorithm.RateLimiter;
+import com.kabutar.gatekeeper.ratelimiter.factory.RateLimiterFactoryImpl;
+import com.kabutar.gatekeeper.ratelimiter.scheduler.TimingWheel;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the limiters' per-identity state across restarts, so a deploy does not hand every
+ * client a fresh quota.
+ *
+ * Every {@code intervalMillis}, and once more on shutdown, the state of every limiter that
+ * has some (see {@link RateLimiter#snapshot()}) is written to a memory-mapped file next to
+ * {@code config.rate-limited.snapshot.file}, which then replaces the previous snapshot in
+ * one atomic move; a crash while writing leaves the last complete snapshot in place. On
+ * startup the snapshot is read back into the limiters of the same rules, with timestamps
+ * moved onto the new process's clocks.
+ *
+ * Both run on a thread of their own. A checkpoint reads the stores alongside requests
+ * without locking them, and requests are served while the restore is still going; a client
+ * seen before its state is restored keeps what it counted since.
+ *
+ * Identity keys are only meaningful under the secret they were hashed with (see
+ * {@link IdentityKey}), so the file carries it and is created readable by its owner only.
+ * Without a configured secret the process takes over the snapshot's before serving; with
+ * one, a snapshot keyed differently is not restored.
+ *
+ * File layout (little endian):
+ *   magic : 4, version : 4, identity secret : 16, sections : 4, then per limiter
+ *     name length : 4, name (rule id and definition hash), words : 4,
+ *     saved at (wall clock millis) : 8, limiter clock : 8, entries : 8,
+ *     then per entry: key : 8, words * 8
+ */
+@Component
+@ConditionalOnProperty(prefix = "config.rate-limited.snapshot", name = "file")
+public class SnapshotService implements DisposableBean {
+    private static final Logger logger = LogManager.getLogger(SnapshotService.class);
+
+    private final Path file;
+    private final Path partial;
+    private final Supplier<Map<String, RateLimiter>> limiters;
+    private final long chunkBytes;
+    private final ExecutorService worker;
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private TimingWheel.Timeout checkpoints;
+
+    @Autowired
+    public SnapshotService(RateLimitedConfig rateLimitedConfig, RateLimiterFactoryImpl factory, TimingWheel timer) {
+        this(rateLimitedConfig.getSnapshot(), rateLimitedConfig.getIdentitySecret() != null,
+                factory::limitersByDefinition, RateLimiterConstants.Snapshot.CHUNK_BYTES);
+        SnapshotConfig config = rateLimitedConfig.getSnapshot();
+        // checkpoints queue up behind the restore on the same thread
+        worker.execute(this::restore);
+        this.checkpoints = timer.scheduleAtFixedRate(this::schedule,
+                config.getIntervalMillis(), config.getIntervalMillis(), TimeUnit.MILLISECONDS);
+        logger.info("Checkpointing rate limiter state to {} every {} ms", file, config.getIntervalMillis());
+    }
+
+    /**
+     * A service that neither restores nor checkpoints until told to.
+     *
+     * @param limiters   the limiters by rule definition, asked for on every checkpoint and restore
+     * @param chunkBytes size of the file's mappings
+     */
+    SnapshotService(SnapshotConfig config, boolean secretConfigured, Supplier<Map<String, RateLimiter>> limiters,
+                    long chunkBytes) {
+        if (config.getIntervalMillis() <= 0) {
+            throw new RateLimiterException("Invalid snapshot config: " + config);
+        }
+        this.file = Paths.get(config.getFile()).toAbsolutePath();
+        this.partial = file.resolveSibling(file.getFileName() + ".partial");
+        this.limiters = limiters;
+        this.chunkBytes = chunkBytes;
+        if (!secretConfigured) {
+            adoptSecret();
+        }
+        this.worker = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "gatekeeper-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // read up front, as keys hashed under another secret would be counted apart
+    private void adoptSecret() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (SnapshotFile in = SnapshotFile.open(file, chunkBytes)) {
+            if (in.getInt() == RateLimiterConstants.Snapshot.MAGIC && in.getInt() == RateLimiterConstants.Snapshot.VERSION) {
+                IdentityKey.useSecret(in.getLong(), in.getLong());
+            }
+        } catch (IOException | UncheckedIOException e) {
+            logger.warn("Could not read the identity secret from {}", file, e);
+        }
+    }
+
+    // runs on the timing wheel, which must not be held up by the write itself
+    private void schedule() {
+        if (pending.compareAndSet(false, true)) {
+            worker.execute(() -> {
+                try {
+                    checkpoint();
+                } finally {
+                    pending.set(false);
+                }
+            });
+        }
+    }
+
+    void checkpoint() {
+        long started = System.nanoTime();
+        long entries = 0;
+        Map<String, RateLimiter> limiters = this.limiters.get();
+        try {
+            try (SnapshotFile out = SnapshotFile.create(partial, chunkBytes)) {
+                out.putInt(RateLimiterConstants.Snapshot.MAGIC);
+                out.putInt(RateLimiterConstants.Snapshot.VERSION);
+                for (long word : IdentityKey.secret()) {
+                    out.putLong(word);
+                }
+                out.putInt((int) limiters.values().stream().filter(limiter -> limiter.snapshot() != null).count());
+                for (Map.Entry<String, RateLimiter> entry : limiters.entrySet()) {
+                    Snapshottable state = entry.getValue().snapshot();
+                    if (state != null) {
+                        entries += save(out, entry.getKey(), state);
+                    }
+                }
+                out.finish();
+            }
+            Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | UncheckedIOException e) {
+            logger.warn("Could not checkpoint the rate limiter state to {}", file, e);
+            return;
+        }
+        logger.debug("Checkpointed {} identities in {} ms", entries,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    private long save(SnapshotFile out, String name, Snapshottable state) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        out.putInt(bytes.length);
+        out.putBytes(bytes);
+        out.putInt(state.words());
+        out.putLong(System.currentTimeMillis());
+        out.putLong(state.clock());
+        long countAt = out.putLong(0);
+        long[] count = new long[1];
+        state.save((key, words) -> {
+            out.putLong(key);
+            for (long word : words) {
+                out.putLong(word);
+            }
+            count[0]++;
+        });
+        out.putLong(countAt, count[0]);
+        return count[0];
+    }
+
+    void restore() {
+        if (!Files.exists(file)) {
+            logger.info("No rate limiter snapshot at {}, starting empty", file);
+            return;
+        }
+        long started = System.nanoTime();
+        long restored = 0;
+        int stale = 0;
+        Map<String, RateLimiter> limiters = this.limiters.get();
+        try (SnapshotFile in = SnapshotFile.open(file, chunkBytes)) {
+            if (in.getInt() != RateLimiterConstants.Snapshot.MAGIC || in.getInt() != RateLimiterConstants.Snapshot.VERSION) {
+                logger.warn("Ignoring {}, it is not a rate limiter snapshot of this version", file);
+                return;
+            }
+            long[] secret = IdentityKey.secret();
+            if (in.getLong() != secret[0] || in.getLong() != secret[1]) {
+                logger.warn("Ignoring {}, its identities were keyed with another identity secret", file);
+                return;
+            }
+            int sections = in.getInt();
+            for (int i = 0; i < sections; i++) {
+                int length = in.getInt();
+                if (length < 0 || length > RateLimiterConstants.Snapshot.MAX_NAME_BYTES) {
+                    throw new IOException("Corrupt snapshot section " + i + " in " + file);
+                }
+                String name = new String(in.getBytes(length), StandardCharsets.UTF_8);
+                int words = in.getInt();
+                long savedAt = in.getLong();
+                long clock = in.getLong();
+                long count = in.getLong();
+
+                RateLimiter limiter = limiters.get(name);
+                Snapshottable state = limiter == null ? null : limiter.snapshot();
+                // a rule changed or removed since is read past
+                boolean matches = state != null && state.words() == words;
+                long elapsedNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, System.currentTimeMillis() - savedAt));
+                long[] buffer = new long[words];
+                for (long entry = 0; entry < count; entry++) {
+                    long key = in.getLong();
+                    for (int word = 0; word < words; word++) {
+                        buffer[word] = in.getLong();
+                    }
+                    if (matches) {
+                        state.restore(key, buffer, clock, elapsedNanos);
+                    }
+                }
+                if (matches) {
+                    restored += count;
+                } else {
+                    stale++;
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            logger.warn("Could not restore all rate limiter state from {}, kept {} identities", file, restored, e);
+            return;
+        }
+        logger.info("Restored {} identities from {} in {} ms, {} rules changed since",
+                restored, file, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), stale);
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (checkpoints != null) {
+            checkpoints.cancel();
+        }
+        worker.execute(this::checkpoint);
+        worker.shutdown();
+        if (!worker.awaitTermination(RateLimiterConstants.Snapshot.SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            logger.warn("Gave up waiting for the last rate limiter checkpoint to {}", file);
+        }
+    }
+}
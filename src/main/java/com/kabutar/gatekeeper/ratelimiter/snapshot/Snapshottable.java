@@ -0,0 +1,45 @@
+package com.kabutar.gatekeeper.ratelimiter.snapshot;
+
+/**
+ * Per-identity limiter state that can be checkpointed and restored across restarts.
+ *
+ * The state of one identity is a fixed number of {@code long} words, the same words the
+ * limiter keeps in its store. Timestamps in them are on the limiter's own clock, which
+ * is saved along with them, so the limiter can move them onto its new clock on restore.
+ */
+public interface Snapshottable {
+
+    /**
+     * Number of words saved per identity.
+     */
+    int words();
+
+    /**
+     * Current time on the clock the limiter's state is kept in.
+     */
+    long clock();
+
+    /**
+     * Hands the state of every identity worth keeping to the sink. Runs alongside
+     * requests and takes no lock, so each identity's words are as of some moment during
+     * the call.
+     */
+    void save(StateSink sink);
+
+    /**
+     * Puts back the state of one identity, unless it has run out in the meantime or the
+     * identity has been seen since the restart.
+     *
+     * @param savedClock   {@link #clock()} when the state was saved
+     * @param elapsedNanos wall-clock time since it was saved
+     */
+    void restore(long key, long[] state, long savedClock, long elapsedNanos);
+
+    @FunctionalInterface
+    interface StateSink {
+        /**
+         * @param state the identity's words; the array is reused for the next identity
+         */
+        void accept(long key, long[] state);
+    }
+}
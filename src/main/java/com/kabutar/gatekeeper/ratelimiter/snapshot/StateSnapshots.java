@@ -0,0 +1,95 @@
+package com.kabutar.gatekeeper.ratelimiter.snapshot;
+
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStore;
+import com.kabutar.gatekeeper.ratelimiter.store.StateTable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+
+/**
+ * Saving and restoring the two shapes of per-identity state the limiters keep: one word
+ * in an {@link AtomicLong} or a few in an {@link AtomicLongArray}, or the same words in a
+ * {@link StateTable} slot with the off-heap backend. Exactly one of store and table is
+ * set, as in the limiters.
+ *
+ * A restored word only replaces a zero one, so an identity seen between the start and
+ * the restore keeps what it has counted since instead of being set back.
+ */
+public final class StateSnapshots {
+    private StateSnapshots() {}
+
+    /**
+     * @param live whether a word still holds anything that a fresh identity would not
+     */
+    public static void save(IdentityStore<AtomicLong> store, StateTable table, LongPredicate live,
+                            Snapshottable.StateSink sink) {
+        long[] state = new long[1];
+        if (table == null) {
+            store.forEachIdentity((word, key) -> {
+                state[0] = word.get();
+                if (live.test(state[0])) {
+                    sink.accept(key, state);
+                }
+            });
+            return;
+        }
+        table.forEachIdentity((key, slot) -> {
+            state[0] = table.get(slot, 0);
+            if (live.test(state[0])) {
+                sink.accept(key, state);
+            }
+        });
+    }
+
+    /**
+     * @param live whether the words still hold anything that a fresh identity would not
+     */
+    public static void save(IdentityStore<AtomicLongArray> store, StateTable table, int words,
+                            Predicate<long[]> live, Snapshottable.StateSink sink) {
+        long[] state = new long[words];
+        if (table == null) {
+            store.forEachIdentity((array, key) -> {
+                for (int i = 0; i < words; i++) {
+                    state[i] = array.get(i);
+                }
+                if (live.test(state)) {
+                    sink.accept(key, state);
+                }
+            });
+            return;
+        }
+        table.forEachIdentity((key, slot) -> {
+            for (int i = 0; i < words; i++) {
+                state[i] = table.get(slot, i);
+            }
+            if (live.test(state)) {
+                sink.accept(key, state);
+            }
+        });
+    }
+
+    public static void restore(IdentityStore<AtomicLong> store, StateTable table, long key, long word) {
+        if (table == null) {
+            store.get(key).compareAndSet(0, word);
+        } else {
+            table.compareAndSet(table.slot(key), 0, 0, word);
+        }
+    }
+
+    public static void restore(IdentityStore<AtomicLongArray> store, StateTable table, long key, long[] words) {
+        AtomicLongArray array = table == null ? store.get(key) : null;
+        long slot = table == null ? 0 : table.slot(key);
+        for (int i = 0; i < words.length; i++) {
+            if (words[i] == 0) {
+                continue;
+            }
+            if (array != null) {
+                array.compareAndSet(i, 0, words[i]);
+            } else {
+                table.compareAndSet(slot, i, 0, words[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.kabutar.gatekeeper.ratelimiter.store;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * {@link IdentityStore} backed by a Caffeine cache.
+ *
+ * Caffeine's W-TinyLFU policy decides which identities to keep once the store is
+ * full, so a scan across many one-off source IPs cannot push out the clients that
+ * are actually being limited. Idle identities expire after the configured timeout;
+ * the system scheduler expires them promptly even when no traffic touches the store.
+ *
+ * Caffeine only takes boxed keys, so lookups try a direct-mapped front table first: the
+ * entry last looked up in the key's slot, compared on the primitive key. A hit allocates
+ * nothing; a miss boxes the key for Caffeine and takes over the slot. A hit still reads
+ * the identity through Caffeine about once a second, so expiry and the frequency
+ * sketch keep seeing it as active, and drops an entry Caffeine no longer has.
+ *
+ * The eviction hook runs off the request path, on Caffeine's maintenance executor.
+ */
+public class CaffeineIdentityStore<S> implements IdentityStore<S> {
+    private static final int MAX_FRONT_SLOTS = 1 << 16;
+    // ~1.07 s of System.nanoTime()
+    private static final int TOUCH_SHIFT = 30;
+
+    private final Cache<Long, Entry<S>> cache;
+    private final Function<Long, Entry<S>> loader;
+    private final AtomicReferenceArray<Entry<S>> front;
+    private final int mask;
+
+    public CaffeineIdentityStore(long maximumSize, Duration idleTimeout, LongFunction<S> factory, Consumer<S> onEvict) {
+        int slots = maximumSize >= MAX_FRONT_SLOTS ? MAX_FRONT_SLOTS
+                : Integer.highestOneBit((int) Math.max(1, maximumSize - 1)) << 1;
+        this.front = new AtomicReferenceArray<>(slots);
+        this.mask = slots - 1;
+        this.loader = key -> new Entry<>(key, factory.apply(key));
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterAccess(idleTimeout)
+                .scheduler(Scheduler.systemScheduler())
+                .<Long, Entry<S>>removalListener((key, entry, cause) -> {
+                    if (entry == null) {
+                        return;
+                    }
+                    forget(entry);
+                    if (cause != RemovalCause.REPLACED) {
+                        onEvict.accept(entry.state);
+                    }
+                })
+                .build();
+    }
+
+    @Override
+    public S get(long key) {
+        Entry<S> entry = lookup(key);
+        if (entry == null) {
+            entry = cache.get(key, loader);
+            remember(entry);
+        }
+        return entry.state;
+    }
+
+    @Override
+    public S getIfPresent(long key) {
+        Entry<S> entry = lookup(key);
+        if (entry == null) {
+            entry = cache.getIfPresent(key);
+            if (entry == null) {
+                return null;
+            }
+            remember(entry);
+        }
+        return entry.state;
+    }
+
+    private Entry<S> lookup(long key) {
+        Entry<S> entry = front.get(slot(key));
+        if (entry == null || entry.key != key) {
+            return null;
+        }
+        long stamp = System.nanoTime() >>> TOUCH_SHIFT;
+        if (entry.touched != stamp) {
+            entry.touched = stamp;
+            if (cache.getIfPresent(key) != entry) {
+                // expired or replaced while served from here
+                forget(entry);
+                return null;
+            }
+        }
+        return entry;
+    }
+
+    private void remember(Entry<S> entry) {
+        entry.touched = System.nanoTime() >>> TOUCH_SHIFT;
+        front.lazySet(slot(entry.key), entry);
+    }
+
+    private void forget(Entry<S> entry) {
+        front.compareAndSet(slot(entry.key), entry, null);
+    }
+
+    private int slot(long key) {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    @Override
+    public void remove(long key) {
+        Entry<S> entry = front.get(slot(key));
+        if (entry != null && entry.key == key) {
+            forget(entry);
+        }
+        cache.invalidate(key);
+    }
+
+    @Override
+    public void clear() {
+        cache.invalidateAll();
+        for (int i = 0; i < front.length(); i++) {
+            front.set(i, null);
+        }
+    }
+
+    @Override
+    public void forEach(Consumer<S> action) {
+        cache.asMap().values().forEach(entry -> action.accept(entry.state));
+    }
+
+    @Override
+    public void forEachIdentity(ObjLongConsumer<S> action) {
+        cache.asMap().forEach((key, entry) -> action.accept(entry.state, entry.key));
+    }
+
+    @Override
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    private static final class Entry<S> {
+        private final long key;
+        private final S state;
+        // racy on purpose: a lost update only means one more touch
+        private long touched;
+
+        Entry(long key, S state) {
+            this.key = key;
+            this.state = state;
+        }
+    }
+}
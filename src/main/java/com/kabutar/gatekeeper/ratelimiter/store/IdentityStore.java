@@ -0,0 +1,54 @@
+package com.kabutar.gatekeeper.ratelimiter.store;
+
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Per-identity limiter state, keyed by the 64-bit hash of the identity.
+ *
+ * Implementations must be safe for concurrent use from every event-loop thread and
+ * must keep their footprint bounded: identities that go idle or that do not fit are
+ * dropped, and the owning limiter is told through the eviction hook it registered
+ * so timers and parked requests tied to that state can be released.
+ *
+ * @param <S> state kept for one identity
+ */
+public interface IdentityStore<S> {
+
+    /**
+     * Returns the state for the identity, creating it if it is not tracked yet.
+     */
+    S get(long key);
+
+    /**
+     * Returns the state for the identity, or null if it is not tracked.
+     */
+    S getIfPresent(long key);
+
+    /**
+     * Stops tracking the identity and runs the eviction hook for its state.
+     */
+    void remove(long key);
+
+    /**
+     * Stops tracking every identity and runs the eviction hook for each state.
+     */
+    void clear();
+
+    /**
+     * Runs the action for the state of every tracked identity, e.g. to hand back
+     * resources on shutdown. Identities added concurrently may or may not be seen.
+     */
+    void forEach(Consumer<S> action);
+
+    /**
+     * Runs the action for the state and key of every tracked identity, e.g. to checkpoint
+     * it. Identities added concurrently may or may not be seen.
+     */
+    void forEachIdentity(ObjLongConsumer<S> action);
+
+    /**
+     * Approximate number of tracked identities.
+     */
+    long size();
+}
@@ -0,0 +1,113 @@
+package com.kabutar.gatekeeper.ratelimiter.store;
+
+import com.kabutar.gatekeeper.config.rateLimit.IdentityStoreConfig;
+import com.kabutar.gatekeeper.config.rateLimit.RateLimitedConfig;
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterException;
+import com.kabutar.gatekeeper.util.Units;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+/**
+ * Creates the identity stores used by the rate limiters, applying the limits from
+ * {@code config.rate-limited.store} to each of them. The limits are per store, not shared:
+ * every rule gets the full identity and memory budget.
+ *
+ * With {@code backend: offHeap}, algorithms whose state fits in a few {@code long}
+ * words (token bucket, leaky bucket, fixed and sliding window) keep it in an
+ * {@link OffHeapStateTable} instead, sized from the same limits.
+ */
+@Component
+public class IdentityStoreFactory {
+    private static final long BYTES_PER_MB = 1024L * 1024L;
+
+    private final IdentityStoreConfig config;
+
+    @Autowired
+    public IdentityStoreFactory(RateLimitedConfig rateLimitedConfig) {
+        this(rateLimitedConfig.getStore());
+    }
+
+    public IdentityStoreFactory(IdentityStoreConfig config) {
+        this.config = config;
+        validateConfig();
+    }
+
+    private void validateConfig() {
+        if (config.getMaxIdentitiesPerRule() > 0
+                && config.getMaxMemoryMbPerRule() > 0
+                && config.getIdleTimeout() > 0
+                && Units.Time.MULTIPLIER.containsKey(config.getTimeUnit())
+                && (RateLimiterConstants.IdentityStore.BACKEND_HEAP.equals(config.getBackend())
+                    || RateLimiterConstants.IdentityStore.BACKEND_OFF_HEAP.equals(config.getBackend()))) {
+            return;
+        }
+        throw new RateLimiterException("Invalid identity store config: " + config);
+    }
+
+    /**
+     * Creates a store for one limiter.
+     *
+     * @param entryBytes   rough heap cost of one tracked identity, used to turn the memory
+     *                     budget into an entry limit
+     * @param horizonNanos time after which an idle identity's state is as good as a fresh one;
+     *                     identities are never expired sooner than this, so eviction cannot
+     *                     hand a client a fresh quota in the middle of its window
+     * @param factory      creates the state for an identity seen for the first time
+     * @param onEvict      releases timers and parked requests held by dropped state
+     */
+    public <S> IdentityStore<S> create(long entryBytes, long horizonNanos, LongFunction<S> factory, Consumer<S> onEvict) {
+        return create(config.getMaxIdentitiesPerRule(), entryBytes, horizonNanos, factory, onEvict);
+    }
+
+    /**
+     * Creates a store for one limiter that tracks at most {@code maxIdentities}, fewer if
+     * the per-rule limits say so. When full, the store keeps the identities seen most often.
+     */
+    public <S> IdentityStore<S> create(long maxIdentities, long entryBytes, long horizonNanos,
+                                       LongFunction<S> factory, Consumer<S> onEvict) {
+        Duration idleTimeout = Duration.ofNanos(Math.max(idleNanos(), horizonNanos));
+
+        return new CaffeineIdentityStore<>(capacity(maxIdentities, entryBytes), idleTimeout, factory, onEvict);
+    }
+
+    /**
+     * Number of identities a store created with the same arguments holds at most.
+     */
+    public long capacity(long maxIdentities, long entryBytes) {
+        long byMemory = config.getMaxMemoryMbPerRule() * BYTES_PER_MB / Math.max(1, entryBytes);
+        return Math.min(Math.min(config.getMaxIdentitiesPerRule(), maxIdentities), byMemory);
+    }
+
+    public boolean isOffHeap() {
+        return RateLimiterConstants.IdentityStore.BACKEND_OFF_HEAP.equals(config.getBackend());
+    }
+
+    /**
+     * Creates an off-heap table for one limiter.
+     *
+     * The table gets room for {@code maxIdentitiesPerRule} at a load factor of 3/4, but never
+     * more direct memory than {@code maxMemoryMbPerRule}. Slots are reused once idle for the longer of
+     * the configured idle timeout and the algorithm's horizon.
+     *
+     * @param words        state words per identity
+     * @param horizonNanos time after which an idle identity's state is as good as a fresh one
+     */
+    public StateTable createTable(int words, long horizonNanos) {
+        long slotBytes = 16L + 8L * words;
+        long byMemory = Long.highestOneBit(config.getMaxMemoryMbPerRule() * BYTES_PER_MB / slotBytes);
+        long slots = Math.min(config.getMaxIdentitiesPerRule() / 3 * 4 + 1, byMemory);
+
+        return new OffHeapStateTable(slots, words, Math.max(idleNanos(), horizonNanos));
+    }
+
+    private long idleNanos() {
+        return TimeUnit.SECONDS.toNanos(
+                (long) config.getIdleTimeout() * Units.Time.MULTIPLIER.get(config.getTimeUnit()));
+    }
+}
@@ -0,0 +1,317 @@
+package com.kabutar.gatekeeper.ratelimiter.store;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link StateTable} kept in direct memory, so tracking tens of millions of identities
+ * adds nothing for the garbage collector to trace.
+ *
+ * Layout:
+ *   Open addressing over fixed-width slots, split into segments of at most 1 GiB (a
+ *   direct buffer is int-indexed). Each slot is
+ *     [ key : 8 ][ stamp : 8 ][ word 0 : 8 ] ... [ word n-1 : 8 ]
+ *   where key is the 64-bit identity hash and stamp the coarse time of the last lookup.
+ *   Every field is accessed through a byte buffer view VarHandle, so reads are volatile
+ *   and updates are single compare-and-sets on the segment.
+ *
+ * Lookup:
+ *   An identity lives within {@link #MAX_PROBE} slots of its home slot. A lookup scans
+ *   that window for the key; an empty slot ends the scan early because slots are never
+ *   emptied again once claimed. If the key is not found, the first empty slot, or a slot
+ *   whose identity has been idle for longer than the horizon, is claimed with a
+ *   compare-and-set on its key. The horizon is the time after which an algorithm's state
+ *   is as good as fresh, so reusing such a slot never changes a decision.
+ *
+ *   A claim re-reads the stamp once it holds the slot and a lookup re-reads the key once
+ *   it has stamped the slot, so an identity seen again just as its slot is judged idle
+ *   either keeps the slot or looks up again. Two lookups missing the same key may claim
+ *   two slots for it; the first in probe order is the one lookups find, and the claim
+ *   that sees the other marks the later one idle so it is reused.
+ *
+ * Overflow:
+ *   If every slot in the window is live, the identity shares a single overflow slot with
+ *   every other identity in the same position. A full table therefore limits those
+ *   clients more strictly rather than letting them through unchecked.
+ */
+public class OffHeapStateTable implements StateTable {
+    private static final Logger logger = LogManager.getLogger(OffHeapStateTable.class);
+
+    private static final VarHandle LONGS =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    static final int MAX_PROBE = 16;
+    private static final int MAX_SEGMENT_BYTES = 1 << 30;
+    // stamps count units of 2^30 ns (~1.07 s), finer than any horizon worth tracking
+    private static final int STAMP_SHIFT = 30;
+
+    private static final long EMPTY = 0L;
+    private static final long CLAIMING = 1L;
+
+    private static final int KEY = 0;
+    private static final int STAMP = 8;
+    private static final int WORDS = 16;
+
+    private final int words;
+    private final int slotBytes;
+    private final long capacity;
+    private final long slotMask;
+    private final int segmentShift;
+    private final long segmentMask;
+    private final ByteBuffer[] segments;
+    private final long overflowSlot;
+
+    private final long horizonStamps;
+    private final long epochNanos;
+
+    private final LongAdder size = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+
+    /**
+     * @param slots        minimum number of slots, rounded up to a power of two
+     * @param words        state words per slot
+     * @param horizonNanos idle time after which an identity's slot may be reused
+     */
+    public OffHeapStateTable(long slots, int words, long horizonNanos) {
+        if (slots <= 0 || words <= 0 || horizonNanos < 0) {
+            throw new IllegalArgumentException("Invalid state table: slots=" + slots
+                    + ", words=" + words + ", horizon=" + horizonNanos + "ns");
+        }
+        this.words = words;
+        this.slotBytes = WORDS + 8 * words;
+        this.capacity = Math.max(MAX_PROBE, Long.highestOneBit(slots - 1) << 1);
+        this.slotMask = capacity - 1;
+
+        // power-of-two segment sizes so a slot never straddles two buffers
+        long slotsPerSegment = Long.highestOneBit(MAX_SEGMENT_BYTES / slotBytes);
+        slotsPerSegment = Math.min(slotsPerSegment, capacity + 1);
+        this.segmentShift = Long.numberOfTrailingZeros(Long.highestOneBit(slotsPerSegment));
+        this.segmentMask = (1L << segmentShift) - 1;
+
+        // one extra slot past the table for overflow
+        long totalSlots = capacity + 1;
+        int segmentCount = (int) ((totalSlots + segmentMask) >>> segmentShift);
+        this.segments = new ByteBuffer[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            long remaining = totalSlots - ((long) i << segmentShift);
+            int segmentSlots = (int) Math.min(remaining, 1L << segmentShift);
+            segments[i] = ByteBuffer.allocateDirect(segmentSlots * slotBytes).order(ByteOrder.nativeOrder());
+        }
+        this.overflowSlot = capacity;
+
+        this.horizonStamps = (horizonNanos >>> STAMP_SHIFT) + 1;
+        this.epochNanos = System.nanoTime();
+        logger.debug("Allocated off-heap state table: {} slots of {} bytes in {} segments",
+                capacity, slotBytes, segmentCount);
+    }
+
+    @Override
+    public int words() {
+        return words;
+    }
+
+    @Override
+    public long slot(long key) {
+        // keep the two reserved key values out of the table
+        if (key == EMPTY || key == CLAIMING) {
+            key += 2;
+        }
+        long stamp = stamp();
+        long home = key & slotMask;
+        retry:
+        while (true) {
+            long candidate = -1;
+            long candidateKey = EMPTY;
+            for (int i = 0; i < MAX_PROBE; i++) {
+                long slot = (home + i) & slotMask;
+                long current = waitClaimed(slot);
+                if (current == key) {
+                    touch(slot, stamp);
+                    // claimed for another identity before the stamp landed
+                    if (getLong(slot, KEY) != key) {
+                        continue retry;
+                    }
+                    return slot;
+                }
+                if (current == EMPTY) {
+                    if (candidate < 0) {
+                        candidate = slot;
+                        candidateKey = EMPTY;
+                    }
+                    break;
+                }
+                if (candidate < 0 && stamp - getLong(slot, STAMP) > horizonStamps) {
+                    candidate = slot;
+                    candidateKey = current;
+                }
+            }
+            if (candidate < 0) {
+                overflows.increment();
+                return overflowSlot;
+            }
+            if (claim(candidate, candidateKey, key, stamp)) {
+                return settle(home, candidate, key, stamp);
+            }
+            // lost the race for the slot, someone may have claimed it for this very key
+        }
+    }
+
+    @Override
+    public long find(long key) {
+        if (key == EMPTY || key == CLAIMING) {
+            key += 2;
+        }
+        long stamp = stamp();
+        long home = key & slotMask;
+        boolean reusable = false;
+        for (int i = 0; i < MAX_PROBE; i++) {
+            long slot = (home + i) & slotMask;
+            long current = waitClaimed(slot);
+            if (current == key) {
+                return slot;
+            }
+            if (current == EMPTY) {
+                return ABSENT;
+            }
+            reusable |= stamp - getLong(slot, STAMP) > horizonStamps;
+        }
+        // a full window of live identities sends this one to the overflow slot
+        return reusable ? ABSENT : overflowSlot;
+    }
+
+    private boolean claim(long slot, long expectedKey, long key, long stamp) {
+        if (!casLong(slot, KEY, expectedKey, CLAIMING)) {
+            return false;
+        }
+        // the key alone does not tell whether its identity was seen since the scan
+        if (expectedKey != EMPTY && stamp - getLong(slot, STAMP) <= horizonStamps) {
+            setLong(slot, KEY, expectedKey);
+            return false;
+        }
+        for (int word = 0; word < words; word++) {
+            setLong(slot, WORDS + 8 * word, 0L);
+        }
+        setLong(slot, STAMP, stamp);
+        // publishing the key releases the zeroed words to readers that see it
+        setLong(slot, KEY, key);
+        if (expectedKey == EMPTY) {
+            size.increment();
+        }
+        return true;
+    }
+
+    /**
+     * Keeps the first slot in probe order holding the key just claimed and leaves any
+     * later one to be reused.
+     */
+    private long settle(long home, long claimed, long key, long stamp) {
+        long kept = -1;
+        for (int i = 0; i < MAX_PROBE; i++) {
+            long slot = (home + i) & slotMask;
+            long current = waitClaimed(slot);
+            if (current == EMPTY) {
+                break;
+            }
+            if (current != key) {
+                continue;
+            }
+            if (kept >= 0) {
+                // a slot stamped or claimed in between keeps its stamp
+                long seen = getLong(slot, STAMP);
+                casLong(slot, STAMP, seen, stamp - horizonStamps - 1);
+            } else if (slot == claimed) {
+                kept = slot;
+            } else {
+                touch(slot, stamp);
+                if (getLong(slot, KEY) == key) {
+                    kept = slot;
+                }
+            }
+        }
+        return kept < 0 ? claimed : kept;
+    }
+
+    private long waitClaimed(long slot) {
+        long current;
+        while ((current = getLong(slot, KEY)) == CLAIMING) {
+            Thread.onSpinWait();
+        }
+        return current;
+    }
+
+    private void touch(long slot, long stamp) {
+        // skip the store when the stamp is current to keep the cache line shared
+        if (getLong(slot, STAMP) != stamp) {
+            setLong(slot, STAMP, stamp);
+        }
+    }
+
+    private long stamp() {
+        return (System.nanoTime() - epochNanos) >>> STAMP_SHIFT;
+    }
+
+    @Override
+    public long get(long slot, int word) {
+        return getLong(slot, WORDS + 8 * word);
+    }
+
+    @Override
+    public boolean compareAndSet(long slot, int word, long expected, long updated) {
+        return casLong(slot, WORDS + 8 * word, expected, updated);
+    }
+
+    // the overflow slot is shared by many identities and has no key of its own to restore under
+    @Override
+    public void forEachIdentity(SlotConsumer action) {
+        long stamp = stamp();
+        for (long slot = 0; slot < capacity; slot++) {
+            long key = getLong(slot, KEY);
+            if (key == EMPTY || key == CLAIMING || stamp - getLong(slot, STAMP) > horizonStamps) {
+                continue;
+            }
+            action.accept(key, slot);
+        }
+    }
+
+    @Override
+    public long size() {
+        return size.sum();
+    }
+
+    /**
+     * Number of lookups that found no free slot and fell back to the overflow slot.
+     */
+    public long overflows() {
+        return overflows.sum();
+    }
+
+    public long capacity() {
+        return capacity;
+    }
+
+    private ByteBuffer segment(long slot) {
+        return segments[(int) (slot >>> segmentShift)];
+    }
+
+    private int offset(long slot, int field) {
+        return (int) (slot & segmentMask) * slotBytes + field;
+    }
+
+    private long getLong(long slot, int field) {
+        return (long) LONGS.getVolatile(segment(slot), offset(slot, field));
+    }
+
+    private void setLong(long slot, int field, long value) {
+        LONGS.setVolatile(segment(slot), offset(slot, field), value);
+    }
+
+    private boolean casLong(long slot, int field, long expected, long updated) {
+        return LONGS.compareAndSet(segment(slot), offset(slot, field), expected, updated);
+    }
+}
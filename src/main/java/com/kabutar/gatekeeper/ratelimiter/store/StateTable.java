@@ -0,0 +1,56 @@
+package com.kabutar.gatekeeper.ratelimiter.store;
+
+/**
+ * Per-identity limiter state as a fixed number of {@code long} words, addressed through
+ * a slot handle instead of an object per identity.
+ *
+ * A slot is resolved once per request with {@link #slot(long)} and its words are then
+ * read and compare-and-set directly. A freshly claimed slot has all words zeroed, so the
+ * algorithms using a table encode their state such that zero means "nothing recorded".
+ */
+public interface StateTable {
+
+    /**
+     * Returned by {@link #find(long)} for an identity that is not tracked.
+     */
+    long ABSENT = -1;
+
+    /**
+     * Number of words each slot holds.
+     */
+    int words();
+
+    /**
+     * Returns the slot holding the identity's state, claiming one if it is not tracked.
+     * The handle is only meant to be used for the request at hand.
+     */
+    long slot(long key);
+
+    /**
+     * Returns the slot {@link #slot(long)} would return for the identity without claiming
+     * or touching one, or {@link #ABSENT} if it would start from a fresh slot. For reads
+     * that must not make an identity tracked, such as reporting its quota.
+     */
+    long find(long key);
+
+    long get(long slot, int word);
+
+    boolean compareAndSet(long slot, int word, long expected, long updated);
+
+    /**
+     * Runs the action for every identity whose state is still within the horizon, with
+     * the slot holding it, e.g. to checkpoint it. Identities claimed concurrently may or
+     * may not be seen.
+     */
+    void forEachIdentity(SlotConsumer action);
+
+    /**
+     * Approximate number of tracked identities.
+     */
+    long size();
+
+    @FunctionalInterface
+    interface SlotConsumer {
+        void accept(long key, long slot);
+    }
+}
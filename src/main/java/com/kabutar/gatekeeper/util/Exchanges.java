@@ -0,0 +1,31 @@
+package com.kabutar.gatekeeper.util;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.server.ServerWebExchange;
+
+public final class Exchanges {
+    private Exchanges() {}
+
+    /**
+     * Copies the request headers into a mutable HttpHeaders, for exchanges forwarded later
+     * from another thread. Netty seals inbound headers as ReadOnlyHttpHeaders, and
+     * NettyRoutingFilter calls addAll() on them when the exchange is forwarded.
+     */
+    public static ServerWebExchange withMutableHeaders(ServerWebExchange exchange) {
+        HttpHeaders mutableHeaders = new HttpHeaders();
+        mutableHeaders.putAll(exchange.getRequest().getHeaders());
+
+        ServerHttpRequest mutableRequest = exchange.getRequest()
+                .mutate()
+                .headers(h -> {
+                    h.clear();
+                    h.putAll(mutableHeaders);
+                })
+                .build();
+
+        return exchange.mutate()
+                .request(mutableRequest)
+                .build();
+    }
+}
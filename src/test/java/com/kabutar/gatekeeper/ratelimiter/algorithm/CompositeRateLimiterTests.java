@@ -0,0 +1,124 @@
+package com.kabutar.gatekeeper.ratelimiter.algorithm;
+
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterException;
+import com.kabutar.gatekeeper.ratelimiter.metrics.RuleMetrics;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompositeRateLimiterTests {
+    private final ServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/orders"));
+
+    @Test
+    void takesFromEveryRuleWhenAllAllow() {
+        Quota first = new Quota(3);
+        Quota second = new Quota(2);
+        CompositeRateLimiter composite = new CompositeRateLimiter(null, List.of(first, second));
+
+        assertTrue(composite.tryAcquire(exchange));
+        assertTrue(composite.tryAcquire(exchange));
+        assertEquals(1, first.left);
+        assertEquals(0, second.left);
+    }
+
+    @Test
+    void refundsEveryEarlierRuleWhenALaterOneRejects() {
+        Quota first = new Quota(5);
+        Quota second = new Quota(5);
+        Quota third = new Quota(0);
+        Quota fourth = new Quota(5);
+        CompositeRateLimiter composite = new CompositeRateLimiter(null, List.of(first, second, third, fourth));
+
+        assertFalse(composite.tryAcquire(exchange));
+        assertEquals(5, first.left);
+        assertEquals(5, second.left);
+        assertEquals(1, first.refunds);
+        assertEquals(1, second.refunds);
+        // the rejecting rule took nothing and the rules after it were never asked
+        assertEquals(0, third.refunds);
+        assertEquals(0, fourth.acquired);
+    }
+
+    @Test
+    void refundsEveryRule() {
+        Quota first = new Quota(5);
+        Quota second = new Quota(5);
+        CompositeRateLimiter composite = new CompositeRateLimiter(null, List.of(first, second));
+
+        assertTrue(composite.tryAcquire(exchange));
+        composite.refund(exchange);
+        assertEquals(5, first.left);
+        assertEquals(5, second.left);
+    }
+
+    @Test
+    void reportsTheTightestRuleAndTheLongestWait() {
+        Quota loose = new Quota(10, 100, 5);
+        Quota tight = new Quota(3, 20, 1);
+        CompositeRateLimiter composite = new CompositeRateLimiter(null, List.of(loose, tight));
+
+        RateLimitStatus status = composite.status(exchange);
+        assertEquals(3, status.getLimit());
+        assertEquals(3, status.getRemaining());
+        assertEquals(100, status.getResetNanos());
+        assertEquals(5, status.getRetryAfterNanos());
+    }
+
+    @Test
+    void needsAtLeastOneRule() {
+        assertThrows(RateLimiterException.class, () -> new CompositeRateLimiter(null, List.of()));
+    }
+
+    /**
+     * A rule with a fixed number of requests left.
+     */
+    private static class Quota extends SynchronousRateLimiter {
+        private final long limit;
+        private final long resetNanos;
+        private final long retryAfterNanos;
+        private long left;
+        private int acquired;
+        private int refunds;
+
+        Quota(long limit) {
+            this(limit, 0, 0);
+        }
+
+        Quota(long limit, long resetNanos, long retryAfterNanos) {
+            super(null, RuleMetrics.NONE);
+            this.limit = limit;
+            this.left = limit;
+            this.resetNanos = resetNanos;
+            this.retryAfterNanos = retryAfterNanos;
+        }
+
+        @Override
+        protected boolean tryAcquire(ServerWebExchange exchange) {
+            acquired++;
+            if (left == 0) {
+                return false;
+            }
+            left--;
+            return true;
+        }
+
+        @Override
+        protected void refund(ServerWebExchange exchange) {
+            refunds++;
+            left++;
+        }
+
+        @Override
+        public RateLimitStatus status(ServerWebExchange exchange) {
+            return new RateLimitStatus(limit, left, resetNanos, retryAfterNanos);
+        }
+    }
+}
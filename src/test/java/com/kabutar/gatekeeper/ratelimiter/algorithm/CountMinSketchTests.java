@@ -0,0 +1,90 @@
+package com.kabutar.gatekeeper.ratelimiter.algorithm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CountMinSketchTests {
+    private static final long PERIOD = 1_000;
+    // the start of a window
+    private static final long NOW = 1_000_000 * PERIOD;
+
+    @Test
+    void sizesFromEpsilonAndDelta() {
+        assertEquals(512, CountMinSketch.width(0.01));
+        assertEquals(32, CountMinSketch.width(0.1));
+        assertEquals(5, CountMinSketch.depth(0.01));
+        assertEquals(1, CountMinSketch.depth(0.5));
+    }
+
+    @Test
+    void staysWithinEpsilonOfTheTrafficAndNeverBelow() {
+        double epsilon = 0.01;
+        double delta = 0.01;
+        CountMinSketch sketch = new CountMinSketch(CountMinSketch.width(epsilon), CountMinSketch.depth(delta), PERIOD);
+        long index = sketch.index(NOW);
+
+        // skewed traffic: a few heavy identities among many light ones
+        int keys = 2_000;
+        long[] counts = new long[keys];
+        SplittableRandom random = new SplittableRandom(7);
+        long total = 0;
+        for (int key = 0; key < keys; key++) {
+            counts[key] = key < 20 ? 500 + random.nextInt(500) : random.nextInt(10);
+            for (long i = 0; i < counts[key]; i++) {
+                sketch.add(key, index);
+            }
+            total += counts[key];
+        }
+
+        int beyond = 0;
+        for (int key = 0; key < keys; key++) {
+            long count = sketch.count(key, index);
+            assertTrue(count >= counts[key], "key " + key + " counted " + count + " of " + counts[key]);
+            if (count - counts[key] > epsilon * total) {
+                beyond++;
+            }
+        }
+        // expected at most delta of them; leave room for chance
+        assertTrue(beyond <= 2 * delta * keys, beyond + " estimates beyond the bound");
+    }
+
+    @Test
+    void forgetsWindowsThatHaveSlidOut() {
+        CountMinSketch sketch = new CountMinSketch(64, 3, PERIOD);
+        long index = sketch.index(NOW);
+        for (int i = 0; i < 8; i++) {
+            sketch.add(42, index);
+        }
+        assertEquals(8, sketch.estimate(42, NOW), 1e-9);
+
+        // the next window weighs the previous one by how much of it still overlaps
+        assertEquals(8, sketch.estimate(42, NOW + PERIOD), 1e-9);
+        assertEquals(2, sketch.estimate(42, NOW + PERIOD + 3 * PERIOD / 4), 1e-9);
+        assertEquals(0, sketch.count(42, index + 1));
+
+        // two windows on, and the cells are reused without a reset
+        assertEquals(0, sketch.estimate(42, NOW + 2 * PERIOD), 1e-9);
+        sketch.add(42, index + 2);
+        assertEquals(1, sketch.count(42, index + 2));
+        assertEquals(0, sketch.count(42, index));
+    }
+
+    @Test
+    void takesBackOnlyFromTheCurrentWindow() {
+        CountMinSketch sketch = new CountMinSketch(64, 3, PERIOD);
+        long index = sketch.index(NOW);
+        sketch.add(42, index);
+        sketch.add(42, index);
+        sketch.restore(42, index);
+        assertEquals(1, sketch.count(42, index));
+
+        // a window that has moved on keeps its count
+        sketch.add(42, index + 1);
+        sketch.restore(42, index);
+        assertEquals(1, sketch.count(42, index + 1));
+    }
+}
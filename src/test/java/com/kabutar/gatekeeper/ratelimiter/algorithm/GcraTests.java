@@ -0,0 +1,89 @@
+package com.kabutar.gatekeeper.ratelimiter.algorithm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GcraTests {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long START = TimeUnit.SECONDS.toNanos(10);
+
+    // 10 per second: one request every 100 ms, 3 back to back
+    private final Gcra gcra = new Gcra(10, 1, 3);
+
+    @Test
+    void admitsBurstWithinTolerance() {
+        assertEquals(3, gcra.remaining(0, START));
+
+        long tat = 0;
+        for (int i = 1; i <= 3; i++) {
+            tat = gcra.acquire(tat, START);
+            assertEquals(START + i * 100 * MS, tat);
+        }
+        assertEquals(0, gcra.remaining(tat, START));
+        assertEquals(Gcra.REJECTED, gcra.acquire(tat, START));
+        // one interval later exactly one more conforms
+        assertNotEquals(Gcra.REJECTED, gcra.acquire(tat, START + 100 * MS));
+        assertEquals(1, gcra.remaining(tat, START + 100 * MS));
+    }
+
+    @Test
+    void withoutBurstAdmitsOneInterval() {
+        Gcra strict = new Gcra(3, 1, 1);
+        long tat = strict.acquire(0, START);
+        assertEquals(Gcra.REJECTED, strict.acquire(tat, START + 1));
+        assertEquals(TimeUnit.SECONDS.toNanos(1) / 3, strict.retryAfterNanos(tat, START));
+        assertEquals(strict.horizonNanos(), strict.resetNanos(tat, START));
+    }
+
+    @Test
+    void reportsWhenTheNextRequestConforms() {
+        long tat = gcra.acquire(gcra.acquire(gcra.acquire(0, START), START), START);
+        // tat - tolerance - now: 300 ms ahead, 200 ms tolerated
+        long retryAfter = gcra.retryAfterNanos(tat, START);
+        assertEquals(100 * MS, retryAfter);
+        assertEquals(Gcra.REJECTED, gcra.acquire(tat, START + retryAfter - 1));
+        assertNotEquals(Gcra.REJECTED, gcra.acquire(tat, START + retryAfter));
+
+        assertEquals(300 * MS, gcra.resetNanos(tat, START));
+        assertEquals(0, gcra.retryAfterNanos(tat, START + 500 * MS));
+        assertEquals(0, gcra.resetNanos(tat, START + 500 * MS));
+        assertEquals(300 * MS, gcra.horizonNanos());
+    }
+
+    @Test
+    void refundsOneInterval() {
+        long tat = gcra.acquire(gcra.acquire(gcra.acquire(0, START), START), START);
+        tat = gcra.refund(tat);
+        assertEquals(START + 200 * MS, tat);
+        assertNotEquals(Gcra.REJECTED, gcra.acquire(tat, START));
+        assertEquals(0, gcra.refund(0));
+    }
+
+    @Test
+    void rebasesOntoAnotherEpoch() {
+        Gcra before = new Gcra(10, 1, 3);
+        long savedNow = before.now();
+        long tat = savedNow + 250 * MS;
+
+        Gcra after = new Gcra(10, 1, 3);
+        long rebased = after.rebase(tat, savedNow, 100 * MS);
+        long ahead = rebased - after.now();
+        assertTrue(ahead > 100 * MS && ahead <= 150 * MS, "ahead " + ahead);
+
+        // a TAT that has passed meanwhile is a fresh identity
+        assertEquals(0, after.rebase(tat, savedNow, 250 * MS));
+    }
+
+    @Test
+    void rejectsInvalidParameters() {
+        assertThrows(IllegalArgumentException.class, () -> new Gcra(0, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new Gcra(1, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new Gcra(1, 1, 0));
+    }
+}
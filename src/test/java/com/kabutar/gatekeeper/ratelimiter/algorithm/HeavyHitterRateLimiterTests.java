@@ -0,0 +1,112 @@
+package com.kabutar.gatekeeper.ratelimiter.algorithm;
+
+import com.kabutar.gatekeeper.config.rateLimit.HeavyHitterConfig;
+import com.kabutar.gatekeeper.config.rateLimit.IdentityStoreConfig;
+import com.kabutar.gatekeeper.config.rateLimit.Rule;
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
+import com.kabutar.gatekeeper.ratelimiter.metrics.RuleMetrics;
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStore;
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStoreFactory;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HeavyHitterRateLimiterTests {
+    private static final int LIMIT = 10;
+    private static final long A = 0x1234_5678_9ABCL;
+    private static final long B = 0x0FED_CBA9_8765L;
+
+    private final AtomicInteger promotions = new AtomicInteger();
+    private IdentityStore<?> store;
+
+    private HeavyHitterRateLimiter limiter(int topK) {
+        HeavyHitterConfig heavyHitter = new HeavyHitterConfig();
+        heavyHitter.setCounter(LIMIT);
+        // one window for the whole test
+        heavyHitter.setTimeWindow(1);
+        heavyHitter.setTimeUnit("H");
+        heavyHitter.setTopK(topK);
+        Rule.Config config = new Rule.Config();
+        config.setHeavyHitter(heavyHitter);
+        Rule rule = new Rule();
+        rule.setId("edge");
+        rule.setAlgorithm(RateLimiterConstants.Algorithm.HEAVY_HITTER);
+        rule.setLimitBy(List.of(RateLimiterConstants.Identity.IP));
+        rule.setConfig(config);
+        return new HeavyHitterRateLimiter(null, rule, new CountingStores(), RuleMetrics.NONE);
+    }
+
+    private static int admitted(HeavyHitterRateLimiter limiter, long key, int requests) {
+        int admitted = 0;
+        for (int i = 0; i < requests; i++) {
+            if (limiter.acquire(key, System.currentTimeMillis())) {
+                admitted++;
+            }
+        }
+        return admitted;
+    }
+
+    @Test
+    void promotesAtHalfTheLimit() {
+        HeavyHitterRateLimiter limiter = limiter(4);
+        assertEquals(LIMIT / 2, admitted(limiter, A, LIMIT / 2));
+        assertFalse(limiter.isPromoted(A));
+
+        // seeded with what the sketch counted, so the limit holds across the promotion
+        assertEquals(LIMIT / 2, admitted(limiter, A, LIMIT));
+        assertTrue(limiter.isPromoted(A));
+        assertEquals(1, promotions.get());
+    }
+
+    @Test
+    void decidesOnTheSketchWhileTheTopKIsFull() {
+        HeavyHitterRateLimiter limiter = limiter(1);
+        admitted(limiter, A, LIMIT);
+        assertTrue(limiter.isPromoted(A));
+
+        assertEquals(LIMIT, admitted(limiter, B, 3 * LIMIT));
+        assertFalse(limiter.isPromoted(B));
+        // no promotion attempted for every request past half the limit
+        assertEquals(1, promotions.get());
+    }
+
+    @Test
+    void fallsBackOnTheSketchWhenDropped() {
+        HeavyHitterRateLimiter limiter = limiter(1);
+        assertEquals(LIMIT, admitted(limiter, A, 2 * LIMIT));
+        store.remove(A);
+        assertFalse(limiter.isPromoted(A));
+
+        // the sketch kept counting, so A comes back at the limit and not below it
+        assertEquals(0, admitted(limiter, A, LIMIT));
+        assertTrue(limiter.isPromoted(A));
+        assertEquals(2, promotions.get());
+    }
+
+    /**
+     * Counts promotions and keeps the store of promoted identities at hand.
+     */
+    private class CountingStores extends IdentityStoreFactory {
+        CountingStores() {
+            super(new IdentityStoreConfig());
+        }
+
+        @Override
+        public <S> IdentityStore<S> create(long maxIdentities, long entryBytes, long horizonNanos,
+                                           LongFunction<S> factory, Consumer<S> onEvict) {
+            IdentityStore<S> created = super.create(maxIdentities, entryBytes, horizonNanos, key -> {
+                promotions.incrementAndGet();
+                return factory.apply(key);
+            }, onEvict);
+            store = created;
+            return created;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.kabutar.gatekeeper.ratelimiter.algorithm;
+
+import com.kabutar.gatekeeper.config.rateLimit.IdentityStoreConfig;
+import com.kabutar.gatekeeper.config.rateLimit.LeakyBucketConfig;
+import com.kabutar.gatekeeper.config.rateLimit.Rule;
+import com.kabutar.gatekeeper.ratelimiter.IdentityKey;
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
+import com.kabutar.gatekeeper.ratelimiter.metrics.RateLimiterMetrics;
+import com.kabutar.gatekeeper.ratelimiter.scheduler.TimingWheel;
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStoreFactory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LeakyBucketRateLimiterTests {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long KEY = 0x5EED_1234_5678L;
+    // 10 a second and 5 waiting: a slot every 100ms, a full bucket drains in 500ms
+    private static final int CAPACITY = 5;
+    private static final long INTERVAL = 100 * MS;
+
+    private TimingWheel timer;
+
+    @BeforeEach
+    void setUp() {
+        timer = new TimingWheel(10, 8, 4, 1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        timer.close();
+    }
+
+    private LeakyBucketRateLimiter limiter(String backend) {
+        return limiter(backend, List.of(RateLimiterConstants.Identity.IP));
+    }
+
+    private LeakyBucketRateLimiter limiter(String backend, List<String> limitBy) {
+        LeakyBucketConfig leakyBucket = new LeakyBucketConfig();
+        leakyBucket.setCapacity(CAPACITY);
+        leakyBucket.setOutFlowPerSec(10);
+        Rule.Config config = new Rule.Config();
+        config.setLeakyBucket(leakyBucket);
+        Rule rule = new Rule();
+        rule.setId("orders");
+        rule.setAlgorithm(RateLimiterConstants.Algorithm.LEAKY_BUCKET);
+        rule.setLimitBy(limitBy);
+        rule.setConfig(config);
+
+        IdentityStoreConfig stores = new IdentityStoreConfig();
+        stores.setBackend(backend);
+        return new LeakyBucketRateLimiter(null, rule, new IdentityStoreFactory(stores),
+                new RateLimiterMetrics(new SimpleMeterRegistry(), timer).forRule("orders", rule.getAlgorithm()));
+    }
+
+    // the slots taken one after another, checked against one interval apart each
+    private static void fill(LeakyBucketRateLimiter limiter, long key) {
+        long start = System.nanoTime();
+        for (int k = 0; k <= CAPACITY; k++) {
+            long delay = limiter.reserve(key);
+            long expected = k * INTERVAL - (System.nanoTime() - start);
+            assertTrue(delay >= expected && delay <= k * INTERVAL, "slot " + k + " in " + delay / MS + "ms");
+        }
+    }
+
+    @Test
+    void spacesReleasesOneIntervalApart() {
+        spacesReleasesOneIntervalApart(RateLimiterConstants.IdentityStore.BACKEND_HEAP);
+    }
+
+    @Test
+    void spacesReleasesOneIntervalApartOffHeap() {
+        spacesReleasesOneIntervalApart(RateLimiterConstants.IdentityStore.BACKEND_OFF_HEAP);
+    }
+
+    private void spacesReleasesOneIntervalApart(String backend) {
+        LeakyBucketRateLimiter limiter = limiter(backend);
+        // one released right away and CAPACITY waiting
+        fill(limiter, KEY);
+        assertEquals(LeakyBucketRateLimiter.REJECTED, limiter.reserve(KEY));
+        // every identity has its own slots
+        assertEquals(0, limiter.reserve(KEY + 1));
+    }
+
+    @Test
+    void freesOneSlotPerInterval() throws InterruptedException {
+        LeakyBucketRateLimiter limiter = limiter(RateLimiterConstants.IdentityStore.BACKEND_HEAP);
+        fill(limiter, KEY);
+
+        // two and a half intervals later two slots have drained, with room for a late wake-up
+        Thread.sleep(250);
+        assertNotEquals(LeakyBucketRateLimiter.REJECTED, limiter.reserve(KEY));
+        assertNotEquals(LeakyBucketRateLimiter.REJECTED, limiter.reserve(KEY));
+        assertEquals(LeakyBucketRateLimiter.REJECTED, limiter.reserve(KEY));
+
+        // drained completely, the next one goes right away
+        Thread.sleep(900);
+        assertEquals(0, limiter.reserve(KEY));
+    }
+
+    @Test
+    void reportsWhatFitsAndTheWait() {
+        LeakyBucketRateLimiter limiter = limiter(RateLimiterConstants.IdentityStore.BACKEND_HEAP, List.of());
+        MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/orders"));
+        RateLimitStatus fresh = limiter.status(exchange);
+        assertEquals(CAPACITY, fresh.getLimit());
+        assertEquals(CAPACITY, fresh.getRemaining());
+        assertEquals(0, fresh.getRetryAfterNanos());
+
+        for (int i = 0; i < 3; i++) {
+            limiter.reserve(IdentityKey.DEFAULT);
+        }
+        RateLimitStatus queued = limiter.status(exchange);
+        assertEquals(3, queued.getRemaining());
+        assertTrue(queued.getResetNanos() > 250 * MS && queued.getResetNanos() <= 300 * MS);
+        assertEquals(0, queued.getRetryAfterNanos());
+
+        // full while the last slot is less than an interval past the limit
+        for (int i = 0; i < CAPACITY - 2; i++) {
+            limiter.reserve(IdentityKey.DEFAULT);
+        }
+        assertEquals(LeakyBucketRateLimiter.REJECTED, limiter.reserve(IdentityKey.DEFAULT));
+        RateLimitStatus full = limiter.status(exchange);
+        assertEquals(0, full.getRemaining());
+        assertTrue(full.getRetryAfterNanos() > 50 * MS && full.getRetryAfterNanos() <= INTERVAL);
+    }
+
+    private static Map<Long, Long> saved(LeakyBucketRateLimiter limiter) {
+        Map<Long, Long> saved = new HashMap<>();
+        limiter.snapshot().save((key, state) -> saved.put(key, state[0]));
+        return saved;
+    }
+
+    @Test
+    void keepsPendingSlotsAcrossARestart() {
+        keepsPendingSlotsAcrossARestart(RateLimiterConstants.IdentityStore.BACKEND_HEAP);
+    }
+
+    @Test
+    void keepsPendingSlotsAcrossARestartOffHeap() {
+        keepsPendingSlotsAcrossARestart(RateLimiterConstants.IdentityStore.BACKEND_OFF_HEAP);
+    }
+
+    private void keepsPendingSlotsAcrossARestart(String backend) {
+        LeakyBucketRateLimiter before = limiter(backend);
+        long savedClock = before.clock();
+        // one slot 500ms ahead, one 100ms ahead, one already past
+        before.restore(101, new long[] {savedClock + 500 * MS}, savedClock, 0);
+        before.restore(102, new long[] {savedClock + 100 * MS}, savedClock, 0);
+        before.restore(103, new long[] {savedClock - 100 * MS}, savedClock, 0);
+        Map<Long, Long> saved = saved(before);
+        assertEquals(2, saved.size());
+
+        // the new process's virtual time starts elsewhere; 200ms passed while it was down
+        LeakyBucketRateLimiter after = limiter(backend);
+        long from = after.clock();
+        saved.forEach((key, next) -> after.restore(key, new long[] {next}, savedClock, 200 * MS));
+        long to = after.clock();
+        Map<Long, Long> restored = saved(after);
+
+        assertEquals(1, restored.size());
+        long ahead = saved.get(101L) - savedClock - 200 * MS;
+        long next = restored.get(101L);
+        assertTrue(next >= from + ahead && next <= to + ahead, "next slot " + next);
+    }
+}
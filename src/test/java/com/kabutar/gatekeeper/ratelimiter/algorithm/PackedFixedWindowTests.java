@@ -0,0 +1,75 @@
+package com.kabutar.gatekeeper.ratelimiter.algorithm;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PackedFixedWindowTests {
+    private static final long PERIOD = 1_000;
+    // the start of a window
+    private static final long START = 1_700_000_000L * PERIOD;
+
+    private static long fill(PackedFixedWindow window, long state, long now, long requests) {
+        for (long i = 0; i < requests; i++) {
+            state = window.acquire(state, window.window(now));
+            assertNotEquals(PackedFixedWindow.REJECTED, state);
+        }
+        return state;
+    }
+
+    @Test
+    void admitsTheLimitThenRejects() {
+        PackedFixedWindow window = new PackedFixedWindow(3, PERIOD);
+        long state = fill(window, 0, START, 3);
+        assertEquals(3, window.count(state, START));
+        assertEquals(PackedFixedWindow.REJECTED, window.acquire(state, window.window(START)));
+        assertEquals(PERIOD - 1, window.retryAfterMillis(state, START + 1));
+    }
+
+    @Test
+    void rollsOverAtEpochAlignedBoundaries() {
+        PackedFixedWindow window = new PackedFixedWindow(3, PERIOD);
+        // filled at the very end of a window, which does not stretch it
+        long state = fill(window, 0, START + PERIOD - 1, 3);
+        assertEquals(1, window.resetMillis(START + PERIOD - 1));
+        assertEquals(1, window.retryAfterMillis(state, START + PERIOD - 1));
+
+        assertEquals(0, window.count(state, START + PERIOD));
+        assertEquals(0, window.retryAfterMillis(state, START + PERIOD));
+        assertEquals(PERIOD, window.resetMillis(START + PERIOD));
+    }
+
+    @Test
+    void resetsLazilyOnTheFirstRequestOfANewWindow() {
+        PackedFixedWindow window = new PackedFixedWindow(3, PERIOD);
+        long state = fill(window, 0, START, 3);
+
+        // untouched while idle, however many windows go by
+        long later = START + 5 * PERIOD + 10;
+        assertEquals(0, window.count(state, later));
+        state = window.acquire(state, window.window(later));
+        assertEquals(1, window.count(state, later));
+        assertEquals(window.window(later), state >>> 32);
+    }
+
+    @Test
+    void restoresOnlyWithinTheSameWindow() {
+        PackedFixedWindow window = new PackedFixedWindow(3, PERIOD);
+        long state = fill(window, 0, START, 2);
+        state = window.restore(state, window.window(START));
+        assertEquals(1, window.count(state, START));
+
+        // an empty window and a window that has moved on are left as they are
+        assertEquals(0, window.restore(0, window.window(START)));
+        assertEquals(state, window.restore(state, window.window(START + PERIOD)));
+    }
+
+    @Test
+    void rejectsLimitsBeyondTheCountBits() {
+        assertThrows(IllegalArgumentException.class, () -> new PackedFixedWindow(1L << 32, PERIOD));
+        assertThrows(IllegalArgumentException.class, () -> new PackedFixedWindow(0, PERIOD));
+        assertThrows(IllegalArgumentException.class, () -> new PackedFixedWindow(10, 0));
+    }
+}
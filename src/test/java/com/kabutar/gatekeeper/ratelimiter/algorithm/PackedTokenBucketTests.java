@@ -0,0 +1,122 @@
+package com.kabutar.gatekeeper.ratelimiter.algorithm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PackedTokenBucketTests {
+    // PackedTokenBucket's time unit, 2^20 ns
+    private static final long QUANTUM_NANOS = 1L << 20;
+    private static final long START = 1000;
+
+    private static long drain(PackedTokenBucket bucket, long state, long now, long tokens) {
+        for (long i = 0; i < tokens; i++) {
+            state = bucket.acquire(state, now);
+            assertNotEquals(PackedTokenBucket.REJECTED, state);
+        }
+        return state;
+    }
+
+    @Test
+    void admitsCapacityThenRejects() {
+        PackedTokenBucket bucket = new PackedTokenBucket(3, 1, 1);
+        assertEquals(3, bucket.tokens(0, START));
+
+        long state = drain(bucket, 0, START, 3);
+        assertEquals(0, bucket.tokens(state, START));
+        assertEquals(PackedTokenBucket.REJECTED, bucket.acquire(state, START));
+    }
+
+    @Test
+    void refillsSlowRatesWithoutLosingFractions() {
+        // 2 per minute: one token every 30 s, about 28610 quanta
+        PackedTokenBucket bucket = new PackedTokenBucket(100, 2, 60);
+        long state = bucket.acquire(0, START);
+
+        // one quantum at a time pays out a fraction of a unit too little each step; an
+        // update rounding that remainder away would need ~29127 steps for the token
+        long now = START;
+        for (int step = 0; step < 28_700; step++) {
+            now++;
+            state = bucket.refund(bucket.acquire(state, now));
+        }
+        assertEquals(100, bucket.tokens(state, now));
+    }
+
+    @Test
+    void refillsOneTokenPerIntervalAtSlowRates() {
+        PackedTokenBucket bucket = new PackedTokenBucket(2, 2, 60);
+        long state = drain(bucket, 0, START, 2);
+        long interval = TimeUnit.SECONDS.toNanos(30) / QUANTUM_NANOS;
+
+        assertEquals(0, bucket.tokens(state, START + interval - 1));
+        assertEquals(1, bucket.tokens(state, START + interval + 1));
+        assertEquals(2, bucket.tokens(state, START + 2 * interval + 2));
+        // a full bucket does not bank time
+        assertEquals(2, bucket.tokens(state, START + 100 * interval));
+    }
+
+    @Test
+    void boundsCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new PackedTokenBucket(PackedTokenBucket.MAX_CAPACITY + 1, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new PackedTokenBucket(0, 1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new PackedTokenBucket(1, 0, 1));
+
+        PackedTokenBucket bucket = new PackedTokenBucket(PackedTokenBucket.MAX_CAPACITY, 1, 1);
+        long state = drain(bucket, 0, START, PackedTokenBucket.MAX_CAPACITY);
+        // the deficit fills its bits without spilling into the timestamp
+        assertEquals(0, bucket.tokens(state, START));
+        assertEquals(PackedTokenBucket.REJECTED, bucket.acquire(state, START));
+        assertEquals(PackedTokenBucket.MAX_CAPACITY, bucket.tokens(state, START + TimeUnit.DAYS.toNanos(30) / QUANTUM_NANOS));
+    }
+
+    @Test
+    void refundsOneToken() {
+        PackedTokenBucket bucket = new PackedTokenBucket(3, 1, 1);
+        long state = drain(bucket, 0, START, 2);
+        state = bucket.refund(state);
+        assertEquals(2, bucket.tokens(state, START));
+
+        // never beyond a full bucket
+        state = bucket.refund(bucket.refund(bucket.refund(state)));
+        assertEquals(3, bucket.tokens(state, START));
+    }
+
+    @Test
+    void reportsRetryAfterAndRefill() {
+        PackedTokenBucket bucket = new PackedTokenBucket(2, 1, 1);
+        assertEquals(0, bucket.retryAfterNanos(0, START));
+        assertEquals(0, bucket.refillNanos(0, START));
+
+        long state = drain(bucket, 0, START, 2);
+        long second = TimeUnit.SECONDS.toNanos(1);
+        long retryAfter = bucket.retryAfterNanos(state, START);
+        assertTrue(retryAfter >= second && retryAfter <= second + QUANTUM_NANOS, "retry after " + retryAfter);
+        long refill = bucket.refillNanos(state, START);
+        assertTrue(refill >= 2 * second && refill <= 2 * second + QUANTUM_NANOS, "refill " + refill);
+
+        long later = START + retryAfter / QUANTUM_NANOS;
+        assertEquals(0, bucket.retryAfterNanos(state, later));
+        assertNotEquals(PackedTokenBucket.REJECTED, bucket.acquire(state, later));
+    }
+
+    @Test
+    void rebasesOntoAnotherEpoch() {
+        PackedTokenBucket before = new PackedTokenBucket(2, 2, 60);
+        long savedNow = before.now();
+        long state = drain(before, 0, savedNow, 2);
+
+        PackedTokenBucket after = new PackedTokenBucket(2, 2, 60);
+        long rebased = after.rebase(state, savedNow, TimeUnit.SECONDS.toNanos(31));
+        assertEquals(1, after.tokens(rebased, after.now()));
+
+        // a bucket that would have refilled completely is saved as nothing
+        assertEquals(0, after.rebase(state, savedNow, TimeUnit.SECONDS.toNanos(61)));
+        assertEquals(0, after.rebase(0, savedNow, 0));
+    }
+}
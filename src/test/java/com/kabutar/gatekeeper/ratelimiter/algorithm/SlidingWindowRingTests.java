@@ -0,0 +1,102 @@
+package com.kabutar.gatekeeper.ratelimiter.algorithm;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SlidingWindowRingTests {
+    // 10 per 3 s, in sub-buckets of 1 s
+    private final SlidingWindowRing ring = new SlidingWindowRing(10, 3000, 3);
+
+    @Test
+    void wrapsAroundTheRing() {
+        assertEquals(4, ring.words());
+        long index = ring.index(7_500);
+        assertEquals(7, index);
+        assertEquals(ring.word(index), ring.word(index + ring.words()));
+
+        long state = ring.acquire(0, index, 0);
+        assertEquals(1, ring.count(state, index));
+        // the word comes round again a ring later and holds a stale sub-bucket by then
+        long later = index + ring.words();
+        assertEquals(0, ring.count(state, later));
+        long reused = ring.acquire(state, later, 0);
+        assertEquals(1, ring.count(reused, later));
+        assertEquals(0, ring.count(reused, index));
+    }
+
+    @Test
+    void keepsIndexesBeyondThirtyTwoBits() {
+        long index = (1L << 32) + 7;
+        long state = ring.state(index, 3);
+        assertEquals(3, ring.count(state, index));
+        assertEquals(0, ring.count(state, index - 1));
+        // counts are capped at the limit
+        assertEquals(10, ring.count(ring.state(index, 50), index));
+    }
+
+    @Test
+    void admitsWhatTheEstimateLeaves() {
+        long index = 7;
+        long state = 0;
+        int admitted = 0;
+        // 7.5 requests still weigh in from the older sub-buckets
+        for (long next; (next = ring.acquire(state, index, 7.5)) != SlidingWindowRing.REJECTED; state = next) {
+            admitted++;
+        }
+        assertEquals(3, admitted);
+        assertEquals(3, ring.count(state, index));
+    }
+
+    @Test
+    void interpolatesOnlyTheSlidingSubBucket() {
+        // 400 ms into the sub-bucket, the sliding one still weighs 60%
+        long now = 7_400;
+        assertEquals(0.6, ring.overlap(now), 1e-9);
+        assertEquals(3, ring.remaining(5, 4, now));
+        assertEquals(0, ring.remaining(10, 5, now));
+        assertEquals(600, ring.resetMillis(now));
+    }
+
+    @Test
+    void reportsWhenTheEstimateLeavesRoom() {
+        long start = 7_000;
+        assertEquals(0, ring.retryAfterMillis(4, 5, start));
+        // 10 sliding out and 5 in the window: room once the sliding weight drops below 5
+        long wait = ring.retryAfterMillis(10, 5, start);
+        assertEquals(501, wait);
+        assertTrue(10 * ring.overlap(start + wait) + 5 < 10);
+        assertFalse(10 * ring.overlap(start + wait - 1) + 5 < 10);
+        // full without the sliding one: nothing before the next sub-bucket
+        assertEquals(700, ring.retryAfterMillis(3, 10, start + 300));
+    }
+
+    @Test
+    void restoresOnlyTheSameSubBucket() {
+        long state = ring.state(7, 4);
+        assertEquals(3, ring.count(ring.restore(state, 7), 7));
+        assertEquals(state, ring.restore(state, 11));
+        assertEquals(0, ring.restore(0, 7));
+    }
+
+    @Test
+    void tellsLiveRingsFromStaleOnes() {
+        long[] words = new long[ring.words()];
+        words[ring.word(5)] = ring.state(5, 1);
+        assertTrue(ring.live(words, 7_999));
+        // sub-bucket 5 slides out of the window once bucket 9 starts
+        assertFalse(ring.live(words, 9_000));
+        assertFalse(ring.live(new long[ring.words()], 7_000));
+    }
+
+    @Test
+    void rejectsInvalidParameters() {
+        assertThrows(IllegalArgumentException.class, () -> new SlidingWindowRing(0, 3000, 3));
+        assertThrows(IllegalArgumentException.class, () -> new SlidingWindowRing(10, 3001, 3));
+        assertThrows(IllegalArgumentException.class, () -> new SlidingWindowRing(10, 2, 3));
+        assertThrows(IllegalArgumentException.class, () -> new SlidingWindowRing(1L << 31, 3000, 3));
+    }
+}
@@ -0,0 +1,86 @@
+package com.kabutar.gatekeeper.ratelimiter.algorithm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StripedTokenBucketTests {
+    // refills one token per stripe an hour, nothing within a test
+    private static final long HOUR = TimeUnit.HOURS.toSeconds(1);
+
+    @Test
+    void neverHasMoreStripesThanTokens() {
+        assertEquals(4, new StripedTokenBucket(10, 10, HOUR, 4).stripes());
+        assertEquals(8, new StripedTokenBucket(100, 100, HOUR, 5).stripes());
+        assertEquals(2, new StripedTokenBucket(3, 100, HOUR, 8).stripes());
+        assertEquals(2, new StripedTokenBucket(100, 2, HOUR, 8).stripes());
+        assertEquals(1, new StripedTokenBucket(1, 1, HOUR, 8).stripes());
+    }
+
+    @Test
+    void borrowsFromOtherStripesBeforeRejecting() {
+        // 10 over 4 stripes: 3, 3, 2 and 2
+        StripedTokenBucket bucket = new StripedTokenBucket(10, 10, HOUR, 4);
+        assertEquals(10, bucket.tokens());
+
+        int first = bucket.acquire();
+        Set<Integer> used = new HashSet<>();
+        used.add(first);
+        for (int i = 1; i < 10; i++) {
+            int stripe = bucket.acquire();
+            assertNotEquals(StripedTokenBucket.REJECTED, stripe);
+            used.add(stripe);
+        }
+        assertEquals(4, used.size());
+        assertEquals(StripedTokenBucket.REJECTED, bucket.acquire());
+        assertEquals(0, bucket.tokens());
+    }
+
+    @Test
+    void refundsToTheStripeTakenFrom() {
+        StripedTokenBucket bucket = new StripedTokenBucket(4, 4, HOUR, 4);
+        int home = bucket.acquire();
+        int borrowed = bucket.acquire();
+        assertNotEquals(home, borrowed);
+
+        // the home stripe stays empty, so the token has to come from where it went back to
+        bucket.refund(borrowed);
+        assertEquals(3, bucket.tokens());
+        assertEquals(borrowed, bucket.acquire());
+
+        // a refund to a full stripe is dropped
+        bucket.refund((borrowed + 1) % 4);
+        assertEquals(2, bucket.tokens());
+    }
+
+    @Test
+    void holdsBackLessThanOneTokenPerStripe() throws InterruptedException {
+        // 2 tokens a second per stripe
+        StripedTokenBucket bucket = new StripedTokenBucket(8, 8, 1, 4);
+        long start = System.nanoTime();
+        for (int i = 0; i < 8; i++) {
+            assertNotEquals(StripedTokenBucket.REJECTED, bucket.acquire());
+        }
+        long drained = System.nanoTime();
+
+        Thread.sleep(700);
+        long before = System.nanoTime();
+        int admitted = 0;
+        while (bucket.acquire() != StripedTokenBucket.REJECTED) {
+            admitted++;
+        }
+        long after = System.nanoTime();
+
+        // never more than an unstriped bucket would admit, and at most a token per stripe less
+        long atMost = 8 * (after - start) / TimeUnit.SECONDS.toNanos(1);
+        long atLeast = 8 * (before - drained) / TimeUnit.SECONDS.toNanos(1) - bucket.stripes();
+        assertTrue(admitted <= atMost && admitted >= atLeast,
+                "admitted " + admitted + ", expected " + atLeast + " to " + atMost);
+    }
+}
@@ -0,0 +1,95 @@
+package com.kabutar.gatekeeper.ratelimiter.distributed;
+
+import com.kabutar.gatekeeper.config.rateLimit.IdentityStoreConfig;
+import com.kabutar.gatekeeper.ratelimiter.scheduler.TimingWheel;
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStoreFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LeaseManagerTests {
+    private static final long KEY = 42L;
+    private static final long MINUTE_MILLIS = 60_000;
+
+    private TimingWheel timer;
+    private GrantingStore store;
+    private LeaseManager leases;
+
+    @BeforeEach
+    void setUp() {
+        timer = new TimingWheel(10, 8, 4, 1);
+        store = new GrantingStore();
+        // flushed by hand, and a timeout no waiter runs into
+        leases = new LeaseManager("rule", new Budget(Budget.Kind.BUCKET, 10, 10, MINUTE_MILLIS), store, timer,
+                new IdentityStoreFactory(new IdentityStoreConfig()), 50, TimeUnit.HOURS.toMillis(1), 16, 5_000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        leases.close();
+        timer.close();
+    }
+
+    @Test
+    void spendsTheGrantedLeaseLocally() {
+        CompletableFuture<Boolean> first = leases.acquire(KEY).toFuture();
+        store.grant = 5;
+        leases.flush();
+        assertTrue(first.join());
+
+        // the rest is spent without the store; going below the watermark asks for more once
+        for (int i = 0; i < 4; i++) {
+            assertTrue(leases.acquire(KEY).block());
+        }
+        assertEquals(1, store.requests.size());
+        leases.flush();
+        assertEquals(2, store.requests.size());
+    }
+
+    @Test
+    void oneWaiterCancellingLeavesTheOthersWaiting() {
+        CompletableFuture<Boolean> kept = leases.acquire(KEY).toFuture();
+        Disposable cancelled = leases.acquire(KEY).subscribe(allowed -> {});
+        cancelled.dispose();
+        // arrives after the cancellation and shares the same refill
+        CompletableFuture<Boolean> late = leases.acquire(KEY).toFuture();
+
+        // nothing left in the store: waiters that were failed open would see true
+        store.grant = 0;
+        leases.flush();
+        assertEquals(1, store.requests.size());
+        assertFalse(kept.join());
+        assertFalse(late.join());
+        assertFalse(leases.acquire(KEY).block());
+    }
+
+    private static final class GrantingStore implements SharedLimiterStore {
+        private final List<LeaseRequest> requests = new ArrayList<>();
+        private volatile long grant;
+
+        @Override
+        public Mono<long[]> acquire(List<LeaseRequest> batch) {
+            requests.addAll(batch);
+            long[] granted = new long[batch.size()];
+            Arrays.fill(granted, grant);
+            return Mono.just(granted);
+        }
+
+        @Override
+        public Mono<Void> release(List<LeaseRequest> batch) {
+            return Mono.empty();
+        }
+    }
+}
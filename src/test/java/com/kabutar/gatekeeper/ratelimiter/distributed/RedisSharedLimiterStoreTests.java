@@ -0,0 +1,82 @@
+package com.kabutar.gatekeeper.ratelimiter.distributed;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * Runs the lease script against a real Redis, so the reply shape is the one Lettuce
+ * actually delivers. Skipped where Docker is not available.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class RedisSharedLimiterStoreTests {
+    private static final long MINUTE_MILLIS = 60_000;
+
+    @Container
+    private static final GenericContainer<?> redis =
+            new GenericContainer<>(DockerImageName.parse("redis:7-alpine")).withExposedPorts(6379);
+
+    private LettuceConnectionFactory connections;
+    private RedisSharedLimiterStore store;
+
+    @BeforeEach
+    void connect() {
+        connections = new LettuceConnectionFactory(redis.getHost(), redis.getMappedPort(6379));
+        connections.afterPropertiesSet();
+        connections.start();
+        store = new RedisSharedLimiterStore(new ReactiveStringRedisTemplate(connections));
+    }
+
+    @AfterEach
+    void disconnect() {
+        connections.destroy();
+    }
+
+    @Test
+    void batchIsGrantedPerKeyInRequestOrder() {
+        Budget bucket = new Budget(Budget.Kind.BUCKET, 10, 10, MINUTE_MILLIS);
+        long[] granted = store.acquire(List.of(
+                new LeaseRequest("batch:a", bucket, 4),
+                new LeaseRequest("batch:a", bucket, 8),
+                new LeaseRequest("batch:b", bucket, 3))).block();
+
+        assertArrayEquals(new long[] {4, 6, 3}, granted);
+    }
+
+    @Test
+    void singleRequestBatchIsGranted() {
+        Budget bucket = new Budget(Budget.Kind.BUCKET, 10, 10, MINUTE_MILLIS);
+
+        assertArrayEquals(new long[] {5}, store.acquire(List.of(new LeaseRequest("single:a", bucket, 5))).block());
+    }
+
+    @Test
+    void exhaustedBucketGrantsNothing() {
+        Budget bucket = new Budget(Budget.Kind.BUCKET, 3, 1, MINUTE_MILLIS);
+        store.acquire(List.of(new LeaseRequest("exhausted:a", bucket, 3))).block();
+
+        assertArrayEquals(new long[] {0}, store.acquire(List.of(new LeaseRequest("exhausted:a", bucket, 1))).block());
+    }
+
+    @Test
+    void releasedUnitsCanBeLeasedAgain() {
+        Budget window = new Budget(Budget.Kind.WINDOW, 5, 5, MINUTE_MILLIS);
+        assertArrayEquals(new long[] {3, 2}, store.acquire(List.of(
+                new LeaseRequest("release:a", window, 3),
+                new LeaseRequest("release:a", window, 3))).block());
+
+        store.release(List.of(new LeaseRequest("release:a", window, 2))).block();
+
+        assertArrayEquals(new long[] {2}, store.acquire(List.of(new LeaseRequest("release:a", window, 3))).block());
+    }
+}
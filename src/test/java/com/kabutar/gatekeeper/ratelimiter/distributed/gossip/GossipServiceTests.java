@@ -0,0 +1,109 @@
+package com.kabutar.gatekeeper.ratelimiter.distributed.gossip;
+
+import com.kabutar.gatekeeper.config.rateLimit.GossipConfig;
+import com.kabutar.gatekeeper.config.rateLimit.IdentityStoreConfig;
+import com.kabutar.gatekeeper.ratelimiter.scheduler.TimingWheel;
+import com.kabutar.gatekeeper.ratelimiter.store.IdentityStoreFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class GossipServiceTests {
+    private static final int NODES = 3;
+    private static final long KEY = 42L;
+
+    private TimingWheel timer;
+    private List<String> peers;
+    private List<GossipService> nodes;
+
+    @BeforeEach
+    void startNodes() throws IOException {
+        timer = new TimingWheel(10, 8, 4, 2);
+        peers = new ArrayList<>();
+        for (int i = 0; i < NODES; i++) {
+            try (DatagramSocket socket = new DatagramSocket(0)) {
+                peers.add("127.0.0.1:" + socket.getLocalPort());
+            }
+        }
+        nodes = new ArrayList<>();
+        for (String bind : peers) {
+            GossipConfig config = new GossipConfig();
+            config.setBind(bind);
+            config.setPeers(peers);
+            config.setIntervalMillis(20);
+            config.setFullSyncRounds(5);
+            GossipService node = new GossipService(config, timer, new IdentityStoreFactory(new IdentityStoreConfig()));
+            node.allowTtl(TimeUnit.MINUTES.toMillis(1));
+            nodes.add(node);
+        }
+    }
+
+    @AfterEach
+    void stopNodes() {
+        nodes.forEach(GossipService::close);
+        timer.close();
+    }
+
+    @Test
+    void everyNodeConvergesOnTheSumOfAllNodes() throws InterruptedException {
+        long expiresAt = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+        for (int i = 0; i < NODES; i++) {
+            for (int n = 0; n <= i; n++) {
+                nodes.get(i).increment(KEY, expiresAt);
+            }
+        }
+
+        long expected = NODES * (NODES + 1) / 2;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline && !converged(expected)) {
+            Thread.sleep(20);
+        }
+        for (GossipService node : nodes) {
+            assertEquals(expected, node.total(KEY));
+        }
+    }
+
+    @Test
+    void ignoresDatagramsNotFromTheNamedPeer() throws IOException, InterruptedException {
+        ByteBuffer entries = ByteBuffer.allocate(64);
+        entries.putLong(KEY);
+        GossipService.putVarLong(entries, TimeUnit.MINUTES.toMillis(1));
+        GossipService.putVarLong(entries, Long.MAX_VALUE);
+        Deflater deflater = new Deflater();
+        deflater.setInput(entries.array(), 0, entries.position());
+        deflater.finish();
+        byte[] body = new byte[128];
+        int length = deflater.deflate(body);
+
+        // claims to be node 1 but comes from elsewhere
+        ByteBuffer datagram = ByteBuffer.allocate(10 + length);
+        datagram.putInt(GossipService.MAGIC).putShort((short) 1).putInt(entries.position()).put(body, 0, length).flip();
+        try (DatagramChannel forger = DatagramChannel.open().bind(new InetSocketAddress("127.0.0.1", 0))) {
+            forger.send(datagram, new InetSocketAddress("127.0.0.1", port(0)));
+        }
+
+        Thread.sleep(200);
+        assertEquals(0, nodes.get(0).total(KEY));
+    }
+
+    private int port(int node) {
+        String peer = peers.get(node);
+        return Integer.parseInt(peer.substring(peer.lastIndexOf(':') + 1));
+    }
+
+    private boolean converged(long expected) {
+        return nodes.stream().allMatch(node -> node.total(KEY) == expected);
+    }
+}
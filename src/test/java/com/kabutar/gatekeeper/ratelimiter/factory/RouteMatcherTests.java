@@ -0,0 +1,127 @@
+package com.kabutar.gatekeeper.ratelimiter.factory;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.http.server.PathContainer;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class RouteMatcherTests {
+    private static final String LITERAL = "literal";
+    private static final String CAPTURE = "capture";
+    private static final String STAR = "star";
+    private static final String QUESTION = "question";
+    private static final String POST = "post";
+    private static final String HOST = "host";
+    private static final String REGEX = "regex";
+    private static final String SLASH = "slash";
+    private static final String CATCH_ALL = "catchAll";
+    private static final String ROOT = "root";
+
+    private RouteMatcher<String> matcher;
+
+    @BeforeEach
+    void build() {
+        matcher = RouteMatcher.<String>builder()
+                .add("/api/users/me", LITERAL)
+                .add("/api/users/{id}", CAPTURE)
+                .add("/api/*/me", STAR)
+                .add("/api/v?/items", QUESTION)
+                .add("/api/orders", List.of("post"), null, POST)
+                .add("/api/orders", null, List.of("*.Example.com"), HOST)
+                .add("/files/{name:[a-z]+}.txt", REGEX)
+                .add("/api/users/", SLASH)
+                .add("/api/**", CATCH_ALL)
+                .add("/**", ROOT)
+                // a later entry with the value of an earlier one
+                .add("/api/users/me/**", LITERAL)
+                .build(values -> String.join("+", values));
+    }
+
+    static Stream<Arguments> requests() {
+        return Stream.of(
+                // path, method, host, first match, every match
+                Arguments.of("/api/users/me", "GET", "localhost", LITERAL, "literal+capture+star+catchAll+root"),
+                Arguments.of("/api/users/42", "GET", "localhost", CAPTURE, "capture+catchAll+root"),
+                Arguments.of("/api/users/me/settings", "GET", "localhost", CATCH_ALL, "literal+catchAll+root"),
+                Arguments.of("/api/users/me/", "GET", "localhost", CATCH_ALL, "literal+catchAll+root"),
+                Arguments.of("/api/users/", "GET", "localhost", SLASH, "slash+catchAll+root"),
+                Arguments.of("/api/v1/items", "GET", "localhost", QUESTION, "question+catchAll+root"),
+                Arguments.of("/api/v10/items", "GET", "localhost", CATCH_ALL, "catchAll+root"),
+                Arguments.of("/api/orders", "POST", "localhost", POST, "post+catchAll+root"),
+                Arguments.of("/api/orders", "GET", "api.example.com", HOST, "host+catchAll+root"),
+                Arguments.of("/api/orders", "POST", "API.EXAMPLE.COM", POST, "post+host+catchAll+root"),
+                Arguments.of("/api/orders", "GET", "example.com", CATCH_ALL, "catchAll+root"),
+                Arguments.of("/api/orders", "GET", null, CATCH_ALL, "catchAll+root"),
+                Arguments.of("/files/report.txt", "GET", "localhost", REGEX, "regex+root"),
+                Arguments.of("/files/Report1.txt", "GET", "localhost", ROOT, ROOT),
+                Arguments.of("/", "GET", "localhost", ROOT, ROOT),
+                Arguments.of("/other/path", "DELETE", "localhost", ROOT, ROOT));
+    }
+
+    @ParameterizedTest
+    @MethodSource("requests")
+    void matchesFirstDeclared(String path, String method, String host, String first, String all) {
+        assertEquals(first, matcher.match(PathContainer.parsePath(path), method, host));
+    }
+
+    @ParameterizedTest
+    @MethodSource("requests")
+    void matchesAllInDeclarationOrder(String path, String method, String host, String first, String all) {
+        assertEquals(all, matcher.matchAll(PathContainer.parsePath(path), method, host, null));
+    }
+
+    @ParameterizedTest
+    @MethodSource("requests")
+    void putsBoundValueFirst(String path, String method, String host, String first, String all) {
+        PathContainer container = PathContainer.parsePath(path);
+        assertEquals(REGEX + "+" + all.replace("regex+", ""), matcher.matchAll(container, method, host, REGEX));
+        assertEquals("unrouted+" + all, matcher.matchAll(container, method, host, "unrouted"));
+    }
+
+    @Test
+    void combinesEachSetOnce() {
+        PathContainer path = PathContainer.parsePath("/api/users/42");
+        String combined = matcher.matchAll(path, "GET", "localhost", null);
+        assertSame(combined, matcher.matchAll(path, "GET", "localhost", null));
+        assertSame(combined, matcher.matchAll(PathContainer.parsePath("/api/users/7"), "GET", "localhost", null));
+    }
+
+    @Test
+    void returnsNullWithoutMatch() {
+        RouteMatcher<String> narrow = RouteMatcher.<String>builder()
+                .add("/api/users/{id}", CAPTURE)
+                .value(ROOT)
+                .build(values -> {
+                    throw new AssertionError("combined " + values);
+                });
+        PathContainer path = PathContainer.parsePath("/nothing/here");
+        assertNull(narrow.match(path, "GET", "localhost"));
+        assertNull(narrow.matchAll(path, "GET", "localhost", null));
+        // a single value is handed out as it is
+        assertSame(ROOT, narrow.matchAll(path, "GET", "localhost", ROOT));
+        assertSame(CAPTURE, narrow.matchAll(PathContainer.parsePath("/api/users/1"), "GET", "localhost", CAPTURE));
+    }
+
+    @Test
+    void tracksMoreValuesThanOneWord() {
+        RouteMatcher.Builder<String> builder = RouteMatcher.builder();
+        String[] services = new String[130];
+        for (int i = 0; i < services.length; i++) {
+            services[i] = "svc" + i;
+            builder.add("/" + services[i] + "/**", services[i]);
+        }
+        builder.add("/svc129/items", "items");
+        RouteMatcher<String> wide = builder.build(values -> String.join("+", values));
+        assertEquals("svc129+items", wide.matchAll(PathContainer.parsePath("/svc129/items"), "GET", null, null));
+        assertEquals("svc3+svc129", wide.matchAll(PathContainer.parsePath("/svc129/x"), "GET", null, services[3]));
+    }
+}
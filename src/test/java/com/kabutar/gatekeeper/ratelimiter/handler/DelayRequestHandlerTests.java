@@ -0,0 +1,188 @@
+package com.kabutar.gatekeeper.ratelimiter.handler;
+
+import com.kabutar.gatekeeper.config.rateLimit.DelayConfig;
+import com.kabutar.gatekeeper.ratelimiter.RateLimiterConstants;
+import com.kabutar.gatekeeper.ratelimiter.algorithm.RateLimitStatus;
+import com.kabutar.gatekeeper.ratelimiter.metrics.RateLimiterMetrics;
+import com.kabutar.gatekeeper.ratelimiter.metrics.RuleMetrics;
+import com.kabutar.gatekeeper.ratelimiter.scheduler.TimingWheel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DelayRequestHandlerTests {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private TimingWheel timer;
+    private SimpleMeterRegistry registry;
+    private RuleMetrics metrics;
+    private DelayRequestHandler handler;
+    private MockServerWebExchange exchange;
+    private final AtomicInteger forwarded = new AtomicInteger();
+    private GatewayFilterChain chain;
+
+    @BeforeEach
+    void setUp() {
+        timer = new TimingWheel(10, 8, 4, 1);
+        registry = new SimpleMeterRegistry();
+        metrics = new RateLimiterMetrics(registry, timer).forRule("orders", RateLimiterConstants.Algorithm.TOKEN_BUCKET);
+        DelayConfig config = new DelayConfig();
+        config.setMaxWaitMillis(200);
+        config.setMaxParked(2);
+        handler = new DelayRequestHandler(config);
+        exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/orders"));
+        chain = forwarding -> {
+            forwarded.incrementAndGet();
+            return Mono.empty();
+        };
+    }
+
+    @AfterEach
+    void tearDown() {
+        timer.close();
+    }
+
+    @Test
+    void admitsOnceTheLimiterHasRoom() {
+        Room room = new Room(50 * MS);
+        long start = System.nanoTime();
+        handler.handle(exchange, chain, room).block();
+
+        assertTrue(System.nanoTime() - start >= 50 * MS);
+        assertEquals(1, forwarded.get());
+        assertNull(exchange.getResponse().getStatusCode());
+        assertEquals(0, room.parked().get());
+        assertEquals(0, queueDepth());
+    }
+
+    @Test
+    void rejectsWhatCannotBeServedBeforeTheDeadline() {
+        Room room = new Room(TimeUnit.SECONDS.toNanos(1));
+        handler.handle(exchange, chain, room).block();
+
+        assertEquals(0, forwarded.get());
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, exchange.getResponse().getStatusCode());
+        assertEquals(0, room.attempts);
+    }
+
+    @Test
+    void givesUpWhenTheRoomMovesPastTheDeadline() {
+        // another request takes the room; the next estimate lies beyond the deadline
+        Room room = new Room(30 * MS) {
+            @Override
+            public boolean tryAcquire(ServerWebExchange exchange) {
+                attempts++;
+                openAtNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+                return false;
+            }
+        };
+        handler.handle(exchange, chain, room).block();
+
+        assertEquals(1, room.attempts);
+        assertEquals(0, forwarded.get());
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, exchange.getResponse().getStatusCode());
+        assertEquals(0, room.parked().get());
+        assertEquals(0, queueDepth());
+    }
+
+    @Test
+    void rejectsBeyondMaxParked() {
+        Room room = new Room(50 * MS);
+        room.parked().set(2);
+        handler.handle(exchange, chain, room).block();
+
+        assertEquals(0, forwarded.get());
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, exchange.getResponse().getStatusCode());
+        assertEquals(2, room.parked().get());
+    }
+
+    @Test
+    void leavesTheQueueOnceWhenCancelledWhileParked() throws InterruptedException {
+        Room room = new Room(100 * MS);
+        Disposable request = handler.handle(exchange, chain, room).subscribe();
+        Thread.sleep(20);
+        assertEquals(1, queueDepth());
+
+        request.dispose();
+        assertEquals(0, queueDepth());
+        assertEquals(0, room.parked().get());
+        Thread.sleep(150);
+        assertEquals(0, room.attempts);
+        assertEquals(0, forwarded.get());
+    }
+
+    @Test
+    void leavesTheQueueOnceWhenCancelledAfterAdmission() throws InterruptedException {
+        AtomicInteger entered = new AtomicInteger();
+        GatewayFilterChain hanging = forwarding -> {
+            entered.incrementAndGet();
+            return Mono.never();
+        };
+        Room room = new Room(20 * MS);
+        Disposable request = handler.handle(exchange, hanging, room).subscribe();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (entered.get() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, entered.get());
+        assertEquals(0, queueDepth());
+
+        // the client goes away while the request is upstream
+        request.dispose();
+        assertEquals(0, queueDepth());
+    }
+
+    private double queueDepth() {
+        return registry.get(RateLimiterConstants.Metrics.QUEUE_DEPTH).gauge().value();
+    }
+
+    /**
+     * A limiter with room for the request from a given time on.
+     */
+    private class Room implements Admission {
+        private final AtomicInteger parked = new AtomicInteger();
+        protected volatile long openAtNanos;
+        protected volatile int attempts;
+
+        Room(long inNanos) {
+            this.openAtNanos = System.nanoTime() + inNanos;
+        }
+
+        @Override
+        public boolean tryAcquire(ServerWebExchange exchange) {
+            attempts++;
+            return System.nanoTime() >= openAtNanos;
+        }
+
+        @Override
+        public RateLimitStatus status(ServerWebExchange exchange) {
+            long wait = Math.max(0, openAtNanos - System.nanoTime());
+            return new RateLimitStatus(1, 0, wait, wait);
+        }
+
+        @Override
+        public AtomicInteger parked() {
+            return parked;
+        }
+
+        @Override
+        public RuleMetrics metrics() {
+            return metrics;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.kabutar.gatekeeper.ratelimiter.scheduler;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimingWheelTests {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+    // generous for a loaded machine, far below the gaps between the deadlines below
+    private static final long SLACK = 200 * MS;
+
+    // 1ms ticks and 4 slots per level: level 0 spans 4ms, level 1 16ms, level 2 64ms
+    private final TimingWheel wheel = new TimingWheel(1, 2, 3, 2);
+
+    @AfterEach
+    void tearDown() {
+        wheel.close();
+    }
+
+    @Test
+    void cascadesDownToTheDeadlineFromEveryLevel() throws InterruptedException {
+        // one deadline per level and one past the top, in the overflow bucket
+        long[] delays = {3, 12, 50, 300};
+        long[] fired = new long[delays.length];
+        CountDownLatch done = new CountDownLatch(delays.length);
+        long start = System.nanoTime();
+        for (int i = 0; i < delays.length; i++) {
+            int task = i;
+            wheel.schedule(() -> {
+                fired[task] = System.nanoTime() - start;
+                done.countDown();
+            }, delays[i], TimeUnit.MILLISECONDS);
+        }
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        for (int i = 0; i < delays.length; i++) {
+            assertTrue(fired[i] >= delays[i] * MS && fired[i] < delays[i] * MS + SLACK,
+                    "due after " + delays[i] + "ms, ran after " + fired[i] / MS + "ms");
+        }
+    }
+
+    @Test
+    void cancelledTasksNeverRun() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        // by the time they are cancelled, near has run, far sits on level 2 and beyond in the overflow bucket
+        TimingWheel.Timeout near = wheel.schedule(runs::incrementAndGet, 3, TimeUnit.MILLISECONDS);
+        TimingWheel.Timeout far = wheel.schedule(runs::incrementAndGet, 60, TimeUnit.MILLISECONDS);
+        TimingWheel.Timeout beyond = wheel.schedule(runs::incrementAndGet, 150, TimeUnit.MILLISECONDS);
+        CountDownLatch kept = new CountDownLatch(1);
+        wheel.schedule(kept::countDown, 100, TimeUnit.MILLISECONDS);
+        Thread.sleep(10);
+
+        assertFalse(near.cancel());
+        assertEquals(1, runs.get());
+        assertTrue(far.cancel());
+        assertTrue(far.isCancelled());
+        assertFalse(far.cancel());
+        assertTrue(beyond.cancel());
+
+        assertTrue(kept.await(1, TimeUnit.SECONDS));
+        Thread.sleep(150);
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void runsAtAFixedRateUntilCancelled() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        long start = System.nanoTime();
+        TimingWheel.Timeout timeout = wheel.scheduleAtFixedRate(runs::incrementAndGet, 5, 10, TimeUnit.MILLISECONDS);
+        Thread.sleep(300);
+        long elapsed = System.nanoTime() - start;
+        assertTrue(timeout.cancel());
+        // a run already handed to a worker still goes ahead
+        Thread.sleep(50);
+        int counted = runs.get();
+
+        // due at 5, 15, 25, ...; a run late by a few ticks does not shift the ones after it
+        long due = (elapsed / MS - 5) / 10 + 1;
+        assertTrue(counted <= due && counted >= due - SLACK / (10 * MS), counted + " runs, " + due + " due");
+
+        Thread.sleep(50);
+        assertEquals(counted, runs.get());
+        assertFalse(timeout.cancel());
+    }
+
+    @Test
+    void reportsHowLateEachRunStarted() throws InterruptedException {
+        TimingWheel single = new TimingWheel(1, 2, 3, 1);
+        List<Long> lags = new CopyOnWriteArrayList<>();
+        single.setLagListener(lags::add);
+        try {
+            CountDownLatch done = new CountDownLatch(1);
+            // the only worker is busy when the second task is due
+            single.schedule(() -> sleep(100), 5, TimeUnit.MILLISECONDS);
+            single.schedule(done::countDown, 10, TimeUnit.MILLISECONDS);
+
+            assertTrue(done.await(1, TimeUnit.SECONDS));
+            assertEquals(2, lags.size());
+            assertTrue(lags.get(0) >= 0 && lags.get(0) < SLACK, "lag " + lags.get(0));
+            assertTrue(lags.get(1) >= 90 * MS, "lag " + lags.get(1));
+        } finally {
+            single.close();
+        }
+    }
+
+    @Test
+    void rejectsTasksOnceClosed() {
+        wheel.close();
+        assertThrows(RejectedExecutionException.class,
+                () -> wheel.schedule(() -> {}, 1, TimeUnit.MILLISECONDS));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.kabutar.gatekeeper.ratelimiter.snapshot;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class SnapshotFileTests {
+    // small and not a multiple of 8, so values keep landing at a chunk's end
+    private static final long CHUNK = 52;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsBackValuesAcrossChunkBoundaries() throws IOException {
+        Path path = dir.resolve("values");
+        byte[] name = "rule:1f".getBytes(StandardCharsets.UTF_8);
+        try (SnapshotFile out = SnapshotFile.create(path, CHUNK)) {
+            for (int i = 0; i < 100; i++) {
+                out.putInt(i);
+                out.putLong(Long.MAX_VALUE - i);
+                out.putBytes(name);
+            }
+            out.finish();
+        }
+
+        try (SnapshotFile in = SnapshotFile.open(path, CHUNK)) {
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i, in.getInt());
+                assertEquals(Long.MAX_VALUE - i, in.getLong());
+                assertEquals("rule:1f", new String(in.getBytes(name.length), StandardCharsets.UTF_8));
+            }
+            assertThrows(UncheckedIOException.class, in::getInt);
+        }
+    }
+
+    @Test
+    void patchesValuesWrittenEarlier() throws IOException {
+        Path path = dir.resolve("patched");
+        try (SnapshotFile out = SnapshotFile.create(path, CHUNK)) {
+            out.putInt(7);
+            long first = out.putLong(0);
+            for (long i = 0; i < 20; i++) {
+                out.putLong(i);
+            }
+            long last = out.putLong(0);
+            // one position several chunks back, one in the chunk being written
+            out.putLong(first, 42);
+            out.putLong(last, -1);
+            out.finish();
+        }
+
+        try (SnapshotFile in = SnapshotFile.open(path, CHUNK)) {
+            assertEquals(7, in.getInt());
+            assertEquals(42, in.getLong());
+            for (long i = 0; i < 20; i++) {
+                assertEquals(i, in.getLong());
+            }
+            assertEquals(-1, in.getLong());
+        }
+    }
+
+    @Test
+    void finishCutsTheFileToItsLength() throws IOException {
+        Path path = dir.resolve("short");
+        try (SnapshotFile out = SnapshotFile.create(path, CHUNK)) {
+            out.putLong(1);
+            out.putInt(2);
+            out.finish();
+        }
+        assertEquals(Long.BYTES + Integer.BYTES, Files.size(path));
+    }
+
+    @Test
+    void failsOnATruncatedFile() throws IOException {
+        Path path = dir.resolve("truncated");
+        try (SnapshotFile out = SnapshotFile.create(path, CHUNK)) {
+            for (long i = 0; i < 20; i++) {
+                out.putLong(i);
+            }
+            out.finish();
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(path) - 4);
+        }
+
+        try (SnapshotFile in = SnapshotFile.open(path, CHUNK)) {
+            for (long i = 0; i < 19; i++) {
+                assertEquals(i, in.getLong());
+            }
+            assertThrows(UncheckedIOException.class, in::getLong);
+        }
+    }
+
+    @Test
+    void isReadableByItsOwnerOnly() throws IOException {
+        assumeTrue(dir.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        // a file left with wider permissions is replaced, not reused
+        Path path = Files.createFile(dir.resolve("private"),
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-rw-r--")));
+        try (SnapshotFile out = SnapshotFile.create(path, CHUNK)) {
+            out.putLong(1);
+            out.finish();
+        }
+        assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(path)));
+    }
+}
@@ -0,0 +1,249 @@
+package com.kabutar.gatekeeper.ratelimiter.snapshot;
+
+import com.kabutar.gatekeeper.config.rateLimit.SnapshotConfig;
+import com.kabutar.gatekeeper.ratelimiter.IdentityKey;
+import com.kabutar.gatekeeper.ratelimiter.algorithm.RateLimiter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnapshotServiceTests {
+    // small and not a multiple of 8, so entries straddle many chunks
+    private static final long CHUNK = 52;
+    // magic, version and identity secret come before the section count
+    private static final int FIRST_SECTION = 4 + 4 + 16 + 4;
+
+    @TempDir
+    Path dir;
+
+    private Path file;
+    private Map<String, RateLimiter> limiters;
+    private long[] secret;
+    private final List<SnapshotService> services = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        file = dir.resolve("limiters.snapshot");
+        secret = IdentityKey.secret();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        for (SnapshotService service : services) {
+            service.destroy();
+        }
+        IdentityKey.useSecret(secret[0], secret[1]);
+    }
+
+    private SnapshotService service(boolean secretConfigured) {
+        SnapshotConfig config = new SnapshotConfig();
+        config.setFile(file.toString());
+        config.setIntervalMillis(60_000);
+        SnapshotService service = new SnapshotService(config, secretConfigured, () -> limiters, CHUNK);
+        services.add(service);
+        return service;
+    }
+
+    private void checkpoint(FakeState... states) {
+        limiters = new LinkedHashMap<>();
+        for (FakeState state : states) {
+            limiters.put(state.name, state);
+        }
+        // a limiter without state is left out
+        limiters.put("stateless:1", new FakeState("stateless:1", 0, 0) {
+            @Override
+            public Snapshottable snapshot() {
+                return null;
+            }
+        });
+        service(true).checkpoint();
+    }
+
+    private void restore(SnapshotService service, FakeState... states) {
+        limiters = new LinkedHashMap<>();
+        for (FakeState state : states) {
+            limiters.put(state.name, state);
+        }
+        service.restore();
+    }
+
+    @Test
+    void roundTripsEveryEntry() {
+        FakeState first = new FakeState("tokenBucket:1a", 1, 17).fill(500);
+        FakeState second = new FakeState("slidingWindow:2b", 4, -3).fill(120);
+        checkpoint(first, second);
+
+        FakeState firstAfter = new FakeState("tokenBucket:1a", 1, 0);
+        FakeState secondAfter = new FakeState("slidingWindow:2b", 4, 0);
+        restore(service(true), firstAfter, secondAfter);
+
+        first.assertRestoredInto(firstAfter, 500);
+        second.assertRestoredInto(secondAfter, 120);
+        assertEquals(17, firstAfter.savedClock);
+        assertEquals(-3, secondAfter.savedClock);
+    }
+
+    @Test
+    void skipsRulesChangedSince() {
+        FakeState renamed = new FakeState("tokenBucket:1a", 1, 1).fill(30);
+        FakeState resized = new FakeState("slidingWindow:2b", 4, 1).fill(30);
+        FakeState unchanged = new FakeState("gcra:3c", 1, 1).fill(30);
+        checkpoint(renamed, resized, unchanged);
+
+        // a changed definition hashes to another name; a changed ring to another word count
+        FakeState renamedAfter = new FakeState("tokenBucket:9f", 1, 0);
+        FakeState resizedAfter = new FakeState("slidingWindow:2b", 2, 0);
+        FakeState unchangedAfter = new FakeState("gcra:3c", 1, 0);
+        restore(service(true), renamedAfter, resizedAfter, unchangedAfter);
+
+        assertEquals(0, renamedAfter.entries.size());
+        assertEquals(0, resizedAfter.entries.size());
+        unchanged.assertRestoredInto(unchangedAfter, 30);
+    }
+
+    @Test
+    void keepsWhatPrecedesATruncation() throws IOException {
+        FakeState first = new FakeState("tokenBucket:1a", 1, 1).fill(40);
+        FakeState second = new FakeState("slidingWindow:2b", 4, 1).fill(40);
+        checkpoint(first, second);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(file) - 100);
+        }
+
+        FakeState firstAfter = new FakeState("tokenBucket:1a", 1, 0);
+        FakeState secondAfter = new FakeState("slidingWindow:2b", 4, 0);
+        restore(service(true), firstAfter, secondAfter);
+
+        first.assertRestoredInto(firstAfter, 40);
+        assertTrue(secondAfter.entries.size() < 40, "restored " + secondAfter.entries.size());
+        second.assertRestoredInto(secondAfter, secondAfter.entries.size());
+    }
+
+    @Test
+    void ignoresACorruptFile() throws IOException {
+        checkpoint(new FakeState("tokenBucket:1a", 1, 1).fill(10));
+        overwriteInt(FIRST_SECTION, Integer.MAX_VALUE);
+        FakeState after = new FakeState("tokenBucket:1a", 1, 0);
+        restore(service(true), after);
+        assertEquals(0, after.entries.size());
+
+        overwriteInt(0, 0xBAD);
+        restore(service(true), after);
+        assertEquals(0, after.entries.size());
+    }
+
+    @Test
+    void carriesTheIdentitySecret() {
+        FakeState state = new FakeState("tokenBucket:1a", 1, 1).fill(10);
+        checkpoint(state);
+        long[] saved = IdentityKey.secret();
+
+        // keys hashed under another secret mean nothing
+        IdentityKey.useSecret(saved[0] + 1, saved[1]);
+        FakeState configured = new FakeState("tokenBucket:1a", 1, 0);
+        restore(service(true), configured);
+        assertEquals(0, configured.entries.size());
+
+        // without a configured secret the snapshot's is taken over
+        SnapshotService adopting = service(false);
+        assertArrayEquals(saved, IdentityKey.secret());
+        FakeState adopted = new FakeState("tokenBucket:1a", 1, 0);
+        restore(adopting, adopted);
+        state.assertRestoredInto(adopted, 10);
+    }
+
+    private void overwriteInt(long position, int value) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).putInt(value);
+            channel.write(buffer.flip(), position);
+        }
+    }
+
+    private static class FakeState implements RateLimiter, Snapshottable {
+        private final String name;
+        private final int words;
+        private final long clock;
+        private final Map<Long, long[]> entries = new LinkedHashMap<>();
+        private long savedClock;
+
+        FakeState(String name, int words, long clock) {
+            this.name = name;
+            this.words = words;
+            this.clock = clock;
+        }
+
+        FakeState fill(int count) {
+            for (int i = 0; i < count; i++) {
+                long[] state = new long[words];
+                for (int word = 0; word < words; word++) {
+                    state[word] = Long.MAX_VALUE - 31L * i - word;
+                }
+                entries.put(IdentityKey.mix(i), state);
+            }
+            return this;
+        }
+
+        // the first count entries of this state, in the order they were saved
+        void assertRestoredInto(FakeState restored, int count) {
+            assertEquals(count, restored.entries.size());
+            int i = 0;
+            for (Map.Entry<Long, long[]> entry : entries.entrySet()) {
+                if (i++ == count) {
+                    break;
+                }
+                assertArrayEquals(entry.getValue(), restored.entries.get(entry.getKey()));
+            }
+        }
+
+        @Override
+        public Mono<Void> allocate(ServerWebExchange exchange, GatewayFilterChain chain) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Snapshottable snapshot() {
+            return this;
+        }
+
+        @Override
+        public int words() {
+            return words;
+        }
+
+        @Override
+        public long clock() {
+            return clock;
+        }
+
+        @Override
+        public void save(StateSink sink) {
+            entries.forEach(sink::accept);
+        }
+
+        @Override
+        public void restore(long key, long[] state, long savedClock, long elapsedNanos) {
+            entries.put(key, state.clone());
+            this.savedClock = savedClock;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.kabutar.gatekeeper.ratelimiter.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OffHeapStateTableTests {
+    private static final long HOUR = TimeUnit.HOURS.toNanos(1);
+    private static final int SLOTS = 64;
+    private static final long HOME = 5;
+
+    // distinct keys sharing the home slot HOME
+    private static long key(int n) {
+        return HOME + (long) SLOTS * (n + 1);
+    }
+
+    private static void increment(StateTable table, long slot) {
+        long current;
+        do {
+            current = table.get(slot, 0);
+        } while (!table.compareAndSet(slot, 0, current, current + 1));
+    }
+
+    @Test
+    void keepsIdentitiesWithinTheProbeWindow() {
+        OffHeapStateTable table = new OffHeapStateTable(SLOTS, 1, HOUR);
+        assertEquals(SLOTS, table.capacity());
+        Set<Long> slots = new HashSet<>();
+        for (int n = 0; n < OffHeapStateTable.MAX_PROBE; n++) {
+            long slot = table.slot(key(n));
+            assertTrue(slot >= HOME && slot < HOME + OffHeapStateTable.MAX_PROBE, "slot " + slot);
+            slots.add(slot);
+            assertEquals(slot, table.slot(key(n)));
+        }
+        assertEquals(OffHeapStateTable.MAX_PROBE, slots.size());
+        assertEquals(OffHeapStateTable.MAX_PROBE, table.size());
+        assertEquals(0, table.overflows());
+    }
+
+    @Test
+    void sendsWhatDoesNotFitToTheOverflowSlot() {
+        OffHeapStateTable table = new OffHeapStateTable(SLOTS, 1, HOUR);
+        for (int n = 0; n < OffHeapStateTable.MAX_PROBE; n++) {
+            table.slot(key(n));
+        }
+        long late = key(OffHeapStateTable.MAX_PROBE);
+        long overflow = table.slot(late);
+        assertEquals(table.capacity(), overflow);
+        assertEquals(1, table.overflows());
+        assertEquals(overflow, table.slot(key(OffHeapStateTable.MAX_PROBE + 1)));
+        assertEquals(overflow, table.find(late));
+
+        // the overflow slot is not anyone's to snapshot
+        List<Long> keys = new ArrayList<>();
+        table.forEachIdentity((key, slot) -> keys.add(key));
+        assertEquals(OffHeapStateTable.MAX_PROBE, keys.size());
+        assertTrue(!keys.contains(late));
+    }
+
+    @Test
+    void findsWithoutClaiming() {
+        OffHeapStateTable table = new OffHeapStateTable(SLOTS, 2, HOUR);
+        assertEquals(StateTable.ABSENT, table.find(key(0)));
+        assertEquals(0, table.size());
+
+        long slot = table.slot(key(0));
+        assertTrue(table.compareAndSet(slot, 1, 0, 42));
+        assertEquals(slot, table.find(key(0)));
+        assertEquals(42, table.get(table.find(key(0)), 1));
+        // an empty slot further on ends the scan
+        assertEquals(StateTable.ABSENT, table.find(key(1)));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    void reusesSlotsIdlePastTheHorizon() throws InterruptedException {
+        OffHeapStateTable table = new OffHeapStateTable(SLOTS, 1, 0);
+        for (int n = 0; n < OffHeapStateTable.MAX_PROBE; n++) {
+            increment(table, table.slot(key(n)));
+        }
+        // a full window of live identities
+        assertEquals(table.capacity(), table.find(key(OffHeapStateTable.MAX_PROBE)));
+
+        // stamps count ~1.07s units, and a slot is idle once two of them have passed
+        Thread.sleep(2_200);
+        List<Long> live = new ArrayList<>();
+        table.forEachIdentity((key, slot) -> live.add(key));
+        assertEquals(0, live.size());
+        assertEquals(StateTable.ABSENT, table.find(key(OffHeapStateTable.MAX_PROBE)));
+
+        long reused = table.slot(key(OffHeapStateTable.MAX_PROBE));
+        assertNotEquals(table.capacity(), reused);
+        assertEquals(0, table.get(reused, 0));
+        assertEquals(OffHeapStateTable.MAX_PROBE, table.size());
+        assertEquals(0, table.overflows());
+    }
+
+    @Test
+    void concurrentClaimsOfAKeyShareOneSlot() throws Exception {
+        concurrentClaimsOfAKeyShareOneSlot(new OffHeapStateTable(SLOTS, 1, HOUR));
+    }
+
+    @Test
+    void concurrentClaimsOfIdleSlotsShareOneSlot() throws Exception {
+        OffHeapStateTable table = new OffHeapStateTable(SLOTS, 1, 0);
+        for (int n = 0; n < OffHeapStateTable.MAX_PROBE; n++) {
+            table.slot(key(100 + n));
+        }
+        Thread.sleep(2_200);
+        // every slot in the window is up for reuse while the threads race for them
+        concurrentClaimsOfAKeyShareOneSlot(table);
+    }
+
+    private void concurrentClaimsOfAKeyShareOneSlot(OffHeapStateTable table) throws Exception {
+        int threads = 8;
+        int keys = 4;
+        int rounds = 20_000;
+        CyclicBarrier start = new CyclicBarrier(threads);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                for (int i = 0; i < rounds; i++) {
+                    increment(table, table.slot(key(i % keys)));
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        long counted = 0;
+        for (int n = 0; n < keys; n++) {
+            counted += table.get(table.find(key(n)), 0);
+        }
+        // an increment that went to a second copy of a key would be missing here
+        assertEquals((long) threads * rounds, counted);
+        assertEquals(0, table.overflows());
+    }
+}